@@ -0,0 +1,110 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.BinContext;
+import org.esa.snap.binning.Observation;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.VectorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the spatial, temporal and output methods of an aggregator in bins per second. Each invocation
+ * handles the next of the {@link BenchmarkData#NUM_BINS} synthetic bins, the spatial aggregation of a bin
+ * consists of {@link BenchmarkData#NUM_OBS_PER_BIN} observations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class AbstractAggregatorBenchmark {
+
+    private Aggregator aggregator;
+    private long[] binIndices;
+    private Observation[][] observations;
+    private VectorImpl spatialVector;
+    private VectorImpl[] spatialResults;
+    private VectorImpl temporalVector;
+    private VectorImpl[] temporalResults;
+    private VectorImpl outputVector;
+    private int binNumber;
+
+    protected abstract Aggregator createAggregator();
+
+    /**
+     * @return the source of the observation values, the variable indices must match the aggregator
+     */
+    protected abstract BenchmarkData.ValueSource createValueSource();
+
+    @Setup
+    public void setUp() {
+        final PlanetaryGrid planetaryGrid = BenchmarkData.createPlanetaryGrid();
+        aggregator = createAggregator();
+        binIndices = BenchmarkData.createBinIndices(planetaryGrid);
+        observations = BenchmarkData.createObservations(planetaryGrid, binIndices, createValueSource());
+        spatialVector = new VectorImpl(new float[aggregator.getSpatialFeatureNames().length]);
+        temporalVector = new VectorImpl(new float[aggregator.getTemporalFeatureNames().length]);
+        outputVector = new VectorImpl(new float[aggregator.getOutputFeatureNames().length]);
+
+        // the inputs of the temporal and output benchmarks
+        spatialResults = new VectorImpl[binIndices.length];
+        temporalResults = new VectorImpl[binIndices.length];
+        for (int i = 0; i < binIndices.length; i++) {
+            spatialResults[i] = new VectorImpl(new float[spatialVector.size()]);
+            aggregateSpatial(i, spatialResults[i]);
+            temporalResults[i] = new VectorImpl(new float[temporalVector.size()]);
+            aggregateTemporal(i, temporalResults[i]);
+        }
+    }
+
+    @Benchmark
+    public VectorImpl spatial() {
+        aggregateSpatial(nextBin(), spatialVector);
+        return spatialVector;
+    }
+
+    @Benchmark
+    public VectorImpl temporal() {
+        aggregateTemporal(nextBin(), temporalVector);
+        return temporalVector;
+    }
+
+    @Benchmark
+    public VectorImpl output() {
+        aggregator.computeOutput(temporalResults[nextBin()], outputVector);
+        return outputVector;
+    }
+
+    private int nextBin() {
+        binNumber = (binNumber + 1) % binIndices.length;
+        return binNumber;
+    }
+
+    private void aggregateSpatial(int bin, VectorImpl vector) {
+        final BinContext ctx = new BenchmarkData.Context(binIndices[bin]);
+        aggregator.initSpatial(ctx, vector);
+        for (Observation observation : observations[bin]) {
+            aggregator.aggregateSpatial(ctx, observation, vector);
+        }
+        aggregator.completeSpatial(ctx, observations[bin].length, vector);
+    }
+
+    private void aggregateTemporal(int bin, VectorImpl vector) {
+        final BinContext ctx = new BenchmarkData.Context(binIndices[bin]);
+        aggregator.initTemporal(ctx, vector);
+        aggregator.aggregateTemporal(ctx, spatialResults[bin], observations[bin].length, vector);
+        aggregator.completeTemporal(ctx, 1, vector);
+    }
+}
@@ -0,0 +1,116 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.snap.binning.BinContext;
+import org.esa.snap.binning.Observation;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.ObservationImpl;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic bins and observation streams for the benchmarks. The target grid is the default grid of the
+ * aggregation (2160 rows) and the observations are the pixels of a 300 m map, so each cell gets 30 x 30
+ * observations, as in the production aggregations.
+ */
+class BenchmarkData {
+
+    static final int NUM_GRID_ROWS = 2160;
+    static final int ROW_RATIO = 30;
+    static final int NUM_OBS_PER_BIN = ROW_RATIO * ROW_RATIO;
+    static final int NUM_BINS = 16;
+    static final double SOURCE_PIXEL_SIZE = 180.0 / (NUM_GRID_ROWS * ROW_RATIO);
+
+    private static final long SEED = 5724L;
+
+    /**
+     * Creates the observation values of a source pixel.
+     */
+    interface ValueSource {
+
+        float[] createValues(Random random, int binNumber, int pixelX, int pixelY);
+    }
+
+    private BenchmarkData() {
+    }
+
+    static PlanetaryGrid createPlanetaryGrid() {
+        return new PlateCarreeGrid(NUM_GRID_ROWS);
+    }
+
+    /**
+     * @return the indices of neighbouring cells in the mid latitudes
+     */
+    static long[] createBinIndices(PlanetaryGrid planetaryGrid) {
+        final long firstBinIndex = planetaryGrid.getBinIndex(45.0, 10.0);
+        final long[] binIndices = new long[NUM_BINS];
+        for (int i = 0; i < NUM_BINS; i++) {
+            binIndices[i] = firstBinIndex + i;
+        }
+        return binIndices;
+    }
+
+    /**
+     * @return for each bin the observations of the source pixels located in the cell
+     */
+    static Observation[][] createObservations(PlanetaryGrid planetaryGrid, long[] binIndices, ValueSource valueSource) {
+        final Random random = new Random(SEED);
+        final double cellSize = 180.0 / planetaryGrid.getNumRows();
+        final Observation[][] observations = new Observation[binIndices.length][NUM_OBS_PER_BIN];
+        for (int bin = 0; bin < binIndices.length; bin++) {
+            final double[] centerLatLon = planetaryGrid.getCenterLatLon(binIndices[bin]);
+            final double north = centerLatLon[0] + cellSize / 2;
+            final double west = centerLatLon[1] - cellSize / 2;
+            for (int y = 0; y < ROW_RATIO; y++) {
+                for (int x = 0; x < ROW_RATIO; x++) {
+                    final double lat = north - (y + 0.5) * SOURCE_PIXEL_SIZE;
+                    final double lon = west + (x + 0.5) * SOURCE_PIXEL_SIZE;
+                    observations[bin][y * ROW_RATIO + x] = new ObservationImpl(lat, lon, 0.0,
+                                                                              valueSource.createValues(random, bin, x, y));
+                }
+            }
+        }
+        return observations;
+    }
+
+    /**
+     * A context of a single bin, backed by a map as the context of the binning.
+     */
+    static class Context implements BinContext {
+
+        private final long index;
+        private final Map<String, Object> values;
+
+        Context(long index) {
+            this.index = index;
+            values = new HashMap<>();
+        }
+
+        @Override
+        public long getIndex() {
+            return index;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T get(String name) {
+            return (T) values.get(name);
+        }
+
+        @Override
+        public void put(String name, Object value) {
+            values.put(name, value);
+        }
+
+        @Override
+        public String ensureUnique(String name) {
+            String uniqueName = name;
+            for (int i = 1; values.containsKey(uniqueName); i++) {
+                uniqueName = name + "_" + i;
+            }
+            return uniqueName;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.LcNDVIAggregatorDescriptor;
+import org.esa.snap.binning.AbstractAggregator;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.BinContext;
+import org.esa.snap.binning.Observation;
+import org.esa.snap.binning.VariableContext;
+import org.esa.snap.binning.Vector;
+import org.esa.snap.binning.WritableVector;
+import org.esa.snap.binning.support.VariableContextImpl;
+import org.esa.snap.binning.support.VectorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.esa.cci.lc.aggregation.AggregatorTestUtils.*;
+
+/**
+ * Measures the spatial aggregation of condition products in observations per second. The NDVI aggregator is
+ * compared with its former implementation, which counted the invalid observations in holders put into the
+ * {@link BinContext} of each bin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ConditionAggregatorBenchmark.NUM_BINS * ConditionAggregatorBenchmark.NUM_OBS_PER_BIN)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConditionAggregatorBenchmark {
+
+    static final int NUM_BINS = 1000;
+    // about 14 years of 7-day conditions
+    static final int NUM_OBS_PER_BIN = 730;
+
+    private Observation[] observations;
+    private Aggregator ndviAggregator;
+    private Aggregator contextCountingNdviAggregator;
+    private Aggregator condOccAggregator;
+    private VectorImpl spatialVector;
+
+    @Setup
+    public void setUp() {
+        VariableContextImpl varCtx = new VariableContextImpl();
+        varCtx.defineVariable("ndvi_mean");
+        varCtx.defineVariable("ndvi_nYearObs");
+        varCtx.defineVariable("ba_occ");
+        varCtx.defineVariable("ba_nYearObs");
+        String[] ndviVarNames = {"ndvi_mean", "ndvi_nYearObs"};
+        String[] ndviTargetNames = {"ndvi_mean_mean", "ndvi_nYearObs_sum"};
+        ndviAggregator = createNdviAggregator(varCtx, ndviVarNames, ndviTargetNames);
+        contextCountingNdviAggregator = new ContextCountingNDVIAggregator(varCtx, ndviVarNames, ndviTargetNames);
+        condOccAggregator = createCondOccAggregator(varCtx, new String[]{"ba_occ", "ba_nYearObs"},
+                                                    new String[]{"ba_occ_proportion_area", "ba_occ_mean_frequency", "ba_nYearObs_sum"});
+        spatialVector = vec(new float[4]);
+
+        // about a fifth of the observations is invalid, as over clouded or unprocessed areas
+        Random random = new Random(42);
+        observations = new Observation[NUM_OBS_PER_BIN];
+        for (int i = 0; i < observations.length; i++) {
+            boolean valid = random.nextFloat() > 0.2f;
+            observations[i] = obs(valid ? random.nextFloat() : Float.NaN,
+                                  valid ? random.nextInt(14) : Float.NaN,
+                                  random.nextInt(3) == 0 ? random.nextInt(100) : 0,
+                                  random.nextInt(14));
+        }
+    }
+
+    @Benchmark
+    public void ndvi(Blackhole blackhole) {
+        aggregateSpatial(ndviAggregator, blackhole);
+    }
+
+    @Benchmark
+    public void ndviWithContextCounters(Blackhole blackhole) {
+        aggregateSpatial(contextCountingNdviAggregator, blackhole);
+    }
+
+    @Benchmark
+    public void condOcc(Blackhole blackhole) {
+        aggregateSpatial(condOccAggregator, blackhole);
+    }
+
+    private void aggregateSpatial(Aggregator aggregator, Blackhole blackhole) {
+        for (int bin = 0; bin < NUM_BINS; bin++) {
+            // the binning creates a new context for each bin
+            BinContext ctx = createCtx();
+            aggregator.initSpatial(ctx, spatialVector);
+            for (Observation observation : observations) {
+                aggregator.aggregateSpatial(ctx, observation, spatialVector);
+            }
+            aggregator.completeSpatial(ctx, observations.length, spatialVector);
+            blackhole.consume(spatialVector.get(0));
+        }
+    }
+
+    /**
+     * The former implementation of the NDVI aggregator, only the spatial aggregation is needed here.
+     */
+    private static class ContextCountingNDVIAggregator extends AbstractAggregator {
+
+        private final int ndviMeanIndex;
+        private final int nYearObsIndex;
+        private final String ndviMeanInvCountName;
+        private final String nYearObsInvCountName;
+
+        private ContextCountingNDVIAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames) {
+            super(LcNDVIAggregatorDescriptor.NAME, targetVarNames, targetVarNames, targetVarNames);
+            ndviMeanIndex = varCtx.getVariableIndex(sourceVarNames[0]);
+            ndviMeanInvCountName = "invCount." + sourceVarNames[0];
+            nYearObsIndex = varCtx.getVariableIndex(sourceVarNames[1]);
+            nYearObsInvCountName = "invCount." + sourceVarNames[1];
+        }
+
+        @Override
+        public void initSpatial(BinContext ctx, WritableVector vector) {
+            vector.set(0, 0.0f);
+            vector.set(1, 0.0f);
+            ctx.put(ndviMeanInvCountName, new int[1]);
+            ctx.put(nYearObsInvCountName, new int[1]);
+        }
+
+        @Override
+        public void aggregateSpatial(BinContext ctx, Observation observationVector, WritableVector spatialVector) {
+            aggregateSpatialVar(ctx, observationVector, spatialVector, ndviMeanIndex, 0, ndviMeanInvCountName);
+            aggregateSpatialVar(ctx, observationVector, spatialVector, nYearObsIndex, 1, nYearObsInvCountName);
+        }
+
+        private void aggregateSpatialVar(BinContext ctx, Observation observationVector, WritableVector spatialVector,
+                                         int observationIndex, int spatialVectorIndex, String invCountName) {
+            final float value = observationVector.get(observationIndex);
+            if (!Float.isNaN(value)) {
+                spatialVector.set(spatialVectorIndex, spatialVector.get(spatialVectorIndex) + value);
+            } else {
+                ((int[]) ctx.get(invCountName))[0]++;
+            }
+        }
+
+        @Override
+        public void completeSpatial(BinContext ctx, int numSpatialObs, WritableVector spatialVector) {
+            completeSpatialVar(ctx, numSpatialObs, spatialVector, 0, ndviMeanInvCountName);
+            completeSpatialVar(ctx, numSpatialObs, spatialVector, 1, nYearObsInvCountName);
+        }
+
+        private void completeSpatialVar(BinContext ctx, int numSpatialObs, WritableVector spatialVector,
+                                        int spatialVectorIndex, String invCountName) {
+            int invalidNumObs = ((int[]) ctx.get(invCountName))[0];
+            if (invalidNumObs == numSpatialObs) {
+                spatialVector.set(spatialVectorIndex, Float.NaN);
+            } else {
+                spatialVector.set(spatialVectorIndex, spatialVector.get(spatialVectorIndex) / (numSpatialObs - invalidNumObs));
+            }
+        }
+
+        @Override
+        public void initTemporal(BinContext ctx, WritableVector vector) {
+        }
+
+        @Override
+        public void aggregateTemporal(BinContext ctx, Vector spatialVector, int numSpatialObs, WritableVector temporalVector) {
+        }
+
+        @Override
+        public void completeTemporal(BinContext ctx, int numTemporalObs, WritableVector temporalVector) {
+        }
+
+        @Override
+        public void computeOutput(Vector temporalVector, WritableVector outputVector) {
+        }
+    }
+}
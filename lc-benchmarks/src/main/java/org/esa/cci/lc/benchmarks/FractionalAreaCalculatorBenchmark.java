@@ -0,0 +1,68 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.AggregatorTestUtils;
+import org.esa.cci.lc.aggregation.AreaCalculator;
+import org.esa.snap.binning.Observation;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the area fractions computed per observation in observations per second, by the
+ * fractional area calculator and, for comparison, by the area calculator of regular lat/lon grids.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BenchmarkData.NUM_OBS_PER_BIN)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FractionalAreaCalculatorBenchmark {
+
+    @Param({"fractional", "regular"})
+    public String areaCalculator;
+
+    private AreaCalculator calculator;
+    private long[] binIndices;
+    private Observation[][] observations;
+    private int binNumber;
+
+    @Setup
+    public void setUp() {
+        final PlanetaryGrid planetaryGrid = BenchmarkData.createPlanetaryGrid();
+        calculator = AggregatorTestUtils.createAreaCalculator("regular".equals(areaCalculator), planetaryGrid,
+                                                              BenchmarkData.SOURCE_PIXEL_SIZE);
+        binIndices = BenchmarkData.createBinIndices(planetaryGrid);
+        observations = BenchmarkData.createObservations(planetaryGrid, binIndices, new BenchmarkData.ValueSource() {
+            @Override
+            public float[] createValues(Random random, int binNumber, int pixelX, int pixelY) {
+                return new float[0];
+            }
+        });
+    }
+
+    @Benchmark
+    public double calculate() {
+        binNumber = (binNumber + 1) % binIndices.length;
+        final long binIndex = binIndices[binNumber];
+        double area = 0.0;
+        for (Observation observation : observations[binNumber]) {
+            area += calculator.calculate(observation.getLongitude(), observation.getLatitude(), binIndex);
+        }
+        return area;
+    }
+}
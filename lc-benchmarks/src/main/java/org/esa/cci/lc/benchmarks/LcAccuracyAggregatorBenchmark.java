@@ -0,0 +1,36 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.AggregatorTestUtils;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.support.VariableContextImpl;
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the median computed by the accuracy aggregator, with the values counted in a histogram
+ * or sorted.
+ */
+public class LcAccuracyAggregatorBenchmark extends AbstractAggregatorBenchmark {
+
+    @Param({"255", "-1"})
+    public int maxHistogramValue;
+
+    @Override
+    protected Aggregator createAggregator() {
+        final VariableContextImpl varCtx = new VariableContextImpl();
+        varCtx.defineVariable("algorithmic_confidence_level");
+        return AggregatorTestUtils.createAccuracyAggregator(varCtx, "algorithmic_confidence_level",
+                                                            BenchmarkData.ROW_RATIO, maxHistogramValue);
+    }
+
+    @Override
+    protected BenchmarkData.ValueSource createValueSource() {
+        return new BenchmarkData.ValueSource() {
+            @Override
+            public float[] createValues(Random random, int binNumber, int pixelX, int pixelY) {
+                return new float[]{random.nextInt(101)};
+            }
+        };
+    }
+}
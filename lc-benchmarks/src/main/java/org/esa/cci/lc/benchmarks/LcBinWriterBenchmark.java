@@ -0,0 +1,128 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.io.LcBinWriter;
+import org.esa.cci.lc.util.LcHelper;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time the {@link LcBinWriter} needs to write a global quarter degree grid of bins into a
+ * NetCDF4 file. The bins are handed to the writer row by row, as done by the block aggregation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LcBinWriterBenchmark {
+
+    private static final int NUM_ROWS = 720;
+    private static final String[] FEATURE_NAMES = {"class_area_10", "class_area_210", "majority_class_1", "confidence"};
+
+    private PlanetaryGrid planetaryGrid;
+    private List<List<TemporalBin>> rowBins;
+    private File targetDir;
+    private File targetFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        planetaryGrid = new PlateCarreeGrid(NUM_ROWS);
+        final Random random = new Random(5724L);
+        rowBins = new ArrayList<>(NUM_ROWS);
+        for (int row = 0; row < NUM_ROWS; row++) {
+            final long firstBinIndex = planetaryGrid.getFirstBinIndex(row);
+            final int numCols = planetaryGrid.getNumCols(row);
+            final List<TemporalBin> bins = new ArrayList<>(numCols);
+            for (int col = 0; col < numCols; col++) {
+                final TemporalBin bin = new TemporalBin(firstBinIndex + col, FEATURE_NAMES.length);
+                final float[] values = bin.getFeatureValues();
+                values[0] = random.nextFloat();
+                values[1] = 1.0f - values[0];
+                values[2] = random.nextBoolean() ? 10 : 210;
+                values[3] = random.nextInt(101);
+                bins.add(bin);
+            }
+            rowBins.add(bins);
+        }
+        targetDir = Files.createTempDirectory(LcBinWriterBenchmark.class.getSimpleName()).toFile();
+        targetFile = new File(targetDir, "aggregated.nc");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTargetFile() {
+        targetFile.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        targetDir.delete();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        final LcBinWriter binWriter = new LcBinWriter(createLcProperties(), null);
+        binWriter.setOutputContext(planetaryGrid, FEATURE_NAMES);
+        binWriter.setTargetFileTemplatePath(targetFile.getPath());
+        binWriter.open(new HashMap<String, String>());
+        boolean succeeded = false;
+        try {
+            for (List<TemporalBin> bins : rowBins) {
+                binWriter.writeBins(bins);
+            }
+            succeeded = true;
+        } finally {
+            if (succeeded) {
+                binWriter.close();
+            } else {
+                binWriter.abort();
+            }
+        }
+        return targetFile.length();
+    }
+
+    private static HashMap<String, String> createLcProperties() {
+        // the writer consumes the properties
+        final HashMap<String, String> lcProperties = new HashMap<>();
+        lcProperties.put(LcHelper.PROP_NAME_TILE_SIZE, LcHelper.TILE_SIZE_STRING);
+        lcProperties.put("aggregationType", "Map");
+        lcProperties.put("type", "ESACCI-LC-L4-LCCS-Map-300m-P1Y-aggregated");
+        lcProperties.put("id", "ESACCI-LC-L4-LCCS-Map-300m-P1Y-aggregated-0.250000Deg-2015-v2.0.7");
+        lcProperties.put("source", "benchmark");
+        lcProperties.put("history", "benchmark");
+        lcProperties.put("spatialResolutionDegrees", "0.250000");
+        lcProperties.put("spatialResolution", "27825");
+        lcProperties.put("temporalCoverageYears", "1");
+        lcProperties.put("temporalResolution", "1");
+        lcProperties.put("startTime", "20150101");
+        lcProperties.put("endTime", "20151231");
+        lcProperties.put("version", "2.0.7");
+        lcProperties.put("latMin", "-90");
+        lcProperties.put("latMax", "90");
+        lcProperties.put("lonMin", "-180");
+        lcProperties.put("lonMax", "180");
+        return lcProperties;
+    }
+}
@@ -0,0 +1,37 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.AggregatorTestUtils;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.support.VariableContextImpl;
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the majority computed by the majority aggregator, with the values counted in a
+ * histogram or sorted.
+ */
+public class LcMajorityAggregatorBenchmark extends AbstractAggregatorBenchmark {
+
+    @Param({"255", "-1"})
+    public int maxHistogramValue;
+
+    @Override
+    protected Aggregator createAggregator() {
+        final VariableContextImpl varCtx = new VariableContextImpl();
+        varCtx.defineVariable("change_count");
+        return AggregatorTestUtils.createMajorityAggregator(varCtx, "change_count", BenchmarkData.ROW_RATIO,
+                                                            maxHistogramValue);
+    }
+
+    @Override
+    protected BenchmarkData.ValueSource createValueSource() {
+        return new BenchmarkData.ValueSource() {
+            @Override
+            public float[] createValues(Random random, int binNumber, int pixelX, int pixelY) {
+                // mostly unchanged pixels
+                return new float[]{random.nextInt(4) == 0 ? random.nextInt(11) : 0};
+            }
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.LcMapAggregationOp;
+import org.esa.cci.lc.io.LcMapNetCdf4WriterPlugIn;
+import org.esa.cci.lc.util.PlanetaryGridName;
+import org.esa.snap.core.dataio.ProductIOPlugInManager;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.GPF;
+import org.esa.snap.dataio.netcdf.NetCdfActivator;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark of the {@link LcMapAggregationOp}. A synthetic 300 m map tile of 10 x 10 degrees is
+ * aggregated onto the default lat/lon grid and written into a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LcMapAggregationOpBenchmark {
+
+    private static final int TILE_SIZE = 3600;
+    private static final float TILE_WEST = 0.0f;
+    private static final float TILE_NORTH = 50.0f;
+    private static final float TILE_EXTENT = 10.0f;
+    private static final String PRODUCT_NAME = "ESACCI-LC-L4-LCCS-Map-300m-P1Y-2015-v2.0.7";
+
+    private LcMapNetCdf4WriterPlugIn writerPlugIn;
+    private File targetDir;
+    private Product sourceProduct;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Locale.setDefault(Locale.ENGLISH);
+        NetCdfActivator.activate();
+        GPF.getDefaultInstance().getOperatorSpiRegistry().loadOperatorSpis();
+        writerPlugIn = new LcMapNetCdf4WriterPlugIn();
+        ProductIOPlugInManager.getInstance().addWriterPlugIn(writerPlugIn);
+        targetDir = Files.createTempDirectory(LcMapAggregationOpBenchmark.class.getSimpleName()).toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ProductIOPlugInManager.getInstance().removeWriterPlugIn(writerPlugIn);
+        targetDir.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void createSourceProduct() throws Exception {
+        // a new product for each run, so no tile of the source images is cached
+        sourceProduct = createMapTile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTargetFiles() {
+        sourceProduct.dispose();
+        final File[] files = targetDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Benchmark
+    public Product aggregate() {
+        final LcMapAggregationOp aggregationOp = (LcMapAggregationOp) new LcMapAggregationOp.Spi().createOperator();
+        aggregationOp.setSourceProduct(sourceProduct);
+        aggregationOp.setParameter("targetDir", targetDir);
+        aggregationOp.setParameter("gridName", PlanetaryGridName.GEOGRAPHIC_LAT_LON);
+        aggregationOp.setParameter("numRows", 2160);
+        aggregationOp.setParameter("west", TILE_WEST);
+        aggregationOp.setParameter("north", TILE_NORTH);
+        aggregationOp.setParameter("east", TILE_WEST + TILE_EXTENT);
+        aggregationOp.setParameter("south", TILE_NORTH - TILE_EXTENT);
+        return aggregationOp.getTargetProduct();
+    }
+
+    private static Product createMapTile() throws Exception {
+        final Product product = new Product(PRODUCT_NAME, "T", TILE_SIZE, TILE_SIZE);
+        product.setFileLocation(new File(PRODUCT_NAME + ".nc"));
+        // patches of a few classes
+        final String patch = "(floor(X / 90) + floor(Y / 120)) % 4";
+        product.addBand("lccs_class", String.format("%1$s == 0 ? 10 : (%1$s == 1 ? 50 : (%1$s == 2 ? 130 : 210))", patch),
+                        ProductData.TYPE_UINT8);
+        product.addBand("processed_flag", "1", ProductData.TYPE_INT8);
+        product.addBand("current_pixel_state", "1", ProductData.TYPE_INT8);
+        product.addBand("observation_count", "10", ProductData.TYPE_INT8);
+        product.addBand("algorithmic_confidence_level", "floor(X + Y) % 101", ProductData.TYPE_FLOAT32);
+        product.addBand("overall_confidence_level", "2", ProductData.TYPE_INT8);
+        final double pixelSize = TILE_EXTENT / TILE_SIZE;
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, TILE_SIZE, TILE_SIZE,
+                                                   TILE_WEST + pixelSize / 2, TILE_NORTH - pixelSize / 2,
+                                                   pixelSize, pixelSize));
+        final MetadataElement globalAttributes = new MetadataElement("Global_Attributes");
+        globalAttributes.setAttributeString("id", PRODUCT_NAME);
+        globalAttributes.setAttributeString("type", "ESACCI-LC-L4-LCCS-Map-300m-P1Y");
+        globalAttributes.setAttributeString("time_coverage_duration", "P1Y");
+        globalAttributes.setAttributeString("time_coverage_resolution", "P1Y");
+        globalAttributes.setAttributeString("time_coverage_start", "2015");
+        globalAttributes.setAttributeString("time_coverage_end", "2015");
+        globalAttributes.setAttributeString("product_version", "2.0.7");
+        globalAttributes.setAttributeString("spatial_resolution", "300m");
+        globalAttributes.setAttributeString("geospatial_lat_min", String.valueOf(TILE_NORTH - TILE_EXTENT));
+        globalAttributes.setAttributeString("geospatial_lat_max", String.valueOf(TILE_NORTH));
+        globalAttributes.setAttributeString("geospatial_lon_min", String.valueOf(TILE_WEST));
+        globalAttributes.setAttributeString("geospatial_lon_max", String.valueOf(TILE_WEST + TILE_EXTENT));
+        globalAttributes.setAttributeString("source", "synthetic");
+        globalAttributes.setAttributeString("history", "lc-benchmarks");
+        product.getMetadataRoot().addElement(globalAttributes);
+        return product;
+    }
+}
@@ -0,0 +1,43 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.AggregatorTestUtils;
+import org.esa.cci.lc.aggregation.AreaCalculator;
+import org.esa.snap.binning.Aggregator;
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the map aggregator computing class areas, PFTs and majority classes, with the area
+ * calculator used for the lat/lon grid or the one used for other grids.
+ */
+public class LcMapAggregatorBenchmark extends AbstractAggregatorBenchmark {
+
+    private static final short[] CLASSES = {10, 30, 50, 60, 70, 130, 190, 210};
+
+    @Param({"regular", "fractional"})
+    public String areaCalculator;
+
+    @Override
+    protected Aggregator createAggregator() {
+        final AreaCalculator calculator = AggregatorTestUtils.createAreaCalculator("regular".equals(areaCalculator),
+                                                                                  BenchmarkData.createPlanetaryGrid(),
+                                                                                  BenchmarkData.SOURCE_PIXEL_SIZE);
+        return AggregatorTestUtils.createMapAggregator(calculator);
+    }
+
+    @Override
+    protected BenchmarkData.ValueSource createValueSource() {
+        return new BenchmarkData.ValueSource() {
+            @Override
+            public float[] createValues(Random random, int binNumber, int pixelX, int pixelY) {
+                // patches of a few classes with some noise
+                int classNumber = binNumber + pixelX / 10 + pixelY / 15;
+                if (random.nextInt(10) == 0) {
+                    classNumber += random.nextInt(CLASSES.length);
+                }
+                return new float[]{CLASSES[classNumber % CLASSES.length]};
+            }
+        };
+    }
+}
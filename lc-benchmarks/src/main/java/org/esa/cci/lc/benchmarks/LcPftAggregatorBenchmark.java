@@ -0,0 +1,23 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.AggregatorTestUtils;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.support.VariableContextImpl;
+
+/**
+ * Benchmark of the PFT aggregator computing mean and standard deviation of a single PFT variable.
+ */
+public class LcPftAggregatorBenchmark extends AbstractAggregatorBenchmark {
+
+    @Override
+    protected Aggregator createAggregator() {
+        final VariableContextImpl varCtx = new VariableContextImpl();
+        varCtx.defineVariable("TREES-BD");
+        return AggregatorTestUtils.createPftAggregator(varCtx, "TREES-BD");
+    }
+
+    @Override
+    protected BenchmarkData.ValueSource createValueSource() {
+        return LcPftMultiAggregatorBenchmark.createPftValueSource(1);
+    }
+}
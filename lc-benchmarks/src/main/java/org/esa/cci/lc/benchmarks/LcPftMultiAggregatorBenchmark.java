@@ -0,0 +1,50 @@
+package org.esa.cci.lc.benchmarks;
+
+import org.esa.cci.lc.aggregation.AggregatorTestUtils;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.support.VariableContextImpl;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the PFT multi aggregator computing mean and standard deviation of all PFT variables of a
+ * PFT map, as done by the {@link org.esa.cci.lc.aggregation.LcPftAggregationOp}.
+ */
+public class LcPftMultiAggregatorBenchmark extends AbstractAggregatorBenchmark {
+
+    private static final String[] PFT_VARIABLES = {
+            "BARE", "BUILT", "GRASS-MAN", "GRASS-NAT", "SHRUBS-BD", "SHRUBS-BE", "SHRUBS-ND", "SHRUBS-NE",
+            "WATER_INLAND", "SNOWICE", "TREES-BD", "TREES-BE", "TREES-ND", "TREES-NE", "WATER", "LAND", "WATER_OCEAN"
+    };
+
+    @Override
+    protected Aggregator createAggregator() {
+        final VariableContextImpl varCtx = new VariableContextImpl();
+        for (String variable : PFT_VARIABLES) {
+            varCtx.defineVariable(variable);
+        }
+        return AggregatorTestUtils.createPftMultiAggregator(varCtx, PFT_VARIABLES);
+    }
+
+    @Override
+    protected BenchmarkData.ValueSource createValueSource() {
+        return createPftValueSource(PFT_VARIABLES.length);
+    }
+
+    /**
+     * @return percentages of the PFT variables, some of the pixels are not valid
+     */
+    static BenchmarkData.ValueSource createPftValueSource(final int numVariables) {
+        return new BenchmarkData.ValueSource() {
+            @Override
+            public float[] createValues(Random random, int binNumber, int pixelX, int pixelY) {
+                final float[] values = new float[numVariables];
+                final boolean valid = random.nextInt(20) != 0;
+                for (int i = 0; i < numVariables; i++) {
+                    values[i] = valid ? random.nextInt(101) : Float.NaN;
+                }
+                return values;
+            }
+        };
+    }
+}
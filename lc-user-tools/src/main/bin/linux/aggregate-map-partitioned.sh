@@ -0,0 +1,33 @@
+#!/bin/bash
+# aggregate-map-partitioned.sh 4 -PgridName=GEOGRAPHIC_LAT_LON -PnumRows=21600 /data/lc-map-example/ESACCI-LC-L4-LCCS-Map-300m-P5Y-2010-v2.nc
+
+if [ -z "$2" ]; then
+    echo "Land Cover CCI Aggregation Tool - partitioned aggregation"
+    echo ""
+    echo "usage: aggregate-map-partitioned.sh <numStripes> <aggregate-map parameters>"
+    echo "For further information see the readme.txt"
+    exit 1
+fi
+
+NUM_STRIPES=$1
+shift
+TOOL_BIN=`( cd $(dirname $0); pwd )`
+
+# one worker process for each latitude stripe
+pids=""
+for (( i=0; i<NUM_STRIPES; i++ )); do
+    "$TOOL_BIN/aggregate-map.sh" -PnumStripes=$NUM_STRIPES -PstripeIndex=$i "$@" > "aggregate-map-stripe-$i.log" 2>&1 &
+    pids="$pids $!"
+done
+
+failed=0
+for pid in $pids; do
+    wait $pid || failed=1
+done
+if [ $failed -ne 0 ]; then
+    echo "Aggregation of at least one stripe failed, see aggregate-map-stripe-*.log"
+    exit 1
+fi
+
+# merge the stripes into the target product
+exec "$TOOL_BIN/aggregate-map.sh" -PnumStripes=$NUM_STRIPES "$@"
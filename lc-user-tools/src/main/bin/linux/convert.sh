@@ -1,5 +1,6 @@
 #!/bin/bash
 # convert.sh /data/lc-map-example/lc_classif_lccs_2010_v2.tif
+# convert.sh -PsourceDir=/data/lc-maps -PsourceFilePattern='ESACCI-LC-L4-LCCS-Map-300m-P1Y-*.tif'
 
 if [ -z "$1" ]; then
     echo "Land Cover CCI Conversion Tool (Tiff to NetCDF-4)"
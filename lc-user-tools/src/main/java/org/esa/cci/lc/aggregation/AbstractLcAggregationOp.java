@@ -1,7 +1,14 @@
 package org.esa.cci.lc.aggregation;
 
+import org.esa.cci.lc.io.FanOutBinWriter;
+import org.esa.cci.lc.io.LcBinWriter;
+import org.esa.cci.lc.io.LcCdsBinWriter;
+import org.esa.cci.lc.io.LcCdsNetCDF4WriterPlugin;
+import org.esa.cci.lc.io.StreamingBinWriter;
 import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.operator.BinWriter;
 import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.ReducedGaussianGrid;
 import org.esa.snap.binning.support.RegularGaussianGrid;
 import org.esa.snap.binning.support.SEAGrid;
 import org.esa.snap.core.datamodel.MetadataElement;
@@ -13,11 +20,17 @@ import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.cci.lc.subset.PredefinedRegion;
 import org.esa.cci.lc.util.LcHelper;
 import org.esa.cci.lc.util.PlanetaryGridName;
+import org.esa.cci.lc.util.RunMetrics;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * @author Marco Peters
@@ -25,13 +38,14 @@ import java.util.HashMap;
 public abstract class AbstractLcAggregationOp extends Operator {
 
     private static final int METER_PER_DEGREE_AT_EQUATOR = 111300;
+    private static final double SNAP_TOLERANCE = 1.0e-6;
 
     @SourceProduct(description = "LC CCI map or conditions product.", optional = false)
     private Product sourceProduct;
     @Parameter(description = "The target directory.")
     private File targetDir;
     @Parameter(description = "Defines the grid for the target product.", notNull = true,
-               valueSet = {"GEOGRAPHIC_LAT_LON", "REGULAR_GAUSSIAN_GRID"})
+               valueSet = {"GEOGRAPHIC_LAT_LON", "REGULAR_GAUSSIAN_GRID", "REDUCED_GAUSSIAN_GRID"})
     private PlanetaryGridName gridName;
     @Parameter(defaultValue = "2160")
     private int numRows;
@@ -58,6 +72,8 @@ public abstract class AbstractLcAggregationOp extends Operator {
     private String outputFile;
     private String outputFormat;
     private String outputType;
+    private RunMetrics metrics;
+    private final List<File> outputFiles = new ArrayList<>();
 
     protected AbstractLcAggregationOp() {
         this.lcProperties = new HashMap<>();
@@ -203,6 +219,126 @@ public abstract class AbstractLcAggregationOp extends Operator {
         return outputType;
     }
 
+    /**
+     * Sets the metrics the bin writers report to. If not set, each writer keeps its own metrics.
+     */
+    void setRunMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    RunMetrics getRunMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the files written by the bin writers created so far
+     */
+    List<File> getOutputFiles() {
+        return outputFiles;
+    }
+
+    String getOutputFilePath(String outputFilename) {
+        return outputFile == null ? new File(targetDir, outputFilename).getPath() : outputFile;
+    }
+
+    /**
+     * Aggregates the source product without the binning operator. Only applicable if the source product is
+     * located on a global lat/lon raster and the target grid is a Plate Carree grid.
+     */
+    protected void aggregateBlockwise(LcBlockAggregator blockAggregator, PlanetaryGrid planetaryGrid, String[] formats,
+                                      HashMap<String, String> lcProperties, ReferencedEnvelope regionEnvelope,
+                                      String outputFilePath) {
+        final StreamingBinWriter binWriter = createBinWriter(formats, lcProperties, regionEnvelope, planetaryGrid,
+                                                             blockAggregator.getOutputFeatureNames(), outputFilePath);
+        try {
+            aggregateBlocks(blockAggregator, planetaryGrid, regionEnvelope, binWriter, lcProperties.get("id"));
+        } catch (IOException e) {
+            throw new OperatorException("Could not write aggregated product.", e);
+        }
+    }
+
+    /**
+     * Aggregates all target rows into the given writer. Overridden by operators which split the aggregation.
+     */
+    protected void aggregateBlocks(LcBlockAggregator blockAggregator, PlanetaryGrid planetaryGrid,
+                                   ReferencedEnvelope regionEnvelope, StreamingBinWriter binWriter,
+                                   String productId) throws IOException {
+        blockAggregator.aggregate(binWriter, regionEnvelope);
+    }
+
+    StreamingBinWriter createBinWriter(String[] formats, HashMap<String, String> lcProperties,
+                                       ReferencedEnvelope regionEnvelope, PlanetaryGrid planetaryGrid,
+                                       String[] outputFeatureNames, String outputFilePath) {
+        final StreamingBinWriter binWriter = createFormatWriters(formats, lcProperties, regionEnvelope, planetaryGrid,
+                                                                 outputFeatureNames);
+        binWriter.setTargetFileTemplatePath(outputFilePath);
+        binWriter.setLogger(getLogger());
+        outputFiles.addAll(getTargetFiles(binWriter));
+        return binWriter;
+    }
+
+    /**
+     * Creates a writer for each of the given output formats. If several formats are given, the writers are combined,
+     * so the bins are computed once and written by all writers in parallel.
+     *
+     * @param planetaryGrid      the target grid, or {@code null} if the output context is set by the binning operator
+     * @param outputFeatureNames the names of the output features, or {@code null} if set by the binning operator
+     */
+    StreamingBinWriter createFormatWriters(String[] formats, HashMap<String, String> lcProperties,
+                                           ReferencedEnvelope regionEnvelope, PlanetaryGrid planetaryGrid,
+                                           String[] outputFeatureNames) {
+        if (formats.length == 1) {
+            return createFormatWriter(formats[0], lcProperties, regionEnvelope, planetaryGrid, outputFeatureNames);
+        }
+        final FanOutBinWriter fanOutWriter = new FanOutBinWriter();
+        for (int i = 0; i < formats.length; i++) {
+            // the writers consume the properties, so each one gets its own copy
+            final StreamingBinWriter formatWriter = createFormatWriter(formats[i], new HashMap<>(lcProperties),
+                                                                       regionEnvelope, planetaryGrid, outputFeatureNames);
+            fanOutWriter.addWriter(formatWriter, i == 0 ? "" : "-" + formats[i]);
+        }
+        return fanOutWriter;
+    }
+
+    private StreamingBinWriter createFormatWriter(String format, HashMap<String, String> lcProperties,
+                                                  ReferencedEnvelope regionEnvelope, PlanetaryGrid planetaryGrid,
+                                                  String[] outputFeatureNames) {
+        if (format.equals("lccds")) {
+            setOutputFormat(LcCdsNetCDF4WriterPlugin.FORMAT_NAME);
+            final LcCdsBinWriter cdsBinWriter = new LcCdsBinWriter(lcProperties, regionEnvelope,
+                                                                   getSourceProduct().getMetadataRoot().getElement("global_attributes"));
+            if (planetaryGrid != null) {
+                cdsBinWriter.setOutputContext(planetaryGrid, outputFeatureNames);
+            }
+            if (metrics != null) {
+                cdsBinWriter.setRunMetrics(metrics);
+            }
+            return cdsBinWriter;
+        } else {
+            // lccci and lcpft
+            final LcBinWriter lcBinWriter = new LcBinWriter(lcProperties, regionEnvelope);
+            if (planetaryGrid != null) {
+                lcBinWriter.setOutputContext(planetaryGrid, outputFeatureNames);
+            }
+            if (metrics != null) {
+                lcBinWriter.setRunMetrics(metrics);
+            }
+            return lcBinWriter;
+        }
+    }
+
+    static List<File> getTargetFiles(BinWriter binWriter) {
+        final List<File> targetFiles = new ArrayList<>();
+        if (binWriter instanceof FanOutBinWriter) {
+            for (String targetFilePath : ((FanOutBinWriter) binWriter).getTargetFilePaths()) {
+                targetFiles.add(new File(targetFilePath));
+            }
+        } else {
+            targetFiles.add(new File(binWriter.getTargetFilePath()));
+        }
+        return targetFiles;
+    }
+
     protected void validateInputSettings() {
         if (targetDir == null) {
             throw new OperatorException("The parameter 'targetDir' must be given.");
@@ -210,11 +346,79 @@ public abstract class AbstractLcAggregationOp extends Operator {
         if (!targetDir.isDirectory()) {
             throw new OperatorException("The target directory does not exist or is not a directory.");
         }
-        int numRows = getNumRows();
+        setNumRows(validateGrid(getGridName(), getNumRows()));
+    }
+
+    /**
+     * Validates a target grid given by its name and the number of rows as specified by the user.
+     *
+     * @return the number of rows of the planetary grid, which is twice the given number for Gaussian grids
+     */
+    int validateGrid(PlanetaryGridName gridName, int numRows) {
         if (numRows < 2 || numRows % 2 != 0) {
             throw new OperatorException("Number of rows must be greater than 2 and must be an even number.");
         }
-        boolean regularGaussianGridUsed = PlanetaryGridName.REGULAR_GAUSSIAN_GRID.equals(getGridName());
+        validateGridRegion(gridName);
+        if (PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName)) {
+            try {
+                new ReducedGaussianGrid(numRows * 2);
+            } catch (IllegalArgumentException e) {
+                throw new OperatorException("The planetary grid '" + PlanetaryGridName.REDUCED_GAUSSIAN_GRID + "' " +
+                                            "is not available for N" + numRows + ".", e);
+            }
+        }
+        return isGaussianGrid(gridName) ? numRows * 2 : numRows;
+    }
+
+    static boolean isGaussianGrid(PlanetaryGridName gridName) {
+        return PlanetaryGridName.REGULAR_GAUSSIAN_GRID.equals(gridName) || PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName);
+    }
+
+    /**
+     * Validates the output formats, at least one known format must be given and none more than once.
+     */
+    static void validateFormats(String[] formats) {
+        if (formats == null || formats.length == 0) {
+            throw new OperatorException("At least one output format must be given.");
+        }
+        final List<String> knownFormats = Arrays.asList("lccci", "lccds", "lcpft");
+        for (int i = 0; i < formats.length; i++) {
+            if (!knownFormats.contains(formats[i])) {
+                throw new OperatorException(String.format("Unknown output format '%s', valid formats are %s.", formats[i], knownFormats));
+            }
+            if (Arrays.asList(formats).subList(0, i).contains(formats[i])) {
+                throw new OperatorException(String.format("The output format '%s' is given more than once.", formats[i]));
+            }
+        }
+    }
+
+    static void validateGridFormats(PlanetaryGridName gridName, String[] formats) {
+        for (String format : formats) {
+            validateGridFormat(gridName, format);
+        }
+    }
+
+    /**
+     * Validates the combination of a target grid with the output format. The lccds format is written as raster,
+     * which the rows of the reduced Gaussian grid with their different numbers of cells do not fit.
+     */
+    static void validateGridFormat(PlanetaryGridName gridName, String format) {
+        if ("lccds".equals(format) && PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName)) {
+            throw new OperatorException("The planetary grid '" + PlanetaryGridName.REDUCED_GAUSSIAN_GRID + "' " +
+                                        "can not be written in the format lccds.");
+        }
+    }
+
+    /**
+     * Validates the combination of a target grid with the currently set region.
+     */
+    void validateGridRegion(PlanetaryGridName gridName) {
+        if (PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName) && getRegionIdentifier() != null) {
+            // a regional subset of the ragged rows would not be a rectangle
+            throw new OperatorException("The planetary grid '" + PlanetaryGridName.REDUCED_GAUSSIAN_GRID + "' " +
+                                        "can only be used for the whole globe, not in combination with a region.");
+        }
+        boolean regularGaussianGridUsed = PlanetaryGridName.REGULAR_GAUSSIAN_GRID.equals(gridName);
         if (regularGaussianGridUsed && getRegionIdentifier() != null) {
             ReferencedEnvelope regionEnvelope = getRegionEnvelope();
             double maxLon = regionEnvelope.getMaximum(0);
@@ -225,9 +429,6 @@ public abstract class AbstractLcAggregationOp extends Operator {
                                                     "prime meridian.");
             }
         }
-        if (regularGaussianGridUsed) {
-            setNumRows(numRows * 2);
-        }
     }
 
     protected void addMetadataToLcProperties(MetadataElement globalAttributes) {
@@ -264,6 +465,8 @@ public abstract class AbstractLcAggregationOp extends Operator {
         if (planetaryGridClassName.equals(RegularGaussianGrid.class.getName())) {
             gridName = "Regular gaussian grid (N" + numRows / 2 + ")";
             getLcProperties().put("grid_name", gridName);
+        } else if (planetaryGridClassName.equals(ReducedGaussianGrid.class.getName())) {
+            getLcProperties().put("grid_name", "Reduced gaussian grid (N" + numRows / 2 + ")");
         } else if (planetaryGridClassName.equals(PlateCarreeGrid.class.getName())) {
             getLcProperties().put("grid_name", String.format("Geographic lat lon grid (cell size: %.6f degree)", 180.0 / numRows));
         } else {
@@ -283,33 +486,45 @@ public abstract class AbstractLcAggregationOp extends Operator {
             planetaryGrid = new PlateCarreeGrid(numRows);
         } else if (PlanetaryGridName.REGULAR_GAUSSIAN_GRID.equals(gridName)) {
             planetaryGrid = new RegularGaussianGrid(numRows);
-//        } else if (PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName)) {   // not yet supported
-//            planetaryGrid = new ReducedGaussianGrid(numRows);
+        } else if (PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName)) {
+            planetaryGrid = new ReducedGaussianGrid(numRows);
         } else {
             planetaryGrid = new SEAGrid(numRows);
         }
         return planetaryGrid;
     }
 
+    protected AreaCalculator createAreaCalculator(PlanetaryGrid planetaryGrid, double mapResolutionX, double mapResolutionY) {
+        if (RegularGridAreaCalculator.isSupported(planetaryGrid)) {
+            return new RegularGridAreaCalculator(planetaryGrid, mapResolutionX, mapResolutionY);
+        }
+        return new FractionalAreaCalculator(planetaryGrid, mapResolutionX, mapResolutionY);
+    }
+
     protected String getPlanetaryGridClassName() {
         PlanetaryGridName gridName = getGridName();
         if (PlanetaryGridName.GEOGRAPHIC_LAT_LON.equals(gridName)) {
             return PlateCarreeGrid.class.getName();
         } else if (PlanetaryGridName.REGULAR_GAUSSIAN_GRID.equals(gridName)) {
             return RegularGaussianGrid.class.getName();
-//            return RegularGaussianGrid.class.getName();
-//        } else if (PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName)) { // not supported yet
-//            return ReducedGaussianGrid.class.getName();
+        } else if (PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(gridName)) {
+            return ReducedGaussianGrid.class.getName();
         } else {
             return SEAGrid.class.getName();
         }
     }
 
     protected Product createSubset(Product source, ReferencedEnvelope regionEnvelope) {
-        ReferencedEnvelope envelopeCopy = new ReferencedEnvelope(regionEnvelope);
-        // work on the copy to prevent altering the original envelope
-        // MB TODO Why don't we simply snap the envelope to the target grid? This would expand by less than one target pixel.
-        envelopeCopy.expandBy(getTargetSpatialResolution() * 5);
+        final ReferencedEnvelope envelopeCopy;
+        if (gridName == PlanetaryGridName.GEOGRAPHIC_LAT_LON) {
+            // the cells of the target grid are known, source pixels outside of them would only produce bins
+            // which are dropped by the writer
+            envelopeCopy = snapToTargetGrid(regionEnvelope, numRows);
+        } else {
+            // work on the copy to prevent altering the original envelope
+            envelopeCopy = new ReferencedEnvelope(regionEnvelope);
+            envelopeCopy.expandBy(getTargetSpatialResolution() * 5);
+        }
         double north = envelopeCopy.getMaximum(1);
         double east = envelopeCopy.getMaximum(0);
         double south = envelopeCopy.getMinimum(1);
@@ -318,6 +533,35 @@ public abstract class AbstractLcAggregationOp extends Operator {
         return source;
     }
 
+    /**
+     * Expands the region to the borders of the cells of a global lat/lon grid with the given number of rows.
+     * A border which falls on a cell border is moved by one more cell, so the cells selected by the
+     * {@link org.esa.cci.lc.io.RegionalPlanetaryGrid} are covered in any case.
+     */
+    static ReferencedEnvelope snapToTargetGrid(ReferencedEnvelope regionEnvelope, int numRows) {
+        final double resolution = 180.0 / numRows;
+        final double west = Math.max(-180.0, -180.0 + Math.floor((regionEnvelope.getMinimum(0) + 180.0) / resolution - SNAP_TOLERANCE) * resolution);
+        final double east = Math.min(180.0, -180.0 + Math.ceil((regionEnvelope.getMaximum(0) + 180.0) / resolution + SNAP_TOLERANCE) * resolution);
+        final double south = Math.max(-90.0, -90.0 + Math.floor((regionEnvelope.getMinimum(1) + 90.0) / resolution - SNAP_TOLERANCE) * resolution);
+        final double north = Math.min(90.0, -90.0 + Math.ceil((regionEnvelope.getMaximum(1) + 90.0) / resolution + SNAP_TOLERANCE) * resolution);
+        return new ReferencedEnvelope(west, east, south, north, regionEnvelope.getCoordinateReferenceSystem());
+    }
+
+    /**
+     * @return the part of the product id which describes the target grid
+     */
+    protected String getAggregatedResolution() {
+        final int numRows = getNumRows();
+        if (PlanetaryGridName.GEOGRAPHIC_LAT_LON.equals(getGridName())) {
+            return String.format(Locale.ENGLISH, "aggregated-%.6fDeg", 180.0 / numRows);
+        } else if (PlanetaryGridName.REDUCED_GAUSSIAN_GRID.equals(getGridName())) {
+            // distinguished from the regular Gaussian grid of the same N
+            return "aggregated-reduced-N" + numRows / 2;
+        } else {
+            return "aggregated-N" + numRows / 2;
+        }
+    }
+
     private float getTargetSpatialResolution() {
         return 180.0f / getNumRows();
     }
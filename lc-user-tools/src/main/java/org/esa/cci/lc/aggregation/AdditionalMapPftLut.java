@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 class AdditionalMapPftLut implements Lccs2PftLut {
     private static final String COMMENT_PREFIX = "#";
@@ -85,6 +86,22 @@ class AdditionalMapPftLut implements Lccs2PftLut {
         return conversionFactors;
     }
 
+    /**
+     * @return the sorted user map classes for which specific conversion factors are defined
+     */
+    int[] getUserClasses() {
+        final TreeSet<Integer> userClasses = new TreeSet<>();
+        for (Map<Integer, float[]> userMap : mappingTable.values()) {
+            userClasses.addAll(userMap.keySet());
+        }
+        final int[] result = new int[userClasses.size()];
+        int i = 0;
+        for (Integer userClass : userClasses) {
+            result[i++] = userClass;
+        }
+        return result;
+    }
+
     private static void addToMappingTable(Map<Integer, Map<Integer, float[]>> mappingTable,
                                           int lccsClass, int userMapClass, float[] conversionFactors) throws Lccs2PftLutException {
         Map<Integer, float[]> userMap;
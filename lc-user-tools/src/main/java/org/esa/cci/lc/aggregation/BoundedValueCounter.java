@@ -0,0 +1,145 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.datamodel.RasterDataNode;
+
+import java.util.Arrays;
+
+/**
+ * Collects the values of a single cell for computing their median or majority. Values which are integers between
+ * zero and a known maximum are counted in a histogram, which gives the median and the majority in linear time.
+ * As soon as another value is added, the collected values are kept in an array and the statistics are computed by
+ * sorting, as done by {@link LcAccuracyAggregator#computeMedian(float[], int)} and
+ * {@link LcMajorityAggregator#computeMajority(float[], int)}. Both ways give identical results.
+ * <p>
+ * Instances are meant to be reused via {@link #reset()}. They are not thread safe.
+ */
+class BoundedValueCounter {
+
+    /**
+     * The largest value counted in a histogram for bands which are only known to contain integer values.
+     */
+    static final int MAX_HISTOGRAM_VALUE = 255;
+
+    private final int[] counts;
+    private int numValues;
+    private int minValue;
+    private int maxValue;
+    private float[] values;
+    private boolean sorting;
+
+    /**
+     * @param maxHistogramValue the largest value counted in the histogram, a negative value disables the histogram
+     * @param initialCapacity   the expected number of values, used if the values need to be sorted
+     */
+    BoundedValueCounter(int maxHistogramValue, int initialCapacity) {
+        counts = maxHistogramValue >= 0 ? new int[maxHistogramValue + 1] : null;
+        values = new float[Math.max(initialCapacity, 1)];
+        reset();
+    }
+
+    /**
+     * Determines the largest value which can be counted in a histogram for the given band.
+     *
+     * @return {@link #MAX_HISTOGRAM_VALUE} if the geophysical values of the band are integers, otherwise -1
+     */
+    static int getMaxHistogramValue(RasterDataNode band) {
+        if (band == null || band.isScalingApplied() || !ProductData.isIntType(band.getDataType())) {
+            return -1;
+        }
+        return MAX_HISTOGRAM_VALUE;
+    }
+
+    void reset() {
+        if (counts != null && numValues > 0 && !sorting) {
+            Arrays.fill(counts, minValue, maxValue + 1, 0);
+        }
+        numValues = 0;
+        minValue = Integer.MAX_VALUE;
+        maxValue = -1;
+        sorting = counts == null;
+    }
+
+    void add(float value) {
+        if (!sorting) {
+            final int intValue = (int) value;
+            if (intValue == value && intValue >= 0 && intValue < counts.length) {
+                counts[intValue]++;
+                numValues++;
+                if (intValue < minValue) {
+                    minValue = intValue;
+                }
+                if (intValue > maxValue) {
+                    maxValue = intValue;
+                }
+                return;
+            }
+            switchToSorting();
+        }
+        if (numValues == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[numValues++] = value;
+    }
+
+    int getNumValues() {
+        return numValues;
+    }
+
+    float computeMedian() {
+        if (sorting) {
+            return LcAccuracyAggregator.computeMedian(values, numValues);
+        }
+        if (numValues == 0) {
+            return Float.NaN;
+        }
+        if (numValues % 2 == 0) {
+            final float lowerMedian = getValueAtRank(numValues / 2 - 1);
+            final float higherMedian = getValueAtRank(numValues / 2);
+            return lowerMedian + ((higherMedian - lowerMedian) / 2);
+        }
+        return getValueAtRank(numValues / 2);
+    }
+
+    float computeMajority() {
+        if (sorting) {
+            return LcMajorityAggregator.computeMajority(values, numValues);
+        }
+        if (numValues == 0) {
+            return Float.NaN;
+        }
+        int majorityValue = minValue;
+        for (int v = minValue + 1; v <= maxValue; v++) {
+            // strictly greater, so the smallest value wins ties
+            if (counts[v] > counts[majorityValue]) {
+                majorityValue = v;
+            }
+        }
+        return majorityValue;
+    }
+
+    private int getValueAtRank(int rank) {
+        int numSmaller = 0;
+        for (int v = minValue; v <= maxValue; v++) {
+            numSmaller += counts[v];
+            if (numSmaller > rank) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("Rank " + rank + " exceeds the number of values " + numValues);
+    }
+
+    private void switchToSorting() {
+        if (values.length < numValues + 1) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, numValues + 1));
+        }
+        int index = 0;
+        for (int v = minValue; v <= maxValue && index < numValues; v++) {
+            for (int i = 0; i < counts[v]; i++) {
+                values[index++] = v;
+            }
+            counts[v] = 0;
+        }
+        sorting = true;
+    }
+}
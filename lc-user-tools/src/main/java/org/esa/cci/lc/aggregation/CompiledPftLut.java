@@ -0,0 +1,199 @@
+package org.esa.cci.lc.aggregation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable {@link Lccs2PftLut} which holds the conversion factors in dense arrays indexed by the LCCS class
+ * index. If an additional user map table is used, the factors are held additionally for every user map class
+ * defined in that table. Look-ups do not allocate any objects.
+ * <p>
+ * Instances are created via {@link #getInstance(URL, URL, float)}, which parses every distinct set of tables
+ * only once per JVM.
+ */
+public final class CompiledPftLut implements Lccs2PftLut {
+
+    private static final Map<String, CompiledPftLut> CACHE = new HashMap<>();
+
+    private final String comment;
+    private final String[] pftNames;
+    private final int[] classIndexLut;
+    // [classIndex][pftIndex]
+    private final float[][] factors;
+    // sorted user map classes defined in the additional user map table
+    private final int[] userClasses;
+    // [userClassIndex][classIndex][pftIndex]
+    private final float[][][] userClassFactors;
+
+    /**
+     * Returns the look-up table for the given tables. The tables are read only once, subsequent calls with the
+     * same tables return the cached instance as long as the table files are not modified.
+     *
+     * @param pftTable                  the LCCS to PFT conversion table, or {@code null} to use the default table
+     * @param additionalUserMapPftTable the table considering the classes of an additional user map, may be {@code null}
+     * @param scaleFactor               the factor the values of the tables are scaled with
+     */
+    public static synchronized CompiledPftLut getInstance(URL pftTable, URL additionalUserMapPftTable,
+                                                          float scaleFactor) throws Lccs2PftLutException {
+        final String tablesKey = createKey(pftTable) + "|" + createKey(additionalUserMapPftTable);
+        CompiledPftLut unscaledLut = CACHE.get(tablesKey);
+        if (unscaledLut == null) {
+            unscaledLut = compile(readLut(pftTable, additionalUserMapPftTable));
+            CACHE.put(tablesKey, unscaledLut);
+        }
+        if (scaleFactor == 1.0f) {
+            return unscaledLut;
+        }
+        final String scaledKey = tablesKey + "|" + scaleFactor;
+        CompiledPftLut scaledLut = CACHE.get(scaledKey);
+        if (scaledLut == null) {
+            scaledLut = unscaledLut.scale(scaleFactor);
+            CACHE.put(scaledKey, scaledLut);
+        }
+        return scaledLut;
+    }
+
+    /**
+     * Converts the given look-up table into a compiled one.
+     */
+    static CompiledPftLut compile(Lccs2PftLut lut) {
+        final LCCS lccs = LCCS.getInstance();
+        final int numClasses = lccs.getNumClasses();
+        final float[][] factors = new float[numClasses][];
+        for (int i = 0; i < numClasses; i++) {
+            factors[i] = lut.getConversionFactors(lccs.getClassValue(i)).clone();
+        }
+        final int[] userClasses = lut instanceof AdditionalMapPftLut ? ((AdditionalMapPftLut) lut).getUserClasses() : new int[0];
+        final float[][][] userClassFactors = new float[userClasses.length][numClasses][];
+        for (int u = 0; u < userClasses.length; u++) {
+            for (int i = 0; i < numClasses; i++) {
+                final float[] userFactors = lut.getConversionFactors(lccs.getClassValue(i), userClasses[u]);
+                userClassFactors[u][i] = Arrays.equals(userFactors, factors[i]) ? factors[i] : userFactors.clone();
+            }
+        }
+        return new CompiledPftLut(lut.getComment(), lut.getPFTNames(), lccs.getClassIndexLut(),
+                                  factors, userClasses, userClassFactors);
+    }
+
+    private CompiledPftLut(String comment, String[] pftNames, int[] classIndexLut, float[][] factors,
+                           int[] userClasses, float[][][] userClassFactors) {
+        this.comment = comment;
+        this.pftNames = pftNames;
+        this.classIndexLut = classIndexLut;
+        this.factors = factors;
+        this.userClasses = userClasses;
+        this.userClassFactors = userClassFactors;
+    }
+
+    @Override
+    public String getComment() {
+        return comment;
+    }
+
+    @Override
+    public String[] getPFTNames() {
+        return pftNames.clone();
+    }
+
+    public int getNumPFTs() {
+        return pftNames.length;
+    }
+
+    @Override
+    public float[] getConversionFactors(int lccsClass) {
+        return factors[getClassIndex(lccsClass)].clone();
+    }
+
+    @Override
+    public float[] getConversionFactors(int lccsClass, int additionalUserClass) {
+        return getFactors(getClassIndex(lccsClass), additionalUserClass).clone();
+    }
+
+    /**
+     * @return the index of the given LCCS class, unknown classes are mapped to the index of the no-data class
+     */
+    public int getClassIndex(int lccsClass) {
+        if (lccsClass < 0 || lccsClass >= classIndexLut.length) {
+            return classIndexLut[0];
+        }
+        return classIndexLut[lccsClass];
+    }
+
+    /**
+     * Returns the conversion factors for the LCCS class with the given index. The returned array is shared and
+     * must not be modified.
+     *
+     * @param classIndex          the index of the LCCS class, see {@link #getClassIndex(int)}
+     * @param additionalUserClass the class of the additional user map. If no specific factors are defined for this
+     *                            class, the factors of the LCCS class are returned.
+     */
+    public float[] getFactors(int classIndex, int additionalUserClass) {
+        if (userClasses.length > 0) {
+            final int userClassIndex = Arrays.binarySearch(userClasses, additionalUserClass);
+            if (userClassIndex >= 0) {
+                return userClassFactors[userClassIndex][classIndex];
+            }
+        }
+        return factors[classIndex];
+    }
+
+    private CompiledPftLut scale(float scaleFactor) {
+        final float[][] scaledFactors = new float[factors.length][];
+        for (int i = 0; i < factors.length; i++) {
+            scaledFactors[i] = scale(factors[i], scaleFactor);
+        }
+        final float[][][] scaledUserClassFactors = new float[userClasses.length][factors.length][];
+        for (int u = 0; u < userClasses.length; u++) {
+            for (int i = 0; i < factors.length; i++) {
+                final float[] userFactors = userClassFactors[u][i];
+                scaledUserClassFactors[u][i] = userFactors == factors[i] ? scaledFactors[i] : scale(userFactors, scaleFactor);
+            }
+        }
+        return new CompiledPftLut(comment, pftNames, classIndexLut, scaledFactors, userClasses, scaledUserClassFactors);
+    }
+
+    private static float[] scale(float[] values, float scaleFactor) {
+        final float[] scaled = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            scaled[i] = values[i] * scaleFactor;
+        }
+        return scaled;
+    }
+
+    private static Lccs2PftLut readLut(URL pftTable, URL additionalUserMapPftTable) throws Lccs2PftLutException {
+        Lccs2PftLutBuilder lutBuilder = new Lccs2PftLutBuilder();
+        try {
+            if (pftTable != null) {
+                lutBuilder = lutBuilder.useLccs2PftTable(new InputStreamReader(pftTable.openStream()));
+            }
+            if (additionalUserMapPftTable != null) {
+                lutBuilder = lutBuilder.useAdditionalUserMap(new InputStreamReader(additionalUserMapPftTable.openStream()));
+            }
+        } catch (IOException e) {
+            throw new Lccs2PftLutException("Could not open PFT conversion table", e);
+        }
+        return lutBuilder.create();
+    }
+
+    private static String createKey(URL table) {
+        if (table == null) {
+            return "default";
+        }
+        String key = table.toExternalForm();
+        if ("file".equals(table.getProtocol())) {
+            try {
+                key += "@" + new File(table.toURI()).lastModified();
+            } catch (URISyntaxException | IllegalArgumentException ignore) {
+                // not a plain file path; the URL alone identifies the table
+            }
+        }
+        return key;
+    }
+
+}
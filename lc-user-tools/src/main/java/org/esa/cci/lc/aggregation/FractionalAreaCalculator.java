@@ -1,22 +1,29 @@
 package org.esa.cci.lc.aggregation;
 
 import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.ReducedGaussianGrid;
 import org.esa.snap.binning.support.RegularGaussianGrid;
 
 import java.awt.geom.Rectangle2D;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
+ * Calculates the fraction of a target cell covered by a source pixel from the rectangles of both in lat/lon. The
+ * bounds of the target cells are precomputed for every row of the planetary grid, so the number of columns may
+ * differ from row to row, as in the {@link ReducedGaussianGrid}. The rows of Gaussian grids are bounded by the
+ * middle latitudes between their centers, the rows of other grids have equal heights.
+ *
  * @author Marco Peters
  */
 class FractionalAreaCalculator implements AreaCalculator {
 
-    private final double deltaGridLat;
     private final double deltaMapLat;
     private final double deltaMapLon;
     private final PlanetaryGrid planetaryGrid;
-    private final Map<Long, Rectangle2D.Double> binRectanglesMap;
+    private final long[] rowFirstBinIndex;
+    private final double[] rowMaxLat;
+    private final double[] rowMinLat;
+    private final double[] rowFirstCenterLon;
+    private final double[] rowDeltaLon;
 
     public FractionalAreaCalculator(PlanetaryGrid planetaryGrid, int mapWidth, int mapHeight) {
         this(planetaryGrid, 180.0 / mapHeight, 360.0 / mapWidth);
@@ -24,17 +31,47 @@ class FractionalAreaCalculator implements AreaCalculator {
 
     public FractionalAreaCalculator(PlanetaryGrid planetaryGrid, double mapResolutionX, double mapResolutionY) {
         this.planetaryGrid = planetaryGrid;
-        deltaGridLat = 180.0 / planetaryGrid.getNumRows();
-        binRectanglesMap = new HashMap<>();
         deltaMapLat = mapResolutionX;
         deltaMapLon = mapResolutionY;
+
+        final int numRows = planetaryGrid.getNumRows();
+        final double deltaGridLat = 180.0 / numRows;
+        final boolean gaussianGrid = planetaryGrid instanceof RegularGaussianGrid || planetaryGrid instanceof ReducedGaussianGrid;
+        rowFirstBinIndex = new long[numRows];
+        rowMaxLat = new double[numRows];
+        rowMinLat = new double[numRows];
+        rowFirstCenterLon = new double[numRows];
+        rowDeltaLon = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            final double centerLat = planetaryGrid.getCenterLat(row);
+            if (gaussianGrid) {
+                rowMaxLat[row] = row == 0 ? 90 : (planetaryGrid.getCenterLat(row - 1) + centerLat) / 2;
+                rowMinLat[row] = row == numRows - 1 ? -90 : (planetaryGrid.getCenterLat(row + 1) + centerLat) / 2;
+            } else {
+                rowMaxLat[row] = centerLat + deltaGridLat / 2.0;
+                rowMinLat[row] = centerLat - deltaGridLat / 2.0;
+            }
+            rowFirstBinIndex[row] = planetaryGrid.getFirstBinIndex(row);
+            rowFirstCenterLon[row] = planetaryGrid.getCenterLatLon(rowFirstBinIndex[row])[1];
+            rowDeltaLon[row] = 360.0 / planetaryGrid.getNumCols(row);
+        }
     }
 
 
     @Override
     public double calculate(double longitude, double latitude, long binIndex) {
-        Rectangle2D.Double binRect = getBinRect(binIndex);
-        Rectangle2D.Double obsRect = new Rectangle2D.Double();
+        final int row = planetaryGrid.getRowIndex(binIndex);
+        final double deltaGridLon = rowDeltaLon[row];
+        double binCenterLon = rowFirstCenterLon[row] + (binIndex - rowFirstBinIndex[row]) * deltaGridLon;
+        if (binCenterLon >= 180.0) {
+            binCenterLon -= 360.0;
+        }
+        final Rectangle2D.Double binRect = new Rectangle2D.Double();
+        binRect.setFrameFromDiagonal(binCenterLon - deltaGridLon / 2.0,
+                                     rowMaxLat[row],
+                                     binCenterLon + deltaGridLon / 2.0,
+                                     rowMinLat[row]);
+        final Rectangle2D.Double obsRect = new Rectangle2D.Double();
         obsRect.setFrameFromDiagonal(longitude - deltaMapLon / 2.0,
                                      latitude + deltaMapLat / 2.0,
                                      longitude + deltaMapLon / 2.0,
@@ -43,51 +80,6 @@ class FractionalAreaCalculator implements AreaCalculator {
         return calcFraction(binRect, obsRect);
     }
 
-    private Rectangle2D.Double getBinRect(long binIndex) {
-        clearMapIfToBig(binRectanglesMap);
-        Rectangle2D.Double binRect = binRectanglesMap.get(binIndex);
-        if (binRect == null) {
-            double[] binCenterLatLon = planetaryGrid.getCenterLatLon(binIndex);
-            double binCenterLon = binCenterLatLon[1];
-            double binCenterLat = binCenterLatLon[0];
-            double maxLat;
-            double minLat;
-            int rowIndex = planetaryGrid.getRowIndex(binIndex);
-            double deltaGridLon = 360.0 / planetaryGrid.getNumCols(rowIndex);
-            if (planetaryGrid instanceof RegularGaussianGrid) {
-                if (rowIndex == 0) {
-                    maxLat = 90;
-                } else {
-                    maxLat = (planetaryGrid.getCenterLat(rowIndex - 1) + binCenterLat) / 2;
-                }
-                if (rowIndex == planetaryGrid.getNumRows() - 1) {
-                    minLat = -90;
-                } else {
-                    minLat = (planetaryGrid.getCenterLat(rowIndex + 1) + binCenterLat) / 2;
-                }
-                binRect = new Rectangle2D.Double();
-                binRect.setFrameFromDiagonal(binCenterLon - deltaGridLon / 2.0,
-                                             maxLat,
-                                             binCenterLon + deltaGridLon / 2.0,
-                                             minLat);
-            } else {
-                binRect = new Rectangle2D.Double();
-                binRect.setFrameFromDiagonal(binCenterLon - deltaGridLon / 2.0,
-                                             binCenterLat + deltaGridLat / 2.0,
-                                             binCenterLon + deltaGridLon / 2.0,
-                                             binCenterLat - deltaGridLat / 2.0);
-            }
-            binRectanglesMap.put(binIndex, binRect);
-        }
-        return binRect;
-    }
-
-    private void clearMapIfToBig(Map<Long, Rectangle2D.Double> binRectanglesMap) {
-        if (binRectanglesMap.size() > 5000) { // this test could be cleverer, but works right now
-            binRectanglesMap.clear();
-        }
-    }
-
     static double calcFraction(Rectangle2D binRect, Rectangle2D obsRect) {
         Rectangle2D binRectangle;
         Rectangle2D obsRectangle;
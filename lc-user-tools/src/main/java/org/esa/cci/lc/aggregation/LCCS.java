@@ -6,9 +6,8 @@ import org.esa.snap.core.util.io.CsvReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * @author Marco Peters
@@ -19,15 +18,16 @@ public class LCCS {
     classValue | description | flag meaning
      */
     private static final String CLASS_DEFINTIONS_FILE = "LCCS_class_defintions.csv";
+    private static final int CLASS_INDEX_LUT_SIZE = 256;
     private static LCCS singleton = null;
     private final int[] classValues;
     private final String[] classDescriptions;
     private final String[] flagMeanings;
-    private final int noDataClassValue;
-    private final Map<Integer, Integer> classValueToIndexMap;
-    private final Map<Integer, Integer> indexToClassValueMap;
+    private final int noDataClassIndex;
+    // maps class values to class indices, unknown values are mapped to the index of the no-data class
+    private final int[] classIndexLut;
 
-    public static LCCS getInstance() {
+    public static synchronized LCCS getInstance() {
         if (singleton == null) {
             try {
                 singleton = LCCS.load(new InputStreamReader(LcMapAggregator.class.getResourceAsStream(CLASS_DEFINTIONS_FILE)));
@@ -46,17 +46,17 @@ public class LCCS {
         this.classValues = classValues;
         this.classDescriptions = classDescriptions;
         this.flagMeanings = flagMeanings;
-        this.noDataClassValue = classValues[0];
-        this.classValueToIndexMap = new TreeMap<>();
-        this.indexToClassValueMap = new TreeMap<>();
-        for (int i = 0; i < classValues.length; i++) {
-            int classValue = classValues[i];
-            classValueToIndexMap.put(classValue, i);
+        this.noDataClassIndex = 0;
+        int maxClassValue = CLASS_INDEX_LUT_SIZE - 1;
+        for (int classValue : classValues) {
+            Guardian.assertTrue("classValue >= 0", classValue >= 0);
+            maxClassValue = Math.max(maxClassValue, classValue);
         }
-        for (Map.Entry<Integer, Integer> entry : classValueToIndexMap.entrySet()) {
-            indexToClassValueMap.put(entry.getValue(), entry.getKey());
+        this.classIndexLut = new int[maxClassValue + 1];
+        Arrays.fill(classIndexLut, noDataClassIndex);
+        for (int i = 0; i < classValues.length; i++) {
+            classIndexLut[classValues[i]] = i;
         }
-
     }
 
     static LCCS load(Reader reader) throws IOException {
@@ -92,13 +92,22 @@ public class LCCS {
     }
 
     int getClassIndex(int classValue) {
-        if (!classValueToIndexMap.containsKey(classValue)) {
-            classValue = noDataClassValue;
+        if (classValue < 0 || classValue >= classIndexLut.length) {
+            return noDataClassIndex;
         }
-        return classValueToIndexMap.get(classValue);
+        return classIndexLut[classValue];
     }
 
     int getClassValue(int classIndex) {
-        return indexToClassValueMap.get(classIndex);
+        return classValues[classIndex];
+    }
+
+    /**
+     * Returns the look-up table from class values to class indices. It covers at least the values 0 to 255, so
+     * unsigned byte values can be used directly as index. Values not being a class value are mapped to the
+     * index of the no-data class. The returned array must not be modified.
+     */
+    int[] getClassIndexLut() {
+        return classIndexLut;
     }
 }
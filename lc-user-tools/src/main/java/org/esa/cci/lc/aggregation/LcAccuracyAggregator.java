@@ -6,9 +6,10 @@ import org.esa.snap.binning.Observation;
 import org.esa.snap.binning.VariableContext;
 import org.esa.snap.binning.Vector;
 import org.esa.snap.binning.WritableVector;
-import org.esa.snap.binning.support.GrowableVector;
 
 import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 //import org.esa.snap.util.logging.BeamLogManager;
 
@@ -20,8 +21,20 @@ class LcAccuracyAggregator extends AbstractAggregator {
     private final int varIndex;
     private final String contextNameSpace;
     private final int rowRatio;
+    private final int maxHistogramValue;
+    // counters of completed bins, reused for the next bins
+    private final Queue<BoundedValueCounter> counterPool;
 
     LcAccuracyAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames, int rowRatio) {
+        this(varCtx, sourceVarNames, targetVarNames, rowRatio, -1);
+    }
+
+    /**
+     * @param maxHistogramValue the largest source value counted in a histogram instead of being sorted,
+     *                          a negative value if the source values are not bounded integers
+     */
+    LcAccuracyAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames, int rowRatio,
+                         int maxHistogramValue) {
         super(LcAccuracyAggregatorDescriptor.NAME,
               targetVarNames,
               targetVarNames,
@@ -29,26 +42,41 @@ class LcAccuracyAggregator extends AbstractAggregator {
         varIndex = varCtx.getVariableIndex(sourceVarNames[0]);
         contextNameSpace = targetVarNames[0] + hashCode();
         this.rowRatio = rowRatio;
+        this.maxHistogramValue = maxHistogramValue;
+        counterPool = new ConcurrentLinkedQueue<>();
     }
 
     @Override
     public void initSpatial(BinContext ctx, WritableVector vector) {
-        ctx.put(contextNameSpace, new GrowableVector(rowRatio*rowRatio));
+        BoundedValueCounter counter = counterPool.poll();
+        if (counter == null) {
+            counter = new BoundedValueCounter(maxHistogramValue, rowRatio * rowRatio);
+        }
+        ctx.put(contextNameSpace, counter);
     }
 
     @Override
     public void aggregateSpatial(BinContext ctx, Observation observationVector, WritableVector spatialVector) {
-        final GrowableVector growableVector = ctx.get(contextNameSpace);
-        growableVector.add(observationVector.get(varIndex));
+        final BoundedValueCounter counter = ctx.get(contextNameSpace);
+        counter.add(observationVector.get(varIndex));
     }
 
     @Override
     public void completeSpatial(BinContext ctx, int numSpatialObs, WritableVector spatialVector) {
-        final GrowableVector growableVector = ctx.get(contextNameSpace);
-        final float[] elements = growableVector.getElements();
-        Arrays.sort(elements);
+        final BoundedValueCounter counter = ctx.get(contextNameSpace);
+        final float lcMedian = counter.computeMedian();
+        spatialVector.set(0, lcMedian);
+        ctx.put(contextNameSpace, null);
+        counter.reset();
+        counterPool.offer(counter);
+    }
+
+    /**
+     * Sorts the first {@code length} elements and computes their median.
+     */
+    static float computeMedian(float[] elements, int length) {
+        Arrays.sort(elements, 0, length);
         final float lcMedian;
-        final int length = elements.length;
         if (length == 0) {
             lcMedian = Float.NaN;
         } else if (length == 1) {
@@ -60,8 +88,7 @@ class LcAccuracyAggregator extends AbstractAggregator {
         } else {
             lcMedian = elements[length / 2];
         }
-        spatialVector.set(0, lcMedian);
-        ctx.put(contextNameSpace, null);
+        return lcMedian;
     }
 
     @Override
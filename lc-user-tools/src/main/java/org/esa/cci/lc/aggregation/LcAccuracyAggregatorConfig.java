@@ -13,6 +13,8 @@ class LcAccuracyAggregatorConfig extends AggregatorConfig {
 
     private int rowRatio;
 
+    private int maxHistogramValue = -1;
+
     LcAccuracyAggregatorConfig() {
         super(LcAccuracyAggregatorDescriptor.NAME);
     }
@@ -24,6 +26,15 @@ class LcAccuracyAggregatorConfig extends AggregatorConfig {
         this.rowRatio = rowRatio;
     }
 
+    /**
+     * @param maxHistogramValue the largest source value counted in a histogram, see
+     *                          {@link BoundedValueCounter#getMaxHistogramValue(org.esa.snap.core.datamodel.RasterDataNode)}
+     */
+    LcAccuracyAggregatorConfig(final String sourceVarName, final String targetVarName, int rowRatio, int maxHistogramValue) {
+        this(sourceVarName, targetVarName, rowRatio);
+        this.maxHistogramValue = maxHistogramValue;
+    }
+
     public String getSourceVarName() {
         return sourceVarName;
     }
@@ -35,4 +46,8 @@ class LcAccuracyAggregatorConfig extends AggregatorConfig {
     public int getRowRatio() {
         return rowRatio;
     }
+
+    public int getMaxHistogramValue() {
+        return maxHistogramValue;
+    }
 }
@@ -24,7 +24,8 @@ public class LcAccuracyAggregatorDescriptor implements AggregatorDescriptor {
         return new LcAccuracyAggregator(varCtx,
                                         getSourceVarNames(aggregatorConfig),
                                         getTargetVarNames(aggregatorConfig),
-                                        ((LcAccuracyAggregatorConfig)aggregatorConfig).getRowRatio());
+                                        ((LcAccuracyAggregatorConfig)aggregatorConfig).getRowRatio(),
+                                        ((LcAccuracyAggregatorConfig)aggregatorConfig).getMaxHistogramValue());
     }
 
     @Override
@@ -0,0 +1,471 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.cci.lc.io.RegionalPlanetaryGrid;
+import org.esa.cci.lc.io.StreamingBinWriter;
+import org.esa.cci.lc.util.RunMetrics;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.WritableVector;
+import org.esa.snap.binning.operator.BinWriter;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.VectorImpl;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.util.logging.BeamLogManager;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Aggregates the class areas of a source raster on a regular lat/lon grid directly onto a {@link PlateCarreeGrid}
+ * without going through the observation pipeline of the {@code BinningOp}.
+ * <p>
+ * The class band is read target row by target row. Each source pixel is assigned to the target cell containing
+ * its centre, as done by the binning, and the covered area is taken from the tables of a
+ * {@link RegularGridAreaCalculator}. The accumulated class areas are handed to the class aggregator
+ * ({@link LcMapAggregator} or {@link LcWbAggregator}) for normalisation and output computation, so the
+ * results are the same as with the {@code BinningOp}.
+ * <p>
+ * Most cells of a global map are covered by a single class, e.g. ocean or no-data. Such uniform cells are
+ * recognised by comparing the raw samples and skip the area accumulation, since their normalised class area is
+ * always one. Unless a user map value is needed, their output only depends on the class and is computed once per
+ * class. A block of source rows which is uniform as a whole needs only a single comparison per pixel.
+ */
+class LcBlockAggregator {
+
+    private static final double LATTICE_TOLERANCE = 1.0e-6;
+
+    enum CellStatistic {
+        MEDIAN,
+        MAJORITY
+    }
+
+    private final Product sourceProduct;
+    private final PlanetaryGrid planetaryGrid;
+    private final String classBandName;
+    private final Aggregator classAggregator;
+    private final int[] classIndexLut;
+    private final int invalidClassIndex;
+    private final RegularGridAreaCalculator areaCalculator;
+    private final int srcColOffset;
+    private final int srcRowOffset;
+
+    private LcMapAggregator userMapAggregator;
+    private String statisticBandName;
+    private String statisticFeatureName;
+    private CellStatistic statistic;
+    private int stripeFirstRow;
+    private int stripeNumRows;
+    private Logger logger;
+    private RunMetrics metrics;
+
+    /**
+     * @param sourceProduct     the source product, must be accepted by {@link #isApplicable(Product, PlanetaryGrid)}
+     * @param planetaryGrid     the global target grid
+     * @param classBandName     the name of the band containing the class values
+     * @param classAggregator   the aggregator computing the output from the accumulated class areas
+     * @param classIndexLut     maps class values to the index of the spatial feature the area is accumulated in
+     * @param invalidClassIndex spatial feature index used for class values not contained in the lut, or -1 if
+     *                          such pixels shall be ignored
+     */
+    LcBlockAggregator(Product sourceProduct, PlanetaryGrid planetaryGrid, String classBandName,
+                      Aggregator classAggregator, int[] classIndexLut, int invalidClassIndex) {
+        final double[] lattice = getSourceLattice(sourceProduct);
+        if (!(planetaryGrid instanceof PlateCarreeGrid) || lattice == null) {
+            throw new IllegalArgumentException("Source product and planetary grid are not suitable for block aggregation.");
+        }
+        this.sourceProduct = sourceProduct;
+        this.planetaryGrid = planetaryGrid;
+        this.classBandName = classBandName;
+        this.classAggregator = classAggregator;
+        this.classIndexLut = classIndexLut;
+        this.invalidClassIndex = invalidClassIndex;
+        areaCalculator = new RegularGridAreaCalculator(planetaryGrid, lattice[1], lattice[0]);
+        srcColOffset = (int) Math.round(lattice[2]);
+        srcRowOffset = (int) Math.round(lattice[3]);
+        stripeFirstRow = 0;
+        stripeNumRows = planetaryGrid.getNumRows();
+        logger = BeamLogManager.getSystemLogger();
+        metrics = new RunMetrics(LcBlockAggregator.class.getSimpleName());
+    }
+
+    /**
+     * Block aggregation is possible if the target grid is a {@link PlateCarreeGrid} and the source product is
+     * geo-coded on a WGS84 lat/lon raster whose pixels are aligned to a global raster starting at -180°/90°.
+     */
+    static boolean isApplicable(Product sourceProduct, PlanetaryGrid planetaryGrid) {
+        return planetaryGrid instanceof PlateCarreeGrid && getSourceLattice(sourceProduct) != null;
+    }
+
+    /**
+     * @param userMapAggregator the map aggregator providing the user map value of a target cell
+     */
+    void setUserMapAggregator(LcMapAggregator userMapAggregator) {
+        this.userMapAggregator = userMapAggregator;
+    }
+
+    /**
+     * Adds a statistic of an additional source band as last output feature.
+     */
+    void setCellStatistic(String bandName, String featureName, CellStatistic statistic) {
+        this.statisticBandName = bandName;
+        this.statisticFeatureName = featureName;
+        this.statistic = statistic;
+    }
+
+    /**
+     * Restricts the aggregation to a stripe of target rows. Only the source rows whose pixel centres are located in
+     * the stripe are read, so the cells of a stripe get the same values as in an aggregation of the whole grid.
+     *
+     * @param firstRow the first row of the stripe within the global grid
+     * @param numRows  the number of rows of the stripe
+     */
+    void setTargetRows(int firstRow, int numRows) {
+        if (firstRow < 0 || numRows < 0 || firstRow + numRows > planetaryGrid.getNumRows()) {
+            throw new IllegalArgumentException("Invalid stripe of rows " + firstRow + " to " + (firstRow + numRows - 1));
+        }
+        stripeFirstRow = firstRow;
+        stripeNumRows = numRows;
+    }
+
+    void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Sets the metrics of the run, the time spent for reading and aggregating and the numbers of source pixels and
+     * bins are counted. The time spent by the writer is counted by the writer.
+     */
+    void setRunMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    String[] getOutputFeatureNames() {
+        final String[] classFeatureNames = classAggregator.getOutputFeatureNames();
+        if (statistic == null) {
+            return classFeatureNames;
+        }
+        final String[] featureNames = Arrays.copyOf(classFeatureNames, classFeatureNames.length + 1);
+        featureNames[classFeatureNames.length] = statisticFeatureName;
+        return featureNames;
+    }
+
+    /**
+     * Aggregates the source product and hands the resulting bins to the given writer. The writer must already
+     * know the output context, the planetary grid and the output feature names. A {@link StreamingBinWriter}
+     * receives the bins of each target row as soon as the row is aggregated.
+     *
+     * @param binWriter the writer receiving the bins
+     * @param region    the region to aggregate, or {@code null} for the whole globe
+     */
+    void aggregate(BinWriter binWriter, ReferencedEnvelope region) throws IOException {
+        int firstRow;
+        int lastRow;
+        final int firstCol;
+        final int numCols;
+        if (region != null) {
+            final RegionalPlanetaryGrid regionalGrid = new RegionalPlanetaryGrid(planetaryGrid, region);
+            firstRow = regionalGrid.getRowOffset();
+            lastRow = firstRow + regionalGrid.getNumRows();
+            firstCol = regionalGrid.getColumnOffset();
+            numCols = regionalGrid.getNumCols(0);
+        } else {
+            firstRow = 0;
+            lastRow = planetaryGrid.getNumRows();
+            firstCol = 0;
+            numCols = planetaryGrid.getNumCols(0);
+        }
+        firstRow = Math.max(firstRow, stripeFirstRow);
+        lastRow = Math.min(lastRow, stripeFirstRow + stripeNumRows);
+        final int numRows = Math.max(lastRow - firstRow, 0);
+
+        final int[] srcRowStart = new int[numRows];
+        final int[] srcRowEnd = new int[numRows];
+        computeSourceRanges(sourceProduct.getSceneRasterHeight(), srcRowOffset, firstRow, true, srcRowStart, srcRowEnd);
+        final int[] srcColStart = new int[numCols];
+        final int[] srcColEnd = new int[numCols];
+        computeSourceRanges(sourceProduct.getSceneRasterWidth(), srcColOffset, firstCol, false, srcColStart, srcColEnd);
+        int maxCellWidth = 0;
+        int minSrcX = Integer.MAX_VALUE;
+        int maxSrcX = -1;
+        for (int col = 0; col < numCols; col++) {
+            if (srcColEnd[col] > srcColStart[col]) {
+                maxCellWidth = Math.max(maxCellWidth, srcColEnd[col] - srcColStart[col]);
+                minSrcX = Math.min(minSrcX, srcColStart[col]);
+                maxSrcX = Math.max(maxSrcX, srcColEnd[col]);
+            }
+        }
+
+        final Band classBand = sourceProduct.getBand(classBandName);
+        final Band statisticBand = statistic != null ? sourceProduct.getBand(statisticBandName) : null;
+        final int numSpatialFeatures = classAggregator.getSpatialFeatureNames().length;
+        final int numClassOutputFeatures = classAggregator.getOutputFeatureNames().length;
+        final int numOutputFeatures = getOutputFeatureNames().length;
+        final float[] spatialValues = new float[numSpatialFeatures];
+        final VectorImpl spatialVector = new VectorImpl(spatialValues);
+        final float[] classOutputValues = new float[numClassOutputFeatures];
+        final VectorImpl classOutputVector = new VectorImpl(classOutputValues);
+        final boolean userMapValueRequired = userMapAggregator != null && userMapAggregator.isUserMapValueRequired();
+        final int userMapIndex = numSpatialFeatures - 1;
+
+        // the outputs of uniform cells, by class index, only used if they do not depend on the location
+        final float[][] uniformCellOutputs = new float[numSpatialFeatures][];
+        long numCells = 0;
+        long numUniformCells = 0;
+
+        final List<TemporalBin> temporalBins = new ArrayList<>();
+        float[] classSamples = null;
+        float[] statisticSamples = null;
+        BoundedValueCounter cellValues = null;
+        final int logInterval = Math.max(numRows / 10, 1);
+        // a streaming writer receives the bins row by row, so they need not be held for the whole grid
+        final StreamingBinWriter streamingWriter = binWriter instanceof StreamingBinWriter ? (StreamingBinWriter) binWriter : null;
+        if (streamingWriter != null) {
+            streamingWriter.open(new HashMap<String, String>());
+        }
+        boolean succeeded = false;
+        try {
+            for (int row = 0; row < numRows; row++) {
+                final int y0 = srcRowStart[row];
+                final int height = srcRowEnd[row] - y0;
+                if (height <= 0 || maxSrcX < 0) {
+                    continue;
+                }
+                final int width = maxSrcX - minSrcX;
+                final Rectangle blockRect = new Rectangle(minSrcX, y0, width, height);
+                final long readStartTime = metrics.startPhase();
+                classSamples = classBand.getGeophysicalImage().getData(blockRect).getSamples(minSrcX, y0, width, height, 0, classSamples);
+                if (statisticBand != null) {
+                    statisticSamples = statisticBand.getGeophysicalImage().getData(blockRect).getSamples(minSrcX, y0, width, height, 0, statisticSamples);
+                    if (cellValues == null) {
+                        cellValues = new BoundedValueCounter(BoundedValueCounter.getMaxHistogramValue(statisticBand),
+                                                             height * maxCellWidth);
+                    }
+                }
+                metrics.endPhase(RunMetrics.Phase.READ, readStartTime);
+                metrics.addPixels((long) width * height);
+
+                final long processStartTime = metrics.startPhase();
+                final int numPreviousBins = temporalBins.size();
+                final boolean uniformBlock = isUniform(classSamples, width, 0, width, height);
+                final boolean uniformStatisticBlock = statisticSamples != null && isUniform(statisticSamples, width, 0, width, height);
+
+                final int targetRow = firstRow + row;
+                for (int col = 0; col < numCols; col++) {
+                    final int x0 = srcColStart[col];
+                    final int x1 = srcColEnd[col];
+                    if (x1 <= x0) {
+                        continue;
+                    }
+                    numCells++;
+                    final long binIndex = planetaryGrid.getFirstBinIndex(targetRow) + firstCol + col;
+                    final int cellStart = x0 - minSrcX;
+                    final int cellEnd = x1 - minSrcX;
+                    if (uniformBlock || isUniform(classSamples, width, cellStart, cellEnd, height)) {
+                        final int index = getClassIndex((short) classSamples[cellStart]);
+                        final float statisticValue = statisticSamples != null ? statisticSamples[cellStart] : Float.NaN;
+                        // the median or majority of equal values is the value itself
+                        final boolean uniformStatistic = statisticSamples == null
+                                                         || (!Float.isNaN(statisticValue)
+                                                             && (uniformStatisticBlock || isUniform(statisticSamples, width, cellStart, cellEnd, height)));
+                        if (index >= 0 && uniformStatistic) {
+                            float[] outputValues = userMapValueRequired ? null : uniformCellOutputs[index];
+                            if (outputValues == null) {
+                                Arrays.fill(spatialValues, Float.NaN);
+                                spatialValues[index] = 1.0f;
+                                if (userMapValueRequired) {
+                                    final double lat = areaCalculator.getSourceCenterLat(y0 + srcRowOffset);
+                                    final double lon = areaCalculator.getSourceCenterLon(x0 + srcColOffset);
+                                    spatialValues[userMapIndex] = userMapAggregator.getUserMapValue(lat, lon);
+                                }
+                                classAggregator.completeSpatial(null, height * (x1 - x0), spatialVector);
+                                classAggregator.computeOutput(spatialVector, classOutputVector);
+                                outputValues = classOutputValues;
+                                if (!userMapValueRequired) {
+                                    uniformCellOutputs[index] = classOutputValues.clone();
+                                }
+                            }
+                            temporalBins.add(createBin(binIndex, numOutputFeatures, outputValues, statisticValue));
+                            numUniformCells++;
+                            continue;
+                        }
+                    }
+
+                    Arrays.fill(spatialValues, Float.NaN);
+                    if (cellValues != null) {
+                        cellValues.reset();
+                    }
+                    for (int y = y0; y < y0 + height; y++) {
+                        final double rowFraction = areaCalculator.getRowFraction(y + srcRowOffset);
+                        final int lineOffset = (y - y0) * width - minSrcX;
+                        for (int x = x0; x < x1; x++) {
+                            final int index = getClassIndex((short) classSamples[lineOffset + x]);
+                            if (index < 0) {
+                                continue;
+                            }
+                            final float areaFraction = (float) (rowFraction * areaCalculator.getColFraction(x + srcColOffset));
+                            final float oldValue = spatialValues[index];
+                            if (Float.isNaN(oldValue)) {
+                                spatialValues[index] = areaFraction;
+                            } else {
+                                spatialValues[index] = oldValue + areaFraction;
+                            }
+                            if (userMapValueRequired && Float.isNaN(spatialValues[userMapIndex])) {
+                                final double lat = areaCalculator.getSourceCenterLat(y + srcRowOffset);
+                                final double lon = areaCalculator.getSourceCenterLon(x + srcColOffset);
+                                spatialValues[userMapIndex] = userMapAggregator.getUserMapValue(lat, lon);
+                            }
+                            if (statisticSamples != null) {
+                                cellValues.add(statisticSamples[lineOffset + x]);
+                            }
+                        }
+                    }
+
+                    final int numObs = height * (x1 - x0);
+                    classAggregator.completeSpatial(null, numObs, spatialVector);
+                    classAggregator.computeOutput(spatialVector, classOutputVector);
+                    final float statisticValue = statistic != null ? computeStatistic(cellValues) : Float.NaN;
+                    temporalBins.add(createBin(binIndex, numOutputFeatures, classOutputValues, statisticValue));
+                }
+                metrics.endPhase(RunMetrics.Phase.PROCESS, processStartTime);
+                metrics.addBins(temporalBins.size() - numPreviousBins);
+                if (streamingWriter != null) {
+                    streamingWriter.writeBins(temporalBins);
+                    temporalBins.clear();
+                }
+                if (row % logInterval == 0) {
+                    logger.info(String.format("Aggregated row %d of %d", row, numRows));
+                }
+            }
+            logger.info(String.format("Aggregated %d cells, %d of them are covered by a single class", numCells, numUniformCells));
+            succeeded = true;
+        } finally {
+            if (streamingWriter != null) {
+                if (succeeded) {
+                    streamingWriter.close();
+                } else {
+                    streamingWriter.abort();
+                }
+            }
+        }
+        if (streamingWriter == null) {
+            binWriter.write(new HashMap<String, String>(), temporalBins);
+        }
+    }
+
+    private TemporalBin createBin(long binIndex, int numOutputFeatures, float[] classOutputValues, float statisticValue) {
+        final TemporalBin temporalBin = new TemporalBin(binIndex, numOutputFeatures);
+        final WritableVector outputVector = temporalBin.toVector();
+        for (int i = 0; i < classOutputValues.length; i++) {
+            outputVector.set(i, classOutputValues[i]);
+        }
+        if (statistic != null) {
+            outputVector.set(classOutputValues.length, statisticValue);
+        }
+        return temporalBin;
+    }
+
+    /**
+     * @return {@code true} if the samples of the given columns are equal in all lines of the block
+     */
+    static boolean isUniform(float[] samples, int lineWidth, int colStart, int colEnd, int numLines) {
+        final float value = samples[colStart];
+        for (int line = 0; line < numLines; line++) {
+            final int lineOffset = line * lineWidth;
+            for (int i = lineOffset + colStart; i < lineOffset + colEnd; i++) {
+                if (samples[i] != value) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int getClassIndex(int classValue) {
+        if (classValue >= 0 && classValue < classIndexLut.length) {
+            return classIndexLut[classValue];
+        }
+        return invalidClassIndex;
+    }
+
+    private float computeStatistic(BoundedValueCounter values) {
+        if (statistic == CellStatistic.MEDIAN) {
+            return values.computeMedian();
+        } else {
+            return values.computeMajority();
+        }
+    }
+
+    /**
+     * Determines for each target row (or column) the range of source pixels whose centres are located in it.
+     */
+    private void computeSourceRanges(int numSourcePixels, int srcOffset, int firstTarget, boolean rows,
+                                     int[] srcStart, int[] srcEnd) {
+        Arrays.fill(srcStart, 0);
+        Arrays.fill(srcEnd, 0);
+        final int numTargets = srcStart.length;
+        for (int i = 0; i < numSourcePixels; i++) {
+            final int globalIndex = i + srcOffset;
+            final int target = (rows ? areaCalculator.getTargetRow(globalIndex) : areaCalculator.getTargetCol(globalIndex)) - firstTarget;
+            if (target < 0 || target >= numTargets) {
+                continue;
+            }
+            if (srcEnd[target] == 0) {
+                srcStart[target] = i;
+            }
+            srcEnd[target] = i + 1;
+        }
+    }
+
+    /**
+     * @return pixel size in x and y and the column and row of the upper left pixel within the global raster,
+     * or {@code null} if the product is not located on a global lat/lon raster
+     */
+    static double[] getSourceLattice(Product sourceProduct) {
+        final GeoCoding geoCoding = sourceProduct.getSceneGeoCoding();
+        if (!(geoCoding instanceof CrsGeoCoding)) {
+            return null;
+        }
+        if (!CRS.equalsIgnoreMetadata(DefaultGeographicCRS.WGS84, geoCoding.getMapCRS())) {
+            return null;
+        }
+        final MathTransform imageToMap = geoCoding.getImageToMapTransform();
+        if (!(imageToMap instanceof AffineTransform)) {
+            return null;
+        }
+        final AffineTransform transform = (AffineTransform) imageToMap;
+        if (transform.getShearX() != 0.0 || transform.getShearY() != 0.0
+            || transform.getScaleX() <= 0.0 || transform.getScaleY() >= 0.0) {
+            return null;
+        }
+        final double pixelSizeX = transform.getScaleX();
+        final double pixelSizeY = -transform.getScaleY();
+        final double colOffset = (transform.getTranslateX() + 180.0) / pixelSizeX;
+        final double rowOffset = (90.0 - transform.getTranslateY()) / pixelSizeY;
+        if (!isInteger(360.0 / pixelSizeX) || !isInteger(180.0 / pixelSizeY)
+            || !isInteger(colOffset) || !isInteger(rowOffset) || colOffset < -0.5 || rowOffset < -0.5
+            || Math.round(colOffset) + sourceProduct.getSceneRasterWidth() > Math.round(360.0 / pixelSizeX)
+            || Math.round(rowOffset) + sourceProduct.getSceneRasterHeight() > Math.round(180.0 / pixelSizeY)) {
+            return null;
+        }
+        return new double[]{pixelSizeX, pixelSizeY, colOffset, rowOffset};
+    }
+
+    private static boolean isInteger(double value) {
+        return Math.abs(value - Math.round(value)) < LATTICE_TOLERANCE * Math.max(1.0, Math.abs(value));
+    }
+
+}
@@ -12,14 +12,12 @@ import org.esa.snap.core.gpf.OperatorSpi;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.cci.lc.io.LcBinWriter;
 import org.esa.cci.lc.io.LcCondMetadata;
-import org.esa.cci.lc.util.PlanetaryGridName;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 
 import java.io.File;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Locale;
 
 /**
  * The LC map and conditions products are delivered in a full spatial resolution version, both as global
@@ -51,6 +49,7 @@ public class LcCondAggregationOp extends AbstractLcAggregationOp {
     public void initialize() throws OperatorException {
         super.initialize();
         validateInputSettings();
+        validateGridFormat(getGridName(), format);
         final String planetaryGridClassName = getPlanetaryGridClassName();
 
         HashMap<String, String> lcProperties = getLcProperties();
@@ -108,10 +107,7 @@ public class LcCondAggregationOp extends AbstractLcAggregationOp {
         String temporalCoverageYears = String.valueOf(Integer.parseInt(endYear) - Integer.parseInt(startYear) + 1);
         String typeString = String.format("ESACCI-LC-L4-%s-Cond-%s-P%sY%sD", condition, spatialResolutionNominal,
                                           temporalCoverageYears, temporalResolution);
-        int numRows = getNumRows();
-        String aggrResolution = getGridName().equals(PlanetaryGridName.GEOGRAPHIC_LAT_LON)
-                                ? String.format(Locale.ENGLISH, "aggregated-%.6fDeg", 180.0 / numRows)
-                                : String.format(Locale.ENGLISH, "aggregated-N" + numRows / 2);
+        String aggrResolution = getAggregatedResolution();
         lcProperties.put("type", typeString);
         String id;
         final String regionIdentifier = getRegionIdentifier();
@@ -6,10 +6,10 @@ import org.esa.snap.binning.Observation;
 import org.esa.snap.binning.VariableContext;
 import org.esa.snap.binning.Vector;
 import org.esa.snap.binning.WritableVector;
-import org.esa.snap.binning.support.GrowableVector;
 
-import java.awt.geom.FlatteningPathIterator;
 import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * This class implements a majority selection to aggregate the change count.
@@ -19,8 +19,20 @@ class LcMajorityAggregator extends AbstractAggregator {
     private final int varIndex;
     private final String contextNameSpace;
     private final int rowRatio;
+    private final int maxHistogramValue;
+    // counters of completed bins, reused for the next bins
+    private final Queue<BoundedValueCounter> counterPool;
 
     LcMajorityAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames, int rowRatio) {
+        this(varCtx, sourceVarNames, targetVarNames, rowRatio, -1);
+    }
+
+    /**
+     * @param maxHistogramValue the largest source value counted in a histogram instead of being sorted,
+     *                          a negative value if the source values are not bounded integers
+     */
+    LcMajorityAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames, int rowRatio,
+                         int maxHistogramValue) {
         super(LcMajorityAggregatorDescriptor.NAME,
               targetVarNames,
               targetVarNames,
@@ -28,36 +40,54 @@ class LcMajorityAggregator extends AbstractAggregator {
         varIndex = varCtx.getVariableIndex(sourceVarNames[0]);
         contextNameSpace = targetVarNames[0] + hashCode();
         this.rowRatio = rowRatio;
+        this.maxHistogramValue = maxHistogramValue;
+        counterPool = new ConcurrentLinkedQueue<>();
     }
 
     @Override
     public void initSpatial(BinContext ctx, WritableVector vector) {
-        ctx.put(contextNameSpace, new GrowableVector(rowRatio*rowRatio));
+        BoundedValueCounter counter = counterPool.poll();
+        if (counter == null) {
+            counter = new BoundedValueCounter(maxHistogramValue, rowRatio * rowRatio);
+        }
+        ctx.put(contextNameSpace, counter);
     }
 
     @Override
     public void aggregateSpatial(BinContext ctx, Observation observationVector, WritableVector spatialVector) {
-        final GrowableVector growableVector = ctx.get(contextNameSpace);
-        growableVector.add(observationVector.get(varIndex));
+        final BoundedValueCounter counter = ctx.get(contextNameSpace);
+        counter.add(observationVector.get(varIndex));
     }
 
     @Override
     public void completeSpatial(BinContext ctx, int numSpatialObs, WritableVector spatialVector) {
-        final GrowableVector growableVector = ctx.get(contextNameSpace);
-        final float[] elements = growableVector.getElements();
-        Arrays.sort(elements);
+        final BoundedValueCounter counter = ctx.get(contextNameSpace);
+        final float majorityValue = counter.computeMajority();
+
+        spatialVector.set(0, majorityValue);
+        ctx.put(contextNameSpace, null);
+        counter.reset();
+        counterPool.offer(counter);
+    }
+
+    /**
+     * Sorts the first {@code length} elements and determines the most frequent value. If several values
+     * occur equally often the smallest one is taken.
+     */
+    static float computeMajority(float[] elements, int length) {
+        Arrays.sort(elements, 0, length);
         float majorityValue;
-        if (elements.length > 0) {
+        if (length > 0) {
             majorityValue = elements[0];
             int majorityCount = 1;
             int i0 = 0;
             for (int i = 1; ; ++i) {
-                if (i >= elements.length || elements[i] != elements[i0]) {
+                if (i >= length || elements[i] != elements[i0]) {
                     if (i - i0 > majorityCount) {
                         majorityValue = elements[i0];
                         majorityCount = i-i0;
                     }
-                    if (i >= elements.length) {
+                    if (i >= length) {
                         break;
                     }
                     i0 = i;
@@ -66,9 +96,7 @@ class LcMajorityAggregator extends AbstractAggregator {
         } else {
             majorityValue = Float.NaN;
         }
-
-        spatialVector.set(0, majorityValue);
-        ctx.put(contextNameSpace, null);
+        return majorityValue;
     }
 
     @Override
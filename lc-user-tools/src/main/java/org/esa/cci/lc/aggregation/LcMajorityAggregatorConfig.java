@@ -13,6 +13,8 @@ class LcMajorityAggregatorConfig extends AggregatorConfig {
 
     private int rowRatio;
 
+    private int maxHistogramValue = -1;
+
     LcMajorityAggregatorConfig() {
         super(LcMajorityAggregatorDescriptor.NAME);
     }
@@ -24,6 +26,15 @@ class LcMajorityAggregatorConfig extends AggregatorConfig {
         this.rowRatio = rowRatio;
     }
 
+    /**
+     * @param maxHistogramValue the largest source value counted in a histogram, see
+     *                          {@link BoundedValueCounter#getMaxHistogramValue(org.esa.snap.core.datamodel.RasterDataNode)}
+     */
+    LcMajorityAggregatorConfig(final String sourceVarName, final String targetVarName, int rowRatio, int maxHistogramValue) {
+        this(sourceVarName, targetVarName, rowRatio);
+        this.maxHistogramValue = maxHistogramValue;
+    }
+
     public String getSourceVarName() {
         return sourceVarName;
     }
@@ -35,4 +46,8 @@ class LcMajorityAggregatorConfig extends AggregatorConfig {
     public int getRowRatio() {
         return rowRatio;
     }
+
+    public int getMaxHistogramValue() {
+        return maxHistogramValue;
+    }
 }
@@ -24,7 +24,8 @@ public class LcMajorityAggregatorDescriptor implements AggregatorDescriptor {
         return new LcMajorityAggregator(varCtx,
                                         getSourceVarNames(aggregatorConfig),
                                         getTargetVarNames(aggregatorConfig),
-                                        ((LcMajorityAggregatorConfig)aggregatorConfig).getRowRatio());
+                                        ((LcMajorityAggregatorConfig)aggregatorConfig).getRowRatio(),
+                                        ((LcMajorityAggregatorConfig)aggregatorConfig).getMaxHistogramValue());
     }
 
     @Override
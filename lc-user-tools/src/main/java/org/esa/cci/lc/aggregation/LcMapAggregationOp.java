@@ -3,24 +3,29 @@ package org.esa.cci.lc.aggregation;
 import org.esa.cci.lc.io.*;
 import org.esa.snap.binning.AggregatorConfig;
 import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.operator.BinWriter;
 import org.esa.snap.binning.operator.BinningOp;
+import org.esa.snap.binning.support.VariableContextImpl;
 import org.esa.snap.core.dataio.ProductIO;
-import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
+import org.esa.cci.lc.subset.PredefinedRegion;
 import org.esa.cci.lc.util.LcHelper;
 import org.esa.cci.lc.util.PlanetaryGridName;
+import org.esa.cci.lc.util.RunMetrics;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.List;
 
 /**
  * The LC map and conditions products are delivered in a full spatial resolution version, both as global
@@ -80,29 +85,154 @@ public class LcMapAggregationOp extends AbstractLcAggregationOp {
             label = "Output Change Count Value", defaultValue = "true")
     private boolean outputChangeCount;
 
-    @Parameter(description = "Format of the output file: lccci,lccds",defaultValue = "lccci")
-    private String format;
+    @Parameter(description = "Formats of the output files: lccci, lccds, lcpft. The lcpft format is written by the lccci " +
+            "writer. If several formats are given, the aggregation is computed once and written in all formats. The " +
+            "file of the first format is named as usual, the files of the further formats get the format as suffix, " +
+            "e.g. <name>-lccds.nc.",
+            defaultValue = "lccci")
+    private String[] format;
 
     @Parameter(description = "Output chunk size in format height:width, defaults to 2025:2025", defaultValue = "2025:2025")
     private String outputTileSize;
 
+    @Parameter(description = "Further target grids, each given as GRID_NAME:numRows, e.g. GEOGRAPHIC_LAT_LON:720, " +
+            "REGULAR_GAUSSIAN_GRID:320 or REDUCED_GAUSSIAN_GRID:320. One product is written for each grid. If possible, " +
+            "the source is read only once for all grids.",
+            label = "Additional Target Grids")
+    private String[] additionalTargetGrids;
+
+    @Parameter(description = "Further predefined regions. One product is written for each region and each target " +
+            "grid. If possible, the source is read only once for all regions.",
+            label = "Additional Predefined Regions")
+    private PredefinedRegion[] additionalRegions;
+
+    @Parameter(description = "Number of latitude stripes the target grid is split into for a partitioned " +
+            "aggregation. Each stripe is aggregated by a separate worker process, see stripeIndex.",
+            label = "Number of Stripes", defaultValue = "1")
+    private int numStripes;
+
+    @Parameter(description = "The stripe aggregated by this worker, from 0 to numStripes - 1. If not given for a " +
+            "partitioned aggregation, the stripes already aggregated by the workers are merged into the target product.",
+            label = "Stripe Index")
+    private Integer stripeIndex;
+
+    @Parameter(description = "The directory the partial results of the stripes are written to. It must be shared " +
+            "by all workers. If not given, the target directory is used.",
+            label = "Stripe Directory")
+    private File stripeDir;
+
+    @Parameter(description = "Number of target rows after which the completed rows are saved as checkpoint in the " +
+            "target directory. 0 means no checkpoints after a number of rows.",
+            label = "Checkpoint Rows", defaultValue = "0")
+    private int checkpointRows;
+
+    @Parameter(description = "Time after which the completed rows are saved as checkpoint in the target directory. " +
+            "0 means no checkpoints after a time.",
+            label = "Checkpoint Interval", unit = "s", defaultValue = "0")
+    private int checkpointInterval;
+
+    @Parameter(description = "Whether to resume an interrupted aggregation at the last checkpoint found in the " +
+            "target directory.",
+            label = "Resume", defaultValue = "false")
+    private boolean resume;
+
     boolean outputTargetProduct;
 
+    private UserMapSampler userMapSampler;
+
     @Override
     public void initialize() throws OperatorException {
         super.initialize();
         validateInputSettings();
+        if (additionalUserMap != null) {
+            // one sampler for all aggregators of this run, closed when the operator is disposed
+            try {
+                userMapSampler = UserMapSampler.read(additionalUserMap);
+            } catch (IOException e) {
+                throw new OperatorException("Could not read additional user map product.", e);
+            }
+        }
+        setRunMetrics(RunMetrics.start(getClass().getSimpleName() + "-" + getSourceProduct().getName()));
+        boolean succeeded = false;
+        try {
+            aggregate();
+            succeeded = true;
+        } finally {
+            if (succeeded) {
+                writeMetricsReports();
+            }
+            getRunMetrics().close();
+        }
+    }
 
-        Product source = getSourceProduct();
-        final String planetaryGridClassName = getPlanetaryGridClassName();
-        final String mapType = source.getFileLocation() != null ? LcMapMetadata.mapTypeOf(source.getFileLocation().getName()) : "unknown";
-        final MetadataElement globalAttributes = source.getMetadataRoot().getElement("Global_Attributes");
+    @Override
+    public void dispose() {
+        if (userMapSampler != null) {
+            userMapSampler.close();
+            userMapSampler = null;
+        }
+        super.dispose();
+    }
+
+    private void aggregate() {
+        final TargetGrid primaryTarget = new TargetGrid(getGridName(), getNumRows(), getPredefinedRegion());
+        final List<TargetGrid> additionalTargets = createAdditionalTargets(primaryTarget);
+
+        final String mapType = getMapType();
         final HashMap<String, String> lcProperties = getLcProperties();
         LcHelper.addPFTTableInfoToLcProperties(lcProperties, outputPFTClasses, userPFTConversionTable, additionalUserMapPFTConversionTable);
         lcProperties.put(LcHelper.PROP_NAME_TILE_SIZE, outputTileSize);
         addAggregationTypeToLcProperties("Map");
-        addGridNameToLcProperties(planetaryGridClassName);
-        addMetadataToLcProperties(globalAttributes);
+
+        if (isCheckpointing() && (numStripes > 1 || !additionalTargets.isEmpty())) {
+            throw new OperatorException("Checkpoints can not be combined with a partitioned aggregation or with " +
+                                        "additional target grids or regions.");
+        }
+        if (numStripes > 1) {
+            if (!additionalTargets.isEmpty()) {
+                throw new OperatorException("A partitioned aggregation can not be combined with additional target grids or regions.");
+            }
+            final HashMap<String, String> targetProperties = createTargetLcProperties(mapType);
+            aggregatePartitioned(targetProperties, getOutputFilePath(targetProperties.get("id") + ".nc"));
+            setTargetProduct(new Product("dummy", "dummyType", 10, 10));
+            return;
+        }
+        if (!additionalTargets.isEmpty()) {
+            final List<TargetGrid> targetGrids = new ArrayList<>();
+            targetGrids.add(primaryTarget);
+            targetGrids.addAll(additionalTargets);
+            if (isMultiGridApplicable(targetGrids)) {
+                aggregateMultiGrid(targetGrids, mapType);
+                selectTargetGrid(primaryTarget);
+                setTargetProduct(new Product("dummy", "dummyType", 10, 10));
+                return;
+            }
+            // the source is aggregated in a separate pass for each of the additional grids and regions
+            for (TargetGrid additionalTarget : additionalTargets) {
+                selectTargetGrid(additionalTarget);
+                final HashMap<String, String> targetProperties = createTargetLcProperties(mapType);
+                aggregateSingleGrid(targetProperties, new File(getTargetDir(), targetProperties.get("id") + ".nc").getPath());
+            }
+            selectTargetGrid(primaryTarget);
+        }
+        final HashMap<String, String> targetProperties = createTargetLcProperties(mapType);
+        setTargetProduct(aggregateSingleGrid(targetProperties, getOutputFilePath(targetProperties.get("id") + ".nc")));
+    }
+
+    private Product aggregateSingleGrid(HashMap<String, String> lcProperties, String outputFilePath) {
+        Product source = getSourceProduct();
+        final String planetaryGridClassName = getPlanetaryGridClassName();
+        final ReferencedEnvelope regionEnvelope = getRegionEnvelope();
+        if (!outputTargetProduct && LcBlockAggregator.isApplicable(source, createPlanetaryGrid())) {
+            final PlanetaryGrid planetaryGrid = createPlanetaryGrid();
+            aggregateBlockwise(createBlockAggregator(planetaryGrid), planetaryGrid, format, lcProperties, regionEnvelope,
+                               outputFilePath);
+            return new Product("dummy", "dummyType", 10, 10);
+        }
+        if (isCheckpointing()) {
+            throw new OperatorException("Checkpoints can only be written if the source product is located on a " +
+                                        "lat/lon raster and the target grid is " + PlanetaryGridName.GEOGRAPHIC_LAT_LON + ".");
+        }
 
         BinningOp binningOp;
         try {
@@ -111,32 +241,47 @@ public class LcMapAggregationOp extends AbstractLcAggregationOp {
         } catch (Exception e) {
             throw new OperatorException("Could not create binning operator.", e);
         }
-        final ReferencedEnvelope regionEnvelope = getRegionEnvelope();
         if (regionEnvelope != null) {
             source = createSubset(source, regionEnvelope);
         }
 
-        String id = createTypeAndID(lcProperties, mapType);
-        initBinningOp(planetaryGridClassName, binningOp, id + ".nc");
+        initBinningOp(planetaryGridClassName, binningOp, outputFilePath);
         binningOp.setSourceProduct(source);
         binningOp.setOutputTargetProduct(outputTargetProduct);
         binningOp.setParameter("outputBinnedData", true);
-        binningOp.setBinWriter(new LcBinWriter(lcProperties, regionEnvelope));
-
-        if (format.equals("lccds")) {
-            setOutputFormat(LcCdsNetCDF4WriterPlugin.FORMAT_NAME);
-            binningOp.setBinWriter(new LcCdsBinWriter(
-                    lcProperties,
-                    regionEnvelope,
-                    getSourceProduct().getMetadataRoot().getElement("global_attributes")));
-        }
+        // the output context is set by the binning operator
+        final BinWriter binWriter = createFormatWriters(format, lcProperties, regionEnvelope, null, null);
+        binWriter.setTargetFileTemplatePath(outputFilePath);
+        binningOp.setBinWriter(binWriter);
 
         Product dummyTarget = binningOp.getTargetProduct();
-        setTargetProduct(dummyTarget);
+        if (!outputTargetProduct) {
+            // the binning operator has read all source pixels and written the target already
+            getRunMetrics().addPixels((long) source.getSceneRasterWidth() * source.getSceneRasterHeight());
+            getOutputFiles().addAll(getTargetFiles(binWriter));
+        }
 
-        if (format.equals("lccds") || format.equals("lcpft")) {
+        if (isFormatSelected("lccds") || isFormatSelected("lcpft")) {
             binningOp.setOutputFormat("NetCDF4-LC-CDS");
         }
+        return dummyTarget;
+    }
+
+    /**
+     * Creates the LC properties of the currently selected target grid. The properties are a copy because the bin
+     * writers consume some of them.
+     */
+    private HashMap<String, String> createTargetLcProperties(String mapType) {
+        addGridNameToLcProperties(getPlanetaryGridClassName());
+        addMetadataToLcProperties(getSourceProduct().getMetadataRoot().getElement("Global_Attributes"));
+        final HashMap<String, String> targetProperties = new HashMap<>(getLcProperties());
+        createTypeAndID(targetProperties, mapType);
+        return targetProperties;
+    }
+
+    private String getMapType() {
+        final Product source = getSourceProduct();
+        return source.getFileLocation() != null ? LcMapMetadata.mapTypeOf(source.getFileLocation().getName()) : "unknown";
     }
 
     private String createTypeAndID(HashMap<String, String> lcProperties, String mapType) {
@@ -148,10 +293,7 @@ public class LcMapAggregationOp extends AbstractLcAggregationOp {
         int endYear = Integer.parseInt(lcProperties.get("endTime").substring(0, 4));
         String epoch = String.valueOf((endYear + startYear) / 2);
 
-        int numRows = getNumRows();
-        String aggrResolution = getGridName().equals(PlanetaryGridName.GEOGRAPHIC_LAT_LON)
-                ? String.format(Locale.ENGLISH, "aggregated-%.6fDeg", 180.0 / numRows)
-                : String.format(Locale.ENGLISH, "aggregated-N" + numRows / 2);
+        String aggrResolution = getAggregatedResolution();
         final String regionIdentifier = getRegionIdentifier();
         lcProperties.put("type", typeString);
         String id;
@@ -165,7 +307,7 @@ public class LcMapAggregationOp extends AbstractLcAggregationOp {
 
     }
 
-    private void initBinningOp(String planetaryGridClassName, BinningOp binningOp, String outputFilename) {
+    private void initBinningOp(String planetaryGridClassName, BinningOp binningOp, String outputFilePath) {
 
         Product sourceProduct = getSourceProduct();
         final String mapType = sourceProduct.getFileLocation() != null ? LcMapMetadata.mapTypeOf(sourceProduct.getFileLocation().getName()) : "unknown";
@@ -174,40 +316,363 @@ public class LcMapAggregationOp extends AbstractLcAggregationOp {
         final double sourceMapResolutionX = 180.0 / sceneHeight;
         final double sourceMapResolutionY = 360.0 / sceneWidth;
         PlanetaryGrid planetaryGrid = createPlanetaryGrid();
-        AreaCalculator areaCalculator = new FractionalAreaCalculator(planetaryGrid, sourceMapResolutionX, sourceMapResolutionY);
+        AreaCalculator areaCalculator = createAreaCalculator(planetaryGrid, sourceMapResolutionX, sourceMapResolutionY);
 
         final int numRows = getNumRows();
         binningOp.setNumRows(numRows);
         binningOp.setSuperSampling(1);
         final int rowRatio = (sceneHeight + numRows - 1) / numRows;
         getLogger().info("upper bounds of pixel area ratio between input and output is " + rowRatio*rowRatio);
-        URL userPFTConversionTableUrl = convertFileToUrl(userPFTConversionTable);
-        URL additionalUserMapUrl = convertFileToUrl(additionalUserMap);
-        URL additionalUserMapPFTConversionUrl = convertFileToUrl(additionalUserMapPFTConversionTable);
-        LcMapAggregatorConfig lcMapAggregatorConfig = new LcMapAggregatorConfig(outputLCCSClasses, numMajorityClasses,
-                                                                                outputPFTClasses, userPFTConversionTableUrl,
-                                                                                additionalUserMapUrl, outputUserMapClasses,
-                                                                                additionalUserMapPFTConversionUrl,
-                                                                                areaCalculator);
+        LcMapAggregatorConfig lcMapAggregatorConfig = createMapAggregatorConfig(areaCalculator);
         AggregatorConfig[] aggregatorConfigs;
-        if (outputAccuracy && sourceProduct.containsBand("algorithmic_confidence_level")) {
+        if (isAccuracyOutput(sourceProduct)) {
             final String accuracyVariable = "Map".equals(mapType) ? "algorithmic_confidence_level" : "label_confidence_level";
-            final LcAccuracyAggregatorConfig lcAccuracyAggregatorConfig = new LcAccuracyAggregatorConfig(accuracyVariable, "confidence", rowRatio);
+            final int maxHistogramValue = BoundedValueCounter.getMaxHistogramValue(sourceProduct.getBand(accuracyVariable));
+            final LcAccuracyAggregatorConfig lcAccuracyAggregatorConfig = new LcAccuracyAggregatorConfig(accuracyVariable, "confidence", rowRatio, maxHistogramValue);
             aggregatorConfigs = new AggregatorConfig[]{lcMapAggregatorConfig, lcAccuracyAggregatorConfig};
-        } else if (outputChangeCount && sourceProduct.containsBand("change_count")) {
+        } else if (isChangeCountOutput(sourceProduct)) {
             final String majorityVariable = "change_count";
-            final LcMajorityAggregatorConfig lcMajorityAggregatorConfig = new LcMajorityAggregatorConfig(majorityVariable, "change_count", rowRatio);
+            final int maxHistogramValue = BoundedValueCounter.getMaxHistogramValue(sourceProduct.getBand(majorityVariable));
+            final LcMajorityAggregatorConfig lcMajorityAggregatorConfig = new LcMajorityAggregatorConfig(majorityVariable, "change_count", rowRatio, maxHistogramValue);
             aggregatorConfigs = new AggregatorConfig[]{lcMapAggregatorConfig, lcMajorityAggregatorConfig};
         } else {
             aggregatorConfigs = new AggregatorConfig[]{lcMapAggregatorConfig};
         }
         binningOp.setAggregatorConfigs(aggregatorConfigs);
         binningOp.setPlanetaryGridClass(planetaryGridClassName);
-        binningOp.setOutputFile(getOutputFile() == null ? new File(getTargetDir(), outputFilename).getPath() : getOutputFile());
+        binningOp.setOutputFile(outputFilePath);
         binningOp.setOutputType(getOutputType() == null ? "Product" : getOutputType());
         binningOp.setOutputFormat(getOutputFormat());
     }
 
+    @Override
+    protected void aggregateBlocks(LcBlockAggregator blockAggregator, PlanetaryGrid planetaryGrid,
+                                   ReferencedEnvelope regionEnvelope, StreamingBinWriter binWriter,
+                                   String productId) throws IOException {
+        if (isCheckpointing()) {
+            aggregateWithCheckpoints(blockAggregator, planetaryGrid, regionEnvelope, binWriter, productId);
+        } else {
+            super.aggregateBlocks(blockAggregator, planetaryGrid, regionEnvelope, binWriter, productId);
+        }
+    }
+
+    /**
+     * Aggregates the source product row by row and saves the completed rows as checkpoint in the target directory.
+     * When all rows are completed, the checkpoint is merged into the target product and deleted.
+     */
+    private void aggregateWithCheckpoints(LcBlockAggregator blockAggregator, PlanetaryGrid planetaryGrid,
+                                          ReferencedEnvelope regionEnvelope, StreamingBinWriter binWriter,
+                                          String productId) throws IOException {
+        final int[] rows = getAggregatedRows(planetaryGrid, regionEnvelope);
+        final AggregationCheckpoint checkpoint = new AggregationCheckpoint(getTargetDir(), productId, rows[0], rows[1],
+                                                                           blockAggregator.getOutputFeatureNames());
+        if (resume && checkpoint.load()) {
+            getLogger().info(String.format("Resuming the aggregation at row %d, rows %d to %d are completed",
+                                           checkpoint.getResumeRow(), rows[0], checkpoint.getResumeRow() - 1));
+        } else {
+            checkpoint.delete();
+        }
+        if (!checkpoint.isComplete()) {
+            blockAggregator.setTargetRows(checkpoint.getResumeRow(), checkpoint.getEndRow() - checkpoint.getResumeRow());
+            final StreamingBinWriter checkpointWriter = checkpoint.createBinWriter(planetaryGrid, checkpointRows,
+                                                                                   checkpointInterval * 1000L);
+            checkpointWriter.setLogger(getLogger());
+            blockAggregator.aggregate(checkpointWriter, regionEnvelope);
+        }
+        final StripeBinMerger segmentMerger = new StripeBinMerger(checkpoint.getSegmentFiles(), rows[0], rows[1]);
+        segmentMerger.setLogger(getLogger());
+        segmentMerger.merge(binWriter, checkpoint.getFeatureNames());
+        checkpoint.delete();
+    }
+
+    private boolean isCheckpointing() {
+        return checkpointRows > 0 || checkpointInterval > 0 || resume;
+    }
+
+    /**
+     * @return the first row and the number of rows of the target grid covered by the region, or of the whole grid
+     */
+    private static int[] getAggregatedRows(PlanetaryGrid planetaryGrid, ReferencedEnvelope regionEnvelope) {
+        if (regionEnvelope != null) {
+            final RegionalPlanetaryGrid regionalGrid = new RegionalPlanetaryGrid(planetaryGrid, regionEnvelope);
+            return new int[]{regionalGrid.getRowOffset(), regionalGrid.getNumRows()};
+        }
+        return new int[]{0, planetaryGrid.getNumRows()};
+    }
+
+    private LcBlockAggregator createBlockAggregator(PlanetaryGrid planetaryGrid) {
+        final Product sourceProduct = getSourceProduct();
+        final LcMapAggregator mapAggregator = createBlockMapAggregator(planetaryGrid);
+        final LcBlockAggregator blockAggregator = new LcBlockAggregator(sourceProduct, planetaryGrid, "lccs_class",
+                                                                        mapAggregator, LCCS.getInstance().getClassIndexLut(), 0);
+        blockAggregator.setUserMapAggregator(mapAggregator);
+        if (isAccuracyOutput(sourceProduct)) {
+            blockAggregator.setCellStatistic(getAccuracyVariable(), "confidence", LcBlockAggregator.CellStatistic.MEDIAN);
+        } else if (isChangeCountOutput(sourceProduct)) {
+            blockAggregator.setCellStatistic("change_count", "change_count", LcBlockAggregator.CellStatistic.MAJORITY);
+        }
+        blockAggregator.setLogger(getLogger());
+        blockAggregator.setRunMetrics(getRunMetrics());
+        return blockAggregator;
+    }
+
+    /**
+     * Partitioned aggregation, the target grid is split into latitude stripes of about the same number of rows.
+     * If a stripe index is given, only this stripe is aggregated into a partial bin file. Otherwise the partial
+     * files of all stripes are merged into the target product.
+     */
+    private void aggregatePartitioned(HashMap<String, String> lcProperties, String outputFilePath) {
+        final PlanetaryGrid planetaryGrid = createPlanetaryGrid();
+        if (outputTargetProduct || !LcBlockAggregator.isApplicable(getSourceProduct(), planetaryGrid)) {
+            throw new OperatorException("A partitioned aggregation requires a source product on a lat/lon raster " +
+                                        "and the target grid " + PlanetaryGridName.GEOGRAPHIC_LAT_LON + ".");
+        }
+        final ReferencedEnvelope regionEnvelope = getRegionEnvelope();
+        final LcBlockAggregator blockAggregator = createBlockAggregator(planetaryGrid);
+        final String[] outputFeatureNames = blockAggregator.getOutputFeatureNames();
+        final File stripeDirectory = stripeDir != null ? stripeDir : getTargetDir();
+        final String productId = lcProperties.get("id");
+
+        final int[] rows = getAggregatedRows(planetaryGrid, regionEnvelope);
+        if (stripeIndex != null) {
+            final int[] stripeRows = getStripeRows(rows[0], rows[1], numStripes, stripeIndex);
+            blockAggregator.setTargetRows(stripeRows[0], stripeRows[1]);
+            final File stripeFile = StripeBinWriter.getStripeFile(stripeDirectory, productId, stripeIndex, numStripes);
+            final StripeBinWriter stripeWriter = new StripeBinWriter(stripeIndex, numStripes, stripeRows[0], stripeRows[1]);
+            stripeWriter.setOutputFeatureNames(outputFeatureNames);
+            stripeWriter.setTargetFileTemplatePath(stripeFile.getPath());
+            stripeWriter.setLogger(getLogger());
+            getOutputFiles().add(stripeFile);
+            getLogger().info(String.format("Aggregating stripe %d of %d with the rows %d to %d",
+                                           stripeIndex + 1, numStripes, stripeRows[0], stripeRows[0] + stripeRows[1] - 1));
+            boolean succeeded = false;
+            try {
+                blockAggregator.aggregate(stripeWriter, regionEnvelope);
+                succeeded = true;
+            } catch (IOException e) {
+                throw new OperatorException("Could not write stripe file " + stripeFile + ".", e);
+            } finally {
+                // an incomplete stripe must not be merged
+                if (!succeeded) {
+                    try {
+                        stripeWriter.abort();
+                    } catch (IOException e) {
+                        getLogger().warning("Could not close stripe file " + stripeFile + ": " + e.getMessage());
+                    }
+                    stripeFile.delete();
+                }
+            }
+            return;
+        }
+
+        final List<File> stripeFiles = new ArrayList<>();
+        for (int i = 0; i < numStripes; i++) {
+            stripeFiles.add(StripeBinWriter.getStripeFile(stripeDirectory, productId, i, numStripes));
+        }
+        final StreamingBinWriter binWriter = createBinWriter(format, lcProperties, regionEnvelope, planetaryGrid,
+                                                             outputFeatureNames, outputFilePath);
+        final StripeBinMerger stripeMerger = new StripeBinMerger(stripeFiles, rows[0], rows[1]);
+        stripeMerger.setLogger(getLogger());
+        boolean succeeded = false;
+        try {
+            stripeMerger.merge(binWriter, outputFeatureNames);
+            succeeded = true;
+        } catch (IOException e) {
+            throw new OperatorException("Could not merge the stripes of the partitioned aggregation.", e);
+        } finally {
+            if (!succeeded) {
+                for (File targetFile : getTargetFiles(binWriter)) {
+                    targetFile.delete();
+                }
+            }
+        }
+        for (File stripeFile : stripeFiles) {
+            stripeFile.delete();
+        }
+    }
+
+    /**
+     * @return the first row and the number of rows of the given stripe, when the rows starting at firstRow are
+     * split into the given number of stripes
+     */
+    static int[] getStripeRows(int firstRow, int numRows, int numStripes, int stripeIndex) {
+        final int start = firstRow + (int) ((long) numRows * stripeIndex / numStripes);
+        final int end = firstRow + (int) ((long) numRows * (stripeIndex + 1) / numStripes);
+        return new int[]{start, end - start};
+    }
+
+    /**
+     * Aggregates the source product onto all target grids and regions in one pass over the source. Only applicable
+     * if the source product is located on a global lat/lon raster and all target grids have the same number of
+     * columns in every row.
+     */
+    private void aggregateMultiGrid(List<TargetGrid> targetGrids, String mapType) {
+        final Product sourceProduct = getSourceProduct();
+        final LcMultiGridAggregator multiGridAggregator = new LcMultiGridAggregator(sourceProduct, "lccs_class",
+                                                                                    LCCS.getInstance().getClassIndexLut(), 0);
+        if (isAccuracyOutput(sourceProduct)) {
+            multiGridAggregator.setCellStatistic(getAccuracyVariable(), "confidence", LcBlockAggregator.CellStatistic.MEDIAN);
+        } else if (isChangeCountOutput(sourceProduct)) {
+            multiGridAggregator.setCellStatistic("change_count", "change_count", LcBlockAggregator.CellStatistic.MAJORITY);
+        }
+        multiGridAggregator.setLogger(getLogger());
+        multiGridAggregator.setRunMetrics(getRunMetrics());
+
+        for (int i = 0; i < targetGrids.size(); i++) {
+            selectTargetGrid(targetGrids.get(i));
+            final ReferencedEnvelope regionEnvelope = getRegionEnvelope();
+            final HashMap<String, String> targetProperties = createTargetLcProperties(mapType);
+            final String outputFilename = targetProperties.get("id") + ".nc";
+            // only the primary target may be written to an explicitly given output file
+            final String outputFilePath = i == 0 ? getOutputFilePath(outputFilename) : new File(getTargetDir(), outputFilename).getPath();
+            final PlanetaryGrid planetaryGrid = createPlanetaryGrid();
+            final LcMapAggregator mapAggregator = createBlockMapAggregator(planetaryGrid);
+            final BinWriter binWriter = createBinWriter(format, targetProperties, regionEnvelope, planetaryGrid,
+                                                        multiGridAggregator.getOutputFeatureNames(mapAggregator), outputFilePath);
+            multiGridAggregator.addTarget(planetaryGrid, mapAggregator, mapAggregator, regionEnvelope, binWriter);
+        }
+        try {
+            multiGridAggregator.aggregate();
+        } catch (IOException e) {
+            throw new OperatorException("Could not write aggregated products.", e);
+        }
+    }
+
+    /**
+     * Writes the metrics of the run next to each product written.
+     */
+    private void writeMetricsReports() {
+        for (File outputFile : getOutputFiles()) {
+            if (!outputFile.isFile()) {
+                continue;
+            }
+            try {
+                final File reportFile = getRunMetrics().writeReport(outputFile);
+                getLogger().info("Run metrics written to " + reportFile);
+            } catch (IOException e) {
+                getLogger().warning("Could not write run metrics of " + outputFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private LcMapAggregator createBlockMapAggregator(PlanetaryGrid planetaryGrid) {
+        final Product sourceProduct = getSourceProduct();
+        final AreaCalculator areaCalculator = createAreaCalculator(planetaryGrid,
+                                                                   180.0 / sourceProduct.getSceneRasterHeight(),
+                                                                   360.0 / sourceProduct.getSceneRasterWidth());
+        return (LcMapAggregator) new LcMapAggregatorDescriptor().createAggregator(new VariableContextImpl(),
+                                                                                  createMapAggregatorConfig(areaCalculator));
+    }
+
+    private boolean isFormatSelected(String outputFormat) {
+        return Arrays.asList(format).contains(outputFormat);
+    }
+
+    private String getAccuracyVariable() {
+        return "Map".equals(getMapType()) ? "algorithmic_confidence_level" : "label_confidence_level";
+    }
+
+    private boolean isMultiGridApplicable(List<TargetGrid> targetGrids) {
+        if (outputTargetProduct) {
+            return false;
+        }
+        for (TargetGrid targetGrid : targetGrids) {
+            selectTargetGrid(targetGrid);
+            if (!LcMultiGridAggregator.isApplicable(getSourceProduct(), createPlanetaryGrid())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the additional target grids, each given as GRID_NAME:numRows.
+     */
+    private List<TargetGrid> parseAdditionalTargetGrids() {
+        final List<TargetGrid> targetGrids = new ArrayList<>();
+        if (additionalTargetGrids == null) {
+            return targetGrids;
+        }
+        if (outputTargetProduct) {
+            throw new OperatorException("Additional target grids can not be used if the target product is requested.");
+        }
+        for (String gridSpec : additionalTargetGrids) {
+            final String[] parts = gridSpec.trim().split(":");
+            if (parts.length != 2) {
+                throw new OperatorException(String.format("Invalid target grid '%s', expected GRID_NAME:numRows.", gridSpec));
+            }
+            final PlanetaryGridName gridName;
+            final int numRows;
+            try {
+                gridName = PlanetaryGridName.valueOf(parts[0].trim());
+                numRows = Integer.parseInt(parts[1].trim());
+            } catch (IllegalArgumentException e) {
+                throw new OperatorException(String.format("Invalid target grid '%s', expected GRID_NAME:numRows.", gridSpec), e);
+            }
+            validateGridFormats(gridName, format);
+            targetGrids.add(new TargetGrid(gridName, validateGrid(gridName, numRows), getPredefinedRegion()));
+        }
+        return targetGrids;
+    }
+
+    /**
+     * Creates the targets in addition to the primary one: each additional grid combined with the primary region
+     * and every grid combined with each of the additional regions.
+     */
+    private List<TargetGrid> createAdditionalTargets(TargetGrid primaryTarget) {
+        final List<TargetGrid> additionalGrids = parseAdditionalTargetGrids();
+        final List<TargetGrid> targets = new ArrayList<>(additionalGrids);
+        if (additionalRegions == null || additionalRegions.length == 0) {
+            return targets;
+        }
+        if (outputTargetProduct) {
+            throw new OperatorException("Additional regions can not be used if the target product is requested.");
+        }
+        final List<TargetGrid> allGrids = new ArrayList<>();
+        allGrids.add(primaryTarget);
+        allGrids.addAll(additionalGrids);
+        for (PredefinedRegion region : additionalRegions) {
+            if (region == primaryTarget.predefinedRegion) {
+                continue;
+            }
+            for (TargetGrid grid : allGrids) {
+                final TargetGrid target = new TargetGrid(grid.gridName, grid.numRows, region);
+                selectTargetGrid(target);
+                validateGridRegion(target.gridName);
+                targets.add(target);
+            }
+        }
+        selectTargetGrid(primaryTarget);
+        return targets;
+    }
+
+    private void selectTargetGrid(TargetGrid targetGrid) {
+        setGridName(targetGrid.gridName);
+        setNumRows(targetGrid.numRows);
+        setPredefinedRegion(targetGrid.predefinedRegion);
+    }
+
+    private LcMapAggregatorConfig createMapAggregatorConfig(AreaCalculator areaCalculator) {
+        URL userPFTConversionTableUrl = convertFileToUrl(userPFTConversionTable);
+        URL additionalUserMapUrl = convertFileToUrl(additionalUserMap);
+        URL additionalUserMapPFTConversionUrl = convertFileToUrl(additionalUserMapPFTConversionTable);
+        final LcMapAggregatorConfig config = new LcMapAggregatorConfig(outputLCCSClasses, numMajorityClasses,
+                                                                       outputPFTClasses, userPFTConversionTableUrl,
+                                                                       additionalUserMapUrl, outputUserMapClasses,
+                                                                       additionalUserMapPFTConversionUrl,
+                                                                       areaCalculator);
+        config.setUserMapSampler(userMapSampler);
+        return config;
+    }
+
+    private boolean isAccuracyOutput(Product sourceProduct) {
+        return outputAccuracy && sourceProduct.containsBand("algorithmic_confidence_level");
+    }
+
+    private boolean isChangeCountOutput(Product sourceProduct) {
+        return outputChangeCount && sourceProduct.containsBand("change_count");
+    }
+
     private URL convertFileToUrl(File file) {
         if (file != null) {
             try {
@@ -260,6 +725,17 @@ public class LcMapAggregationOp extends AbstractLcAggregationOp {
             throw new OperatorException(String.format("The path to the PFT conversion table is not valid [%s].",
                                                       userPFTConversionTable));
         }
+        validateFormats(format);
+        validateGridFormats(getGridName(), format);
+        if (numStripes < 1) {
+            throw new OperatorException("The number of stripes must be at least 1.");
+        }
+        if (stripeIndex != null && (stripeIndex < 0 || stripeIndex >= numStripes)) {
+            throw new OperatorException(String.format("The stripe index must be between 0 and %d.", numStripes - 1));
+        }
+        if (checkpointRows < 0 || checkpointInterval < 0) {
+            throw new OperatorException("The checkpoint rows and the checkpoint interval must not be negative.");
+        }
         LCCS lccs = LCCS.getInstance();
         if (numMajorityClasses > lccs.getNumClasses()) {
             throw new OperatorException("Number of majority classes exceeds number of LC classes.");
@@ -289,6 +765,55 @@ public class LcMapAggregationOp extends AbstractLcAggregationOp {
 
     }
 
+    void setAdditionalTargetGrids(String... additionalTargetGrids) {
+        this.additionalTargetGrids = additionalTargetGrids;
+    }
+
+    void setAdditionalRegions(PredefinedRegion... additionalRegions) {
+        this.additionalRegions = additionalRegions;
+    }
+
+    void setNumStripes(int numStripes) {
+        this.numStripes = numStripes;
+    }
+
+    void setStripeIndex(Integer stripeIndex) {
+        this.stripeIndex = stripeIndex;
+    }
+
+    void setStripeDir(File stripeDir) {
+        this.stripeDir = stripeDir;
+    }
+
+    void setCheckpointRows(int checkpointRows) {
+        this.checkpointRows = checkpointRows;
+    }
+
+    void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * A target grid given by its name and the number of rows of the planetary grid, together with the predefined
+     * region it is aggregated for. A region of {@code null} stands for the user defined region or the globe.
+     */
+    private static class TargetGrid {
+
+        private final PlanetaryGridName gridName;
+        private final int numRows;
+        private final PredefinedRegion predefinedRegion;
+
+        private TargetGrid(PlanetaryGridName gridName, int numRows, PredefinedRegion predefinedRegion) {
+            this.gridName = gridName;
+            this.numRows = numRows;
+            this.predefinedRegion = predefinedRegion;
+        }
+    }
+
     /**
      * The Service Provider Interface (SPI) for the operator.
      * It provides operator meta-data and is a factory for new operator instances.
@@ -5,15 +5,6 @@ import org.esa.snap.binning.BinContext;
 import org.esa.snap.binning.Observation;
 import org.esa.snap.binning.Vector;
 import org.esa.snap.binning.WritableVector;
-import org.esa.snap.core.datamodel.Band;
-import org.esa.snap.core.datamodel.GeoPos;
-import org.esa.snap.core.datamodel.PixelPos;
-import org.esa.snap.core.datamodel.Product;
-
-import java.awt.Rectangle;
-import java.util.Collections;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 /**
  * This class implements the aggregation of LC-CCI Map products. The aggregation includes the computation
@@ -27,24 +18,31 @@ class LcMapAggregator extends AbstractAggregator {
     private AreaCalculator areaCalculator;
     private boolean outputLCCSClasses;
     private int numMajorityClasses;
-    private final Product additionalUserMap;
+    private final UserMapSampler userMapSampler;
     private final boolean outputUserMapClasses;
-    private Lccs2PftLut pftLut;
+    private CompiledPftLut pftLut;
+    private final ThreadLocal<MajorityClassSelector> majorityClassSelector;
 
     public LcMapAggregator(boolean outputLCCSClasses, int numMajorityClasses,
-                           Product additionalUserMap, boolean outputUserMapClasses,
-                           AreaCalculator calculator, Lccs2PftLut pftLut, String[] spatialFeatureNames, String[] outputFeatureNames) {
+                           UserMapSampler userMapSampler, boolean outputUserMapClasses,
+                           AreaCalculator calculator, CompiledPftLut pftLut, String[] spatialFeatureNames, String[] outputFeatureNames) {
         super(LcMapAggregatorDescriptor.NAME, spatialFeatureNames, spatialFeatureNames, outputFeatureNames);
         this.outputLCCSClasses = outputLCCSClasses;
         this.numMajorityClasses = numMajorityClasses;
-        this.additionalUserMap = additionalUserMap;
+        this.userMapSampler = userMapSampler;
         this.outputUserMapClasses = outputUserMapClasses;
         this.pftLut = pftLut;
         this.areaCalculator = calculator;
+        majorityClassSelector = new ThreadLocal<MajorityClassSelector>() {
+            @Override
+            protected MajorityClassSelector initialValue() {
+                return new MajorityClassSelector(LcMapAggregator.this.numMajorityClasses);
+            }
+        };
     }
 
     int getNumPFTs() {
-        return pftLut.getPFTNames().length;
+        return pftLut.getNumPFTs();
     }
 
     @Override
@@ -67,12 +65,16 @@ class LcMapAggregator extends AbstractAggregator {
         }
 
         final int userMapIndex = spatialVector.size() - 1;
-        if (Float.isNaN(spatialVector.get(userMapIndex)) && (outputUserMapClasses || additionalUserMap != null)) {
+        if (Float.isNaN(spatialVector.get(userMapIndex)) && isUserMapValueRequired()) {
             final float userMapValue = getUserMapValue(obsLatitude, obsLongitude);
             spatialVector.set(userMapIndex, userMapValue);
         }
     }
 
+    boolean isUserMapValueRequired() {
+        return outputUserMapClasses || userMapSampler != null;
+    }
+
     @Override
     public void completeSpatial(BinContext ctx, int numSpatialObs, WritableVector spatialVector) {
         // normalizing the data because of aggregating with float data and the float inaccuracy
@@ -113,19 +115,14 @@ class LcMapAggregator extends AbstractAggregator {
     @Override
     public void computeOutput(Vector temporalVector, WritableVector outputVector) {
         initVector(outputVector, Float.NaN);
-        SortedMap<Float, Integer> sortedMap = new TreeMap<>(Collections.reverseOrder());
         int outputVectorIndex = 0;
-        for (short i = 0; i < LCCS_CLASSES.getNumClasses(); i++) {
-            float classArea = temporalVector.get(i);
-            if (numMajorityClasses > 0 && !Float.isNaN(classArea)) {
-                sortedMap.put(classArea, LCCS_CLASSES.getClassValue(i));
-            }
-            if (outputLCCSClasses) {
-                outputVector.set(outputVectorIndex++, classArea);
+        if (outputLCCSClasses) {
+            for (int i = 0; i < LCCS_CLASSES.getNumClasses(); i++) {
+                outputVector.set(outputVectorIndex++, temporalVector.get(i));
             }
         }
-        Integer userMapValue = Integer.MIN_VALUE;
-        if (additionalUserMap != null) {
+        int userMapValue = Integer.MIN_VALUE;
+        if (userMapSampler != null) {
             final float tempUserMapValue = temporalVector.get(LCCS_CLASSES.getNumClasses());
             if (!Float.isNaN(tempUserMapValue)) {
                 userMapValue = (int) Math.floor(tempUserMapValue);
@@ -136,12 +133,13 @@ class LcMapAggregator extends AbstractAggregator {
         }
 
         if (numMajorityClasses > 0) {
-            Integer[] classesSortedByOccurrence = sortedMap.values().toArray(new Integer[sortedMap.size()]);
+            final MajorityClassSelector selector = majorityClassSelector.get();
+            final int numSelected = selector.select(temporalVector, LCCS_CLASSES.getNumClasses());
             for (int i = 0; i < numMajorityClasses; i++) {
-                if (i >= classesSortedByOccurrence.length) {
+                if (i >= numSelected) {
                     outputVector.set(outputVectorIndex++, Float.NaN);
                 } else {
-                    outputVector.set(outputVectorIndex++, classesSortedByOccurrence[i]);
+                    outputVector.set(outputVectorIndex++, LCCS_CLASSES.getClassValue(selector.getClassIndex(i)));
                 }
             }
         }
@@ -150,9 +148,7 @@ class LcMapAggregator extends AbstractAggregator {
             for (int i = 0; i < LCCS_CLASSES.getNumClasses(); i++) {
                 float classArea = temporalVector.get(i);
                 if (!Float.isNaN(classArea)) {
-                    final int lccsClass = LCCS_CLASSES.getClassValue(i);
-                    float[] classPftFactors;
-                    classPftFactors = pftLut.getConversionFactors(lccsClass, userMapValue);
+                    final float[] classPftFactors = pftLut.getFactors(i, userMapValue);
                     for (int j = 0; j < classPftFactors.length; j++) {
                         float factor = classPftFactors[j];
                         if (!Float.isNaN(factor)) {
@@ -177,13 +173,9 @@ class LcMapAggregator extends AbstractAggregator {
     }
 
     public float getUserMapValue(double obsLatitude, double obsLongitude) {
-        final Band firstBand = additionalUserMap.getBandAt(0);
-        final PixelPos pixelPos = firstBand.getGeoCoding().getPixelPos(new GeoPos((float) obsLatitude, (float) obsLongitude), null);
-        final int pixX = (int) Math.floor(pixelPos.getX());
-        final int pixY = (int) Math.floor(pixelPos.getY());
-        if (firstBand.getGeophysicalImage().getBounds().contains(pixX, pixY)) {
-            return firstBand.getGeophysicalImage().getData(new Rectangle(pixX, pixY, 1, 1)).getSample(pixX, pixY, 0);
+        if (userMapSampler == null) {
+            return Float.NaN;
         }
-        return Float.NaN;
+        return userMapSampler.getSample(obsLatitude, obsLongitude);
     }
 }
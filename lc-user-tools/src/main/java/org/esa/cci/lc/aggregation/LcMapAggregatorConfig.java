@@ -32,6 +32,7 @@ class LcMapAggregatorConfig extends AggregatorConfig {
     @Parameter(converter = AreaCalculatorConverter.class)
     private AreaCalculator areaCalculator;
 
+    private UserMapSampler userMapSampler;
 
     LcMapAggregatorConfig() {
         super(LcMapAggregatorDescriptor.NAME);
@@ -85,6 +86,18 @@ class LcMapAggregatorConfig extends AggregatorConfig {
         return userPFTConversionTable;
     }
 
+    public UserMapSampler getUserMapSampler() {
+        return userMapSampler;
+    }
+
+    /**
+     * Sets the sampler of the additional user map shared by all aggregators of an operator run. If not set, each
+     * aggregator reads the additional user map itself.
+     */
+    void setUserMapSampler(UserMapSampler userMapSampler) {
+        this.userMapSampler = userMapSampler;
+    }
+
     public String getSourceVarName() {
         return CLASS_BAND_NAME;
     }
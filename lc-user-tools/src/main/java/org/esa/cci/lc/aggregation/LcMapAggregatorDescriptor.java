@@ -4,13 +4,9 @@ import org.esa.snap.binning.Aggregator;
 import org.esa.snap.binning.AggregatorConfig;
 import org.esa.snap.binning.AggregatorDescriptor;
 import org.esa.snap.binning.VariableContext;
-import org.esa.snap.core.dataio.ProductIO;
-import org.esa.snap.core.datamodel.Product;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -51,19 +47,21 @@ public class LcMapAggregatorDescriptor implements AggregatorDescriptor {
         URL additionalUserMapPFTConversionTable = mapConf.getAdditionalUserMapPFTConversionTable();
         AreaCalculator areaCalculator = mapConf.getAreaCalculator();
 
-        Product additionalUserMapProduct;
-        try {
-            additionalUserMapProduct = additionalUserMap != null ? ProductIO.readProduct(new File(additionalUserMap.toURI())) : null;
-        } catch (IOException | URISyntaxException e) {
-            throw new IllegalStateException("Could not read additional user map product", e);
+        UserMapSampler userMapSampler = mapConf.getUserMapSampler();
+        if (userMapSampler == null && additionalUserMap != null) {
+            try {
+                userMapSampler = UserMapSampler.read(new File(additionalUserMap.toURI()));
+            } catch (IOException | URISyntaxException e) {
+                throw new IllegalStateException("Could not read additional user map product", e);
+            }
         }
 
-        Lccs2PftLut pftLut = getPftLut(outputPFTClasses, userPFTConversionTable, additionalUserMapPFTConversionTable);
+        CompiledPftLut pftLut = getPftLut(outputPFTClasses, userPFTConversionTable, additionalUserMapPFTConversionTable);
 
         String[] spatialFeatureNames = createSpatialFeatureNames(outputUserMapClasses, additionalUserMapPFTConversionTable);
         String[] outputFeatureNames = createOutputFeatureNames(outputLCCSClasses, outputUserMapClasses, numMajorityClasses, pftLut, spatialFeatureNames);
         // todo - actuallly these are to many parameters. Pass directly the configuration (mp - 20151130)
-        return new LcMapAggregator(outputLCCSClasses, numMajorityClasses, additionalUserMapProduct, outputUserMapClasses,
+        return new LcMapAggregator(outputLCCSClasses, numMajorityClasses, userMapSampler, outputUserMapClasses,
                                    areaCalculator, pftLut,
                                    spatialFeatureNames, outputFeatureNames);
     }
@@ -89,28 +87,17 @@ public class LcMapAggregatorDescriptor implements AggregatorDescriptor {
         boolean outputUserMapClasses = mapConf.isOutputUserMapClasses();
         URL additionalUserMapPFTConversionTable = mapConf.getAdditionalUserMapPFTConversionTable();
 
-        Lccs2PftLut pftLut = getPftLut(outputPFTClasses, userPFTConversionTable, additionalUserMapPFTConversionTable);
+        CompiledPftLut pftLut = getPftLut(outputPFTClasses, userPFTConversionTable, additionalUserMapPFTConversionTable);
         String[] spatialFeatureNames = createSpatialFeatureNames(outputUserMapClasses, additionalUserMapPFTConversionTable);
         return createOutputFeatureNames(outputLCCSClasses, outputUserMapClasses, numMajorityClasses, pftLut, spatialFeatureNames);
     }
 
-    private static Lccs2PftLut getPftLut(boolean outputPFTClasses, URL userPFTConversionTable, URL additionalUserMapPFTConversionTable) {
-        Lccs2PftLut pftLut = null;
+    private static CompiledPftLut getPftLut(boolean outputPFTClasses, URL userPFTConversionTable, URL additionalUserMapPFTConversionTable) {
+        CompiledPftLut pftLut = null;
         if (outputPFTClasses) {
             try {
-                Lccs2PftLutBuilder lutBuilder = new Lccs2PftLutBuilder();
-                lutBuilder.useScaleFactor(1 / 100.0f);
-                if (userPFTConversionTable != null) {
-                    InputStreamReader reader = new InputStreamReader(userPFTConversionTable.openStream());
-                    lutBuilder = lutBuilder.useLccs2PftTable(reader);
-                }
-                if (additionalUserMapPFTConversionTable != null) {
-                    InputStream inputStream = additionalUserMapPFTConversionTable.openStream();
-                    InputStreamReader additionalReader = new InputStreamReader(inputStream);
-                    lutBuilder = lutBuilder.useAdditionalUserMap(additionalReader);
-                }
-                pftLut = lutBuilder.create();
-            } catch (IOException | Lccs2PftLutException e) {
+                pftLut = CompiledPftLut.getInstance(userPFTConversionTable, additionalUserMapPFTConversionTable, 1 / 100.0f);
+            } catch (Lccs2PftLutException e) {
                 throw new IllegalStateException(e);
             }
         }
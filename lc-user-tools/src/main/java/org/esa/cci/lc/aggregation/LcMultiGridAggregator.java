@@ -0,0 +1,461 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.cci.lc.io.RegionalPlanetaryGrid;
+import org.esa.cci.lc.io.StreamingBinWriter;
+import org.esa.cci.lc.util.RunMetrics;
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.WritableVector;
+import org.esa.snap.binning.operator.BinWriter;
+import org.esa.snap.binning.support.VectorImpl;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.util.logging.BeamLogManager;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Aggregates the class areas of a source raster on a regular lat/lon grid onto several target grids in one pass.
+ * <p>
+ * The class band is read in stripes of source lines and every line is decoded to class indices once. The decoded
+ * line is then accumulated into the current target row of every target grid. A target row is completed, handed
+ * to the class aggregator and written as soon as the source lines reach the next target row. The assignment of
+ * source pixels to target cells and the covered areas are the same as in the {@link LcBlockAggregator}, but the
+ * target grid only needs to be supported by the {@link RegularGridAreaCalculator}, so regular Gaussian grids can
+ * be targets too.
+ */
+class LcMultiGridAggregator {
+
+    private final Product sourceProduct;
+    private final String classBandName;
+    private final int[] classIndexLut;
+    private final int invalidClassIndex;
+    private final double pixelSizeX;
+    private final double pixelSizeY;
+    private final int srcColOffset;
+    private final int srcRowOffset;
+    private final List<Target> targets;
+
+    private String statisticBandName;
+    private String statisticFeatureName;
+    private LcBlockAggregator.CellStatistic statistic;
+    private Logger logger;
+    private RunMetrics metrics;
+
+    /**
+     * @param sourceProduct     the source product, must be located on a global lat/lon raster
+     * @param classBandName     the name of the band containing the class values
+     * @param classIndexLut     maps class values to the index of the spatial feature the area is accumulated in
+     * @param invalidClassIndex spatial feature index used for class values not contained in the lut, or -1 if
+     *                          such pixels shall be ignored
+     */
+    LcMultiGridAggregator(Product sourceProduct, String classBandName, int[] classIndexLut, int invalidClassIndex) {
+        final double[] lattice = LcBlockAggregator.getSourceLattice(sourceProduct);
+        if (lattice == null) {
+            throw new IllegalArgumentException("Source product is not suitable for multi-grid aggregation.");
+        }
+        this.sourceProduct = sourceProduct;
+        this.classBandName = classBandName;
+        this.classIndexLut = classIndexLut;
+        this.invalidClassIndex = invalidClassIndex;
+        pixelSizeX = lattice[0];
+        pixelSizeY = lattice[1];
+        srcColOffset = (int) Math.round(lattice[2]);
+        srcRowOffset = (int) Math.round(lattice[3]);
+        targets = new ArrayList<>();
+        logger = BeamLogManager.getSystemLogger();
+        metrics = new RunMetrics(LcMultiGridAggregator.class.getSimpleName());
+    }
+
+    /**
+     * Multi-grid aggregation is possible if the planetary grid is supported by the {@link RegularGridAreaCalculator}
+     * and the source product is geo-coded on a WGS84 lat/lon raster whose pixels are aligned to a global raster
+     * starting at -180°/90°.
+     */
+    static boolean isApplicable(Product sourceProduct, PlanetaryGrid planetaryGrid) {
+        return RegularGridAreaCalculator.isSupported(planetaryGrid) && LcBlockAggregator.getSourceLattice(sourceProduct) != null;
+    }
+
+    /**
+     * Adds a statistic of an additional source band as last output feature of all targets.
+     */
+    void setCellStatistic(String bandName, String featureName, LcBlockAggregator.CellStatistic statistic) {
+        this.statisticBandName = bandName;
+        this.statisticFeatureName = featureName;
+        this.statistic = statistic;
+    }
+
+    void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Sets the metrics of the run, the time spent for reading and aggregating and the numbers of source pixels and
+     * bins of all targets are counted. The time spent by the writers is counted by the writers.
+     */
+    void setRunMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the output feature names of a target aggregated by the given class aggregator
+     */
+    String[] getOutputFeatureNames(Aggregator classAggregator) {
+        final String[] classFeatureNames = classAggregator.getOutputFeatureNames();
+        if (statistic == null) {
+            return classFeatureNames;
+        }
+        final String[] featureNames = Arrays.copyOf(classFeatureNames, classFeatureNames.length + 1);
+        featureNames[classFeatureNames.length] = statisticFeatureName;
+        return featureNames;
+    }
+
+    /**
+     * Adds a target grid. The writer must already know the output context, the planetary grid and the output
+     * feature names as given by {@link #getOutputFeatureNames(Aggregator)}.
+     *
+     * @param planetaryGrid     the global target grid
+     * @param classAggregator   the aggregator computing the output from the accumulated class areas
+     * @param userMapAggregator the map aggregator providing the user map value of a target cell, may be {@code null}
+     * @param region            the region to aggregate, or {@code null} for the whole globe
+     * @param binWriter         the writer receiving the bins of this target
+     */
+    void addTarget(PlanetaryGrid planetaryGrid, Aggregator classAggregator, LcMapAggregator userMapAggregator,
+                   ReferencedEnvelope region, BinWriter binWriter) {
+        if (!RegularGridAreaCalculator.isSupported(planetaryGrid)) {
+            throw new IllegalArgumentException("Planetary grid '" + planetaryGrid.getClass().getName() + "' is not supported.");
+        }
+        targets.add(new Target(planetaryGrid, classAggregator, userMapAggregator, region, binWriter));
+    }
+
+    /**
+     * Aggregates the source product onto all targets and hands the resulting bins to their writers.
+     */
+    void aggregate() throws IOException {
+        if (targets.isEmpty()) {
+            return;
+        }
+        int minSrcY = Integer.MAX_VALUE;
+        int maxSrcY = -1;
+        int minSrcX = Integer.MAX_VALUE;
+        int maxSrcX = -1;
+        for (Target target : targets) {
+            if (target.srcYEnd > target.srcYStart && target.srcXEnd > target.srcXStart) {
+                minSrcY = Math.min(minSrcY, target.srcYStart);
+                maxSrcY = Math.max(maxSrcY, target.srcYEnd);
+                minSrcX = Math.min(minSrcX, target.srcXStart);
+                maxSrcX = Math.max(maxSrcX, target.srcXEnd);
+            }
+        }
+
+        final Band classBand = sourceProduct.getBand(classBandName);
+        final Band statisticBand = statistic != null ? sourceProduct.getBand(statisticBandName) : null;
+        final int maxHistogramValue = statisticBand != null ? BoundedValueCounter.getMaxHistogramValue(statisticBand) : -1;
+        final int width = maxSrcX - minSrcX;
+        final int stripeHeight = Math.max(1, classBand.getSourceImage().getTileHeight());
+        final int[] classIndices = width > 0 ? new int[width] : null;
+        float[] classSamples = null;
+        float[] statisticSamples = null;
+
+        for (Target target : targets) {
+            target.open(maxHistogramValue);
+        }
+        boolean succeeded = false;
+        try {
+            for (int y0 = Math.max(minSrcY, 0); y0 < maxSrcY; y0 += stripeHeight) {
+                final int height = Math.min(stripeHeight, maxSrcY - y0);
+                final Rectangle stripeRect = new Rectangle(minSrcX, y0, width, height);
+                final long readStartTime = metrics.startPhase();
+                classSamples = classBand.getGeophysicalImage().getData(stripeRect).getSamples(minSrcX, y0, width, height, 0, classSamples);
+                if (statisticBand != null) {
+                    statisticSamples = statisticBand.getGeophysicalImage().getData(stripeRect).getSamples(minSrcX, y0, width, height, 0, statisticSamples);
+                }
+                metrics.endPhase(RunMetrics.Phase.READ, readStartTime);
+                metrics.addPixels((long) width * height);
+                final long processStartTime = metrics.startPhase();
+                for (int line = 0; line < height; line++) {
+                    final int lineOffset = line * width;
+                    // the classes of a line are decoded once for all targets
+                    for (int i = 0; i < width; i++) {
+                        classIndices[i] = getClassIndex((short) classSamples[lineOffset + i]);
+                    }
+                    for (Target target : targets) {
+                        target.accumulateLine(y0 + line, minSrcX, classIndices, statisticSamples, lineOffset);
+                    }
+                }
+                metrics.endPhase(RunMetrics.Phase.PROCESS, processStartTime);
+                logger.info(String.format("Aggregated source lines %d to %d of %d for %d target grids",
+                                          y0, y0 + height - 1, maxSrcY, targets.size()));
+            }
+            for (Target target : targets) {
+                target.completeRow();
+            }
+            succeeded = true;
+        } finally {
+            IOException closeException = null;
+            for (Target target : targets) {
+                try {
+                    target.close(succeeded);
+                } catch (IOException e) {
+                    if (closeException == null) {
+                        closeException = e;
+                    }
+                }
+            }
+            if (closeException != null && succeeded) {
+                throw closeException;
+            }
+        }
+    }
+
+    private int getClassIndex(int classValue) {
+        if (classValue >= 0 && classValue < classIndexLut.length) {
+            return classIndexLut[classValue];
+        }
+        return invalidClassIndex;
+    }
+
+    private float computeStatistic(BoundedValueCounter values) {
+        if (statistic == LcBlockAggregator.CellStatistic.MEDIAN) {
+            return values.computeMedian();
+        } else {
+            return values.computeMajority();
+        }
+    }
+
+    /**
+     * The accumulation state of one target grid. Only the cells of the current target row are kept.
+     */
+    private final class Target {
+
+        private final PlanetaryGrid planetaryGrid;
+        private final RegularGridAreaCalculator areaCalculator;
+        private final Aggregator classAggregator;
+        private final LcMapAggregator userMapAggregator;
+        private final boolean userMapValueRequired;
+        private final BinWriter binWriter;
+        private final StreamingBinWriter streamingWriter;
+        private final int firstRow;
+        private final int numRows;
+        private final int firstCol;
+        private final int numCols;
+        private final int numSpatialFeatures;
+        private final int numClassOutputFeatures;
+        private final int numOutputFeatures;
+        // first and last source line and column contributing to the target
+        private final int srcYStart;
+        private final int srcYEnd;
+        private final int srcXStart;
+        private final int srcXEnd;
+        // per source column between srcXStart and srcXEnd: the column within the target, or -1
+        private final int[] srcXTargetCol;
+        private final float[] cellValues;
+        private final int[] cellNumObs;
+        private final float[] spatialValues;
+        private final VectorImpl spatialVector;
+        private final float[] classOutputValues;
+        private final VectorImpl classOutputVector;
+        private final List<TemporalBin> temporalBins;
+        private BoundedValueCounter[] cellCounters;
+        private int maxHistogramValue;
+        private int currentRow;
+
+        private Target(PlanetaryGrid planetaryGrid, Aggregator classAggregator, LcMapAggregator userMapAggregator,
+                       ReferencedEnvelope region, BinWriter binWriter) {
+            this.planetaryGrid = planetaryGrid;
+            this.classAggregator = classAggregator;
+            this.userMapAggregator = userMapAggregator;
+            this.binWriter = binWriter;
+            streamingWriter = binWriter instanceof StreamingBinWriter ? (StreamingBinWriter) binWriter : null;
+            userMapValueRequired = userMapAggregator != null && userMapAggregator.isUserMapValueRequired();
+            areaCalculator = new RegularGridAreaCalculator(planetaryGrid, pixelSizeY, pixelSizeX);
+            if (region != null) {
+                final RegionalPlanetaryGrid regionalGrid = new RegionalPlanetaryGrid(planetaryGrid, region);
+                firstRow = regionalGrid.getRowOffset();
+                numRows = regionalGrid.getNumRows();
+                firstCol = regionalGrid.getColumnOffset();
+                numCols = regionalGrid.getNumCols(0);
+            } else {
+                firstRow = 0;
+                numRows = planetaryGrid.getNumRows();
+                firstCol = 0;
+                numCols = planetaryGrid.getNumCols(0);
+            }
+
+            int yStart = Integer.MAX_VALUE;
+            int yEnd = -1;
+            for (int y = 0; y < sourceProduct.getSceneRasterHeight(); y++) {
+                if (getTargetRow(y) >= 0) {
+                    yStart = Math.min(yStart, y);
+                    yEnd = y + 1;
+                }
+            }
+            int xStart = Integer.MAX_VALUE;
+            int xEnd = -1;
+            for (int x = 0; x < sourceProduct.getSceneRasterWidth(); x++) {
+                if (getTargetCol(x) >= 0) {
+                    xStart = Math.min(xStart, x);
+                    xEnd = x + 1;
+                }
+            }
+            srcYStart = yEnd > 0 ? yStart : 0;
+            srcYEnd = Math.max(yEnd, 0);
+            srcXStart = xEnd > 0 ? xStart : 0;
+            srcXEnd = Math.max(xEnd, 0);
+            srcXTargetCol = new int[srcXEnd - srcXStart];
+            for (int x = srcXStart; x < srcXEnd; x++) {
+                srcXTargetCol[x - srcXStart] = getTargetCol(x);
+            }
+
+            numSpatialFeatures = classAggregator.getSpatialFeatureNames().length;
+            numClassOutputFeatures = classAggregator.getOutputFeatureNames().length;
+            numOutputFeatures = getOutputFeatureNames(classAggregator).length;
+            cellValues = new float[numCols * numSpatialFeatures];
+            cellNumObs = new int[numCols];
+            spatialValues = new float[numSpatialFeatures];
+            spatialVector = new VectorImpl(spatialValues);
+            classOutputValues = new float[numClassOutputFeatures];
+            classOutputVector = new VectorImpl(classOutputValues);
+            temporalBins = new ArrayList<>();
+            Arrays.fill(cellValues, Float.NaN);
+            currentRow = -1;
+        }
+
+        /**
+         * @return the row within the target of the given source line, or -1 if it does not contribute
+         */
+        private int getTargetRow(int srcY) {
+            final int row = areaCalculator.getTargetRow(srcY + srcRowOffset) - firstRow;
+            return row >= 0 && row < numRows ? row : -1;
+        }
+
+        /**
+         * @return the column within the target of the given source column, or -1 if it does not contribute
+         */
+        private int getTargetCol(int srcX) {
+            final int col = areaCalculator.getTargetCol(srcX + srcColOffset) - firstCol;
+            return col >= 0 && col < numCols ? col : -1;
+        }
+
+        private void open(int maxHistogramValue) throws IOException {
+            this.maxHistogramValue = maxHistogramValue;
+            if (statistic != null) {
+                cellCounters = new BoundedValueCounter[numCols];
+            }
+            if (streamingWriter != null) {
+                streamingWriter.open(new HashMap<String, String>());
+            }
+        }
+
+        private void accumulateLine(int srcY, int lineMinX, int[] classIndices, float[] statisticSamples,
+                                    int lineOffset) throws IOException {
+            final int row = getTargetRow(srcY);
+            if (row < 0) {
+                return;
+            }
+            if (row != currentRow) {
+                completeRow();
+                currentRow = row;
+            }
+            final double rowFraction = areaCalculator.getRowFraction(srcY + srcRowOffset);
+            final int userMapIndex = numSpatialFeatures - 1;
+            for (int x = srcXStart; x < srcXEnd; x++) {
+                final int col = srcXTargetCol[x - srcXStart];
+                if (col < 0) {
+                    continue;
+                }
+                cellNumObs[col]++;
+                final int index = classIndices[x - lineMinX];
+                if (index < 0) {
+                    continue;
+                }
+                final float areaFraction = (float) (rowFraction * areaCalculator.getColFraction(x + srcColOffset));
+                final int cellOffset = col * numSpatialFeatures;
+                final float oldValue = cellValues[cellOffset + index];
+                if (Float.isNaN(oldValue)) {
+                    cellValues[cellOffset + index] = areaFraction;
+                } else {
+                    cellValues[cellOffset + index] = oldValue + areaFraction;
+                }
+                if (userMapValueRequired && Float.isNaN(cellValues[cellOffset + userMapIndex])) {
+                    final double lat = areaCalculator.getSourceCenterLat(srcY + srcRowOffset);
+                    final double lon = areaCalculator.getSourceCenterLon(x + srcColOffset);
+                    cellValues[cellOffset + userMapIndex] = userMapAggregator.getUserMapValue(lat, lon);
+                }
+                if (statisticSamples != null) {
+                    getCellCounter(col).add(statisticSamples[lineOffset + x - lineMinX]);
+                }
+            }
+        }
+
+        private BoundedValueCounter getCellCounter(int col) {
+            BoundedValueCounter counter = cellCounters[col];
+            if (counter == null) {
+                counter = new BoundedValueCounter(maxHistogramValue, 16);
+                cellCounters[col] = counter;
+            }
+            return counter;
+        }
+
+        /**
+         * Computes the output of the cells of the current row, writes them and resets the cells.
+         */
+        private void completeRow() throws IOException {
+            if (currentRow < 0) {
+                return;
+            }
+            final long firstBinIndex = planetaryGrid.getFirstBinIndex(firstRow + currentRow) + firstCol;
+            int numRowBins = 0;
+            for (int col = 0; col < numCols; col++) {
+                final int numObs = cellNumObs[col];
+                if (numObs == 0) {
+                    continue;
+                }
+                final int cellOffset = col * numSpatialFeatures;
+                System.arraycopy(cellValues, cellOffset, spatialValues, 0, numSpatialFeatures);
+                classAggregator.completeSpatial(null, numObs, spatialVector);
+                classAggregator.computeOutput(spatialVector, classOutputVector);
+                final TemporalBin temporalBin = new TemporalBin(firstBinIndex + col, numOutputFeatures);
+                final WritableVector outputVector = temporalBin.toVector();
+                for (int i = 0; i < numClassOutputFeatures; i++) {
+                    outputVector.set(i, classOutputValues[i]);
+                }
+                if (statistic != null) {
+                    final BoundedValueCounter counter = getCellCounter(col);
+                    outputVector.set(numClassOutputFeatures, computeStatistic(counter));
+                    counter.reset();
+                }
+                temporalBins.add(temporalBin);
+                Arrays.fill(cellValues, cellOffset, cellOffset + numSpatialFeatures, Float.NaN);
+                cellNumObs[col] = 0;
+                numRowBins++;
+            }
+            metrics.addBins(numRowBins);
+            if (streamingWriter != null) {
+                streamingWriter.writeBins(temporalBins);
+                temporalBins.clear();
+            }
+            currentRow = -1;
+        }
+
+        private void close(boolean succeeded) throws IOException {
+            if (streamingWriter != null) {
+                if (succeeded) {
+                    streamingWriter.close();
+                } else {
+                    streamingWriter.abort();
+                }
+            } else if (succeeded) {
+                binWriter.write(new HashMap<String, String>(), temporalBins);
+            }
+        }
+    }
+}
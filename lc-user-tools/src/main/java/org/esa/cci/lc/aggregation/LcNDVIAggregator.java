@@ -10,61 +10,59 @@ import org.esa.snap.binning.WritableVector;
 /**
  * This class implements the aggregation of LC-CCI NDVI Condition products.
  * Input variables are: ndvi_mean, ndvi_nYearObs
+ * <p>
+ * The numbers of valid observations are counted in two additional spatial features, so nothing needs to be
+ * allocated or looked up in the {@link BinContext} per bin or observation.
  *
  * @author Marco Peters
  */
 class LcNDVIAggregator extends AbstractAggregator {
 
+    private static final int NUM_VARS = 2;
+
     private final int ndviMeanIndex;
     private final int nYearObsIndex;
-    private final String ndviMeanInvCountName;
-    private final String nYearObsInvCountName;
 
     LcNDVIAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames) {
-        super(LcMapAggregatorDescriptor.NAME, targetVarNames, targetVarNames, targetVarNames);
+        super(LcMapAggregatorDescriptor.NAME, createSpatialFeatureNames(targetVarNames), targetVarNames, targetVarNames);
 
         ndviMeanIndex = varCtx.getVariableIndex(sourceVarNames[0]);
-        ndviMeanInvCountName = "invCount." + sourceVarNames[0];
         nYearObsIndex = varCtx.getVariableIndex((sourceVarNames[1]));
-        nYearObsInvCountName = "invCount." + sourceVarNames[1];
     }
 
     @Override
     public void initSpatial(BinContext ctx, WritableVector vector) {
         initVector(vector, 0.0f);
-        ctx.put(ndviMeanInvCountName, new int[1]);
-        ctx.put(nYearObsInvCountName, new int[1]);
     }
 
     @Override
     public void aggregateSpatial(BinContext ctx, Observation observationVector, WritableVector spatialVector) {
-        aggregateSpatialVar(ctx, observationVector, spatialVector, ndviMeanIndex, 0, ndviMeanInvCountName);
-        aggregateSpatialVar(ctx, observationVector, spatialVector, nYearObsIndex, 1, nYearObsInvCountName);
+        aggregateSpatialVar(observationVector, spatialVector, ndviMeanIndex, 0);
+        aggregateSpatialVar(observationVector, spatialVector, nYearObsIndex, 1);
     }
 
-    private void aggregateSpatialVar(BinContext ctx, Observation observationVector, WritableVector spatialVector,
-                                     int observationIndex, int spatialVectorIndex, String invCountName) {
+    private void aggregateSpatialVar(Observation observationVector, WritableVector spatialVector,
+                                     int observationIndex, int spatialVectorIndex) {
         final float value = observationVector.get(observationIndex);
         if (!Float.isNaN(value)) {
+            final int countIndex = NUM_VARS + spatialVectorIndex;
             spatialVector.set(spatialVectorIndex, spatialVector.get(spatialVectorIndex) + value);
-        } else {
-            ((int[]) ctx.get(invCountName))[0]++;
+            spatialVector.set(countIndex, spatialVector.get(countIndex) + 1.0f);
         }
     }
 
     @Override
     public void completeSpatial(BinContext ctx, int numSpatialObs, WritableVector spatialVector) {
-        completeSpatialVar(ctx, numSpatialObs, spatialVector, 0, ndviMeanInvCountName);
-        completeSpatialVar(ctx, numSpatialObs, spatialVector, 1, nYearObsInvCountName);
+        completeSpatialVar(spatialVector, 0);
+        completeSpatialVar(spatialVector, 1);
     }
 
-    private void completeSpatialVar(BinContext ctx, int numSpatialObs, WritableVector spatialVector, int spatialVectorIndex, String invCountName) {
-        int invalidNumObs = ((int[]) ctx.get(invCountName))[0];
-        if (invalidNumObs == numSpatialObs) {
+    private void completeSpatialVar(WritableVector spatialVector, int spatialVectorIndex) {
+        final float validNumObs = spatialVector.get(NUM_VARS + spatialVectorIndex);
+        if (validNumObs == 0.0f) {
             spatialVector.set(spatialVectorIndex, Float.NaN);
         } else {
-            int effectiveValidNumObs = numSpatialObs - invalidNumObs;
-            spatialVector.set(spatialVectorIndex, spatialVector.get(spatialVectorIndex) / effectiveValidNumObs);
+            spatialVector.set(spatialVectorIndex, spatialVector.get(spatialVectorIndex) / validNumObs);
         }
     }
 
@@ -76,8 +74,8 @@ class LcNDVIAggregator extends AbstractAggregator {
     @Override
     public void aggregateTemporal(BinContext ctx, Vector spatialVector, int numSpatialObs,
                                   WritableVector temporalVector) {
-        // simply copy the data; no temporal aggregation needed
-        for (int i = 0; i < spatialVector.size(); i++) {
+        // simply copy the data without the counts; no temporal aggregation needed
+        for (int i = 0; i < temporalVector.size(); i++) {
             temporalVector.set(i, spatialVector.get(i));
         }
     }
@@ -96,6 +94,13 @@ class LcNDVIAggregator extends AbstractAggregator {
 
     }
 
+    private static String[] createSpatialFeatureNames(String[] targetVarNames) {
+        return new String[]{
+                targetVarNames[0], targetVarNames[1],
+                targetVarNames[0] + "_count", targetVarNames[1] + "_count"
+        };
+    }
+
     private void initVector(WritableVector outputVector, float initValue) {
         for (int i = 0; i < outputVector.size(); i++) {
             outputVector.set(i, initValue);
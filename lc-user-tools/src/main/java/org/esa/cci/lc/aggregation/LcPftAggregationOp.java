@@ -3,7 +3,6 @@ package org.esa.cci.lc.aggregation;
 
 import org.esa.cci.lc.io.LcCdsBinWriter;
 import org.esa.cci.lc.util.LcHelper;
-import org.esa.snap.binning.PlanetaryGrid;
 import org.esa.snap.binning.operator.BinningOp;
 import org.esa.snap.binning.support.PlateCarreeGrid;
 import org.esa.snap.core.datamodel.MetadataElement;
@@ -30,6 +29,18 @@ public class LcPftAggregationOp extends AbstractLcAggregationOp {
     @Parameter(description = "Output chunk size in format height:width, defaults to 2025:2025", defaultValue = "2025:2025")
     private String outputTileSize;
 
+    @Parameter(description = "Not supported by the PFT aggregation, which always uses the binning operator. " +
+            "Must be 0.", defaultValue = "0")
+    private int checkpointRows;
+
+    @Parameter(description = "Not supported by the PFT aggregation, which always uses the binning operator. " +
+            "Must be 0.", unit = "s", defaultValue = "0")
+    private int checkpointInterval;
+
+    @Parameter(description = "Not supported by the PFT aggregation, which always uses the binning operator. " +
+            "Must be false.", defaultValue = "false")
+    private boolean resume;
+
     boolean outputTargetProduct;
     private static final int METER_PER_DEGREE_AT_EQUATOR = 111300;
 
@@ -43,6 +54,9 @@ public class LcPftAggregationOp extends AbstractLcAggregationOp {
     @Override
     public void initialize() throws OperatorException {
         super.initialize();
+        if (checkpointRows != 0 || checkpointInterval != 0 || resume) {
+            throw new OperatorException("Checkpoints are not supported by the PFT aggregation.");
+        }
         final String planetaryGridClassName = PlateCarreeGrid.class.getName();
 
         Product source = getSourceProduct();
@@ -70,12 +84,8 @@ public class LcPftAggregationOp extends AbstractLcAggregationOp {
             throw new OperatorException("Could not create binning operator.", e);
         }
         binningOp.setSourceProduct(source);
-        final double sourceMapResolutionX = 180.0 / source.getSceneRasterHeight();
-        final double sourceMapResolutionY = 360.0 / source.getSceneRasterWidth();
-        PlanetaryGrid planetaryGrid = createPlanetaryGrid();
-        AreaCalculator areaCalculator = new FractionalAreaCalculator(planetaryGrid, sourceMapResolutionX, sourceMapResolutionY);
-        LcPftAggregatorConfig[] configs = createConfigs(areaCalculator);
-        binningOp.setAggregatorConfigs(configs);
+        // all PFT variables are aggregated by one aggregator, so each observation is dispatched only once
+        binningOp.setAggregatorConfigs(new LcPftMultiAggregatorConfig(listPFTVariables, 1.0));
         binningOp.setPlanetaryGridClass(planetaryGridClassName);
         binningOp.setNumRows(getNumRows());
         binningOp.setSuperSampling(1);
@@ -90,15 +100,6 @@ public class LcPftAggregationOp extends AbstractLcAggregationOp {
         binningOp.setBinWriter(new LcCdsBinWriter(lcProperties, regionEnvelope, globalAttributes));
     }
 
-    private LcPftAggregatorConfig[] createConfigs(AreaCalculator areaCalculator){
-        LcPftAggregatorConfig[] configs = new LcPftAggregatorConfig[listPFTVariables.length];
-        for (int i=0 ; i<listPFTVariables.length; i++) {
-            LcPftAggregatorConfig config = new LcPftAggregatorConfig(listPFTVariables[i], listPFTVariables[i], 1d, false, false, areaCalculator);
-            configs[i] = config;
-        }
-        return configs;
-    }
-
     private String createTypeAndID(){
         return getSourceProduct().getName().replace("ESACCI-LC-L4-PFT-Map-300m-P1Y",
                                                     "ESACCI-LC-L4-PFT-Map-300m-P1Y-aggregated");
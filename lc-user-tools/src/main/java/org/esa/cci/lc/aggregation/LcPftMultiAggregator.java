@@ -0,0 +1,145 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.AbstractAggregator;
+import org.esa.snap.binning.BinContext;
+import org.esa.snap.binning.Observation;
+import org.esa.snap.binning.VariableContext;
+import org.esa.snap.binning.Vector;
+import org.esa.snap.binning.WeightFn;
+import org.esa.snap.binning.WritableVector;
+
+import java.util.Arrays;
+
+/**
+ * Computes the mean and the standard deviation of all PFT variables in one aggregator. The results are the same as
+ * with one {@link LcPftAggregator} for each variable, but every observation is handled by a single call and the
+ * sums of all variables of a bin are kept together in one vector.
+ * <p>
+ * For each variable the spatial vector contains the sum and the sum of squares, the temporal vector additionally
+ * the weights, and the output vector the mean and the standard deviation ({@code <pft>}, {@code <pft>_sigma}).
+ */
+class LcPftMultiAggregator extends AbstractAggregator {
+
+    private static final String INVALID_COUNTS_NAME = "ic.pft";
+
+    private final int[] varIndices;
+    private final WeightFn weightFn;
+
+    LcPftMultiAggregator(VariableContext varCtx, String[] varNames, double weightCoeff) {
+        super(LcPftMultiAggregatorDescriptor.NAME,
+              createFeatureNames(varNames, "_sum", "_sum_sq"),
+              createFeatureNames(varNames, "_sum", "_sum_sq", "_weights"),
+              createFeatureNames(varNames, "", "_sigma"));
+        if (varCtx == null) {
+            throw new NullPointerException("varCtx");
+        }
+        if (weightCoeff < 0.0) {
+            throw new IllegalArgumentException("weightCoeff < 0.0");
+        }
+        varIndices = new int[varNames.length];
+        for (int i = 0; i < varNames.length; i++) {
+            varIndices[i] = varCtx.getVariableIndex(varNames[i]);
+        }
+        weightFn = WeightFn.createPow(weightCoeff);
+    }
+
+    @Override
+    public void initSpatial(BinContext ctx, WritableVector vector) {
+        initVector(vector, 0.0f);
+        ctx.put(INVALID_COUNTS_NAME, new int[varIndices.length]);
+    }
+
+    @Override
+    public void aggregateSpatial(BinContext ctx, Observation observationVector, WritableVector spatialVector) {
+        final int[] invalidCounts = ctx.get(INVALID_COUNTS_NAME);
+        for (int i = 0; i < varIndices.length; i++) {
+            final float value = observationVector.get(varIndices[i]);
+            if (Float.isNaN(value)) {
+                invalidCounts[i]++;
+            } else {
+                final int sumIndex = 2 * i;
+                spatialVector.set(sumIndex, spatialVector.get(sumIndex) + value);
+                spatialVector.set(sumIndex + 1, spatialVector.get(sumIndex + 1) + value * value);
+            }
+        }
+    }
+
+    @Override
+    public void completeSpatial(BinContext ctx, int numSpatialObs, WritableVector spatialVector) {
+        final int[] invalidCounts = ctx.get(INVALID_COUNTS_NAME);
+        for (int i = 0; i < varIndices.length; i++) {
+            final int counts = numSpatialObs - invalidCounts[i];
+            final int sumIndex = 2 * i;
+            if (counts > 0) {
+                spatialVector.set(sumIndex, spatialVector.get(sumIndex) / counts);
+                spatialVector.set(sumIndex + 1, spatialVector.get(sumIndex + 1) / counts);
+            } else {
+                spatialVector.set(sumIndex, Float.NaN);
+                spatialVector.set(sumIndex + 1, Float.NaN);
+            }
+        }
+    }
+
+    @Override
+    public void initTemporal(BinContext ctx, WritableVector vector) {
+        initVector(vector, 0.0f);
+    }
+
+    @Override
+    public void aggregateTemporal(BinContext ctx, Vector spatialVector, int numSpatialObs,
+                                  WritableVector temporalVector) {
+        // the weight is the same for all variables
+        final float w = weightFn.eval(numSpatialObs);
+        for (int i = 0; i < varIndices.length; i++) {
+            final float sum = spatialVector.get(2 * i);
+            if (!Float.isNaN(sum)) {
+                final int temporalIndex = 3 * i;
+                temporalVector.set(temporalIndex, temporalVector.get(temporalIndex) + sum * w);
+                temporalVector.set(temporalIndex + 1, temporalVector.get(temporalIndex + 1) + spatialVector.get(2 * i + 1) * w);
+                temporalVector.set(temporalIndex + 2, temporalVector.get(temporalIndex + 2) + w);
+            }
+        }
+    }
+
+    @Override
+    public void completeTemporal(BinContext ctx, int numTemporalObs, WritableVector temporalVector) {
+    }
+
+    @Override
+    public void computeOutput(Vector temporalVector, WritableVector outputVector) {
+        for (int i = 0; i < varIndices.length; i++) {
+            final double sumX = temporalVector.get(3 * i);
+            final double sumXX = temporalVector.get(3 * i + 1);
+            final double sumW = temporalVector.get(3 * i + 2);
+            if (sumW > 0.0) {
+                // sigmaSqr may be negative due to rounding, the standard deviation is zero then
+                final double mean = sumX / sumW;
+                final double sigmaSqr = sumXX / sumW - mean * mean;
+                outputVector.set(2 * i, (float) mean);
+                outputVector.set(2 * i + 1, (float) (sigmaSqr > 0.0 ? Math.sqrt(sigmaSqr) : 0.0));
+            } else {
+                outputVector.set(2 * i, Float.NaN);
+                outputVector.set(2 * i + 1, Float.NaN);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LcPftMultiAggregator{" +
+               "varIndices=" + Arrays.toString(varIndices) +
+               ", weightFn=" + weightFn +
+               ", outputFeatureNames=" + Arrays.toString(getOutputFeatureNames()) +
+               '}';
+    }
+
+    static String[] createFeatureNames(String[] varNames, String... suffixes) {
+        final String[] featureNames = new String[varNames.length * suffixes.length];
+        for (int i = 0; i < varNames.length; i++) {
+            for (int j = 0; j < suffixes.length; j++) {
+                featureNames[i * suffixes.length + j] = varNames[i] + suffixes[j];
+            }
+        }
+        return featureNames;
+    }
+}
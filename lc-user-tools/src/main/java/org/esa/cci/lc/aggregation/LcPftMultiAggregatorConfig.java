@@ -0,0 +1,33 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.AggregatorConfig;
+import org.esa.snap.core.gpf.annotations.Parameter;
+
+class LcPftMultiAggregatorConfig extends AggregatorConfig {
+
+    @Parameter(notNull = true, description = "The PFT variables which are aggregated.")
+    private String[] varNames;
+
+    @Parameter(defaultValue = "1.0",
+            description = "The number of spatial observations to the power of this value " +
+                    "defines the weight of the sums. Zero means observation count weighting is disabled.")
+    private Double weightCoeff;
+
+    LcPftMultiAggregatorConfig() {
+        super(LcPftMultiAggregatorDescriptor.NAME);
+    }
+
+    LcPftMultiAggregatorConfig(String[] varNames, Double weightCoeff) {
+        super(LcPftMultiAggregatorDescriptor.NAME);
+        this.varNames = varNames;
+        this.weightCoeff = weightCoeff;
+    }
+
+    public String[] getVarNames() {
+        return varNames;
+    }
+
+    public double getWeightCoeff() {
+        return weightCoeff != null ? weightCoeff : 0.0;
+    }
+}
@@ -0,0 +1,37 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.AggregatorConfig;
+import org.esa.snap.binning.AggregatorDescriptor;
+import org.esa.snap.binning.VariableContext;
+
+public class LcPftMultiAggregatorDescriptor implements AggregatorDescriptor {
+
+    public static final String NAME = "PFT_MULTI_AGG";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public AggregatorConfig createConfig() {
+        return new LcPftMultiAggregatorConfig();
+    }
+
+    @Override
+    public Aggregator createAggregator(VariableContext varCtx, AggregatorConfig aggregatorConfig) {
+        final LcPftMultiAggregatorConfig config = (LcPftMultiAggregatorConfig) aggregatorConfig;
+        return new LcPftMultiAggregator(varCtx, config.getVarNames(), config.getWeightCoeff());
+    }
+
+    @Override
+    public String[] getSourceVarNames(AggregatorConfig aggregatorConfig) {
+        return ((LcPftMultiAggregatorConfig) aggregatorConfig).getVarNames();
+    }
+
+    @Override
+    public String[] getTargetVarNames(AggregatorConfig aggregatorConfig) {
+        return LcPftMultiAggregator.createFeatureNames(getSourceVarNames(aggregatorConfig), "", "_sigma");
+    }
+}
@@ -1,23 +1,20 @@
 package org.esa.cci.lc.aggregation;
 
-import org.esa.cci.lc.io.LcCdsBinWriter;
-import org.esa.cci.lc.io.LcCdsNetCDF4WriterPlugin;
 import org.esa.cci.lc.util.LcHelper;
+import org.esa.snap.binning.Aggregator;
 import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.operator.BinWriter;
 import org.esa.snap.binning.operator.BinningOp;
+import org.esa.snap.binning.support.VariableContextImpl;
 import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
-import org.esa.cci.lc.io.LcBinWriter;
-import org.esa.cci.lc.util.PlanetaryGridName;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 
-import java.io.File;
 import java.util.HashMap;
-import java.util.Locale;
 
 /**
  * The LC map and conditions products are delivered in a full spatial resolution version, both as global
@@ -45,16 +42,17 @@ public class LcWbAggregationOp extends AbstractLcAggregationOp {
             label = "Number of Majority Classes")
     private int numMajorityClasses;
 
-    @Parameter(description = "Format of the output file: lccci,lccds",defaultValue = "lccci")
-    private String format;
+    @Parameter(description = "Formats of the output files: lccci, lccds, lcpft. The lcpft format is written by the lccci " +
+            "writer. If several formats are given, the aggregation is computed once and written in all formats. The " +
+            "file of the first format is named as usual, the files of the further formats get the format as suffix, " +
+            "e.g. <name>-lccds.nc.",
+            defaultValue = "lccci")
+    private String[] format;
 
     @Parameter(description = "Output chunk size in format height:width, defaults to 2025:2025", defaultValue = "2025:2025")
     private String outputTileSize;
 
     boolean outputTargetProduct;
-    private String outputFormat;
-    private String outputFile;
-    private String outputType;
 
     @Override
     public void initialize() throws OperatorException {
@@ -69,6 +67,17 @@ public class LcWbAggregationOp extends AbstractLcAggregationOp {
         MetadataElement globalAttributes = getSourceProduct().getMetadataRoot().getElement("Global_Attributes");
         addMetadataToLcProperties(globalAttributes);
 
+        Product source = getSourceProduct();
+        final ReferencedEnvelope regionEnvelope = getRegionEnvelope();
+        String id = createTypeAndID(lcProperties);
+        if (!outputTargetProduct && LcBlockAggregator.isApplicable(source, createPlanetaryGrid())) {
+            final PlanetaryGrid planetaryGrid = createPlanetaryGrid();
+            aggregateBlockwise(createBlockAggregator(planetaryGrid), planetaryGrid, format, lcProperties, regionEnvelope,
+                               getOutputFilePath(id + ".nc"));
+            setTargetProduct(new Product("dummy", "dummyType", 10, 10));
+            return;
+        }
+
         BinningOp binningOp;
         try {
             binningOp = new BinningOp();
@@ -76,23 +85,18 @@ public class LcWbAggregationOp extends AbstractLcAggregationOp {
         } catch (Exception e) {
             throw new OperatorException("Could not create binning operator.", e);
         }
-        Product source = getSourceProduct();
-        final ReferencedEnvelope regionEnvelope = getRegionEnvelope();
         if (regionEnvelope != null) {
             source = createSubset(source, regionEnvelope);
         }
 
-        String id = createTypeAndID(lcProperties);
         initBinningOp(planetaryGridClassName, binningOp, id + ".nc");
         binningOp.setSourceProduct(source);
         binningOp.setOutputTargetProduct(outputTargetProduct);
         binningOp.setParameter("outputBinnedData", true);
-        binningOp.setBinWriter(new LcBinWriter(lcProperties, regionEnvelope));
-
-        if (format.equals("lccds")) {
-            setOutputFormat(LcCdsNetCDF4WriterPlugin.FORMAT_NAME);
-            binningOp.setBinWriter(new LcCdsBinWriter(lcProperties, regionEnvelope,getSourceProduct().getMetadataRoot().getElement("global_attributes")));
-        }
+        // the output context is set by the binning operator
+        final BinWriter binWriter = createFormatWriters(format, lcProperties, regionEnvelope, null, null);
+        binWriter.setTargetFileTemplatePath(getOutputFilePath(id + ".nc"));
+        binningOp.setBinWriter(binWriter);
 
         Product dummyTarget = binningOp.getTargetProduct();
         setTargetProduct(dummyTarget);
@@ -107,10 +111,7 @@ public class LcWbAggregationOp extends AbstractLcAggregationOp {
         int startYear = Integer.parseInt(lcProperties.get("startTime").substring(0, 4));
         String epoch = String.valueOf(startYear);
 
-        int numRows = getNumRows();
-        String aggrResolution = getGridName().equals(PlanetaryGridName.GEOGRAPHIC_LAT_LON)
-                                ? String.format(Locale.ENGLISH, "aggregated-%.6fDeg", 180.0 / numRows)
-                                : String.format(Locale.ENGLISH, "aggregated-N" + numRows / 2);
+        String aggrResolution = getAggregatedResolution();
         final String regionIdentifier = getRegionIdentifier();
         lcProperties.put("type", typeString);
         String id;
@@ -133,28 +134,35 @@ public class LcWbAggregationOp extends AbstractLcAggregationOp {
         final double sourceMapResolutionY = 360.0 / sceneWidth;
         final int numWbClasses = sourceProduct.getBand("wb_class").getIndexCoding().getIndexNames().length;
         PlanetaryGrid planetaryGrid = createPlanetaryGrid();
-        AreaCalculator areaCalculator = new FractionalAreaCalculator(planetaryGrid, sourceMapResolutionX, sourceMapResolutionY);
+        AreaCalculator areaCalculator = createAreaCalculator(planetaryGrid, sourceMapResolutionX, sourceMapResolutionY);
 
         binningOp.setNumRows(getNumRows());
         binningOp.setSuperSampling(1);
         LcWbAggregatorConfig lcWbAggregatorConfig = new LcWbAggregatorConfig(outputWbClasses, numMajorityClasses, numWbClasses, areaCalculator);
         binningOp.setAggregatorConfigs(lcWbAggregatorConfig);
         binningOp.setPlanetaryGridClass(planetaryGridClassName);
-        binningOp.setOutputFile(outputFile == null ? new File(getTargetDir(), outputFilename).getPath() : outputFile);
-        binningOp.setOutputType(outputType == null ? "Product" : outputType);
-        binningOp.setOutputFormat(outputFormat);
-    }
-
-    void setOutputFormat(String outputFormat) {
-        this.outputFormat = outputFormat;
+        binningOp.setOutputFile(getOutputFilePath(outputFilename));
+        binningOp.setOutputType(getOutputType() == null ? "Product" : getOutputType());
+        binningOp.setOutputFormat(getOutputFormat());
     }
 
-    void setOutputFile(String outputFile) {
-        this.outputFile = outputFile;
-    }
-
-    void setOutputType(String outputType) {
-        this.outputType = outputType;
+    private LcBlockAggregator createBlockAggregator(PlanetaryGrid planetaryGrid) {
+        final Product sourceProduct = getSourceProduct();
+        final int numWbClasses = sourceProduct.getBand("wb_class").getIndexCoding().getIndexNames().length;
+        final AreaCalculator areaCalculator = createAreaCalculator(planetaryGrid,
+                                                                   180.0 / sourceProduct.getSceneRasterHeight(),
+                                                                   360.0 / sourceProduct.getSceneRasterWidth());
+        final LcWbAggregatorConfig config = new LcWbAggregatorConfig(outputWbClasses, numMajorityClasses, numWbClasses, areaCalculator);
+        final Aggregator wbAggregator = new LcWbAggregatorDescriptor().createAggregator(new VariableContextImpl(), config);
+        // the class values are the indices of the spatial features, other values are ignored
+        final int[] classIndexLut = new int[wbAggregator.getSpatialFeatureNames().length];
+        for (int i = 0; i < classIndexLut.length; i++) {
+            classIndexLut[i] = i;
+        }
+        final LcBlockAggregator blockAggregator = new LcBlockAggregator(sourceProduct, planetaryGrid, "wb_class",
+                                                                        wbAggregator, classIndexLut, -1);
+        blockAggregator.setLogger(getLogger());
+        return blockAggregator;
     }
 
     int getNumMajorityClasses() {
@@ -175,6 +183,8 @@ public class LcWbAggregationOp extends AbstractLcAggregationOp {
 
     protected void validateInputSettings() {
         super.validateInputSettings();
+        validateFormats(format);
+        validateGridFormats(getGridName(), format);
         if (numMajorityClasses == 0 && !outputWbClasses) {
             throw new OperatorException("Either WB classes or majority classes must be selected.");
         }
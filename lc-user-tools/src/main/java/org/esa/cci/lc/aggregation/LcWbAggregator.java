@@ -6,10 +6,6 @@ import org.esa.snap.binning.Observation;
 import org.esa.snap.binning.Vector;
 import org.esa.snap.binning.WritableVector;
 
-import java.util.Collections;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
 /**
  * This class implements the aggregation of LC-CCI WB products. The aggregation includes the computation
  * of the fractional area covered by the different WB classes.
@@ -22,6 +18,7 @@ class LcWbAggregator extends AbstractAggregator {
     private AreaCalculator areaCalculator;
     private boolean outputWbClasses;
     private int numMajorityClasses;
+    private final ThreadLocal<MajorityClassSelector> majorityClassSelector;
 
     public LcWbAggregator(int numMajorityClasses, boolean outputWbClasses,
                           AreaCalculator calculator, String[] spatialFeatureNames, String[] outputFeatureNames) {
@@ -29,6 +26,12 @@ class LcWbAggregator extends AbstractAggregator {
         this.outputWbClasses = outputWbClasses;
         this.numMajorityClasses = numMajorityClasses;
         this.areaCalculator = calculator;
+        majorityClassSelector = new ThreadLocal<MajorityClassSelector>() {
+            @Override
+            protected MajorityClassSelector initialValue() {
+                return new MajorityClassSelector(LcWbAggregator.this.numMajorityClasses);
+            }
+        };
     }
 
     @Override
@@ -90,24 +93,20 @@ class LcWbAggregator extends AbstractAggregator {
     @Override
     public void computeOutput(Vector temporalVector, WritableVector outputVector) {
         initVector(outputVector, Float.NaN);
-        SortedMap<Float, Integer> sortedMap = new TreeMap<>(Collections.reverseOrder());
         int outputVectorIndex = 0;
-        for (short i = 0; i < temporalVector.size(); i++) {
-            float classArea = temporalVector.get(i);
-            if (!Float.isNaN(classArea)) {
-                sortedMap.put(classArea, (int) i);
-            }
-            if (outputWbClasses) {
-                outputVector.set(outputVectorIndex++, classArea);
+        if (outputWbClasses) {
+            for (int i = 0; i < temporalVector.size(); i++) {
+                outputVector.set(outputVectorIndex++, temporalVector.get(i));
             }
         }
 
-        Integer[] classesSortedByOccurrence = sortedMap.values().toArray(new Integer[sortedMap.size()]);
+        final MajorityClassSelector selector = majorityClassSelector.get();
+        final int numSelected = selector.select(temporalVector, temporalVector.size());
         for (int i = 0; i < numMajorityClasses; i++) {
-            if (i >= classesSortedByOccurrence.length) {
+            if (i >= numSelected) {
                 outputVector.set(outputVectorIndex++, Float.NaN);
             } else {
-                outputVector.set(outputVectorIndex++, classesSortedByOccurrence[i]);
+                outputVector.set(outputVectorIndex++, selector.getClassIndex(i));
             }
         }
     }
@@ -0,0 +1,71 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.Vector;
+
+/**
+ * Selects the indices of the classes covering the largest areas. The selection works on primitive scratch arrays
+ * which are reused for every call, so no objects are created per bin. If two classes cover the same area, the one
+ * with the lower index is ranked first.
+ * <p>
+ * Instances are not thread safe.
+ */
+class MajorityClassSelector {
+
+    private final int[] selectedIndices;
+    private final float[] selectedAreas;
+    private int numSelected;
+
+    /**
+     * @param numMajorityClasses the maximum number of classes to select
+     */
+    MajorityClassSelector(int numMajorityClasses) {
+        selectedIndices = new int[numMajorityClasses];
+        selectedAreas = new float[numMajorityClasses];
+    }
+
+    /**
+     * Selects the classes with the largest areas among the first {@code numClasses} elements of the given vector.
+     * NaN values are regarded as not observed and are not selected.
+     *
+     * @return the number of selected classes, at most the number of majority classes given at construction
+     */
+    int select(Vector classAreas, int numClasses) {
+        numSelected = 0;
+        final int capacity = selectedIndices.length;
+        if (capacity == 0) {
+            return 0;
+        }
+        for (int i = 0; i < numClasses; i++) {
+            final float area = classAreas.get(i);
+            if (Float.isNaN(area) || (numSelected == capacity && area <= selectedAreas[capacity - 1])) {
+                continue;
+            }
+            // insert behind all entries with an equal or larger area, so lower indices win ties
+            int pos = numSelected < capacity ? numSelected : capacity - 1;
+            while (pos > 0 && selectedAreas[pos - 1] < area) {
+                selectedAreas[pos] = selectedAreas[pos - 1];
+                selectedIndices[pos] = selectedIndices[pos - 1];
+                pos--;
+            }
+            selectedAreas[pos] = area;
+            selectedIndices[pos] = i;
+            if (numSelected < capacity) {
+                numSelected++;
+            }
+        }
+        return numSelected;
+    }
+
+    /**
+     * @param rank the rank of the class, starting with 0 for the class covering the largest area
+     *
+     * @return the index of the class at the given rank, as determined by the last call to {@link #select(Vector, int)}
+     */
+    int getClassIndex(int rank) {
+        if (rank >= numSelected) {
+            throw new IndexOutOfBoundsException("Only " + numSelected + " classes selected, requested rank " + rank);
+        }
+        return selectedIndices[rank];
+    }
+
+}
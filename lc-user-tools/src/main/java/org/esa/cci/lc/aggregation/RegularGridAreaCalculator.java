@@ -0,0 +1,192 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.RegularGaussianGrid;
+
+/**
+ * An {@link AreaCalculator} for planetary grids which have the same number of columns in every row
+ * ({@link PlateCarreeGrid} and {@link RegularGaussianGrid}) and a source map on a regular lat/lon raster.
+ * <p>
+ * In contrast to the {@link FractionalAreaCalculator} the fractional area is not computed by intersecting
+ * rectangles. Instead, the latitude overlap of every source row with its target row and the longitude overlap of
+ * every source column with its target column are computed once, so the area fraction of an observation is the
+ * product of two table entries. Observations which are not located at the centre of a source pixel or which are
+ * assigned to a different bin than the one containing their centre are computed analytically.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+class RegularGridAreaCalculator implements AreaCalculator {
+
+    private static final double LATTICE_TOLERANCE = 1.0e-4;
+
+    private final double deltaMapLat;
+    private final double deltaMapLon;
+    private final int numCols;
+    private final double deltaGridLon;
+    // bounds of the target rows
+    private final double[] rowMaxLat;
+    private final double[] rowMinLat;
+    // per source row: the target row containing the pixel centre and the fraction of the target row height covered
+    private final int[] srcRowTargetRow;
+    private final double[] srcRowFraction;
+    // per source column: the target column containing the pixel centre and the fraction of the target column width covered
+    private final int[] srcColTargetCol;
+    private final double[] srcColFraction;
+
+    RegularGridAreaCalculator(PlanetaryGrid planetaryGrid, double mapResolutionX, double mapResolutionY) {
+        if (!isSupported(planetaryGrid)) {
+            throw new IllegalArgumentException("Planetary grid '" + planetaryGrid.getClass().getName() + "' is not supported.");
+        }
+        deltaMapLat = mapResolutionX;
+        deltaMapLon = mapResolutionY;
+        final int numRows = planetaryGrid.getNumRows();
+        numCols = planetaryGrid.getNumCols(0);
+        deltaGridLon = 360.0 / numCols;
+        for (int row = 0; row < numRows; row++) {
+            if (planetaryGrid.getNumCols(row) != numCols || planetaryGrid.getFirstBinIndex(row) != (long) row * numCols) {
+                throw new IllegalArgumentException("Planetary grid must have the same number of columns in each row.");
+            }
+        }
+
+        rowMaxLat = new double[numRows];
+        rowMinLat = new double[numRows];
+        initRowBounds(planetaryGrid);
+
+        final int numSrcRows = (int) Math.round(180.0 / deltaMapLat);
+        srcRowTargetRow = new int[numSrcRows];
+        srcRowFraction = new double[numSrcRows];
+        for (int srcRow = 0; srcRow < numSrcRows; srcRow++) {
+            final double centerLat = getSourceCenterLat(srcRow);
+            final int targetRow = planetaryGrid.getRowIndex(planetaryGrid.getBinIndex(centerLat, 0.0));
+            srcRowTargetRow[srcRow] = targetRow;
+            srcRowFraction[srcRow] = calcLatFraction(centerLat, targetRow);
+        }
+
+        final int numSrcCols = (int) Math.round(360.0 / deltaMapLon);
+        srcColTargetCol = new int[numSrcCols];
+        srcColFraction = new double[numSrcCols];
+        for (int srcCol = 0; srcCol < numSrcCols; srcCol++) {
+            final double centerLon = getSourceCenterLon(srcCol);
+            final int targetCol = (int) (planetaryGrid.getBinIndex(0.0, centerLon) % numCols);
+            srcColTargetCol[srcCol] = targetCol;
+            srcColFraction[srcCol] = calcLonFraction(centerLon, targetCol);
+        }
+    }
+
+    static boolean isSupported(PlanetaryGrid planetaryGrid) {
+        return planetaryGrid instanceof PlateCarreeGrid || planetaryGrid instanceof RegularGaussianGrid;
+    }
+
+    @Override
+    public double calculate(double longitude, double latitude, long binIndex) {
+        final int targetRow = (int) (binIndex / numCols);
+        final int targetCol = (int) (binIndex % numCols);
+        return getLatFraction(latitude, targetRow) * getLonFraction(longitude, targetCol);
+    }
+
+    int getNumSourceRows() {
+        return srcRowTargetRow.length;
+    }
+
+    int getNumSourceCols() {
+        return srcColTargetCol.length;
+    }
+
+    /**
+     * @return the target row containing the centre of the given row of the global source raster
+     */
+    int getTargetRow(int srcRow) {
+        return srcRowTargetRow[srcRow];
+    }
+
+    /**
+     * @return the fraction of the height of its target row covered by the given row of the global source raster
+     */
+    double getRowFraction(int srcRow) {
+        return srcRowFraction[srcRow];
+    }
+
+    /**
+     * @return the target column containing the centre of the given column of the global source raster
+     */
+    int getTargetCol(int srcCol) {
+        return srcColTargetCol[srcCol];
+    }
+
+    /**
+     * @return the fraction of the width of its target column covered by the given column of the global source raster
+     */
+    double getColFraction(int srcCol) {
+        return srcColFraction[srcCol];
+    }
+
+    private double getLatFraction(double latitude, int targetRow) {
+        final int srcRow = (int) Math.floor((90.0 - latitude) / deltaMapLat);
+        if (srcRow >= 0 && srcRow < srcRowTargetRow.length && srcRowTargetRow[srcRow] == targetRow
+            && Math.abs(getSourceCenterLat(srcRow) - latitude) <= LATTICE_TOLERANCE * deltaMapLat) {
+            return srcRowFraction[srcRow];
+        }
+        return calcLatFraction(latitude, targetRow);
+    }
+
+    private double getLonFraction(double longitude, int targetCol) {
+        final int srcCol = (int) Math.floor((longitude + 180.0) / deltaMapLon);
+        if (srcCol >= 0 && srcCol < srcColTargetCol.length && srcColTargetCol[srcCol] == targetCol
+            && Math.abs(getSourceCenterLon(srcCol) - longitude) <= LATTICE_TOLERANCE * deltaMapLon) {
+            return srcColFraction[srcCol];
+        }
+        return calcLonFraction(longitude, targetCol);
+    }
+
+    private double calcLatFraction(double latitude, int targetRow) {
+        final double maxLat = rowMaxLat[targetRow];
+        final double minLat = rowMinLat[targetRow];
+        final double overlap = calcOverlap(latitude - deltaMapLat / 2.0, latitude + deltaMapLat / 2.0, minLat, maxLat);
+        return overlap / (maxLat - minLat);
+    }
+
+    private double calcLonFraction(double longitude, int targetCol) {
+        final double minLon = -180.0 + targetCol * deltaGridLon;
+        final double maxLon = minLon + deltaGridLon;
+        final double obsMinLon = longitude - deltaMapLon / 2.0;
+        final double obsMaxLon = longitude + deltaMapLon / 2.0;
+        // consider the observation also shifted by one turn in both directions to handle the anti-meridian
+        double overlap = calcOverlap(obsMinLon, obsMaxLon, minLon, maxLon);
+        overlap += calcOverlap(obsMinLon - 360.0, obsMaxLon - 360.0, minLon, maxLon);
+        overlap += calcOverlap(obsMinLon + 360.0, obsMaxLon + 360.0, minLon, maxLon);
+        return Math.min(overlap / deltaGridLon, 1.0);
+    }
+
+    private static double calcOverlap(double min1, double max1, double min2, double max2) {
+        return Math.max(0.0, Math.min(max1, max2) - Math.max(min1, min2));
+    }
+
+    double getSourceCenterLat(int srcRow) {
+        return 90.0 - (srcRow + 0.5) * deltaMapLat;
+    }
+
+    double getSourceCenterLon(int srcCol) {
+        return -180.0 + (srcCol + 0.5) * deltaMapLon;
+    }
+
+    private void initRowBounds(PlanetaryGrid planetaryGrid) {
+        final int numRows = planetaryGrid.getNumRows();
+        if (planetaryGrid instanceof RegularGaussianGrid) {
+            // same bounds as used by the FractionalAreaCalculator
+            for (int row = 0; row < numRows; row++) {
+                final double centerLat = planetaryGrid.getCenterLat(row);
+                rowMaxLat[row] = row == 0 ? 90 : (planetaryGrid.getCenterLat(row - 1) + centerLat) / 2;
+                rowMinLat[row] = row == numRows - 1 ? -90 : (planetaryGrid.getCenterLat(row + 1) + centerLat) / 2;
+            }
+        } else {
+            final double deltaGridLat = 180.0 / numRows;
+            for (int row = 0; row < numRows; row++) {
+                final double centerLat = planetaryGrid.getCenterLat(row);
+                rowMaxLat[row] = centerLat + deltaGridLat / 2.0;
+                rowMinLat[row] = centerLat - deltaGridLat / 2.0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Provides the samples of the first band of an additional user map at geographic locations.
+ * <p>
+ * The tiles of the user map are decoded into primitive arrays and kept in a bounded least-recently-used cache,
+ * so the image is not asked for a raster copy for every single sample. If the user map is geo-coded by a
+ * {@link CrsGeoCoding} on a WGS84 lat/lon raster, the pixel position is computed directly from the inverse of the
+ * affine image-to-map transform. Otherwise the geo-coding of the user map is asked for the pixel position. The
+ * samples are the same as returned by {@link Raster#getSample(int, int, int)} of the geophysical image.
+ * <p>
+ * Instances are thread safe. A sampler is created once per operator run and shared by all aggregators of the run.
+ * It must be closed when the run is disposed.
+ */
+public final class UserMapSampler {
+
+    /**
+     * The maximum number of decoded tiles kept in memory by a sampler.
+     */
+    static final int MAX_CACHED_TILES = 32;
+
+    private final Product userMap;
+    private final boolean ownsUserMap;
+    private final GeoCoding geoCoding;
+    private final RenderedImage image;
+    private final Rectangle imageBounds;
+    private final int tileWidth;
+    private final int tileHeight;
+    // inverse of the image-to-map transform, null if the pixel position is computed by the geo-coding
+    private final AffineTransform mapToImage;
+    private final SampleTile[] cachedTiles;
+    private long accessCount;
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Creates a sampler of the given user map. The user map remains owned by the caller, it is not disposed when the
+     * sampler is closed.
+     */
+    public UserMapSampler(Product userMap) {
+        this(userMap, false);
+    }
+
+    /**
+     * Reads the user map stored in the given file. The user map is disposed when the sampler is closed.
+     */
+    public static UserMapSampler read(File userMapFile) throws IOException {
+        final Product userMap = ProductIO.readProduct(userMapFile);
+        if (userMap == null) {
+            throw new IOException("No reader found for user map " + userMapFile);
+        }
+        try {
+            return new UserMapSampler(userMap, true);
+        } catch (IllegalArgumentException e) {
+            userMap.dispose();
+            throw e;
+        }
+    }
+
+    private UserMapSampler(Product userMap, boolean ownsUserMap) {
+        if (userMap.getNumBands() < 1) {
+            throw new IllegalArgumentException("The user map must have at least one band.");
+        }
+        final Band band = userMap.getBandAt(0);
+        this.userMap = userMap;
+        this.ownsUserMap = ownsUserMap;
+        geoCoding = band.getGeoCoding();
+        if (geoCoding == null || !geoCoding.canGetPixelPos()) {
+            throw new IllegalArgumentException("The user map must be able to provide the pixel position for a geo-location.");
+        }
+        image = band.getGeophysicalImage();
+        imageBounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+        tileWidth = image.getTileWidth();
+        tileHeight = image.getTileHeight();
+        mapToImage = createMapToImageTransform(geoCoding);
+        cachedTiles = new SampleTile[MAX_CACHED_TILES];
+        scratch = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch();
+            }
+        };
+    }
+
+    public Product getUserMap() {
+        return userMap;
+    }
+
+    /**
+     * @return the sample of the user map at the given location, or NaN if the location is outside of the user map
+     */
+    public float getSample(double lat, double lon) {
+        final Scratch threadScratch = scratch.get();
+        final double pixelX;
+        final double pixelY;
+        if (mapToImage != null) {
+            pixelX = mapToImage.getScaleX() * lon + mapToImage.getShearX() * lat + mapToImage.getTranslateX();
+            pixelY = mapToImage.getShearY() * lon + mapToImage.getScaleY() * lat + mapToImage.getTranslateY();
+        } else {
+            threadScratch.geoPos.setLocation(lat, lon);
+            geoCoding.getPixelPos(threadScratch.geoPos, threadScratch.pixelPos);
+            pixelX = threadScratch.pixelPos.getX();
+            pixelY = threadScratch.pixelPos.getY();
+        }
+        if (Double.isNaN(pixelX) || Double.isNaN(pixelY)) {
+            return Float.NaN;
+        }
+        final int x = (int) Math.floor(pixelX);
+        final int y = (int) Math.floor(pixelY);
+        if (!imageBounds.contains(x, y)) {
+            return Float.NaN;
+        }
+        SampleTile tile = threadScratch.lastTile;
+        if (tile == null || !tile.contains(x, y)) {
+            tile = getTile(Math.floorDiv(x - image.getTileGridXOffset(), tileWidth),
+                           Math.floorDiv(y - image.getTileGridYOffset(), tileHeight));
+            threadScratch.lastTile = tile;
+        }
+        return tile.getSample(x, y);
+    }
+
+    private SampleTile getTile(int tileX, int tileY) {
+        synchronized (cachedTiles) {
+            for (SampleTile cachedTile : cachedTiles) {
+                if (cachedTile != null && cachedTile.tileX == tileX && cachedTile.tileY == tileY) {
+                    cachedTile.lastAccess = ++accessCount;
+                    return cachedTile;
+                }
+            }
+        }
+        // decode outside of the lock, so other threads can still read cached tiles
+        final SampleTile tile = new SampleTile(tileX, tileY, image.getTile(tileX, tileY), imageBounds);
+        synchronized (cachedTiles) {
+            int eldestIndex = 0;
+            for (int i = 0; i < cachedTiles.length; i++) {
+                final SampleTile cachedTile = cachedTiles[i];
+                if (cachedTile == null) {
+                    eldestIndex = i;
+                    break;
+                }
+                if (cachedTile.lastAccess < cachedTiles[eldestIndex].lastAccess) {
+                    eldestIndex = i;
+                }
+            }
+            tile.lastAccess = ++accessCount;
+            cachedTiles[eldestIndex] = tile;
+        }
+        return tile;
+    }
+
+    /**
+     * Releases the cached tiles and disposes the user map if it has been read by the sampler.
+     */
+    public void close() {
+        synchronized (cachedTiles) {
+            Arrays.fill(cachedTiles, null);
+        }
+        if (ownsUserMap) {
+            userMap.dispose();
+        }
+    }
+
+    private static AffineTransform createMapToImageTransform(GeoCoding geoCoding) {
+        if (!(geoCoding instanceof CrsGeoCoding)
+            || !CRS.equalsIgnoreMetadata(DefaultGeographicCRS.WGS84, geoCoding.getMapCRS())) {
+            return null;
+        }
+        final MathTransform imageToMap = geoCoding.getImageToMapTransform();
+        if (!(imageToMap instanceof AffineTransform)) {
+            return null;
+        }
+        try {
+            return ((AffineTransform) imageToMap).createInverse();
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The decoded samples of a single image tile, clipped to the image bounds.
+     */
+    private static class SampleTile {
+
+        private final int tileX;
+        private final int tileY;
+        private final int minX;
+        private final int minY;
+        private final int width;
+        private final int height;
+        private final int[] samples;
+        private long lastAccess;
+
+        private SampleTile(int tileX, int tileY, Raster raster, Rectangle imageBounds) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            final Rectangle bounds = raster.getBounds().intersection(imageBounds);
+            minX = bounds.x;
+            minY = bounds.y;
+            width = bounds.width;
+            height = bounds.height;
+            samples = raster.getSamples(minX, minY, width, height, 0, (int[]) null);
+        }
+
+        private boolean contains(int x, int y) {
+            return x >= minX && y >= minY && x < minX + width && y < minY + height;
+        }
+
+        private float getSample(int x, int y) {
+            return samples[(y - minY) * width + (x - minX)];
+        }
+    }
+
+    /**
+     * Per-thread objects reused for every sample.
+     */
+    private static class Scratch {
+
+        private final GeoPos geoPos = new GeoPos();
+        private final PixelPos pixelPos = new PixelPos();
+        private SampleTile lastTile;
+    }
+}
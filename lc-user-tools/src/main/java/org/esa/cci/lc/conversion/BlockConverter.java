@@ -0,0 +1,259 @@
+package org.esa.cci.lc.conversion;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.ProductWriter;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+
+import javax.media.jai.OpImage;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TileCache;
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Converts a product block by block as given by a {@link ConversionPlan}. The blocks are read in parallel and
+ * handed to the product writer in the order of their lines, for each block of lines band by band. At most
+ * {@link ConversionPlan#getMaxBlocksInFlight()} blocks are read or wait to be written at once.
+ * <p>
+ * The tiles of the source images are removed from the tile cache as soon as all their lines have been read.
+ */
+class BlockConverter {
+
+    private final ConversionPlan plan;
+    private final ExecutorService sharedReaders;
+    private final Logger logger;
+
+    BlockConverter(ConversionPlan plan, Logger logger) {
+        this(plan, null, logger);
+    }
+
+    /**
+     * @param plan          the conversion plan
+     * @param sharedReaders the threads reading the blocks, shared with other conversions and not shut down by this
+     *                      one; if {@code null}, the converter uses threads of its own
+     * @param logger        the logger
+     */
+    BlockConverter(ConversionPlan plan, ExecutorService sharedReaders, Logger logger) {
+        this.plan = plan;
+        this.sharedReaders = sharedReaders;
+        this.logger = logger;
+    }
+
+    /**
+     * @return a pool of threads reading blocks, for being shared by several converters
+     */
+    static ExecutorService createReaders(int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            private int threadCount;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Block reader " + threadCount++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Writes the product to the target file. If the conversion fails, the output is deleted.
+     */
+    void convert(Product product, ProductWriter productWriter, File targetFile) throws IOException {
+        final List<Band> bands = new ArrayList<>();
+        for (Band band : product.getBands()) {
+            if (productWriter.shouldWrite(band)) {
+                bands.add(band);
+            }
+        }
+        final Band lastBand = bands.isEmpty() ? null : bands.get(bands.size() - 1);
+        final int height = product.getSceneRasterHeight();
+        final int blockHeight = plan.getBlockHeight();
+        final int logInterval = Math.max(blockHeight, height / 10);
+        final ExecutorService readers = sharedReaders != null ? sharedReaders : createReaders(plan.getMaxBlocksInFlight());
+        final Deque<Future<Block>> pendingBlocks = new ArrayDeque<>();
+        boolean succeeded = false;
+        try {
+            productWriter.writeProductNodes(product, targetFile);
+            for (int y = 0; y < height; y += blockHeight) {
+                final int numLines = Math.min(blockHeight, height - y);
+                for (Band band : bands) {
+                    if (pendingBlocks.size() >= plan.getMaxBlocksInFlight()) {
+                        writeBlock(productWriter, pendingBlocks.removeFirst(), logInterval);
+                    }
+                    pendingBlocks.addLast(readers.submit(new BlockReader(band, y, numLines, band == lastBand)));
+                }
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeBlock(productWriter, pendingBlocks.removeFirst(), logInterval);
+            }
+            productWriter.flush();
+            productWriter.close();
+            succeeded = true;
+        } finally {
+            for (Future<Block> pendingBlock : pendingBlocks) {
+                pendingBlock.cancel(true);
+            }
+            if (readers != sharedReaders) {
+                readers.shutdownNow();
+            }
+            if (!succeeded) {
+                abort(productWriter, targetFile);
+            }
+        }
+    }
+
+    private void abort(ProductWriter productWriter, File targetFile) {
+        try {
+            productWriter.close();
+        } catch (IOException e) {
+            logger.warning("Could not close " + targetFile + ": " + e.getMessage());
+        }
+        try {
+            productWriter.deleteOutput();
+        } catch (IOException e) {
+            logger.warning("Could not delete " + targetFile + ": " + e.getMessage());
+        }
+    }
+
+    private void writeBlock(ProductWriter productWriter, Future<Block> pendingBlock, int logInterval) throws IOException {
+        final Block block;
+        try {
+            block = pendingBlock.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be read");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not read block", cause);
+        }
+        final int width = block.band.getRasterWidth();
+        productWriter.writeBandRasterData(block.band, 0, block.y, width, block.numLines, block.data, ProgressMonitor.NULL);
+        final int endY = block.y + block.numLines;
+        if (block.lastOfLines && block.y / logInterval != endY / logInterval) {
+            logger.info(String.format("Line %d of %d written", endY, block.band.getRasterHeight()));
+        }
+    }
+
+    private static class Block {
+
+        private final Band band;
+        private final int y;
+        private final int numLines;
+        private final boolean lastOfLines;
+        private final ProductData data;
+
+        private Block(Band band, int y, int numLines, boolean lastOfLines, ProductData data) {
+            this.band = band;
+            this.y = y;
+            this.numLines = numLines;
+            this.lastOfLines = lastOfLines;
+            this.data = data;
+        }
+    }
+
+    private static class BlockReader implements Callable<Block> {
+
+        private final Band band;
+        private final int y;
+        private final int numLines;
+        private final boolean lastOfLines;
+
+        private BlockReader(Band band, int y, int numLines, boolean lastOfLines) {
+            this.band = band;
+            this.y = y;
+            this.numLines = numLines;
+            this.lastOfLines = lastOfLines;
+        }
+
+        @Override
+        public Block call() throws Exception {
+            final RenderedImage image = band.getSourceImage().getImage(0);
+            final int width = band.getRasterWidth();
+            final ProductData data = ProductData.createInstance(band.getDataType(), width * numLines);
+            // the image copies its samples directly into the buffer handed to the writer
+            final SampleModel sampleModel = image.getSampleModel().createCompatibleSampleModel(width, numLines);
+            final DataBuffer dataBuffer = createDataBuffer(sampleModel.getDataType(), data.getElems(), width * numLines);
+            final WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer, new Point(0, y));
+            image.copyData(raster);
+            releaseTiles(image, y, numLines);
+            return new Block(band, y, numLines, lastOfLines, data);
+        }
+
+        /**
+         * Removes the tile rows which end within the given lines from the tile cache, no following block needs them.
+         */
+        private static void releaseTiles(RenderedImage image, int y, int numLines) {
+            if (!(image instanceof OpImage)) {
+                return;
+            }
+            final TileCache tileCache = ((OpImage) image).getTileCache();
+            if (tileCache == null) {
+                return;
+            }
+            final int tileHeight = image.getTileHeight();
+            final int gridYOffset = image.getTileGridYOffset();
+            final int imageEndY = image.getMinY() + image.getHeight();
+            final int firstTileY = PlanarImage.YToTileY(y, gridYOffset, tileHeight);
+            final int lastTileY = PlanarImage.YToTileY(y + numLines - 1, gridYOffset, tileHeight);
+            for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+                final int tileEndY = Math.min(gridYOffset + (tileY + 1) * tileHeight, imageEndY);
+                if (tileEndY <= y + numLines) {
+                    for (int tileX = image.getMinTileX(); tileX < image.getMinTileX() + image.getNumXTiles(); tileX++) {
+                        tileCache.remove(image, tileX, tileY);
+                    }
+                }
+            }
+        }
+
+        private static DataBuffer createDataBuffer(int dataType, Object elems, int size) {
+            switch (dataType) {
+                case DataBuffer.TYPE_BYTE:
+                    return new DataBufferByte((byte[]) elems, size);
+                case DataBuffer.TYPE_SHORT:
+                    return new DataBufferShort((short[]) elems, size);
+                case DataBuffer.TYPE_USHORT:
+                    return new DataBufferUShort((short[]) elems, size);
+                case DataBuffer.TYPE_INT:
+                    return new DataBufferInt((int[]) elems, size);
+                case DataBuffer.TYPE_FLOAT:
+                    return new DataBufferFloat((float[]) elems, size);
+                case DataBuffer.TYPE_DOUBLE:
+                    return new DataBufferDouble((double[]) elems, size);
+                default:
+                    throw new IllegalArgumentException("Unsupported data buffer type " + dataType);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.esa.cci.lc.conversion;
+
+import org.esa.cci.lc.io.PipelinedNetCdfWriter;
+
+import javax.media.jai.JAI;
+
+/**
+ * Plans how the bands of a product are converted within a memory budget. The bands are read in blocks of lines
+ * which are aligned to the chunks of the target file. A block covers the full chunk height if the budget allows it,
+ * otherwise the largest divisor of the chunk height which fits, so every chunk is still written by whole blocks.
+ * The number of blocks read in parallel is limited by the number of processors and by the budget left after the
+ * blocks queued by the writer.
+ * <p>
+ * The budget defaults to half of the heap not reserved for the tile cache and can be changed by the system
+ * property {@value #MEMORY_BUDGET_PROPERTY}, given in bytes.
+ */
+final class ConversionPlan {
+
+    static final String MEMORY_BUDGET_PROPERTY = "lc.conversion.memoryBudget";
+
+    private final int blockHeight;
+    private final int maxBlocksInFlight;
+    private final long blockSize;
+
+    private ConversionPlan(int blockHeight, int maxBlocksInFlight, long blockSize) {
+        this.blockHeight = blockHeight;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Plans the conversion for the memory budget of this JVM.
+     */
+    static ConversionPlan create(int width, int height, int chunkHeight, int bytesPerPixel) {
+        final Runtime runtime = Runtime.getRuntime();
+        final long tileCacheSize = JAI.getDefaultInstance().getTileCache().getMemoryCapacity();
+        final long defaultBudget = Math.max(0, runtime.maxMemory() - tileCacheSize) / 2;
+        return create(width, height, chunkHeight, bytesPerPixel, Long.getLong(MEMORY_BUDGET_PROPERTY, defaultBudget),
+                      runtime.availableProcessors(), PipelinedNetCdfWriter.getMaxQueuedWrites());
+    }
+
+    /**
+     * @param width           the width of the bands
+     * @param height          the height of the bands
+     * @param chunkHeight     the chunk height of the target variables
+     * @param bytesPerPixel   the size of a pixel of the largest band data type
+     * @param memoryBudget    the number of bytes which may be used for the blocks read and queued for writing, at
+     *                        least one line is read at a time regardless of this value
+     * @param numProcessors   the maximum number of blocks read in parallel
+     * @param numQueuedWrites the number of blocks the writer holds at once
+     */
+    static ConversionPlan create(int width, int height, int chunkHeight, int bytesPerPixel, long memoryBudget,
+                                 int numProcessors, int numQueuedWrites) {
+        final long lineSize = (long) Math.max(1, width) * Math.max(1, bytesPerPixel);
+        // at least one block is read while the writer holds its queued ones
+        final long maxLines = memoryBudget / lineSize / (numQueuedWrites + 1);
+        final int blockHeight = Math.max(1, Math.min(computeBlockHeight(Math.max(1, chunkHeight), maxLines), height));
+        final long blockSize = lineSize * blockHeight;
+        final long maxBlocks = memoryBudget / blockSize - numQueuedWrites;
+        final int maxBlocksInFlight = (int) Math.max(1, Math.min(maxBlocks, Math.max(1, numProcessors)));
+        return new ConversionPlan(blockHeight, maxBlocksInFlight, blockSize);
+    }
+
+    /**
+     * @return the number of lines of a block
+     */
+    int getBlockHeight() {
+        return blockHeight;
+    }
+
+    /**
+     * @return the maximum number of blocks read in parallel or waiting to be written
+     */
+    int getMaxBlocksInFlight() {
+        return maxBlocksInFlight;
+    }
+
+    /**
+     * @return the number of bytes of a block of the largest band data type
+     */
+    long getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("blocks of %d lines (%d MB), %d blocks in flight",
+                             blockHeight, blockSize / (1024 * 1024), maxBlocksInFlight);
+    }
+
+    /**
+     * @return the largest divisor of the chunk height not exceeding the given maximum number of lines, at least 1
+     */
+    static int computeBlockHeight(int chunkHeight, long maxLines) {
+        if (maxLines >= chunkHeight) {
+            return chunkHeight;
+        }
+        for (int height = (int) Math.max(1, maxLines); height > 1; height--) {
+            if (chunkHeight % height == 0) {
+                return height;
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,69 @@
+package org.esa.cci.lc.conversion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the outcome of the files converted in a batch and writes it as tab separated text file, one line for
+ * each source file.
+ */
+class ConversionSummary {
+
+    static final String FILE_NAME = "conversion-summary.txt";
+    static final String STATUS_CONVERTED = "converted";
+    static final String STATUS_FAILED = "failed";
+
+    private final List<String[]> entries;
+    private int numFailed;
+
+    ConversionSummary() {
+        entries = new ArrayList<>();
+    }
+
+    synchronized void addConverted(File sourceFile, File targetFile, double seconds) {
+        entries.add(new String[]{sourceFile.getPath(), STATUS_CONVERTED, formatSeconds(seconds), targetFile.getPath()});
+    }
+
+    synchronized void addFailed(File sourceFile, Throwable failure, double seconds) {
+        entries.add(new String[]{sourceFile.getPath(), STATUS_FAILED, formatSeconds(seconds), getMessage(failure)});
+        numFailed++;
+    }
+
+    synchronized int getNumFiles() {
+        return entries.size();
+    }
+
+    synchronized int getNumFailed() {
+        return numFailed;
+    }
+
+    /**
+     * Writes the summary into the given directory.
+     *
+     * @return the summary file
+     */
+    synchronized File write(File directory) throws IOException {
+        final File summaryFile = new File(directory, FILE_NAME);
+        try (PrintWriter writer = new PrintWriter(summaryFile, "UTF-8")) {
+            writer.println("source\tstatus\tseconds\ttarget or failure");
+            for (String[] entry : entries) {
+                writer.println(String.join("\t", entry));
+            }
+        }
+        return summaryFile;
+    }
+
+    private static String formatSeconds(double seconds) {
+        return String.format(Locale.ENGLISH, "%.1f", seconds);
+    }
+
+    private static String getMessage(Throwable failure) {
+        final String message = failure.getMessage() != null ? failure.getMessage() : failure.getClass().getName();
+        // one line per file
+        return message.replaceAll("\\s+", " ");
+    }
+}
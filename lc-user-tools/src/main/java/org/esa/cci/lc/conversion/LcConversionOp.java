@@ -1,15 +1,20 @@
 package org.esa.cci.lc.conversion;
 
-import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.DecodeQualification;
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.dataio.ProductReader;
+import org.esa.snap.core.dataio.ProductReaderPlugIn;
+import org.esa.snap.core.dataio.ProductWriter;
+import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
-import org.esa.snap.core.gpf.common.WriteOp;
 import org.esa.snap.core.util.Debug;
 import org.esa.cci.lc.io.LcCondMetadata;
 import org.esa.cci.lc.io.LcConditionNetCdf4WriterPlugIn;
@@ -18,8 +23,17 @@ import org.esa.cci.lc.io.LcMapNetCdf4WriterPlugIn;
 import org.esa.cci.lc.io.LcWbMetadata;
 import org.esa.cci.lc.io.LcWbNetCdf4WriterPlugIn;
 import org.esa.cci.lc.util.LcHelper;
+import org.esa.cci.lc.util.RunMetrics;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
 
 /**
  * This operator converts the LC CCI GeoTIFF files of a map product or a condition product
@@ -43,9 +57,16 @@ public class LcConversionOp extends Operator {
     private static final String LC_CONDITION_FORMAT = LcConditionNetCdf4WriterPlugIn.FORMAT_NAME;
     private static final String LC_CDS_FILENAME_FORMAT = "ESACCI-LC-L4-LCCS-Map-300m-P1Y-(....)-v2.0.7b.nc";
     private static final String BA_CDS_FILENAME_FORMAT = "(........)-ESACCI-L4_FIRE-BA-MODIS-fv5.(.).nc";
+    private static final String QUALITY_FLAG_FILE_MARKER = "_qualityflag";
 
-    @SourceProduct(description = "LC CCI map conversion input.", optional = false)
+    @SourceProduct(description = "LC CCI map conversion input. Not needed if a source directory is given.", optional = true)
     private Product sourceProduct;
+    @Parameter(description = "A directory whose files are converted in one run, instead of a single source product. " +
+            "A summary of the conversion of all files is written to the target directory.")
+    private File sourceDir;
+    @Parameter(description = "The pattern of the names of the files in the source directory which are converted, " +
+            "e.g. 'ESACCI-LC-L4-LCCS-Map-300m-P1Y-199?-*.tif'.", defaultValue = "*.tif")
+    private String sourceFilePattern;
     @Parameter(description = "The target directory. Default is the directory of the source product.")
     private File targetDir;
     @Parameter(description = "Version of the target file. Replacing the one given by the source product")
@@ -59,6 +80,76 @@ public class LcConversionOp extends Operator {
     @Override
     public void initialize() throws OperatorException {
         Debug.setEnabled(true);
+        if (sourceDir != null) {
+            if (sourceProduct != null) {
+                throw new OperatorException("Either a source product or a source directory can be given, not both");
+            }
+            convertBatch();
+        } else if (sourceProduct != null) {
+            convertProduct(null);
+        } else {
+            throw new OperatorException("Either a source product or a source directory must be given");
+        }
+        setTargetProduct(new Product("foo", "dummy", 2, 2));
+    }
+
+    /**
+     * Converts all matching files of the source directory one after the other in this JVM. The threads reading the
+     * blocks are shared by all files. A file which can not be converted is recorded in the summary and does not stop
+     * the batch.
+     */
+    private void convertBatch() {
+        final List<File> sourceFiles = listSourceFiles(sourceDir, sourceFilePattern);
+        if (sourceFiles.isEmpty()) {
+            throw new OperatorException("No file in " + sourceDir + " matches " + sourceFilePattern);
+        }
+        getLogger().info(String.format("Converting %d files of %s", sourceFiles.size(), sourceDir));
+        // the version of the source product is taken if no target version is given, so it is set for each file
+        final String givenTargetVersion = targetVersion;
+        final ConversionSummary summary = new ConversionSummary();
+        final ExecutorService readers = BlockConverter.createReaders(Runtime.getRuntime().availableProcessors());
+        ProductReaderPlugIn readerPlugIn = null;
+        try {
+            for (File sourceFile : sourceFiles) {
+                final long startNanos = System.nanoTime();
+                targetVersion = givenTargetVersion;
+                try {
+                    readerPlugIn = getReaderPlugIn(sourceFile, readerPlugIn);
+                    sourceProduct = readProduct(readerPlugIn, sourceFile);
+                    final File targetFile = convertProduct(readers);
+                    summary.addConverted(sourceFile, targetFile, getSeconds(startNanos));
+                } catch (IOException | RuntimeException e) {
+                    getLogger().log(Level.SEVERE, "Could not convert " + sourceFile, e);
+                    summary.addFailed(sourceFile, e, getSeconds(startNanos));
+                } finally {
+                    if (sourceProduct != null) {
+                        sourceProduct.dispose();
+                        sourceProduct = null;
+                    }
+                }
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+
+        try {
+            getLogger().info("Conversion summary written to " + summary.write(targetDir != null ? targetDir : sourceDir));
+        } catch (IOException e) {
+            getLogger().warning("Could not write conversion summary: " + e.getMessage());
+        }
+        if (summary.getNumFailed() > 0) {
+            throw new OperatorException(String.format("%d of %d files could not be converted",
+                                                      summary.getNumFailed(), summary.getNumFiles()));
+        }
+    }
+
+    /**
+     * Converts the source product.
+     *
+     * @param sharedReaders the threads reading the blocks, or {@code null} if the conversion shall use its own
+     * @return the target file
+     */
+    private File convertProduct(ExecutorService sharedReaders) {
         final File sourceFile = sourceProduct.getFileLocation();
         String sourceFileName = sourceFile.getName();
 
@@ -96,21 +187,85 @@ public class LcConversionOp extends Operator {
             throw new OperatorException(sourceProduct.getName()+" lacks global_attributes, reader is "+sourceProduct.getProductReader());
         }
 
-        if (targetDir == null) {
-            targetDir = sourceFile.getParentFile();
-        }
-        File targetFile = new File(targetDir, id + ".nc");
+        final File targetFile = new File(targetDir != null ? targetDir : sourceFile.getParentFile(), id + ".nc");
         sourceProduct.setPreferredTileSize(LcHelper.TILE_SIZE);
-        WriteOp writeOp = new WriteOp(sourceProduct, targetFile, outputFormat);
-        writeOp.setWriteEntireTileRows(false);
-        writeOp.setClearCacheAfterRowWrite(true);
-        // If execution order is not set to SCHEDULE_BAND_ROW_COLUMN a Java heap space error occurs multiple times
-        // if only 2GB of heap space is available:
-        // Exception in thread "SunTileScheduler0Standard2" java.lang.OutOfMemoryError: Java heap space
-        System.setProperty("snap.gpf.executionOrder", "SCHEDULE_BAND_ROW_COLUMN");
-        writeOp.writeProduct(ProgressMonitor.NULL);
+        final ProductWriter productWriter = ProductIO.getProductWriter(outputFormat);
+        if (productWriter == null) {
+            throw new OperatorException("No writer found for format " + outputFormat);
+        }
+        // the bands are converted in chunk aligned blocks, as many in parallel as the memory budget allows
+        final ConversionPlan plan = ConversionPlan.create(sourceProduct.getSceneRasterWidth(),
+                                                          sourceProduct.getSceneRasterHeight(),
+                                                          LcHelper.TILE_SIZE.height, getMaxBytesPerPixel());
+        getLogger().info("Converting " + sourceProduct.getName() + " in " + plan);
+        final RunMetrics metrics = RunMetrics.start(getClass().getSimpleName() + "-" + sourceProduct.getName());
+        try {
+            final long startTime = metrics.startPhase();
+            new BlockConverter(plan, sharedReaders, getLogger()).convert(sourceProduct, productWriter, targetFile);
+            metrics.endPhase(RunMetrics.Phase.WRITE, startTime);
+            metrics.addWrittenProduct(sourceProduct);
+            try {
+                getLogger().info("Run metrics written to " + metrics.writeReport(targetFile));
+            } catch (IOException e) {
+                getLogger().warning("Could not write run metrics of " + targetFile + ": " + e.getMessage());
+            }
+        } catch (IOException e) {
+            throw new OperatorException("Could not write " + targetFile, e);
+        } finally {
+            metrics.close();
+        }
+        return targetFile;
+    }
 
-        setTargetProduct(new Product("foo", "dummy", 2, 2));
+    static List<File> listSourceFiles(File directory, String filePattern) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new OperatorException("Can not list the files of " + directory);
+        }
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + filePattern);
+        final List<File> sourceFiles = new ArrayList<>();
+        for (File file : files) {
+            // the quality flags are read together with their map
+            if (file.isFile() && matcher.matches(file.toPath().getFileName()) && !file.getName().contains(QUALITY_FLAG_FILE_MARKER)) {
+                sourceFiles.add(file);
+            }
+        }
+        Collections.sort(sourceFiles);
+        return sourceFiles;
+    }
+
+    /**
+     * @return the reader plugin of the previous file if it is intended for the given one, otherwise the best one
+     */
+    private static ProductReaderPlugIn getReaderPlugIn(File sourceFile, ProductReaderPlugIn previousPlugIn) throws IOException {
+        if (previousPlugIn != null && previousPlugIn.getDecodeQualification(sourceFile) == DecodeQualification.INTENDED) {
+            return previousPlugIn;
+        }
+        final ProductReader reader = ProductIO.getProductReaderForInput(sourceFile);
+        if (reader == null) {
+            throw new IOException("No reader found for " + sourceFile);
+        }
+        return reader.getReaderPlugIn();
+    }
+
+    private static Product readProduct(ProductReaderPlugIn readerPlugIn, File sourceFile) throws IOException {
+        final Product product = readerPlugIn.createReaderInstance().readProductNodes(sourceFile, null);
+        if (product.getFileLocation() == null) {
+            product.setFileLocation(sourceFile);
+        }
+        return product;
+    }
+
+    private static double getSeconds(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1.0e9;
+    }
+
+    private int getMaxBytesPerPixel() {
+        int bytesPerPixel = 1;
+        for (Band band : sourceProduct.getBands()) {
+            bytesPerPixel = Math.max(bytesPerPixel, ProductData.getElemSize(band.getDataType()));
+        }
+        return bytesPerPixel;
     }
 
     // setting the id for all cases  in order to hand over to the writer
@@ -2,6 +2,7 @@ package org.esa.cci.lc.conversion;
 
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
 import org.esa.snap.core.datamodel.GeoCoding;
 import org.esa.snap.core.datamodel.GeoPos;
 import org.esa.snap.core.datamodel.MetadataAttribute;
@@ -18,17 +19,21 @@ import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.gpf.annotations.TargetProduct;
 import org.esa.snap.core.util.ProductUtils;
-import org.esa.cci.lc.aggregation.Lccs2PftLut;
-import org.esa.cci.lc.aggregation.Lccs2PftLutBuilder;
+import org.esa.cci.lc.aggregation.CompiledPftLut;
 import org.esa.cci.lc.aggregation.Lccs2PftLutException;
+import org.esa.cci.lc.aggregation.UserMapSampler;
 import org.esa.cci.lc.util.LcHelper;
+import org.esa.cci.lc.util.RunMetrics;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.operation.MathTransform;
 
 import java.awt.Rectangle;
-import java.awt.image.Raster;
+import java.awt.geom.AffineTransform;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.Collection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
@@ -72,8 +77,17 @@ public class RemapInternalOp extends Operator {
             label = "Additional User Map PFT Conversion Table")
     private File additionalUserMapPFTConversionTable;
 
-    private Lccs2PftLut pftLut;
+    private CompiledPftLut pftLut;
+    private UserMapSampler userMapSampler;
     private Map<String, Integer> pftNameIndexMap;
+    private RunMetrics metrics = new RunMetrics(RemapInternalOp.class.getSimpleName());
+
+    /**
+     * Sets the metrics of the run, the time spent for reading and remapping and the number of pixels are counted.
+     */
+    void setRunMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     @Override
     public void initialize() throws OperatorException {
@@ -94,6 +108,8 @@ public class RemapInternalOp extends Operator {
 
         if (additionalUserMap != null) {
             validateAddionalUserMap();
+            // the user map is a source product, it is disposed by the caller, not by the sampler
+            userMapSampler = new UserMapSampler(additionalUserMap);
             final Band mapBand = additionalUserMap.getBandAt(0);
             targetProduct.addBand(USER_MAP_BAND_NAME, mapBand.getDataType());
         }
@@ -114,79 +130,156 @@ public class RemapInternalOp extends Operator {
         }
     }
 
+    @Override
+    public void dispose() {
+        if (userMapSampler != null) {
+            userMapSampler.close();
+            userMapSampler = null;
+        }
+        super.dispose();
+    }
+
+    /**
+     * Remaps all PFT bands of the tile in one pass. The target buffers are resolved once per tile, the user map
+     * classes of the tile are sampled in one block and the conversion factors are looked up once per pixel, or
+     * only when the LCCS class or the user class changes from one pixel to the next.
+     */
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
-            try {
-                Collection<Band> keys = targetTiles.keySet();
-                final Band proxyBand = keys.toArray(new Band[keys.size()])[0];
-                Collection<Tile> values = targetTiles.values();
-                final Tile proxyTile = values.toArray(new Tile[values.size()])[0];
-                int lineStride = proxyTile.getScanlineStride();
-                int lineOffset = proxyTile.getScanlineOffset();
-                GeoCoding targetBandGeoCoding = proxyBand.getGeoCoding();
-
-                Tile lccsTile = getSourceTile(sourceProduct.getBand(LCCS_CLASS_BAND_NAME), proxyTile.getRectangle());
-                ProductData inBuffer = lccsTile.getDataBuffer();
-                for (int y = proxyTile.getMinY(); y <= proxyTile.getMaxY(); y++) {
-                    int index = lineOffset;
-                    for (int x = proxyTile.getMinX(); x <= proxyTile.getMaxX(); x++) {
-                        final int userClass = getUserMapSample(targetBandGeoCoding, x, y);
-                        for (Map.Entry<Band, Tile> entry : targetTiles.entrySet()) {
-                            final Tile targetTile = entry.getValue();
-                            final Band targetBand = entry.getKey();
-                            ProductData outBuffer = targetTile.getDataBuffer();
-                            if (USER_MAP_BAND_NAME.equals(targetBand.getName())) {
-                                outBuffer.setElemIntAt(index, userClass);
-                            } else {
-                                int pftIndex = pftNameIndexMap.get(targetBand.getName());
-                                int lccsClass = 0;
-                                try {
-                                    lccsClass = inBuffer.getElemIntAt(index);
-                                } catch (ArrayIndexOutOfBoundsException e) {
-                                    System.err.printf("targetTile name: %s", targetTile.getRasterDataNode().getName());
-                                    System.err.printf("targetTile rectangle: %s", targetRectangle);
-                                    System.err.printf("targetTile MinX: %s", targetTile.getMinX());
-                                    System.err.printf("targetTile MaxX: %s", targetTile.getMaxX());
-                                    System.err.printf("targetTile MinY: %s", targetTile.getMinY());
-                                    System.err.printf("targetTile MaxY: %s", targetTile.getMaxY());
-                                    System.err.printf("lccsTile rectangle: %s", lccsTile.getRectangle());
-                                    System.err.printf("proxyTile rectangle: %s", proxyTile.getRectangle());
-                                    System.err.printf("proxyTile scan line stride: %s", proxyTile.getScanlineStride());
-                                    System.err.printf("proxyTile scan line offset: %s", proxyTile.getScanlineOffset());
-                                    System.err.printf("proxyTile MinX: %s", proxyTile.getMinX());
-                                    System.err.printf("proxyTile MaxX: %s", proxyTile.getMaxX());
-                                    System.err.printf("proxyTile MinY: %s", proxyTile.getMinY());
-                                    System.err.printf("proxyTile MaxY: %s", proxyTile.getMaxY());
-                                    System.err.printf("inBuffer num elems: %s", inBuffer.getNumElems());
-                                    System.err.printf("outBuffer num elems: %s", outBuffer.getNumElems());
-                                    e.printStackTrace();
-                                    throw e;
-                                }
-                                float[] conversionFactors = pftLut.getConversionFactors(lccsClass, userClass);
-                                final double value = conversionFactors[pftIndex] * SCALING_FACTOR;
-                                outBuffer.setElemIntAt(index, (int) Math.floor(Double.isNaN(value) ? 0 : value));
-                            }
-                        }
-                        index++;
+        final int numPfts = pftLut.getNumPFTs();
+        final short[][] pftBuffers = new short[numPfts][];
+        ProductData userMapBuffer = null;
+        Tile proxyTile = null;
+        GeoCoding geoCoding = null;
+        for (Map.Entry<Band, Tile> entry : targetTiles.entrySet()) {
+            final Band targetBand = entry.getKey();
+            final Tile targetTile = entry.getValue();
+            if (USER_MAP_BAND_NAME.equals(targetBand.getName())) {
+                userMapBuffer = targetTile.getDataBuffer();
+            } else {
+                final Integer pftIndex = pftNameIndexMap.get(targetBand.getName());
+                if (pftIndex == null) {
+                    continue;
+                }
+                pftBuffers[pftIndex] = targetTile.getDataBufferShort();
+            }
+            if (proxyTile == null) {
+                proxyTile = targetTile;
+                geoCoding = targetBand.getGeoCoding();
+            }
+        }
+        if (proxyTile == null) {
+            return;
+        }
+        final Rectangle rectangle = proxyTile.getRectangle();
+
+        final long readStartTime = metrics.startPhase();
+        final Tile lccsTile = getSourceTile(sourceProduct.getBand(LCCS_CLASS_BAND_NAME), rectangle);
+        final ProductData inBuffer = lccsTile.getDataBuffer();
+        final int[] userClasses = readUserClasses(geoCoding, rectangle);
+        metrics.endPhase(RunMetrics.Phase.READ, readStartTime);
+
+        final long processStartTime = metrics.startPhase();
+        final short[] pftValues = new short[numPfts];
+        int lastLccsClass = Integer.MIN_VALUE;
+        int lastUserClass = Integer.MIN_VALUE;
+        int userClassIndex = 0;
+        int lineOffset = proxyTile.getScanlineOffset();
+        int srcLineOffset = lccsTile.getScanlineOffset();
+        for (int y = 0; y < rectangle.height; y++) {
+            int index = lineOffset;
+            int srcIndex = srcLineOffset;
+            for (int x = 0; x < rectangle.width; x++) {
+                final int lccsClass = inBuffer.getElemIntAt(srcIndex);
+                final int userClass = userClasses[userClassIndex];
+                if (lccsClass != lastLccsClass || userClass != lastUserClass) {
+                    computePftValues(lccsClass, userClass, pftValues);
+                    lastLccsClass = lccsClass;
+                    lastUserClass = userClass;
+                }
+                for (int i = 0; i < numPfts; i++) {
+                    final short[] pftBuffer = pftBuffers[i];
+                    if (pftBuffer != null) {
+                        pftBuffer[index] = pftValues[i];
                     }
-                    lineOffset += lineStride;
                 }
-            } catch (Throwable t) {
-                t.printStackTrace();
+                if (userMapBuffer != null) {
+                    userMapBuffer.setElemIntAt(index, userClass);
+                }
+                index++;
+                srcIndex++;
+                userClassIndex++;
             }
+            lineOffset += proxyTile.getScanlineStride();
+            srcLineOffset += lccsTile.getScanlineStride();
+        }
+        metrics.endPhase(RunMetrics.Phase.PROCESS, processStartTime);
     }
 
-    private int getUserMapSample(GeoCoding geoCoding, int x, int y) {
-        if (additionalUserMap != null) {
-            Band userMap = additionalUserMap.getBandAt(0);
-            final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(x, y), null);
-            final PixelPos pixelPos = userMap.getGeoCoding().getPixelPos(geoPos, null);
-            final Rectangle rect = new Rectangle((int) Math.floor(pixelPos.x), (int) Math.floor(pixelPos.y), 1, 1);
-            final Raster source = userMap.getGeophysicalImage().getData(rect);
-            return source.getSample(rect.x, rect.y, 0);
+    private void computePftValues(int lccsClass, int userClass, short[] pftValues) {
+        final float[] conversionFactors = pftLut.getFactors(pftLut.getClassIndex(lccsClass), userClass);
+        for (int i = 0; i < pftValues.length; i++) {
+            final double value = conversionFactors[i] * SCALING_FACTOR;
+            pftValues[i] = (short) Math.floor(Double.isNaN(value) ? 0 : value);
+        }
+    }
+
+    /**
+     * @return the user map classes of all pixels of the rectangle, line by line, -1 where the user map has no value
+     */
+    private int[] readUserClasses(GeoCoding geoCoding, Rectangle rectangle) {
+        final int[] userClasses = new int[rectangle.width * rectangle.height];
+        if (userMapSampler == null) {
+            Arrays.fill(userClasses, -1);
+            return userClasses;
+        }
+        final AffineTransform imageToMap = getLatLonImageToMapTransform(geoCoding);
+        if (imageToMap != null) {
+            // on an unrotated lat/lon raster the latitude depends only on the line and the longitude only on the column
+            final double[] lons = new double[rectangle.width];
+            for (int x = 0; x < rectangle.width; x++) {
+                lons[x] = imageToMap.getScaleX() * (rectangle.x + x) + imageToMap.getTranslateX();
+            }
+            int index = 0;
+            for (int y = 0; y < rectangle.height; y++) {
+                final double lat = imageToMap.getScaleY() * (rectangle.y + y) + imageToMap.getTranslateY();
+                for (int x = 0; x < rectangle.width; x++) {
+                    userClasses[index++] = toUserClass(userMapSampler.getSample(lat, lons[x]));
+                }
+            }
         } else {
-            return -1;
+            final PixelPos pixelPos = new PixelPos();
+            final GeoPos geoPos = new GeoPos();
+            int index = 0;
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    pixelPos.setLocation(x, y);
+                    geoCoding.getGeoPos(pixelPos, geoPos);
+                    userClasses[index++] = toUserClass(userMapSampler.getSample(geoPos.getLat(), geoPos.getLon()));
+                }
+            }
         }
+        return userClasses;
+    }
+
+    private static int toUserClass(float sample) {
+        return Float.isNaN(sample) ? -1 : (int) sample;
+    }
+
+    /**
+     * @return the image-to-map transform if the geo-coding is an unrotated WGS84 lat/lon raster, otherwise null
+     */
+    private static AffineTransform getLatLonImageToMapTransform(GeoCoding geoCoding) {
+        if (!(geoCoding instanceof CrsGeoCoding)
+            || !CRS.equalsIgnoreMetadata(DefaultGeographicCRS.WGS84, geoCoding.getMapCRS())) {
+            return null;
+        }
+        final MathTransform imageToMap = geoCoding.getImageToMapTransform();
+        if (!(imageToMap instanceof AffineTransform)) {
+            return null;
+        }
+        final AffineTransform transform = (AffineTransform) imageToMap;
+        return transform.getShearX() == 0.0 && transform.getShearY() == 0.0 ? transform : null;
     }
 
     private void updateMetadata() {
@@ -201,17 +294,13 @@ public class RemapInternalOp extends Operator {
         }
     }
 
-    private Lccs2PftLut createPftLut() {
-        final Lccs2PftLutBuilder lutBuilder = new Lccs2PftLutBuilder();
+    private CompiledPftLut createPftLut() {
         try {
-            if (userPFTConversionTable != null) {
-                lutBuilder.useLccs2PftTable(new FileReader(userPFTConversionTable));
-            }
-            if (additionalUserMapPFTConversionTable != null) {
-                lutBuilder.useAdditionalUserMap(new FileReader(additionalUserMapPFTConversionTable));
-            }
-            return lutBuilder.create();
-        } catch (FileNotFoundException | Lccs2PftLutException e) {
+            final URL userTableUrl = userPFTConversionTable != null ? userPFTConversionTable.toURI().toURL() : null;
+            final URL additionalTableUrl = additionalUserMapPFTConversionTable != null
+                                           ? additionalUserMapPFTConversionTable.toURI().toURL() : null;
+            return CompiledPftLut.getInstance(userTableUrl, additionalTableUrl, 1.0f);
+        } catch (MalformedURLException | Lccs2PftLutException e) {
             throw new OperatorException("Could not create PFT look-up table.", e);
         }
     }
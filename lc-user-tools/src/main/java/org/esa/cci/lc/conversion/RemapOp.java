@@ -4,7 +4,6 @@ import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.core.dataio.ProductIO;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
-import org.esa.snap.core.gpf.GPF;
 import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
@@ -16,10 +15,10 @@ import org.esa.snap.core.gpf.annotations.TargetProduct;
 import org.esa.snap.core.gpf.common.WriteOp;
 import org.esa.snap.core.util.io.FileUtils;
 import org.esa.cci.lc.util.LcHelper;
+import org.esa.cci.lc.util.RunMetrics;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 
 /**
  * This operator converts the lCCS classes to PFT classes staying without resampling them onto a different grid.
@@ -62,24 +61,40 @@ public class RemapOp extends Operator {
 
     @Override
     public void initialize() throws OperatorException {
-        final HashMap<String, Object> parameters = new HashMap<>();
-        parameters.put("userPFTConversionTable", userPFTConversionTable);
-        parameters.put("additionalUserMapPFTConversionTable", additionalUserMapPFTConversionTable);
-        final HashMap<String, Product> productMap = new HashMap<>();
-        productMap.put("sourceProduct", sourceProduct);
-        if (additionalUserMap != null) {
-            try {
-                productMap.put("additionalUserMap", ProductIO.readProduct(additionalUserMap));
-            } catch (IOException ioe) {
-                throw new OperatorException("Not able to read additionalUserMap", ioe);
+        final RunMetrics metrics = RunMetrics.start(getClass().getSimpleName() + "-" + sourceProduct.getName());
+        try {
+            final RemapInternalOp remapOp = new RemapInternalOp();
+            remapOp.setParameterDefaultValues();
+            remapOp.setParameter("userPFTConversionTable", userPFTConversionTable);
+            remapOp.setParameter("additionalUserMapPFTConversionTable", additionalUserMapPFTConversionTable);
+            remapOp.setSourceProduct("sourceProduct", sourceProduct);
+            if (additionalUserMap != null) {
+                try {
+                    remapOp.setSourceProduct("additionalUserMap", ProductIO.readProduct(additionalUserMap));
+                } catch (IOException ioe) {
+                    throw new OperatorException("Not able to read additionalUserMap", ioe);
+                }
             }
+            remapOp.setRunMetrics(metrics);
+            targetProduct = remapOp.getTargetProduct();
+
+            final File targetFile = writeTarget(metrics);
+            metrics.addWrittenProduct(targetProduct);
+            writeMetricsReport(metrics, targetFile);
+        } finally {
+            metrics.close();
         }
-        targetProduct = GPF.createProduct("LCCCI.RemapIntern", parameters, productMap);
+    }
 
-        writeTarget();
+    private void writeMetricsReport(RunMetrics metrics, File targetFile) {
+        try {
+            getLogger().info("Run metrics written to " + metrics.writeReport(targetFile));
+        } catch (IOException e) {
+            getLogger().warning("Could not write run metrics of " + targetFile + ": " + e.getMessage());
+        }
     }
 
-    private void writeTarget() {
+    private File writeTarget(RunMetrics metrics) {
         final String targetFileName = FileUtils.getFilenameWithoutExtension(sourceProduct.getFileLocation()) + "_updated.nc";
         final String targetDir = sourceProduct.getFileLocation().getParent();
         //final String formatName = "NetCDF4-LC-Map";
@@ -98,7 +113,10 @@ public class RemapOp extends Operator {
         writeOp.setClearCacheAfterRowWrite(true);
         writeOp.setWriteEntireTileRows(false);
         System.setProperty("snap.gpf.executionOrder", "SCHEDULE_ROW_COLUMN_BAND");
+        final long startTime = metrics.startPhase();
         writeOp.writeProduct(ProgressMonitor.NULL);
+        metrics.endPhase(RunMetrics.Phase.WRITE, startTime);
+        return targetFile;
     }
 
     @Override
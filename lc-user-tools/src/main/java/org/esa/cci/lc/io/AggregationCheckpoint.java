@@ -0,0 +1,199 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.PlanetaryGrid;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The checkpoint of an aggregation which proceeds row by row through the target grid. The completed rows are
+ * written in segments of consecutive rows into partial bin files (see {@link StripeBinWriter}), and a small
+ * manifest next to them records the completed segments. An interrupted aggregation can be resumed at the first
+ * row not contained in a completed segment. When all rows are completed, the segments are merged into the target
+ * product by the {@link StripeBinMerger}.
+ */
+public class AggregationCheckpoint {
+
+    private static final String MANIFEST_EXTENSION = ".checkpoint";
+    private static final String SEGMENT_INFIX = "-segment-";
+
+    private final File checkpointDir;
+    private final String productId;
+    private final int firstRow;
+    private final int numRows;
+    private final String[] featureNames;
+    private final List<Segment> segments;
+
+    /**
+     * @param checkpointDir the directory of the manifest and the segment files
+     * @param productId     the id of the target product
+     * @param firstRow      the first row of the aggregated rows within the global planetary grid
+     * @param numRows       the number of aggregated rows
+     * @param featureNames  the output features of the aggregation
+     */
+    public AggregationCheckpoint(File checkpointDir, String productId, int firstRow, int numRows, String[] featureNames) {
+        this.checkpointDir = checkpointDir;
+        this.productId = productId;
+        this.firstRow = firstRow;
+        this.numRows = numRows;
+        this.featureNames = featureNames;
+        segments = new ArrayList<>();
+    }
+
+    public File getManifestFile() {
+        return new File(checkpointDir, productId + MANIFEST_EXTENSION);
+    }
+
+    /**
+     * Loads the completed segments from the manifest.
+     *
+     * @return {@code false} if there is no manifest
+     * @throws IOException if the manifest has been written for another aggregation or a segment file is missing
+     */
+    public boolean load() throws IOException {
+        segments.clear();
+        final File manifestFile = getManifestFile();
+        if (!manifestFile.isFile()) {
+            return false;
+        }
+        final Properties manifest = new Properties();
+        try (InputStream inputStream = new FileInputStream(manifestFile)) {
+            manifest.load(inputStream);
+        }
+        if (!productId.equals(manifest.getProperty("productId"))
+            || !String.valueOf(firstRow).equals(manifest.getProperty("firstRow"))
+            || !String.valueOf(numRows).equals(manifest.getProperty("numRows"))
+            || !String.join(",", featureNames).equals(manifest.getProperty("features"))) {
+            throw new IOException("The checkpoint " + manifestFile + " has been written for another aggregation.");
+        }
+        final int numSegments = Integer.parseInt(manifest.getProperty("segments", "0"));
+        int nextRow = firstRow;
+        for (int i = 0; i < numSegments; i++) {
+            final String[] values = manifest.getProperty("segment." + i, "").split(",");
+            if (values.length != 2) {
+                throw new IOException("Invalid entry of segment " + i + " in checkpoint " + manifestFile);
+            }
+            final Segment segment = new Segment(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()));
+            if (segment.firstRow != nextRow) {
+                throw new IOException("Segment " + i + " of checkpoint " + manifestFile + " does not continue at row " + nextRow);
+            }
+            if (!getSegmentFile(i).isFile()) {
+                throw new IOException("Missing segment file " + getSegmentFile(i));
+            }
+            segments.add(segment);
+            nextRow = segment.firstRow + segment.numRows;
+        }
+        return true;
+    }
+
+    /**
+     * @return the first row which is not completed yet
+     */
+    public int getResumeRow() {
+        if (segments.isEmpty()) {
+            return firstRow;
+        }
+        final Segment lastSegment = segments.get(segments.size() - 1);
+        return lastSegment.firstRow + lastSegment.numRows;
+    }
+
+    public int getEndRow() {
+        return firstRow + numRows;
+    }
+
+    public boolean isComplete() {
+        return getResumeRow() >= getEndRow();
+    }
+
+    public String[] getFeatureNames() {
+        return featureNames;
+    }
+
+    public List<File> getSegmentFiles() {
+        final List<File> segmentFiles = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            segmentFiles.add(getSegmentFile(i));
+        }
+        return segmentFiles;
+    }
+
+    /**
+     * Creates a writer which receives the bins of the rows from {@link #getResumeRow()} to the end and completes a
+     * segment after the given number of rows or the given time, whatever comes first.
+     *
+     * @param planetaryGrid    the global planetary grid the bin indices refer to
+     * @param checkpointRows   the number of rows after which a segment is completed, or 0
+     * @param checkpointMillis the time in milliseconds after which a segment is completed, or 0
+     */
+    public StreamingBinWriter createBinWriter(PlanetaryGrid planetaryGrid, int checkpointRows, long checkpointMillis) {
+        return new CheckpointBinWriter(this, planetaryGrid, checkpointRows, checkpointMillis);
+    }
+
+    /**
+     * Deletes the manifest and all segment files.
+     */
+    public void delete() {
+        getManifestFile().delete();
+        final File[] files = checkpointDir.listFiles();
+        if (files != null) {
+            final String segmentPrefix = productId + SEGMENT_INFIX;
+            for (File file : files) {
+                if (file.getName().startsWith(segmentPrefix)) {
+                    file.delete();
+                }
+            }
+        }
+        segments.clear();
+    }
+
+    int getNumSegments() {
+        return segments.size();
+    }
+
+    File getSegmentFile(int segmentIndex) {
+        return new File(checkpointDir, String.format("%s%s%d.bin", productId, SEGMENT_INFIX, segmentIndex + 1));
+    }
+
+    /**
+     * Records a completed segment. The manifest is replaced atomically, so it is consistent even if the process
+     * is killed while it is written.
+     */
+    void addSegment(int segmentFirstRow, int segmentNumRows) throws IOException {
+        segments.add(new Segment(segmentFirstRow, segmentNumRows));
+        final Properties manifest = new Properties();
+        manifest.setProperty("productId", productId);
+        manifest.setProperty("firstRow", String.valueOf(firstRow));
+        manifest.setProperty("numRows", String.valueOf(numRows));
+        manifest.setProperty("features", String.join(",", featureNames));
+        manifest.setProperty("segments", String.valueOf(segments.size()));
+        for (int i = 0; i < segments.size(); i++) {
+            manifest.setProperty("segment." + i, segments.get(i).firstRow + "," + segments.get(i).numRows);
+        }
+        final File manifestFile = getManifestFile();
+        final File tempFile = new File(checkpointDir, manifestFile.getName() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            manifest.store(outputStream, "Completed rows of the aggregation of " + productId);
+        }
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Segment {
+
+        private final int firstRow;
+        private final int numRows;
+
+        private Segment(int firstRow, int numRows) {
+            this.firstRow = firstRow;
+            this.numRows = numRows;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.WritableVector;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Arranges temporal bins, given in ascending order of their bin index, into segments of consecutive cells and
+ * hands every completed segment to {@link #writeSegment(int, int, int, float[])}. It is used for grids whose rows
+ * have different numbers of columns, e.g. the reduced Gaussian grid. Their cells can not be arranged in a raster,
+ * so the cells of all rows are written one after the other along a single dimension, with the bin index as cell
+ * index. Cells without any bin are filled with NaN.
+ * <p>
+ * The segment size is limited by the same memory budget as the stripes of the {@link BinRasterWriter}.
+ */
+abstract class BinCellWriter {
+
+    private final int numCells;
+    private final int segmentSize;
+    private final float[][] segments;
+    private final Logger logger;
+    private int segmentStart;
+    private boolean segmentFilled;
+    private long lastBinIndex;
+
+    BinCellWriter(int numCells, int numVariables, Logger logger) {
+        this(numCells, numVariables, Long.getLong(BinRasterWriter.BUFFER_SIZE_PROPERTY, BinRasterWriter.DEFAULT_BUFFER_SIZE),
+             logger);
+    }
+
+    /**
+     * @param numCells     the number of cells of the grid
+     * @param numVariables the number of target variables, the same as the number of feature values of the bins
+     * @param bufferSize   the maximum number of bytes used to buffer segments, at least one cell per variable is
+     *                     buffered regardless of this value
+     * @param logger       the logger
+     */
+    BinCellWriter(int numCells, int numVariables, long bufferSize, Logger logger) {
+        this.numCells = numCells;
+        this.logger = logger;
+        final long maxSegmentSize = bufferSize / (4L * Math.max(1, numVariables));
+        segmentSize = (int) Math.max(1, Math.min(maxSegmentSize, numCells));
+        segments = new float[numVariables][segmentSize];
+        for (float[] segment : segments) {
+            Arrays.fill(segment, BinRasterWriter.FILL_VALUE);
+        }
+        segmentStart = 0;
+        segmentFilled = false;
+        lastBinIndex = -1;
+    }
+
+    int getNumCells() {
+        return numCells;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Writes a segment of a variable.
+     *
+     * @param variableIndex the index of the variable
+     * @param firstCell     the first cell of the segment
+     * @param length        the number of cells of the segment
+     * @param data          the values of the segment, exactly {@code length} cells
+     */
+    protected abstract void writeSegment(int variableIndex, int firstCell, int length, float[] data) throws IOException;
+
+    void write(TemporalBin temporalBin) throws IOException {
+        final long binIndex = temporalBin.getIndex();
+        if (binIndex <= lastBinIndex) {
+            throw new IllegalStateException(String.format("Bin %d is not given in ascending order, bin %d is already written",
+                                                          binIndex, lastBinIndex));
+        }
+        if (binIndex >= numCells) {
+            throw new IllegalStateException(String.format("Bin %d is outside of the grid of %d cells", binIndex, numCells));
+        }
+        lastBinIndex = binIndex;
+        while (binIndex >= segmentStart + segmentSize) {
+            writeCurrentSegment();
+        }
+
+        final WritableVector resultVector = temporalBin.toVector();
+        final int offset = (int) (binIndex - segmentStart);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i][offset] = resultVector.get(i);
+        }
+        segmentFilled = true;
+    }
+
+    /**
+     * Writes the current segment and fills all remaining cells.
+     */
+    void finish() throws IOException {
+        while (segmentStart < numCells) {
+            writeCurrentSegment();
+        }
+    }
+
+    private void writeCurrentSegment() throws IOException {
+        final int length = Math.min(segmentSize, numCells - segmentStart);
+        for (int i = 0; i < segments.length; i++) {
+            final float[] segment = segments[i];
+            writeSegment(i, segmentStart, length, length == segmentSize ? segment : Arrays.copyOf(segment, length));
+            if (segmentFilled) {
+                Arrays.fill(segment, BinRasterWriter.FILL_VALUE);
+            }
+        }
+        segmentFilled = false;
+        segmentStart += length;
+        logger.info(String.format("Cell %d of %d done", segmentStart, numCells));
+    }
+}
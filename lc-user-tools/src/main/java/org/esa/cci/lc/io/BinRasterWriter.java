@@ -0,0 +1,182 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.WritableVector;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Arranges temporal bins, given in ascending order of their bin index, into raster stripes and hands every
+ * completed stripe to {@link #writeStripe(int, int, int, float[])}. Pixels without any bin are filled with NaN.
+ * <p>
+ * The stripes are aligned to the chunks of the target variables, so every chunk is written by as few calls as
+ * possible and never needs to be read back and compressed again. A stripe covers the full chunk height if the
+ * buffers of all variables fit into the memory budget, otherwise the largest divisor of the chunk height which
+ * fits. The budget defaults to {@link #DEFAULT_BUFFER_SIZE} bytes and can be changed by the system property
+ * {@value #BUFFER_SIZE_PROPERTY}.
+ * <p>
+ * If the planetary grid is a {@link RegionalPlanetaryGrid}, bins outside of the region are skipped.
+ */
+abstract class BinRasterWriter {
+
+    static final float FILL_VALUE = Float.NaN;
+    static final String BUFFER_SIZE_PROPERTY = "lc.binWriter.bufferSize";
+    static final long DEFAULT_BUFFER_SIZE = 256L * 1024 * 1024;
+
+    private final PlanetaryGrid planetaryGrid;
+    private final int sceneWidth;
+    private final int sceneHeight;
+    private final int chunkHeight;
+    private final int stripeHeight;
+    private final float[][] stripes;
+    private final Logger logger;
+    private final int logInterval;
+    private int stripeY;
+    private int stripeEndY;
+    private boolean stripeFilled;
+    private int lineY;
+
+    BinRasterWriter(PlanetaryGrid planetaryGrid, int numVariables, int chunkHeight, int logInterval, Logger logger) {
+        this(planetaryGrid, numVariables, chunkHeight, Long.getLong(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE),
+             logInterval, logger);
+    }
+
+    /**
+     * @param planetaryGrid the grid of the target raster
+     * @param numVariables  the number of target variables, the same as the number of feature values of the bins
+     * @param chunkHeight   the chunk height of the target variables
+     * @param bufferSize    the maximum number of bytes used to buffer stripes, at least one line per variable
+     *                      is buffered regardless of this value
+     * @param logInterval   the number of lines after which the progress is logged
+     * @param logger        the logger
+     */
+    BinRasterWriter(PlanetaryGrid planetaryGrid, int numVariables, int chunkHeight, long bufferSize,
+                    int logInterval, Logger logger) {
+        this.planetaryGrid = planetaryGrid;
+        this.logger = logger;
+        this.logInterval = logInterval;
+        sceneWidth = planetaryGrid.getNumCols(0);
+        sceneHeight = planetaryGrid.getNumRows();
+        this.chunkHeight = Math.max(1, chunkHeight);
+        final int maxStripeHeight = computeStripeHeight(this.chunkHeight, bufferSize / (4L * sceneWidth * Math.max(1, numVariables)));
+        // small scenes need no buffer larger than the scene
+        stripeHeight = Math.max(1, Math.min(maxStripeHeight, sceneHeight));
+        stripes = new float[numVariables][stripeHeight * sceneWidth];
+        for (float[] stripe : stripes) {
+            Arrays.fill(stripe, FILL_VALUE);
+        }
+        stripeY = 0;
+        stripeEndY = computeStripeEnd(0);
+        stripeFilled = false;
+        lineY = 0;
+    }
+
+    int getSceneWidth() {
+        return sceneWidth;
+    }
+
+    int getSceneHeight() {
+        return sceneHeight;
+    }
+
+    int getStripeHeight() {
+        return stripeHeight;
+    }
+
+    /**
+     * Writes a stripe of a variable.
+     *
+     * @param variableIndex the index of the variable
+     * @param y             the first line of the stripe
+     * @param height        the number of lines of the stripe
+     * @param data          the values of the stripe, exactly {@code height} lines of the scene width
+     */
+    protected abstract void writeStripe(int variableIndex, int y, int height, float[] data) throws IOException;
+
+    void write(TemporalBin temporalBin) throws IOException {
+        final long binIndex = temporalBin.getIndex();
+        final int binX;
+        final int binY;
+        if (planetaryGrid instanceof RegionalPlanetaryGrid) {
+            final RegionalPlanetaryGrid regionalGrid = (RegionalPlanetaryGrid) planetaryGrid;
+            if (!regionalGrid.isBinIndexInRegionalGrid(binIndex)) {
+                return;
+            }
+            final int baseGridWidth = regionalGrid.getGlobalGrid().getNumCols(0);
+            binX = (int) (binIndex % baseGridWidth) - regionalGrid.getColumnOffset();
+            binY = (int) (binIndex / baseGridWidth) - regionalGrid.getRowOffset();
+        } else {
+            binX = (int) (binIndex % sceneWidth);
+            binY = (int) (binIndex / sceneWidth);
+        }
+        if (binY < lineY) {
+            throw new IllegalStateException(String.format("Bin %d is not given in ascending order, line %d is already written",
+                                                          binIndex, binY));
+        }
+        lineY = binY;
+        while (lineY >= stripeEndY) {
+            writeCurrentStripe();
+        }
+
+        final WritableVector resultVector = temporalBin.toVector();
+        final int offset = (binY - stripeY) * sceneWidth + binX;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i][offset] = resultVector.get(i);
+        }
+        stripeFilled = true;
+    }
+
+    /**
+     * Writes the current stripe and fills all remaining lines.
+     */
+    void finish() throws IOException {
+        while (stripeY < sceneHeight) {
+            writeCurrentStripe();
+        }
+        lineY = sceneHeight;
+    }
+
+    private void writeCurrentStripe() throws IOException {
+        final int height = stripeEndY - stripeY;
+        for (int i = 0; i < stripes.length; i++) {
+            final float[] stripe = stripes[i];
+            writeStripe(i, stripeY, height, height == stripeHeight ? stripe : Arrays.copyOf(stripe, height * sceneWidth));
+            if (stripeFilled) {
+                Arrays.fill(stripe, FILL_VALUE);
+            }
+        }
+        // an empty stripe stays filled with NaN and is reused as it is for the following empty lines
+        stripeFilled = false;
+        if (stripeY / logInterval != stripeEndY / logInterval) {
+            logger.info(String.format("Line %d of %d done", stripeEndY, sceneHeight));
+        }
+        stripeY = stripeEndY;
+        stripeEndY = computeStripeEnd(stripeY);
+    }
+
+    /**
+     * Stripes end at the stripe height, at the next chunk boundary or at the end of the scene.
+     */
+    private int computeStripeEnd(int y) {
+        final int nextChunkY = (y / chunkHeight + 1) * chunkHeight;
+        return Math.min(Math.min(y + stripeHeight, nextChunkY), sceneHeight);
+    }
+
+    /**
+     * @return the largest divisor of the chunk height not exceeding the given maximum number of lines, at least 1
+     */
+    static int computeStripeHeight(int chunkHeight, long maxLines) {
+        if (maxLines >= chunkHeight) {
+            return chunkHeight;
+        }
+        for (int height = (int) Math.max(1, maxLines); height > 1; height--) {
+            if (chunkHeight % height == 0) {
+                return height;
+            }
+        }
+        return 1;
+    }
+}
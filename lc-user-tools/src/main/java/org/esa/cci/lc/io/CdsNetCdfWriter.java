@@ -22,7 +22,6 @@ import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.dataio.netcdf.AbstractNetCdfWriterPlugIn;
-import org.esa.snap.dataio.netcdf.DefaultNetCdfWriter;
 import org.esa.snap.dataio.netcdf.nc.NVariable;
 import org.esa.snap.dataio.netcdf.util.ReaderUtils;
 import ucar.ma2.Array;
@@ -37,7 +36,7 @@ import java.util.HashMap;
 /**
  * cds NetCDF writer configured by an implementation of {@link AbstractNetCdfWriterPlugIn}.
  */
-public class CdsNetCdfWriter extends DefaultNetCdfWriter   {
+public class CdsNetCdfWriter extends PipelinedNetCdfWriter   {
     private HashMap<String, NVariable> variableMap;
     AbstractNetCdfWriterPlugIn plugIn = getWriterPlugIn();
 
@@ -55,8 +54,8 @@ public class CdsNetCdfWriter extends DefaultNetCdfWriter   {
     }
 
     @Override
-    public void writeBandRasterData(Band sourceBand, int sourceOffsetX, int sourceOffsetY, int sourceWidth,
-                                    int sourceHeight, ProductData sourceBuffer, ProgressMonitor pm) throws IOException {
+    protected void writeQueuedBandRasterData(Band sourceBand, int sourceOffsetX, int sourceOffsetY, int sourceWidth,
+                                             int sourceHeight, ProductData sourceBuffer, ProgressMonitor pm) throws IOException {
         final String variableName = ReaderUtils.getVariableName(sourceBand);
 
 
@@ -0,0 +1,148 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.core.util.logging.BeamLogManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes the bins of an aggregation into the segments of an {@link AggregationCheckpoint}. A segment is completed
+ * and recorded in the manifest at the first row boundary after the configured number of rows or time. The last
+ * segment is recorded by {@link #close()}, but not by {@link #abort()}.
+ */
+class CheckpointBinWriter implements StreamingBinWriter {
+
+    private final AggregationCheckpoint checkpoint;
+    private final PlanetaryGrid planetaryGrid;
+    private final int checkpointRows;
+    private final long checkpointMillis;
+    private final List<TemporalBin> pendingBins;
+    private StripeBinWriter segmentWriter;
+    private int segmentFirstRow;
+    private long segmentStartTime;
+    private int currentRow;
+    private Logger logger;
+
+    CheckpointBinWriter(AggregationCheckpoint checkpoint, PlanetaryGrid planetaryGrid, int checkpointRows, long checkpointMillis) {
+        this.checkpoint = checkpoint;
+        this.planetaryGrid = planetaryGrid;
+        this.checkpointRows = checkpointRows;
+        this.checkpointMillis = checkpointMillis;
+        pendingBins = new ArrayList<>();
+        logger = BeamLogManager.getSystemLogger();
+    }
+
+    @Override
+    public void open(Map<String, String> metadataProperties) throws IOException {
+        currentRow = -1;
+        openSegment(checkpoint.getResumeRow());
+    }
+
+    @Override
+    public void writeBins(List<TemporalBin> temporalBins) throws IOException {
+        for (TemporalBin temporalBin : temporalBins) {
+            final int row = planetaryGrid.getRowIndex(temporalBin.getIndex());
+            if (row != currentRow) {
+                currentRow = row;
+                if (row > segmentFirstRow && isCheckpointDue(row)) {
+                    finishSegment(row);
+                    openSegment(row);
+                }
+            }
+            pendingBins.add(temporalBin);
+        }
+        flushPendingBins();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segmentWriter == null) {
+            return;
+        }
+        finishSegment(checkpoint.getEndRow());
+    }
+
+    @Override
+    public void abort() throws IOException {
+        pendingBins.clear();
+        if (segmentWriter != null) {
+            final StripeBinWriter writer = segmentWriter;
+            segmentWriter = null;
+            writer.abort();
+        }
+    }
+
+    @Override
+    public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) throws IOException {
+        open(metadataProperties);
+        boolean succeeded = false;
+        try {
+            writeBins(temporalBins);
+            succeeded = true;
+        } finally {
+            if (succeeded) {
+                close();
+            } else {
+                abort();
+            }
+        }
+    }
+
+    @Override
+    public void setBinningContext(BinningContext binningContext) {
+    }
+
+    @Override
+    public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+    }
+
+    @Override
+    public String getTargetFilePath() {
+        return checkpoint.getManifestFile().getPath();
+    }
+
+    @Override
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    private boolean isCheckpointDue(int row) {
+        return (checkpointRows > 0 && row - segmentFirstRow >= checkpointRows)
+               || (checkpointMillis > 0 && System.currentTimeMillis() - segmentStartTime >= checkpointMillis);
+    }
+
+    private void openSegment(int firstRow) throws IOException {
+        final int segmentIndex = checkpoint.getNumSegments();
+        segmentWriter = new StripeBinWriter(segmentIndex, 0, firstRow, 0);
+        segmentWriter.setOutputFeatureNames(checkpoint.getFeatureNames());
+        segmentWriter.setTargetFileTemplatePath(checkpoint.getSegmentFile(segmentIndex).getPath());
+        segmentWriter.setLogger(logger);
+        segmentWriter.open(new HashMap<String, String>());
+        segmentFirstRow = firstRow;
+        segmentStartTime = System.currentTimeMillis();
+    }
+
+    private void finishSegment(int endRow) throws IOException {
+        flushPendingBins();
+        final StripeBinWriter writer = segmentWriter;
+        segmentWriter = null;
+        writer.setNumRows(endRow - segmentFirstRow);
+        writer.close();
+        checkpoint.addSegment(segmentFirstRow, endRow - segmentFirstRow);
+        logger.info(String.format("Checkpoint: rows %d to %d completed", segmentFirstRow, endRow - 1));
+    }
+
+    private void flushPendingBins() throws IOException {
+        if (!pendingBins.isEmpty()) {
+            segmentWriter.writeBins(pendingBins);
+            pendingBins.clear();
+        }
+    }
+}
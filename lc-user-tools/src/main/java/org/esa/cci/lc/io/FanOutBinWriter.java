@@ -0,0 +1,226 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.core.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes the same temporal bins into several target files, e.g. one for each output format. The bins are computed
+ * once and shared read-only by all writers, each writer consumes them on its own thread. At most
+ * {@link WritePipeline#DEFAULT_QUEUE_SIZE} batches of bins are queued for each writer, a slow writer holds back the
+ * producer but not the other writers.
+ * <p>
+ * The first writer added is the primary one, it writes to the target file path. The other writers write to the
+ * target file path extended by their file name suffix.
+ */
+public class FanOutBinWriter implements StreamingBinWriter {
+
+    private final List<StreamingBinWriter> writers;
+    private final List<String> fileNameSuffixes;
+    private List<WritePipeline> pipelines;
+    private Logger logger;
+
+    public FanOutBinWriter() {
+        writers = new ArrayList<>();
+        fileNameSuffixes = new ArrayList<>();
+    }
+
+    /**
+     * @param writer         the writer
+     * @param fileNameSuffix the suffix appended to the name of the target file, before its extension
+     */
+    public void addWriter(StreamingBinWriter writer, String fileNameSuffix) {
+        writers.add(writer);
+        fileNameSuffixes.add(fileNameSuffix);
+    }
+
+    public List<StreamingBinWriter> getWriters() {
+        return Collections.unmodifiableList(writers);
+    }
+
+    /**
+     * @return the target file paths of all writers, the one of the primary writer first
+     */
+    public List<String> getTargetFilePaths() {
+        final List<String> targetFilePaths = new ArrayList<>();
+        for (StreamingBinWriter writer : writers) {
+            targetFilePaths.add(writer.getTargetFilePath());
+        }
+        return targetFilePaths;
+    }
+
+    @Override
+    public void setBinningContext(BinningContext binningContext) {
+        for (StreamingBinWriter writer : writers) {
+            writer.setBinningContext(binningContext);
+        }
+    }
+
+    @Override
+    public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+        for (int i = 0; i < writers.size(); i++) {
+            writers.get(i).setTargetFileTemplatePath(getSuffixedPath(targetFileTemplatePath, fileNameSuffixes.get(i)));
+        }
+    }
+
+    @Override
+    public String getTargetFilePath() {
+        return writers.isEmpty() ? null : writers.get(0).getTargetFilePath();
+    }
+
+    @Override
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+        for (StreamingBinWriter writer : writers) {
+            writer.setLogger(logger);
+        }
+    }
+
+    @Override
+    public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) throws IOException {
+        open(metadataProperties);
+        boolean succeeded = false;
+        try {
+            // the list is not changed afterwards, so it can be shared without a copy
+            submitBins(Collections.unmodifiableList(temporalBins));
+            succeeded = true;
+        } finally {
+            if (succeeded) {
+                close();
+            } else {
+                abort();
+            }
+        }
+    }
+
+    @Override
+    public void open(final Map<String, String> metadataProperties) throws IOException {
+        pipelines = new ArrayList<>();
+        for (final StreamingBinWriter writer : writers) {
+            // the writers queue the bins in pipelines of their own, so they must not wait on the shared workers
+            final WritePipeline pipeline = WritePipeline.createWithOwnThread("Fan-out writer " + writer.getTargetFilePath());
+            pipelines.add(pipeline);
+            pipeline.submit(new WritePipeline.WriteTask() {
+                @Override
+                public void write() throws IOException {
+                    writer.open(metadataProperties);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void writeBins(List<TemporalBin> temporalBins) throws IOException {
+        // the producer may reuse the list, the bins themselves are not changed anymore
+        submitBins(Collections.unmodifiableList(new ArrayList<>(temporalBins)));
+    }
+
+    /**
+     * Hands the bins to all writers. A writer which has failed is skipped, so the others can be completed, its
+     * failure is thrown on {@link #close()}. Only if all writers have failed, it is thrown immediately.
+     */
+    private void submitBins(final List<TemporalBin> sharedBins) throws IOException {
+        IOException failure = null;
+        int numFailed = 0;
+        for (int i = 0; i < writers.size(); i++) {
+            final StreamingBinWriter writer = writers.get(i);
+            try {
+                pipelines.get(i).submit(new WritePipeline.WriteTask() {
+                    @Override
+                    public void write() throws IOException {
+                        writer.writeBins(sharedBins);
+                    }
+                });
+            } catch (IOException e) {
+                failure = e;
+                numFailed++;
+            }
+        }
+        if (numFailed == writers.size() && failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Lets all writers write their remaining rows in parallel and closes them. A writer which has failed before is
+     * aborted, the others are completed nevertheless. The first failure is thrown.
+     */
+    @Override
+    public void close() throws IOException {
+        if (pipelines == null) {
+            return;
+        }
+        for (int i = 0; i < writers.size(); i++) {
+            final StreamingBinWriter writer = writers.get(i);
+            try {
+                pipelines.get(i).submit(new WritePipeline.WriteTask() {
+                    @Override
+                    public void write() throws IOException {
+                        writer.close();
+                    }
+                });
+            } catch (IOException ignored) {
+                // the failure is thrown again when the pipeline is closed
+            }
+        }
+        finishPipelines();
+    }
+
+    @Override
+    public void abort() throws IOException {
+        if (pipelines == null) {
+            return;
+        }
+        try {
+            finishPipelines();
+        } catch (IOException e) {
+            if (logger != null) {
+                logger.warning("Aborted writing: " + e.getMessage());
+            }
+        }
+        for (StreamingBinWriter writer : writers) {
+            writer.abort();
+        }
+    }
+
+    private void finishPipelines() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < pipelines.size(); i++) {
+            try {
+                pipelines.get(i).close();
+            } catch (IOException e) {
+                try {
+                    // aborting a writer which has been closed already does nothing
+                    writers.get(i).abort();
+                } catch (IOException abortFailure) {
+                    e.addSuppressed(abortFailure);
+                }
+                if (failure == null) {
+                    failure = new IOException("Could not write " + writers.get(i).getTargetFilePath(), e);
+                }
+            }
+        }
+        pipelines = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    static String getSuffixedPath(String templatePath, String suffix) {
+        if (suffix == null || suffix.isEmpty()) {
+            return templatePath;
+        }
+        final File templateFile = new File(templatePath);
+        final String extension = FileUtils.getExtension(templateFile);
+        final String fileName = FileUtils.getFilenameWithoutExtension(templateFile) + suffix + (extension != null ? extension : "");
+        return new File(templateFile.getParentFile(), fileName).getPath();
+    }
+}
@@ -18,6 +18,7 @@ package org.esa.cci.lc.io;
 
 import org.esa.snap.dataio.netcdf.ProfileReadContext;
 import org.esa.snap.dataio.netcdf.metadata.ProfilePartReader;
+import org.esa.snap.dataio.netcdf.metadata.profiles.cf.CfBandPart;
 import org.esa.snap.dataio.netcdf.metadata.profiles.cf.CfGeocodingPart;
 import org.esa.snap.dataio.netcdf.metadata.profiles.cf.CfHdfEosGeoInfoExtractor;
 import org.esa.snap.dataio.netcdf.metadata.profiles.cf.CfNetCdfReaderPlugIn;
@@ -31,14 +32,19 @@ import org.esa.snap.core.datamodel.CrsGeoCoding;
 import org.esa.snap.core.datamodel.GeoCoding;
 import org.esa.snap.core.datamodel.GeoCodingFactory;
 import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.util.logging.BeamLogManager;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import ucar.ma2.Array;
+import ucar.ma2.DataType;
 import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 
+import java.awt.Dimension;
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -46,6 +52,7 @@ import java.util.List;
  * Special NetCDF reader for LC-CCI data if stored with a gaussian grid.
  * It overcomes the problem that the standard reader shifts the coordinates and data if
  * the coordinates go from 0 to 360. But for gaussian grids we exactly want this in LC.
+ * The bands of chunked variables are read chunk by chunk through the shared {@link NetCdfChunkCache}.
  */
 public class LCCfNetCdfReaderPlugIn extends CfNetCdfReaderPlugIn {
 
@@ -78,6 +85,103 @@ public class LCCfNetCdfReaderPlugIn extends CfNetCdfReaderPlugIn {
         return new LCCfGeocodingPart();
     }
 
+    @Override
+    public ProfilePartReader createBandPartReader() {
+        return new LCCfBandPart();
+    }
+
+    /**
+     * Serves the bands of chunked variables with the chunks as tiles, so every chunk is decompressed once however
+     * the operators tile their requests. The chunk shape becomes the preferred tile size of the product.
+     */
+    public static class LCCfBandPart extends CfBandPart {
+
+        private static final String ATTRIBUTE_NAME_CHUNK_SIZES = "_ChunkSizes";
+
+        @Override
+        public void decode(ProfileReadContext ctx, Product p) throws IOException {
+            super.decode(ctx, p);
+            final NetcdfFile netcdfFile = ctx.getNetcdfFile();
+            if (isYFlipped(netcdfFile)) {
+                // the reader flips the lines of such files, which does not fit to the chunks
+                return;
+            }
+            final String fileKey = createFileKey(netcdfFile);
+            Dimension preferredTileSize = null;
+            for (Variable variable : ctx.getRasterDigest().getRasterVariables()) {
+                final Band band = p.getBand(variable.getShortName());
+                final Dimension chunkSize = getChunkSize(variable, band);
+                if (chunkSize != null) {
+                    band.setSourceImage(new NetCdfChunkOpImage(band, netcdfFile, variable, chunkSize, fileKey,
+                                                               NetCdfChunkCache.getInstance()));
+                    if (preferredTileSize == null) {
+                        preferredTileSize = chunkSize;
+                    }
+                }
+            }
+            if (preferredTileSize != null) {
+                p.setPreferredTileSize(preferredTileSize);
+            }
+        }
+
+        /**
+         * @return the chunk shape of a variable which can be read chunk-wise into the band, otherwise null
+         */
+        static Dimension getChunkSize(Variable variable, Band band) {
+            final Attribute chunkSizes = variable.findAttribute(ATTRIBUTE_NAME_CHUNK_SIZES);
+            final int rank = variable.getRank();
+            if (band == null || chunkSizes == null || rank < 2 || chunkSizes.getLength() != rank) {
+                return null;
+            }
+            for (int i = 0; i < rank - 2; i++) {
+                if (variable.getShape(i) != 1) {
+                    return null;
+                }
+            }
+            final int width = band.getRasterWidth();
+            final int height = band.getRasterHeight();
+            if (variable.getShape(rank - 2) != height || variable.getShape(rank - 1) != width) {
+                return null;
+            }
+            final DataType dataType = variable.getDataType();
+            final boolean supportedType = dataType == DataType.BYTE || dataType == DataType.SHORT || dataType == DataType.INT
+                                          || dataType == DataType.FLOAT || dataType == DataType.DOUBLE;
+            if (!supportedType || dataType.getSize() != ProductData.getElemSize(band.getDataType())
+                || dataType.isFloatingPoint() != ProductData.isFloatingPointType(band.getDataType())) {
+                return null;
+            }
+            final int chunkHeight = chunkSizes.getNumericValue(rank - 2).intValue();
+            final int chunkWidth = chunkSizes.getNumericValue(rank - 1).intValue();
+            if (chunkWidth <= 0 || chunkHeight <= 0) {
+                return null;
+            }
+            return new Dimension(Math.min(chunkWidth, width), Math.min(chunkHeight, height));
+        }
+
+        // same decision as in LCCfGeocodingPart, ascending latitudes are flipped
+        private static boolean isYFlipped(NetcdfFile netcdfFile) throws IOException {
+            Variable lat = netcdfFile.findVariable(Constants.LAT_VAR_NAME);
+            if (lat == null) {
+                lat = netcdfFile.findVariable(Constants.LATITUDE_VAR_NAME);
+            }
+            if (lat == null || lat.getRank() != 1 || lat.getShape(0) < 2) {
+                return false;
+            }
+            try {
+                final double firstLat = lat.read(new int[]{0}, new int[]{1}).getDouble(0);
+                final double lastLat = lat.read(new int[]{lat.getShape(0) - 1}, new int[]{1}).getDouble(0);
+                return lastLat > firstLat;
+            } catch (InvalidRangeException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private static String createFileKey(NetcdfFile netcdfFile) {
+            final String location = netcdfFile.getLocation();
+            return location + "@" + new File(location).lastModified();
+        }
+    }
+
     public static class LCCfGeocodingPart extends CfGeocodingPart {
 
         @Override
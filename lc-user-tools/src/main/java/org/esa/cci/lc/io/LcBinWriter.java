@@ -1,12 +1,11 @@
 package org.esa.cci.lc.io;
 
-import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.BinManager;
 import org.esa.snap.binning.BinningContext;
 import org.esa.snap.binning.PlanetaryGrid;
 import org.esa.snap.binning.TemporalBin;
-import org.esa.snap.binning.WritableVector;
-import org.esa.snap.binning.operator.BinWriter;
 import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.ReducedGaussianGrid;
 import org.esa.snap.binning.support.RegularGaussianGrid;
 import org.esa.snap.dataio.netcdf.nc.NFileWriteable;
 import org.esa.snap.dataio.netcdf.nc.NVariable;
@@ -15,15 +14,19 @@ import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.util.io.FileUtils;
 import org.esa.snap.core.util.logging.BeamLogManager;
 import org.esa.cci.lc.util.LcHelper;
+import org.esa.cci.lc.util.RunMetrics;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import ucar.ma2.Array;
 import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
 
 import java.awt.Dimension;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -31,59 +34,230 @@ import java.util.logging.Logger;
 /**
  * @author Marco Peters
  */
-public class LcBinWriter implements BinWriter {
+public class LcBinWriter implements StreamingBinWriter {
 
-    private static final float FILL_VALUE = Float.NaN;
+    private static final float FILL_VALUE = BinRasterWriter.FILL_VALUE;
     private final Map<String, String> lcProperties;
     private Logger logger;
     private String targetFilePath;
-    private BinningContext binningContext;
+    private String[] outputFeatureNames;
     private PlanetaryGrid planetaryGrid;
     private ReferencedEnvelope region;
+    private NFileWriteable writeable;
+    private CoordinateEncoder coordinateEncoder;
+    private BinRasterWriter rasterWriter;
+    private BinCellWriter cellWriter;
+    private WritePipeline writePipeline;
+    private boolean failed;
+    private RunMetrics metrics;
 
     public LcBinWriter(Map<String, String> lcProperties, ReferencedEnvelope region) {
         this.lcProperties = lcProperties;
         logger = BeamLogManager.getSystemLogger();
         this.region = region;
+        metrics = new RunMetrics(LcBinWriter.class.getSimpleName());
+    }
+
+    /**
+     * Sets the metrics of the run, the written raster data and the time spent for compressing and writing it are
+     * counted.
+     */
+    public void setRunMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
     }
 
     @Override
     public void setBinningContext(BinningContext binningContext) {
-        this.binningContext = binningContext;
+        setOutputContext(binningContext.getPlanetaryGrid(), getOutputFeatureNames(binningContext.getBinManager()));
+    }
+
+    /**
+     * Alternative to {@link #setBinningContext(BinningContext)} if the temporal bins are not created by the
+     * binning framework.
+     *
+     * @param globalGrid         the global planetary grid the bin indices refer to
+     * @param outputFeatureNames the names of the output features contained in the temporal bins
+     */
+    public void setOutputContext(PlanetaryGrid globalGrid, String[] outputFeatureNames) {
+        this.outputFeatureNames = outputFeatureNames;
         if (region != null) {
-            this.planetaryGrid = new RegionalPlanetaryGrid(binningContext.getPlanetaryGrid(), region);
+            this.planetaryGrid = new RegionalPlanetaryGrid(globalGrid, region);
         } else {
-            this.planetaryGrid = binningContext.getPlanetaryGrid();
+            this.planetaryGrid = globalGrid;
         }
     }
 
+    static String[] getOutputFeatureNames(BinManager binManager) {
+        final List<String> featureNames = new ArrayList<>();
+        for (int i = 0; i < binManager.getAggregatorCount(); i++) {
+            featureNames.addAll(Arrays.asList(binManager.getAggregator(i).getOutputFeatureNames()));
+        }
+        return featureNames.toArray(new String[featureNames.size()]);
+    }
+
     @Override
     public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) throws IOException {
-        NFileWriteable writeable = NWritableFactory.create(targetFilePath, "netcdf4");
         try {
-            int sceneWidth = planetaryGrid.getNumCols(0);
-            int sceneHeight = planetaryGrid.getNumRows();
-            Dimension tileSize = LcHelper.convertToDimension(lcProperties.get(LcHelper.PROP_NAME_TILE_SIZE));
-            writeable.addDimension("lat", sceneHeight);
-            writeable.addDimension("lon", sceneWidth);
-            logger.info("output with extent " + sceneHeight + ":" + sceneWidth + " and chunksize " + tileSize);
-            addGlobalAttributes(writeable);
-            CoordinateEncoder coordinateEncoder = createCoordinateEncoder();
-            coordinateEncoder.addCoordVars(writeable);
-            ArrayList<NVariable> variables = addFeatureVariables(writeable, tileSize);
-            writeable.create();
-            fillVariables(temporalBins, variables, sceneWidth, sceneHeight);
-            coordinateEncoder.fillCoordinateVars(writeable);
+            open(metadataProperties);
+            writeBins(temporalBins);
         } catch (Throwable e) {
             e.printStackTrace();
+            failed = true;
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void open(Map<String, String> metadataProperties) throws IOException {
+        writeable = NWritableFactory.create(targetFilePath, "netcdf4");
+        failed = true;
+        if (isGridImplementationUsed(ReducedGaussianGrid.class)) {
+            openCellLayout();
+        } else {
+            openRasterLayout();
+        }
+        failed = false;
+    }
+
+    private void openRasterLayout() throws IOException {
+        int sceneWidth = planetaryGrid.getNumCols(0);
+        int sceneHeight = planetaryGrid.getNumRows();
+        Dimension tileSize = LcHelper.convertToDimension(lcProperties.get(LcHelper.PROP_NAME_TILE_SIZE));
+        writeable.addDimension("lat", sceneHeight);
+        writeable.addDimension("lon", sceneWidth);
+        logger.info("output with extent " + sceneHeight + ":" + sceneWidth + " and chunksize " + tileSize);
+        addGlobalAttributes(writeable);
+        coordinateEncoder = createCoordinateEncoder();
+        coordinateEncoder.addCoordVars(writeable);
+        final ArrayList<NVariable> variables = addFeatureVariables(writeable, tileSize, writeable.getDimensions());
+        writeable.create();
+        writePipeline = new WritePipeline("Bin writer " + targetFilePath);
+        rasterWriter = new BinRasterWriter(planetaryGrid, variables.size(), tileSize.height,
+                                           Math.max(sceneHeight / 100, 100), logger) {
+            @Override
+            protected void writeStripe(int variableIndex, final int y, final int height, float[] data) throws IOException {
+                final NVariable variable = variables.get(variableIndex);
+                // the stripe buffer is reused by the raster writer
+                final ProductData queuedData = new ProductData.Float(data.clone());
+                metrics.addBytesWritten(4L * data.length);
+                writePipeline.submit(new WritePipeline.WriteTask() {
+                    @Override
+                    public void write() throws IOException {
+                        final long startTime = metrics.startPhase();
+                        variable.write(0, y, getSceneWidth(), height, false, queuedData);
+                        metrics.endPhase(RunMetrics.Phase.WRITE, startTime);
+                    }
+                });
+            }
+        };
+        logger.info("writing stripes of " + rasterWriter.getStripeHeight() + " lines");
+    }
+
+    /**
+     * The rows of a reduced Gaussian grid have different numbers of cells, they are written one after the other
+     * along the cell dimension.
+     */
+    private void openCellLayout() throws IOException {
+        final int numRows = planetaryGrid.getNumRows();
+        final int numCells = (int) planetaryGrid.getNumBins();
+        writeable.addDimension("lat", numRows);
+        writeable.addDimension(ReducedGaussianCoordinateEncoder.CELL_DIMENSION, numCells);
+        logger.info("output with " + numRows + " rows and " + numCells + " cells");
+        addGlobalAttributes(writeable);
+        coordinateEncoder = createCoordinateEncoder();
+        coordinateEncoder.addCoordVars(writeable);
+        final ArrayList<NVariable> variables = addFeatureVariables(writeable, null,
+                                                                   ReducedGaussianCoordinateEncoder.CELL_DIMENSION);
+        writeable.create();
+        writePipeline = new WritePipeline("Bin writer " + targetFilePath);
+        final NetcdfFileWriter writer = writeable.getWriter();
+        final Variable[] netVariables = new Variable[variables.size()];
+        for (int i = 0; i < netVariables.length; i++) {
+            netVariables[i] = writer.findVariable(variables.get(i).getName());
+        }
+        cellWriter = new BinCellWriter(numCells, netVariables.length, logger) {
+            @Override
+            protected void writeSegment(int variableIndex, final int firstCell, final int length, float[] segment) throws IOException {
+                final Variable netVariable = netVariables[variableIndex];
+                // the segment buffer is reused by the cell writer
+                final Array data = Array.factory(DataType.FLOAT, new int[]{length}, segment.clone());
+                metrics.addBytesWritten(4L * length);
+                writePipeline.submit(new WritePipeline.WriteTask() {
+                    @Override
+                    public void write() throws IOException {
+                        final long startTime = metrics.startPhase();
+                        try {
+                            writer.write(netVariable, new int[]{firstCell}, data);
+                            metrics.endPhase(RunMetrics.Phase.WRITE, startTime);
+                        } catch (InvalidRangeException e) {
+                            throw new IOException("Could not write cells " + firstCell + " to " + (firstCell + length - 1) +
+                                                  " of variable " + netVariable.getShortName(), e);
+                        }
+                    }
+                });
+            }
+        };
+        logger.info("writing segments of " + cellWriter.getSegmentSize() + " cells");
+    }
+
+    @Override
+    public void writeBins(List<TemporalBin> temporalBins) throws IOException {
+        failed = true;
+        if (cellWriter != null) {
+            for (TemporalBin temporalBin : temporalBins) {
+                cellWriter.write(temporalBin);
+            }
+        } else {
+            for (TemporalBin temporalBin : temporalBins) {
+                rasterWriter.write(temporalBin);
+            }
+        }
+        failed = false;
+    }
+
+    @Override
+    public void abort() throws IOException {
+        failed = true;
+        close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writeable == null) {
+            return;
+        }
+        try {
+            if (!failed) {
+                if (cellWriter != null) {
+                    cellWriter.finish();
+                } else {
+                    rasterWriter.finish();
+                }
+                writePipeline.drain();
+                coordinateEncoder.fillCoordinateVars(writeable);
+            }
         } finally {
-            writeable.close();
+            try {
+                if (writePipeline != null) {
+                    writePipeline.close();
+                }
+            } finally {
+                writeable.close();
+                writeable = null;
+                rasterWriter = null;
+                cellWriter = null;
+                writePipeline = null;
+                coordinateEncoder = null;
+            }
         }
     }
 
     private CoordinateEncoder createCoordinateEncoder() {
 
-        if (isGridImplementationUsed(RegularGaussianGrid.class)) {
+        if (isGridImplementationUsed(ReducedGaussianGrid.class)) {
+            return new ReducedGaussianCoordinateEncoder(planetaryGrid);
+        } else if (isGridImplementationUsed(RegularGaussianGrid.class)) {
             return new RegularGaussianCoordinateEncoder(planetaryGrid);
         } else if (isGridImplementationUsed(PlateCarreeGrid.class)) {
             return new PlateCarreeCoordinateEncoder(planetaryGrid);
@@ -152,92 +326,15 @@ public class LcBinWriter implements BinWriter {
 
     }
 
-    private ArrayList<NVariable> addFeatureVariables(NFileWriteable writeable, Dimension tileSize) throws IOException {
-        final int aggregatorCount = binningContext.getBinManager().getAggregatorCount();
+    private ArrayList<NVariable> addFeatureVariables(NFileWriteable writeable, Dimension tileSize, String dimensions) throws IOException {
         final ArrayList<NVariable> featureVars = new ArrayList<>(60);
-        for (int i = 0; i < aggregatorCount; i++) {
-            final Aggregator aggregator = binningContext.getBinManager().getAggregator(i);
-            final String[] featureNames = aggregator.getOutputFeatureNames();
-            for (String featureName : featureNames) {
-                final NVariable featureVar = writeable.addVariable(featureName, DataType.FLOAT, tileSize, writeable.getDimensions());
-                Attribute attribute = featureVar.addAttribute("_FillValue", FILL_VALUE);
-                featureVars.add(featureVar);
-            }
+        for (String featureName : outputFeatureNames) {
+            final NVariable featureVar = writeable.addVariable(featureName, DataType.FLOAT, tileSize, dimensions);
+            Attribute attribute = featureVar.addAttribute("_FillValue", FILL_VALUE);
+            featureVars.add(featureVar);
         }
 
         return featureVars;
     }
 
-    private void fillVariables(List<TemporalBin> temporalBins, ArrayList<NVariable> variables, int sceneWidth, int sceneHeight) throws IOException {
-        final Iterator<TemporalBin> iterator = temporalBins.iterator();
-
-        ProductData.Float[] dataLines = new ProductData.Float[variables.size()];
-        initDataLines(variables, sceneWidth, dataLines);
-
-        int lineY = 0;
-        int hundredthHeight = Math.max(sceneHeight / 100, 100);
-        int binX;
-        int binY;
-        while (iterator.hasNext()) {
-            final TemporalBin temporalBin = iterator.next();
-            long binIndex = temporalBin.getIndex();
-            if (planetaryGrid instanceof RegionalPlanetaryGrid) {
-                final RegionalPlanetaryGrid regionalGrid = (RegionalPlanetaryGrid) planetaryGrid;
-                if (!regionalGrid.isBinIndexInRegionalGrid(binIndex)) {
-                    continue;
-                }
-                int baseGridWidth = regionalGrid.getGlobalGrid().getNumCols(0);
-                binX = (int) (binIndex % baseGridWidth);
-                binY = (int) (binIndex / baseGridWidth);
-                binX = binX - regionalGrid.getColumnOffset();
-                binY = binY - regionalGrid.getRowOffset();
-            } else {
-                binX = (int) (binIndex % sceneWidth);
-                binY = (int) (binIndex / sceneWidth);
-            }
-            final WritableVector resultVector = temporalBin.toVector();
-            if (binY != lineY) {
-                lineY = writeDataLine(variables, sceneWidth, dataLines, lineY);
-                lineY = writeEmptyLines(variables, sceneWidth, dataLines, lineY, binY);
-                if (lineY % hundredthHeight == 0) {
-                    logger.info(String.format("Line %d of %d done", lineY, sceneHeight));
-                }
-            }
-
-            for (int i = 0; i < variables.size(); i++) {
-                dataLines[i].setElemFloatAt(binX, resultVector.get(i));
-            }
-        }
-        lineY = writeDataLine(variables, sceneWidth, dataLines, lineY);
-        writeEmptyLines(variables, sceneWidth, dataLines, lineY, sceneHeight);
-    }
-
-    private int writeEmptyLines(ArrayList<NVariable> variables, int sceneWidth, ProductData.Float[] dataLines, int lastY, int y) throws IOException {
-        initDataLines(variables, sceneWidth, dataLines);
-        for (; lastY < y; lastY++) {
-            writeDataLine(variables, sceneWidth, dataLines, lastY);
-        }
-        return lastY;
-    }
-
-    private int writeDataLine(ArrayList<NVariable> variables, int sceneWidth, ProductData.Float[] dataLines, int y) throws IOException {
-        for (int i = 0; i < variables.size(); i++) {
-            NVariable variable = variables.get(i);
-            variable.write(0, y, sceneWidth, 1, false, dataLines[i]);
-        }
-        return y + 1;
-    }
-
-    private void initDataLines(ArrayList<NVariable> variables, int sceneWidth, ProductData.Float[] dataLines) {
-        for (int i = 0; i < variables.size(); i++) {
-            if (dataLines[i] != null) {
-                Arrays.fill(dataLines[i].getArray(), FILL_VALUE);
-            } else {
-                float[] line = new float[sceneWidth];
-                Arrays.fill(line, FILL_VALUE);
-                dataLines[i] = new ProductData.Float(line);
-            }
-        }
-    }
-
 }
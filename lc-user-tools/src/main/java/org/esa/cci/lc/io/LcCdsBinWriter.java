@@ -2,8 +2,8 @@ package org.esa.cci.lc.io;
 
 import org.esa.cci.lc.util.CdsVariableWriter;
 import org.esa.cci.lc.util.LcHelper;
+import org.esa.cci.lc.util.RunMetrics;
 import org.esa.snap.binning.*;
-import org.esa.snap.binning.operator.BinWriter;
 import org.esa.snap.binning.support.PlateCarreeGrid;
 import org.esa.snap.binning.support.RegularGaussianGrid;
 import org.esa.snap.core.datamodel.MetadataElement;
@@ -33,16 +33,21 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-public class LcCdsBinWriter implements BinWriter {
+public class LcCdsBinWriter implements StreamingBinWriter {
 
     private String targetFilePath;
     private PlanetaryGrid planetaryGrid;
     private MetadataElement element;
-    private static final float FILL_VALUE = Float.NaN;
-    private BinningContext binningContext;
+    private static final float FILL_VALUE = BinRasterWriter.FILL_VALUE;
+    private String[] outputFeatureNames;
     private Logger logger;
     private ReferencedEnvelope region;
     private  Map<String, String> lcProperties;
+    private NFileWriteable writeable;
+    private BinRasterWriter rasterWriter;
+    private WritePipeline writePipeline;
+    private boolean failed;
+    private RunMetrics metrics;
 
 
     public LcCdsBinWriter(Map<String, String> lcProperties, ReferencedEnvelope region,MetadataElement element) {
@@ -50,136 +55,136 @@ public class LcCdsBinWriter implements BinWriter {
         this.element = element;
         logger = BeamLogManager.getSystemLogger();
         this.region = region;
+        metrics = new RunMetrics(LcCdsBinWriter.class.getSimpleName());
+    }
+
+    /**
+     * Sets the metrics of the run, the written raster data and the time spent for compressing and writing it are
+     * counted.
+     */
+    public void setRunMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
     }
 
 
 
     @Override
     public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) throws IOException {
-        NFileWriteable writeable = NWritableFactory.create(targetFilePath, "netcdf4");
         try {
-            int sceneWidth = planetaryGrid.getNumCols(0);
-            int sceneHeight = planetaryGrid.getNumRows();
-            final Dimension tileSize = new Dimension(2025, 2025);
-            writeable.addDimension("lat", sceneHeight);
-            writeable.addDimension("lon", sceneWidth);
-            writeable.addDimension("time", 1);
-            writeable.addDimension("bounds", 2);
-            writeLCGlobalAttribute(writeable,element);
-            LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable,"lon","lon",DataType.DOUBLE,null,element);
-            LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable,"lat","lat",DataType.DOUBLE,null,element);
-            LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "lat_bounds", "lat bounds", DataType.DOUBLE,null,element);
-            LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "lon_bounds", "lon bounds", DataType.DOUBLE,null,element);
-            LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "time_bounds", "time bounds", DataType.DOUBLE,null,element);
-            LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "time", "time", DataType.DOUBLE,null,element);
-            ArrayList<NVariable> variables = addFeatureVariables(writeable, tileSize);
-            writeable.create();
-            CdsVariableWriter.timeWriter(writeable,element);
-            Double latMin = element.getAttributeDouble("geospatial_lat_min");
-            Double latMax = element.getAttributeDouble("geospatial_lat_max");
-            Double lonMin = element.getAttributeDouble("geospatial_lon_min");
-            Double lonMax = element.getAttributeDouble("geospatial_lon_max");
-            CdsVariableWriter.lcLatLonCustomBoundsWriter(writeable,sceneHeight,sceneWidth,lonMin,lonMax,latMin,latMax);
-            fillVariables(temporalBins, variables, sceneWidth, sceneHeight,writeable);
+            open(metadataProperties);
+            writeBins(temporalBins);
         } catch (Throwable e) {
             e.printStackTrace();
+            failed = true;
         } finally {
-            writeable.close();
+            close();
         }
 
     }
 
-    private void fillVariables(List<TemporalBin> temporalBins, ArrayList<NVariable> variables, int sceneWidth, int sceneHeight, NFileWriteable writeable) throws IOException {
-        final Iterator<TemporalBin> iterator = temporalBins.iterator();
-
-        ProductData.Float[] dataLines = new ProductData.Float[variables.size()];
-        initDataLines(variables, sceneWidth, dataLines);
-
-        int lineY = 0;
-        int hundredthHeight = Math.max(sceneHeight / 100, sceneHeight);
-        int binX;
-        int binY;
-        while (iterator.hasNext()) {
-            final TemporalBin temporalBin = iterator.next();
-            long binIndex = temporalBin.getIndex();
-            if (planetaryGrid instanceof RegionalPlanetaryGrid) {
-                final RegionalPlanetaryGrid regionalGrid = (RegionalPlanetaryGrid) planetaryGrid;
-                if (!regionalGrid.isBinIndexInRegionalGrid(binIndex)) {
-                    continue;
-                }
-                int baseGridWidth = regionalGrid.getGlobalGrid().getNumCols(0);
-                binX = (int) (binIndex % baseGridWidth);
-                binY = (int) (binIndex / baseGridWidth);
-                binX = binX - regionalGrid.getColumnOffset();
-                binY = binY - regionalGrid.getRowOffset();
-            } else {
-                binX = (int) (binIndex % sceneWidth);
-                binY = (int) (binIndex / sceneWidth);
-            }
-            final WritableVector resultVector = temporalBin.toVector();
-            if (binY != lineY) {
-                lineY = writeDataLine(variables, sceneWidth, dataLines, lineY,writeable);
-                lineY = writeEmptyLines(variables, sceneWidth, dataLines, lineY, binY,writeable);
-                if (lineY % hundredthHeight == 0) {
-                    logger.info(String.format("Line %d of %d done", lineY, sceneHeight));
-                }
-            }
-
-            for (int i = 0; i < variables.size(); i++) {
-                dataLines[i].setElemFloatAt(binX, resultVector.get(i));
-            }
+    @Override
+    public void open(Map<String, String> metadataProperties) throws IOException {
+        writeable = NWritableFactory.create(targetFilePath, "netcdf4");
+        failed = true;
+        int sceneWidth = planetaryGrid.getNumCols(0);
+        int sceneHeight = planetaryGrid.getNumRows();
+        final Dimension tileSize = new Dimension(2025, 2025);
+        writeable.addDimension("lat", sceneHeight);
+        writeable.addDimension("lon", sceneWidth);
+        writeable.addDimension("time", 1);
+        writeable.addDimension("bounds", 2);
+        writeLCGlobalAttribute(writeable,element);
+        LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable,"lon","lon",DataType.DOUBLE,null,element);
+        LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable,"lat","lat",DataType.DOUBLE,null,element);
+        LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "lat_bounds", "lat bounds", DataType.DOUBLE,null,element);
+        LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "lon_bounds", "lon bounds", DataType.DOUBLE,null,element);
+        LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "time_bounds", "time bounds", DataType.DOUBLE,null,element);
+        LcCdsNetCDF4WriterPlugin.addCustomVariable(writeable, "time", "time", DataType.DOUBLE,null,element);
+        ArrayList<NVariable> variables = addFeatureVariables(writeable, tileSize);
+        writeable.create();
+        writePipeline = new WritePipeline("Bin writer " + targetFilePath);
+        CdsVariableWriter.timeWriter(writeable,element);
+        Double latMin = element.getAttributeDouble("geospatial_lat_min");
+        Double latMax = element.getAttributeDouble("geospatial_lat_max");
+        Double lonMin = element.getAttributeDouble("geospatial_lon_min");
+        Double lonMax = element.getAttributeDouble("geospatial_lon_max");
+        CdsVariableWriter.lcLatLonCustomBoundsWriter(writeable,sceneHeight,sceneWidth,lonMin,lonMax,latMin,latMax);
+
+        final NetcdfFileWriter writer = writeable.getWriter();
+        final Variable[] netVariables = new Variable[variables.size()];
+        for (int i = 0; i < netVariables.length; i++) {
+            netVariables[i] = writer.findVariable(variables.get(i).getName());
         }
-        lineY = writeDataLine(variables, sceneWidth, dataLines, lineY, writeable);
-        writeEmptyLines(variables, sceneWidth, dataLines, lineY, sceneHeight,writeable);
+        rasterWriter = new BinRasterWriter(planetaryGrid, netVariables.length, tileSize.height,
+                                           Math.max(sceneHeight / 100, sceneHeight), logger) {
+            @Override
+            protected void writeStripe(int variableIndex, final int y, final int height, float[] stripe) throws IOException {
+                final Variable netVariable = netVariables[variableIndex];
+                // the stripe buffer is reused by the raster writer
+                final Array data = Array.factory(netVariable.getDataType(), new int[]{1, height, getSceneWidth()}, stripe.clone());
+                metrics.addBytesWritten(4L * stripe.length);
+                writePipeline.submit(new WritePipeline.WriteTask() {
+                    @Override
+                    public void write() throws IOException {
+                        final long startTime = metrics.startPhase();
+                        try {
+                            writer.write(netVariable, new int[]{0, y, 0}, data);
+                            metrics.endPhase(RunMetrics.Phase.WRITE, startTime);
+                        } catch (InvalidRangeException e) {
+                            throw new IOException("Could not write lines " + y + " to " + (y + height - 1) +
+                                                  " of variable " + netVariable.getShortName(), e);
+                        }
+                    }
+                });
+            }
+        };
+        failed = false;
     }
 
-    private int writeEmptyLines(ArrayList<NVariable> variables, int sceneWidth, ProductData.Float[] dataLines, int lastY, int y,NFileWriteable writeable) throws IOException {
-        initDataLines(variables, sceneWidth, dataLines);
-        for (; lastY < y; lastY++) {
-            writeDataLine(variables, sceneWidth, dataLines, lastY,writeable);
+    @Override
+    public void writeBins(List<TemporalBin> temporalBins) throws IOException {
+        failed = true;
+        for (TemporalBin temporalBin : temporalBins) {
+            rasterWriter.write(temporalBin);
         }
-        return lastY;
+        failed = false;
     }
 
-    private int writeDataLine(ArrayList<NVariable> variables, int sceneWidth, ProductData.Float[] dataLines, int y, NFileWriteable writeable) throws IOException {
-        for (int i = 0; i < variables.size(); i++) {
-            NVariable variable = variables.get(i);
-            Variable netVariable = writeable.getWriter().findVariable(variable.getName());
-            int[] origin = new int[]{0, y, 0};
-            Array data = Array.factory(netVariable.getDataType(), new int[]{1,1,sceneWidth}, dataLines[i].getArray());
-            try {
-                writeable.getWriter().write(netVariable, origin, data);
-            }
-            catch (InvalidRangeException e) {
-            }
-        }
-        return y + 1;
+    @Override
+    public void abort() throws IOException {
+        failed = true;
+        close();
     }
 
-    private void initDataLines(ArrayList<NVariable> variables, int sceneWidth, ProductData.Float[] dataLines) {
-        for (int i = 0; i < variables.size(); i++) {
-            if (dataLines[i] != null) {
-                Arrays.fill(dataLines[i].getArray(), FILL_VALUE);
-            } else {
-                float[] line = new float[sceneWidth];
-                Arrays.fill(line, FILL_VALUE);
-                dataLines[i] = new ProductData.Float(line);
+    @Override
+    public void close() throws IOException {
+        if (writeable == null) {
+            return;
+        }
+        try {
+            if (!failed) {
+                rasterWriter.finish();
+            }
+        } finally {
+            try {
+                if (writePipeline != null) {
+                    writePipeline.close();
+                }
+            } finally {
+                writeable.close();
+                writeable = null;
+                rasterWriter = null;
+                writePipeline = null;
             }
         }
     }
 
-
     private ArrayList<NVariable> addFeatureVariables(NFileWriteable writeable, Dimension tileSize) throws IOException {
-        final int aggregatorCount = binningContext.getBinManager().getAggregatorCount();
         final ArrayList<NVariable> featureVars = new ArrayList<>(60);
-        for (int i = 0; i < aggregatorCount; i++) {
-            final Aggregator aggregator = binningContext.getBinManager().getAggregator(i);
-            final String[] featureNames = aggregator.getOutputFeatureNames();
-            for (String featureName : featureNames) {
-                final NVariable featureVar = writeable.addVariable(featureName, DataType.FLOAT, tileSize, "time lat lon");
-                Attribute attribute = featureVar.addAttribute("_FillValue", FILL_VALUE);
-                featureVars.add(featureVar);
-            }
+        for (String featureName : outputFeatureNames) {
+            final NVariable featureVar = writeable.addVariable(featureName, DataType.FLOAT, tileSize, "time lat lon");
+            Attribute attribute = featureVar.addAttribute("_FillValue", FILL_VALUE);
+            featureVars.add(featureVar);
         }
         return featureVars;
     }
@@ -187,11 +192,22 @@ public class LcCdsBinWriter implements BinWriter {
 
     @Override
     public void setBinningContext(BinningContext binningContext) {
-        this.binningContext = binningContext;
+        setOutputContext(binningContext.getPlanetaryGrid(), LcBinWriter.getOutputFeatureNames(binningContext.getBinManager()));
+    }
+
+    /**
+     * Alternative to {@link #setBinningContext(BinningContext)} if the temporal bins are not created by the
+     * binning framework.
+     *
+     * @param globalGrid         the global planetary grid the bin indices refer to
+     * @param outputFeatureNames the names of the output features contained in the temporal bins
+     */
+    public void setOutputContext(PlanetaryGrid globalGrid, String[] outputFeatureNames) {
+        this.outputFeatureNames = outputFeatureNames;
         if (region != null) {
-            this.planetaryGrid = new RegionalPlanetaryGrid(binningContext.getPlanetaryGrid(), region);
+            this.planetaryGrid = new RegionalPlanetaryGrid(globalGrid, region);
         } else {
-            this.planetaryGrid = binningContext.getPlanetaryGrid();
+            this.planetaryGrid = globalGrid;
         }
     }
 
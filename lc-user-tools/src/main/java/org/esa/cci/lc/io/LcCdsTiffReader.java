@@ -25,6 +25,7 @@ public class LcCdsTiffReader extends AbstractProductReader {
     //20010101-ESACCI-L3S_FIRE-BA-MODIS-AREA_1-fv5.0-LC.tif
     //20180101-ESACCI-L3S_FIRE-BA-OLCI-AREA_1-fv1.0-LC.tif
     private List<Product> bandProducts;
+    private final MappedTiffs mappedTiffs = new MappedTiffs();
 
     public LcCdsTiffReader(LcCdsTiffReaderPlugin readerPlugin) {
         super(readerPlugin);
@@ -140,11 +141,11 @@ public class LcCdsTiffReader extends AbstractProductReader {
     }
 
 
-    private static Band addBand(String bandName, Product lcFlagProduct, Product result) {
+    private Band addBand(String bandName, Product lcFlagProduct, Product result) {
         final Band srcBand = lcFlagProduct.getBandAt(0);
         final Band band = result.addBand(bandName, srcBand.getDataType());
         band.setNoDataValueUsed(false);
-        band.setSourceImage(srcBand.getSourceImage());
+        band.setSourceImage(mappedTiffs.getSourceImage(srcBand));
         return band;
     }
 
@@ -154,6 +155,7 @@ public class LcCdsTiffReader extends AbstractProductReader {
             bandProduct.closeIO();
         }
         bandProducts.clear();
+        mappedTiffs.close();
         super.close();
     }
 
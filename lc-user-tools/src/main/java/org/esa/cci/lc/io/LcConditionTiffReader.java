@@ -52,6 +52,7 @@ public class LcConditionTiffReader extends AbstractProductReader {
     //ESACCI-LC-L4-BA-Cond-AggOcc-500m-P13Y7D-20001022-v2.0.tif
     public static final String LC_CONDITION_FILENAME_PATTERN = "ESACCI-LC-L4-(.*)-Cond-Agg(Mean|Occ)-(.*m)-P(.*)Y(.*)D-(........)-v(.*)\\.(tiff?)";
     private List<Product> bandProducts;
+    private final MappedTiffs mappedTiffs = new MappedTiffs();
 
     public LcConditionTiffReader(LcConditionTiffReaderPlugin readerPlugin) {
         super(readerPlugin);
@@ -88,7 +89,7 @@ public class LcConditionTiffReader extends AbstractProductReader {
                                      "LC_Cond",
                                      lcConditionProduct.getSceneRasterWidth(),
                                      lcConditionProduct.getSceneRasterHeight());
-        result.setPreferredTileSize(new Dimension(1024, 1024));
+        result.setPreferredTileSize(mappedTiffs.getPreferredTileSize(lcConditionFile, new Dimension(1024, 1024)));
         result.setFileLocation(lcConditionFile);
         ProductUtils.copyGeoCoding(lcConditionProduct, result);
         result.getMetadataRoot().setAttributeString("condition", condition);
@@ -195,11 +196,11 @@ public class LcConditionTiffReader extends AbstractProductReader {
         return productReader1.readProductNodes(bandFile, null);
     }
 
-    private static Band addBand(String bandName, Product lcFlagProduct, Product result) {
+    private Band addBand(String bandName, Product lcFlagProduct, Product result) {
         final Band srcBand = lcFlagProduct.getBandAt(0);
         final Band band = result.addBand(bandName, srcBand.getDataType());
         band.setNoDataValueUsed(false);
-        band.setSourceImage(srcBand.getSourceImage());
+        band.setSourceImage(mappedTiffs.getSourceImage(srcBand));
         return band;
     }
 
@@ -209,6 +210,7 @@ public class LcConditionTiffReader extends AbstractProductReader {
             bandProduct.closeIO();
         }
         bandProducts.clear();
+        mappedTiffs.close();
         super.close();
     }
 }
\ No newline at end of file
@@ -1,6 +1,5 @@
 package org.esa.cci.lc.io;
 
-import org.esa.snap.dataio.netcdf.DefaultNetCdfWriter;
 import org.esa.snap.dataio.netcdf.NullProfilePartWriter;
 import org.esa.snap.dataio.netcdf.ProfileWriteContext;
 import org.esa.snap.dataio.netcdf.metadata.ProfileInitPartWriter;
@@ -43,7 +42,7 @@ public class LcMapNetCdf4WriterPlugIn extends BeamNetCdf4WriterPlugIn {
 
     @Override
     public ProductWriter createWriterInstance() {
-        return new DefaultNetCdfWriter(this);
+        return new PipelinedNetCdfWriter(this);
     }
 
     @Override
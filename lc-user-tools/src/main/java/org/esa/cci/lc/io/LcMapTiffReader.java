@@ -89,6 +89,7 @@ public class LcMapTiffReader extends AbstractProductReader {
             "LC map confidence level based on product validation"
     };
     private List<Product> bandProducts;
+    private final MappedTiffs mappedTiffs = new MappedTiffs();
 
     public LcMapTiffReader(LcMapTiffReaderPlugin readerPlugin) {
         super(readerPlugin);
@@ -119,7 +120,7 @@ public class LcMapTiffReader extends AbstractProductReader {
                                      "LC_Map",
                                      lcClassifLccsProduct.getSceneRasterWidth(),
                                      lcClassifLccsProduct.getSceneRasterHeight());
-        result.setPreferredTileSize(new Dimension(1024, 1024));
+        result.setPreferredTileSize(mappedTiffs.getPreferredTileSize(lcClassifLccsFile, new Dimension(1024, 1024)));
         result.setFileLocation(lcClassifLccsFile);
         ProductUtils.copyGeoCoding(lcClassifLccsProduct, result);
         MetadataElement metadataRoot = result.getMetadataRoot();
@@ -235,11 +236,11 @@ public class LcMapTiffReader extends AbstractProductReader {
         return product;
     }
 
-    private static Band addBand(String variableName, Product lcProduct, Product result) {
+    private Band addBand(String variableName, Product lcProduct, Product result) {
         final Band srcBand = lcProduct.getBandAt(0);
         final Band band = result.addBand(variableName, srcBand.getDataType());
         band.setNoDataValueUsed(false);
-        band.setSourceImage(srcBand.getSourceImage());
+        band.setSourceImage(mappedTiffs.getSourceImage(srcBand));
         return band;
     }
 
@@ -249,6 +250,7 @@ public class LcMapTiffReader extends AbstractProductReader {
             bandProduct.closeIO();
         }
         bandProducts.clear();
+        mappedTiffs.close();
         super.close();
     }
 }
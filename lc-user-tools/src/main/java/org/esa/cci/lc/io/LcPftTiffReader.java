@@ -16,6 +16,7 @@ import java.util.List;
 public class LcPftTiffReader extends AbstractProductReader {
 
     private List<Product> bandProducts;
+    private final MappedTiffs mappedTiffs = new MappedTiffs();
     public static final String LC_PFT_CONDITION_FILENAME_PATTERN = "ESACCI-LC-L4-WATER_INLAND-PFT-Map-300m-P1Y-....-v0.1.tif";
     public static final String LC_PFT_ALTERNATIVE_CONDITION_FILENAME_PATTERN = "PFT_WATER_300m_...._GLOBAL_v2.tif";
     private String[] listVariables = {"BARE","BUILT","GRASS-MAN","GRASS-NAT","SHRUBS-BD","SHRUBS-BE","SHRUBS-ND","SHRUBS-NE","WATER_INLAND",
@@ -118,12 +119,18 @@ public class LcPftTiffReader extends AbstractProductReader {
         return productReader1.readProductNodes(bandFile, null);
     }
 
-    private static Band addBand(String bandName, Product lcFlagProduct, Product result) {
+    private Band addBand(String bandName, Product lcFlagProduct, Product result) {
         final Band srcBand = lcFlagProduct.getBandAt(0);
         final Band band = result.addBand(bandName, srcBand.getDataType());
         band.setNoDataValueUsed(false);
-        band.setSourceImage(srcBand.getSourceImage());
+        band.setSourceImage(mappedTiffs.getSourceImage(srcBand));
         return band;
     }
 
+    @Override
+    public void close() throws IOException {
+        mappedTiffs.close();
+        super.close();
+    }
+
 }
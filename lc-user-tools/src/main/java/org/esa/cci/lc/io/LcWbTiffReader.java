@@ -58,6 +58,7 @@ public class LcWbTiffReader extends AbstractProductReader {
             "number of valid observations from general mode"
     };
     private List<Product> bandProducts;
+    private final MappedTiffs mappedTiffs = new MappedTiffs();
 
     public LcWbTiffReader(LcWbTiffReaderPlugin readerPlugin) {
         super(readerPlugin);
@@ -88,7 +89,7 @@ public class LcWbTiffReader extends AbstractProductReader {
                                      "LC_WB_Map",
                                      lcWbProduct.getSceneRasterWidth(),
                                      lcWbProduct.getSceneRasterHeight());
-        result.setPreferredTileSize(new Dimension(1024, 1024));
+        result.setPreferredTileSize(mappedTiffs.getPreferredTileSize(lcWbFile, new Dimension(1024, 1024)));
         result.setFileLocation(lcWbFile);
         ProductUtils.copyGeoCoding(lcWbProduct, result);
         MetadataElement metadataRoot = result.getMetadataRoot();
@@ -169,12 +170,12 @@ public class LcWbTiffReader extends AbstractProductReader {
         return productReader1.readProductNodes(lcFlagFile, null);
     }
 
-    private static Band addBand(int i, Product lcFlagProduct, Product result) {
+    private Band addBand(int i, Product lcFlagProduct, Product result) {
         final Band srcBand = lcFlagProduct.getBandAt(0);
         final String bandName = LC_VARIABLE_NAMES[i];
         final Band band = result.addBand(bandName, srcBand.getDataType());
         band.setNoDataValueUsed(false);
-        band.setSourceImage(srcBand.getSourceImage());
+        band.setSourceImage(mappedTiffs.getSourceImage(srcBand));
         return band;
     }
 
@@ -184,6 +185,7 @@ public class LcWbTiffReader extends AbstractProductReader {
             bandProduct.closeIO();
         }
         bandProducts.clear();
+        mappedTiffs.close();
         super.close();
     }
 }
@@ -0,0 +1,658 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A single banded TIFF file mapped into memory. The first image file directory is parsed once, the strips or tiles
+ * are then read from the mapped file without further system calls. Uncompressed samples are copied directly from
+ * the mapped file into the destination array, compressed ones are decoded into a buffer of the reading thread.
+ * <p>
+ * Supported are the layouts of the LC GeoTIFF files: classic TIFF and BigTIFF, one sample per pixel of 8, 16 or
+ * 32 bits, strips or tiles, uncompressed, deflate or LZW compressed, with or without horizontal differencing.
+ * {@link #open(File)} returns {@code null} for any other layout.
+ */
+final class MappedTiff {
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_PREDICTOR = 317;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_LONG8 = 16;
+
+    static final int COMPRESSION_NONE = 1;
+    static final int COMPRESSION_LZW = 5;
+    static final int COMPRESSION_DEFLATE = 8;
+    static final int COMPRESSION_DEFLATE_OLD = 32946;
+
+    private static final int PREDICTOR_NONE = 1;
+    private static final int PREDICTOR_HORIZONTAL = 2;
+
+    private static final int SAMPLE_FORMAT_INT = 2;
+    private static final int SAMPLE_FORMAT_FLOAT = 3;
+
+    // a segment starting in a window is always completely contained in it, windows overlap by the largest segment
+    private static final long WINDOW_SIZE = 1L << 30;
+    // strips are combined into tiles of about this size
+    private static final long STRIP_TILE_SIZE = 16L * 1024 * 1024;
+
+    private static final ThreadLocal<DecodeBuffers> DECODE_BUFFERS = new ThreadLocal<DecodeBuffers>() {
+        @Override
+        protected DecodeBuffers initialValue() {
+            return new DecodeBuffers();
+        }
+    };
+
+    private final File file;
+    private final ByteOrder byteOrder;
+    private final int width;
+    private final int height;
+    private final int bytesPerSample;
+    private final int dataType;
+    private final int compression;
+    private final int predictor;
+    private final boolean tiled;
+    private final int segmentWidth;
+    private final int segmentHeight;
+    private final int segmentsAcross;
+    private final long[] segmentOffsets;
+    private final long[] segmentByteCounts;
+    private volatile MappedByteBuffer[] windows;
+
+    private MappedTiff(File file, ByteOrder byteOrder, int width, int height, int bytesPerSample, int dataType,
+                       int compression, int predictor, boolean tiled, int segmentWidth, int segmentHeight,
+                       long[] segmentOffsets, long[] segmentByteCounts) {
+        this.file = file;
+        this.byteOrder = byteOrder;
+        this.width = width;
+        this.height = height;
+        this.bytesPerSample = bytesPerSample;
+        this.dataType = dataType;
+        this.compression = compression;
+        this.predictor = predictor;
+        this.tiled = tiled;
+        this.segmentWidth = segmentWidth;
+        this.segmentHeight = segmentHeight;
+        this.segmentsAcross = (width + segmentWidth - 1) / segmentWidth;
+        this.segmentOffsets = segmentOffsets;
+        this.segmentByteCounts = segmentByteCounts;
+    }
+
+    /**
+     * Parses the first image file directory and maps the file into memory.
+     *
+     * @return the mapped file, or {@code null} if it is not a TIFF file of a supported layout
+     */
+    static MappedTiff open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            final MappedTiff tiff = parse(file, channel);
+            if (tiff != null) {
+                // the mapping stays valid when the channel is closed
+                tiff.map(channel);
+            }
+            return tiff;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Drops the mapping of the file. The memory is released when the mapped buffers are garbage collected, the file
+     * cannot be read anymore.
+     */
+    void close() {
+        windows = null;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the {@link ProductData} type of the samples
+     */
+    int getDataType() {
+        return dataType;
+    }
+
+    int getCompression() {
+        return compression;
+    }
+
+    boolean isTiled() {
+        return tiled;
+    }
+
+    /**
+     * @return the tile size of the file, for strips the full width and as many strips as fit into about
+     * {@value #STRIP_TILE_SIZE} bytes
+     */
+    Dimension getTileSize() {
+        if (tiled) {
+            return new Dimension(segmentWidth, segmentHeight);
+        }
+        final long stripSize = (long) width * segmentHeight * bytesPerSample;
+        final long numStrips = Math.max(1, STRIP_TILE_SIZE / stripSize);
+        return new Dimension(width, (int) Math.min(height, numStrips * segmentHeight));
+    }
+
+    /**
+     * Reads the samples of the given rectangle into the destination array.
+     *
+     * @param rect       the rectangle, within the bounds of the image
+     * @param dest       the destination, a {@code byte[]}, {@code short[]}, {@code int[]} or {@code float[]} matching
+     *                   the data type
+     * @param destOffset the index of the first sample of the rectangle in the destination
+     * @param destStride the number of samples of a line in the destination
+     */
+    void read(Rectangle rect, Object dest, int destOffset, int destStride) throws IOException {
+        final int firstSegmentX = rect.x / segmentWidth;
+        final int lastSegmentX = (rect.x + rect.width - 1) / segmentWidth;
+        final int firstSegmentY = rect.y / segmentHeight;
+        final int lastSegmentY = (rect.y + rect.height - 1) / segmentHeight;
+        for (int segmentY = firstSegmentY; segmentY <= lastSegmentY; segmentY++) {
+            final int segmentY0 = segmentY * segmentHeight;
+            // tiles are padded to the full tile height, the last strip is not
+            final int segmentLines = tiled ? segmentHeight : Math.min(segmentHeight, height - segmentY0);
+            final int y0 = Math.max(rect.y, segmentY0);
+            final int y1 = Math.min(rect.y + rect.height, segmentY0 + segmentLines);
+            for (int segmentX = firstSegmentX; segmentX <= lastSegmentX; segmentX++) {
+                final int segmentX0 = segmentX * segmentWidth;
+                final int x0 = Math.max(rect.x, segmentX0);
+                final int x1 = Math.min(rect.x + rect.width, segmentX0 + segmentWidth);
+                final ByteBuffer samples = getSamples(segmentY * segmentsAcross + segmentX, segmentLines);
+                for (int y = y0; y < y1; y++) {
+                    final int samplePos = (y - segmentY0) * segmentWidth + (x0 - segmentX0);
+                    final int destPos = destOffset + (y - rect.y) * destStride + (x0 - rect.x);
+                    copySamples(samples, samplePos, dest, destPos, x1 - x0);
+                }
+            }
+        }
+    }
+
+    private void copySamples(ByteBuffer samples, int samplePos, Object dest, int destPos, int numSamples) {
+        samples.position(samplePos * bytesPerSample);
+        if (dest instanceof byte[]) {
+            samples.get((byte[]) dest, destPos, numSamples);
+        } else if (dest instanceof short[]) {
+            samples.asShortBuffer().get((short[]) dest, destPos, numSamples);
+        } else if (dest instanceof int[]) {
+            samples.asIntBuffer().get((int[]) dest, destPos, numSamples);
+        } else if (dest instanceof float[]) {
+            samples.asFloatBuffer().get((float[]) dest, destPos, numSamples);
+        } else {
+            throw new IllegalArgumentException("Unsupported destination " + dest.getClass());
+        }
+    }
+
+    /**
+     * @return the decoded samples of a segment in the byte order of the file
+     */
+    private ByteBuffer getSamples(int segmentIndex, int segmentLines) throws IOException {
+        final int decodedLength = segmentWidth * segmentLines * bytesPerSample;
+        final DecodeBuffers buffers = DECODE_BUFFERS.get();
+        if (segmentByteCounts[segmentIndex] == 0) {
+            // sparse files leave segments of zeros out
+            final byte[] zeros = buffers.getDecoded(decodedLength);
+            Arrays.fill(zeros, 0, decodedLength, (byte) 0);
+            return ByteBuffer.wrap(zeros).order(byteOrder);
+        }
+        final ByteBuffer encoded = getSegment(segmentIndex);
+        if (compression == COMPRESSION_NONE) {
+            if (encoded.remaining() < decodedLength) {
+                throw new EOFException(String.format("Segment %d of %s is truncated", segmentIndex, file));
+            }
+            return encoded;
+        }
+        final byte[] decoded = buffers.getDecoded(decodedLength);
+        final int numDecoded;
+        if (compression == COMPRESSION_LZW) {
+            numDecoded = decodeLzw(encoded, decoded, decodedLength);
+        } else {
+            numDecoded = inflate(encoded, buffers, decoded, decodedLength);
+        }
+        if (numDecoded < decodedLength) {
+            throw new EOFException(String.format("Segment %d of %s is truncated", segmentIndex, file));
+        }
+        final ByteBuffer samples = ByteBuffer.wrap(decoded, 0, decodedLength).order(byteOrder);
+        if (predictor == PREDICTOR_HORIZONTAL) {
+            undoHorizontalDifferencing(samples, segmentWidth, segmentLines, bytesPerSample);
+        }
+        samples.clear();
+        return samples;
+    }
+
+    private ByteBuffer getSegment(int segmentIndex) throws IOException {
+        final long offset = segmentOffsets[segmentIndex];
+        final long byteCount = segmentByteCounts[segmentIndex];
+        final MappedByteBuffer[] windows = this.windows;
+        if (windows == null) {
+            throw new IOException(file + " has been closed");
+        }
+        final int windowIndex = (int) (offset / WINDOW_SIZE);
+        if (offset < 0 || windowIndex >= windows.length) {
+            throw new IOException(String.format("Segment %d of %s is outside of the file", segmentIndex, file));
+        }
+        final ByteBuffer segment = windows[windowIndex].duplicate();
+        final int position = (int) (offset - windowIndex * WINDOW_SIZE);
+        if (position + byteCount > segment.limit()) {
+            throw new EOFException(String.format("Segment %d of %s is truncated", segmentIndex, file));
+        }
+        segment.position(position);
+        segment.limit(position + (int) byteCount);
+        return segment.slice().order(byteOrder);
+    }
+
+    private static int inflate(ByteBuffer encoded, DecodeBuffers buffers, byte[] decoded, int decodedLength) throws IOException {
+        // the inflater of Java 8 only reads from arrays
+        final int encodedLength = encoded.remaining();
+        final byte[] input = buffers.getEncoded(encodedLength);
+        encoded.get(input, 0, encodedLength);
+        final Inflater inflater = buffers.inflater;
+        inflater.reset();
+        inflater.setInput(input, 0, encodedLength);
+        int numDecoded = 0;
+        try {
+            while (numDecoded < decodedLength && !inflater.finished()) {
+                final int n = inflater.inflate(decoded, numDecoded, decodedLength - numDecoded);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                numDecoded += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid deflate data", e);
+        }
+        return numDecoded;
+    }
+
+    /**
+     * Decodes TIFF LZW data, codes of 9 to 12 bits with the most significant bit first and early code width change.
+     *
+     * @return the number of decoded bytes, at most the given length
+     */
+    static int decodeLzw(ByteBuffer encoded, byte[] decoded, int decodedLength) throws IOException {
+        final int clearCode = 256;
+        final int endCode = 257;
+        final int[] prefixes = new int[4096];
+        final byte[] suffixes = new byte[4096];
+        final byte[] firstBytes = new byte[4096];
+        final int[] lengths = new int[4096];
+        for (int i = 0; i < 256; i++) {
+            prefixes[i] = -1;
+            suffixes[i] = (byte) i;
+            firstBytes[i] = (byte) i;
+            lengths[i] = 1;
+        }
+        int tableSize = 258;
+        int codeWidth = 9;
+        int previousCode = -1;
+        int numDecoded = 0;
+        long bits = 0;
+        int numBits = 0;
+        while (numDecoded < decodedLength) {
+            while (numBits < codeWidth) {
+                if (!encoded.hasRemaining()) {
+                    return numDecoded;
+                }
+                bits = (bits << 8) | (encoded.get() & 0xff);
+                numBits += 8;
+            }
+            final int code = (int) (bits >>> (numBits - codeWidth)) & ((1 << codeWidth) - 1);
+            numBits -= codeWidth;
+            if (code == endCode) {
+                break;
+            }
+            if (code == clearCode) {
+                tableSize = 258;
+                codeWidth = 9;
+                previousCode = -1;
+                continue;
+            }
+            if (previousCode == -1) {
+                if (code > 255) {
+                    throw new IOException("Invalid LZW code " + code + " after clear code");
+                }
+                decoded[numDecoded++] = (byte) code;
+                previousCode = code;
+                continue;
+            }
+            if (code > tableSize) {
+                throw new IOException("Invalid LZW code " + code);
+            }
+            if (tableSize < 4096) {
+                // if the code is the one added now, it starts with the first byte of the previous one
+                final byte firstByte = code < tableSize ? firstBytes[code] : firstBytes[previousCode];
+                prefixes[tableSize] = previousCode;
+                suffixes[tableSize] = firstByte;
+                firstBytes[tableSize] = firstBytes[previousCode];
+                lengths[tableSize] = lengths[previousCode] + 1;
+                tableSize++;
+                if (tableSize == (1 << codeWidth) - 1 && codeWidth < 12) {
+                    codeWidth++;
+                }
+            }
+            int position = numDecoded + lengths[code] - 1;
+            for (int c = code; c != -1; c = prefixes[c]) {
+                if (position < decodedLength) {
+                    decoded[position] = suffixes[c];
+                }
+                position--;
+            }
+            numDecoded = Math.min(decodedLength, numDecoded + lengths[code]);
+            previousCode = code;
+        }
+        return numDecoded;
+    }
+
+    static void undoHorizontalDifferencing(ByteBuffer samples, int lineWidth, int numLines, int bytesPerSample) {
+        for (int line = 0; line < numLines; line++) {
+            final int lineStart = line * lineWidth;
+            for (int i = lineStart + 1; i < lineStart + lineWidth; i++) {
+                switch (bytesPerSample) {
+                    case 1:
+                        samples.put(i, (byte) (samples.get(i) + samples.get(i - 1)));
+                        break;
+                    case 2:
+                        samples.putShort(2 * i, (short) (samples.getShort(2 * i) + samples.getShort(2 * i - 2)));
+                        break;
+                    default:
+                        samples.putInt(4 * i, samples.getInt(4 * i) + samples.getInt(4 * i - 4));
+                        break;
+                }
+            }
+        }
+    }
+
+    private void map(FileChannel channel) throws IOException {
+        long maxByteCount = 0;
+        for (long byteCount : segmentByteCounts) {
+            maxByteCount = Math.max(maxByteCount, byteCount);
+        }
+        final long fileSize = channel.size();
+        final int numWindows = (int) ((fileSize + WINDOW_SIZE - 1) / WINDOW_SIZE);
+        windows = new MappedByteBuffer[Math.max(1, numWindows)];
+        for (int i = 0; i < windows.length; i++) {
+            final long windowStart = i * WINDOW_SIZE;
+            final long windowSize = Math.min(fileSize - windowStart, WINDOW_SIZE + maxByteCount);
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.max(0, windowSize));
+        }
+    }
+
+    private static MappedTiff parse(File file, FileChannel channel) throws IOException {
+        if (channel.size() < 16) {
+            return null;
+        }
+        final ByteBuffer header = readBuffer(channel, 0, 16, ByteOrder.BIG_ENDIAN);
+        final ByteOrder byteOrder;
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            byteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            byteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        header.order(byteOrder);
+        final int version = header.getShort(2) & 0xffff;
+        final boolean bigTiff;
+        final long ifdOffset;
+        if (version == 42) {
+            bigTiff = false;
+            ifdOffset = header.getInt(4) & 0xffffffffL;
+        } else if (version == 43 && header.getShort(4) == 8) {
+            bigTiff = true;
+            ifdOffset = header.getLong(8);
+        } else {
+            return null;
+        }
+
+        final Directory directory = Directory.read(channel, ifdOffset, bigTiff, byteOrder);
+        final int width = (int) directory.getValue(TAG_IMAGE_WIDTH, 0);
+        final int height = (int) directory.getValue(TAG_IMAGE_LENGTH, 0);
+        final int samplesPerPixel = (int) directory.getValue(TAG_SAMPLES_PER_PIXEL, 1);
+        final int bitsPerSample = (int) directory.getValue(TAG_BITS_PER_SAMPLE, 1);
+        final int sampleFormat = (int) directory.getValue(TAG_SAMPLE_FORMAT, 1);
+        final int compression = (int) directory.getValue(TAG_COMPRESSION, COMPRESSION_NONE);
+        final int predictor = (int) directory.getValue(TAG_PREDICTOR, PREDICTOR_NONE);
+        final int dataType = getDataType(bitsPerSample, sampleFormat);
+        if (width <= 0 || height <= 0 || samplesPerPixel != 1 || dataType < 0 || !isSupported(compression)
+            || !(predictor == PREDICTOR_NONE || predictor == PREDICTOR_HORIZONTAL && sampleFormat != SAMPLE_FORMAT_FLOAT)) {
+            return null;
+        }
+
+        final boolean tiled = directory.contains(TAG_TILE_OFFSETS);
+        final int segmentWidth;
+        final int segmentHeight;
+        final long[] offsets;
+        final long[] byteCounts;
+        if (tiled) {
+            segmentWidth = (int) directory.getValue(TAG_TILE_WIDTH, 0);
+            segmentHeight = (int) directory.getValue(TAG_TILE_LENGTH, 0);
+            offsets = directory.getValues(TAG_TILE_OFFSETS);
+            byteCounts = directory.getValues(TAG_TILE_BYTE_COUNTS);
+        } else {
+            segmentWidth = width;
+            segmentHeight = (int) Math.min(height, directory.getValue(TAG_ROWS_PER_STRIP, height));
+            offsets = directory.getValues(TAG_STRIP_OFFSETS);
+            byteCounts = directory.getValues(TAG_STRIP_BYTE_COUNTS);
+        }
+        if (segmentWidth <= 0 || segmentHeight <= 0 || offsets == null || byteCounts == null) {
+            return null;
+        }
+        final int bytesPerSample = bitsPerSample / 8;
+        final long numSegments = (long) ((width + segmentWidth - 1) / segmentWidth) * ((height + segmentHeight - 1) / segmentHeight);
+        final long decodedSegmentSize = (long) segmentWidth * segmentHeight * bytesPerSample;
+        if (offsets.length < numSegments || byteCounts.length < numSegments || decodedSegmentSize > Integer.MAX_VALUE) {
+            return null;
+        }
+        for (long byteCount : byteCounts) {
+            if (byteCount < 0 || byteCount > Integer.MAX_VALUE - WINDOW_SIZE) {
+                return null;
+            }
+        }
+        return new MappedTiff(file, byteOrder, width, height, bytesPerSample, dataType, compression, predictor,
+                              tiled, segmentWidth, segmentHeight, offsets, byteCounts);
+    }
+
+    private static boolean isSupported(int compression) {
+        return compression == COMPRESSION_NONE || compression == COMPRESSION_LZW ||
+               compression == COMPRESSION_DEFLATE || compression == COMPRESSION_DEFLATE_OLD;
+    }
+
+    private static int getDataType(int bitsPerSample, int sampleFormat) {
+        final boolean signed = sampleFormat == SAMPLE_FORMAT_INT;
+        switch (bitsPerSample) {
+            case 8:
+                return sampleFormat == SAMPLE_FORMAT_FLOAT ? -1 : signed ? ProductData.TYPE_INT8 : ProductData.TYPE_UINT8;
+            case 16:
+                return sampleFormat == SAMPLE_FORMAT_FLOAT ? -1 : signed ? ProductData.TYPE_INT16 : ProductData.TYPE_UINT16;
+            case 32:
+                return sampleFormat == SAMPLE_FORMAT_FLOAT ? ProductData.TYPE_FLOAT32 : signed ? ProductData.TYPE_INT32 : ProductData.TYPE_UINT32;
+            default:
+                return -1;
+        }
+    }
+
+    private static ByteBuffer readBuffer(FileChannel channel, long position, int length, ByteOrder byteOrder) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(byteOrder);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of TIFF file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The entries of an image file directory needed to locate the samples.
+     */
+    private static class Directory {
+
+        private final FileChannel channel;
+        private final boolean bigTiff;
+        private final ByteOrder byteOrder;
+        private final ByteBuffer entries;
+        private final int numEntries;
+
+        private Directory(FileChannel channel, boolean bigTiff, ByteOrder byteOrder, ByteBuffer entries, int numEntries) {
+            this.channel = channel;
+            this.bigTiff = bigTiff;
+            this.byteOrder = byteOrder;
+            this.entries = entries;
+            this.numEntries = numEntries;
+        }
+
+        static Directory read(FileChannel channel, long offset, boolean bigTiff, ByteOrder byteOrder) throws IOException {
+            final int countSize = bigTiff ? 8 : 2;
+            final ByteBuffer count = readBuffer(channel, offset, countSize, byteOrder);
+            final long numEntries = bigTiff ? count.getLong(0) : count.getShort(0) & 0xffff;
+            if (numEntries <= 0 || numEntries > 4096) {
+                throw new IOException("Invalid number of TIFF directory entries: " + numEntries);
+            }
+            final int entrySize = bigTiff ? 20 : 12;
+            final ByteBuffer entries = readBuffer(channel, offset + countSize, (int) numEntries * entrySize, byteOrder);
+            return new Directory(channel, bigTiff, byteOrder, entries, (int) numEntries);
+        }
+
+        boolean contains(int tag) {
+            return findEntry(tag) >= 0;
+        }
+
+        long getValue(int tag, long defaultValue) throws IOException {
+            final long[] values = getValues(tag);
+            return values != null && values.length > 0 ? values[0] : defaultValue;
+        }
+
+        /**
+         * @return the values of an entry of an unsigned integer type, or {@code null} if the entry does not exist
+         */
+        long[] getValues(int tag) throws IOException {
+            final int entry = findEntry(tag);
+            if (entry < 0) {
+                return null;
+            }
+            final int type = entries.getShort(entry + 2) & 0xffff;
+            final long count = bigTiff ? entries.getLong(entry + 4) : entries.getInt(entry + 4) & 0xffffffffL;
+            final int valueSize = getValueSize(type);
+            if (valueSize < 0 || count > Integer.MAX_VALUE / 8) {
+                throw new IOException(String.format("Unsupported type %d of TIFF tag %d", type, tag));
+            }
+            final int inlineSize = bigTiff ? 8 : 4;
+            final int valueOffset = entry + (bigTiff ? 12 : 8);
+            final ByteBuffer data;
+            final int dataStart;
+            if (count * valueSize <= inlineSize) {
+                data = entries;
+                dataStart = valueOffset;
+            } else {
+                final long position = bigTiff ? entries.getLong(valueOffset) : entries.getInt(valueOffset) & 0xffffffffL;
+                data = readBuffer(channel, position, (int) count * valueSize, byteOrder);
+                dataStart = 0;
+            }
+            final long[] values = new long[(int) count];
+            for (int i = 0; i < values.length; i++) {
+                final int index = dataStart + i * valueSize;
+                switch (type) {
+                    case TYPE_BYTE:
+                        values[i] = data.get(index) & 0xff;
+                        break;
+                    case TYPE_SHORT:
+                        values[i] = data.getShort(index) & 0xffff;
+                        break;
+                    case TYPE_LONG:
+                        values[i] = data.getInt(index) & 0xffffffffL;
+                        break;
+                    default:
+                        values[i] = data.getLong(index);
+                        break;
+                }
+            }
+            return values;
+        }
+
+        private int findEntry(int tag) {
+            final int entrySize = bigTiff ? 20 : 12;
+            for (int i = 0; i < numEntries; i++) {
+                final int entry = i * entrySize;
+                if ((entries.getShort(entry) & 0xffff) == tag) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        private static int getValueSize(int type) {
+            switch (type) {
+                case TYPE_BYTE:
+                    return 1;
+                case TYPE_SHORT:
+                    return 2;
+                case TYPE_LONG:
+                    return 4;
+                case TYPE_LONG8:
+                    return 8;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    /**
+     * The buffers of a thread for decoding segments, they grow to the largest segment read by the thread.
+     */
+    private static class DecodeBuffers {
+
+        private final Inflater inflater = new Inflater();
+        private byte[] encoded = new byte[0];
+        private byte[] decoded = new byte[0];
+
+        byte[] getEncoded(int length) {
+            if (encoded.length < length) {
+                encoded = new byte[length];
+            }
+            return encoded;
+        }
+
+        byte[] getDecoded(int length) {
+            if (decoded.length < length) {
+                decoded = new byte[length];
+            }
+            return decoded;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.core.image.ResolutionLevel;
+import org.esa.snap.core.image.SingleBandedOpImage;
+
+import javax.media.jai.PlanarImage;
+import java.awt.Rectangle;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+
+/**
+ * Source image of a band of a GeoTIFF file which decodes the tiles directly from the {@link MappedTiff memory mapped file}
+ * into the raster of the tile. The tiles follow the internal tiling of the file.
+ * The images are created by the {@link MappedTiffs mapped files of a reader}.
+ */
+final class MappedTiffOpImage extends SingleBandedOpImage {
+
+    private final MappedTiff tiff;
+
+    MappedTiffOpImage(MappedTiff tiff, int dataBufferType) {
+        super(dataBufferType, tiff.getWidth(), tiff.getHeight(), tiff.getTileSize(), null, ResolutionLevel.MAXRES);
+        this.tiff = tiff;
+    }
+
+    @Override
+    protected void computeRect(PlanarImage[] sourceImages, WritableRaster tile, Rectangle destRect) {
+        final ComponentSampleModel sampleModel = (ComponentSampleModel) tile.getSampleModel();
+        final DataBuffer dataBuffer = tile.getDataBuffer();
+        final int offset = dataBuffer.getOffset() + sampleModel.getOffset(destRect.x - tile.getSampleModelTranslateX(),
+                                                                          destRect.y - tile.getSampleModelTranslateY());
+        try {
+            tiff.read(destRect, getData(dataBuffer), offset, sampleModel.getScanlineStride());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + tiff.getFile(), e);
+        }
+    }
+
+    private static Object getData(DataBuffer dataBuffer) {
+        if (dataBuffer instanceof DataBufferByte) {
+            return ((DataBufferByte) dataBuffer).getData();
+        } else if (dataBuffer instanceof DataBufferShort) {
+            return ((DataBufferShort) dataBuffer).getData();
+        } else if (dataBuffer instanceof DataBufferUShort) {
+            return ((DataBufferUShort) dataBuffer).getData();
+        } else if (dataBuffer instanceof DataBufferInt) {
+            return ((DataBufferInt) dataBuffer).getData();
+        } else if (dataBuffer instanceof java.awt.image.DataBufferFloat) {
+            return ((java.awt.image.DataBufferFloat) dataBuffer).getData();
+        } else if (dataBuffer instanceof javax.media.jai.DataBufferFloat) {
+            return ((javax.media.jai.DataBufferFloat) dataBuffer).getData();
+        }
+        throw new IllegalStateException("Unsupported data buffer " + dataBuffer.getClass());
+    }
+}
@@ -0,0 +1,76 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.image.ImageManager;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.awt.Dimension;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link MappedTiff memory mapped} GeoTIFF files of a reader. Every file is parsed and mapped once, however often
+ * its tile size or its bands are asked for, and the mappings are dropped when the reader is closed.
+ * The mapped reading can be switched off by the system property {@value #MAPPED_PROPERTY}.
+ */
+final class MappedTiffs {
+
+    static final String MAPPED_PROPERTY = "lc.tiffReader.mapped";
+
+    // files which cannot be mapped are kept as null, so they are not parsed again
+    private final Map<File, MappedTiff> tiffs = new HashMap<>();
+
+    /**
+     * @return the internal tile size of the file, or the default size if the file cannot be mapped
+     */
+    synchronized Dimension getPreferredTileSize(File file, Dimension defaultSize) {
+        final MappedTiff tiff = getMappedTiff(file);
+        return tiff != null ? tiff.getTileSize() : defaultSize;
+    }
+
+    /**
+     * @return the mapped image of the file the band has been read from, or the source image of the band if the file
+     * cannot be mapped
+     */
+    synchronized RenderedImage getSourceImage(Band srcBand) {
+        final MappedTiff tiff = getMappedTiff(srcBand.getProduct().getFileLocation());
+        if (tiff != null && tiff.getDataType() == srcBand.getDataType()
+            && tiff.getWidth() == srcBand.getRasterWidth() && tiff.getHeight() == srcBand.getRasterHeight()) {
+            return new MappedTiffOpImage(tiff, ImageManager.getDataBufferType(srcBand.getDataType()));
+        }
+        return srcBand.getSourceImage();
+    }
+
+    synchronized void close() {
+        for (MappedTiff tiff : tiffs.values()) {
+            if (tiff != null) {
+                tiff.close();
+            }
+        }
+        tiffs.clear();
+    }
+
+    private MappedTiff getMappedTiff(File file) {
+        if (file == null || !isMappingEnabled()) {
+            return null;
+        }
+        final File key = file.getAbsoluteFile();
+        if (!tiffs.containsKey(key)) {
+            MappedTiff tiff = null;
+            try {
+                tiff = MappedTiff.open(key);
+            } catch (IOException e) {
+                SystemUtils.LOG.warning("Could not map " + key + ", reading it with the GeoTIFF reader: " + e.getMessage());
+            }
+            tiffs.put(key, tiff);
+        }
+        return tiffs.get(key);
+    }
+
+    private static boolean isMappingEnabled() {
+        return Boolean.parseBoolean(System.getProperty(MAPPED_PROPERTY, "true"));
+    }
+}
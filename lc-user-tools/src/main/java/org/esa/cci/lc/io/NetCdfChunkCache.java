@@ -0,0 +1,133 @@
+package org.esa.cci.lc.io;
+
+import ucar.ma2.Array;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded least-recently-used cache of decompressed chunks of NetCDF variables, shared by all products read by the
+ * {@link LCCfNetCdfReaderPlugIn}. A chunk is decompressed by the first thread asking for it, threads asking for the
+ * same chunk at the same time wait for it instead of decompressing it again.
+ * <p>
+ * The tiles of the images are the chunks, which are also held by the JAI tile cache. This cache only has to bridge
+ * tiles evicted from the tile cache and products opened on the same file, so it is small by default. Its size in
+ * bytes can be set by the system property {@value #CACHE_SIZE_PROPERTY}.
+ * <p>
+ * Instances are thread safe.
+ */
+final class NetCdfChunkCache {
+
+    static final String CACHE_SIZE_PROPERTY = "lc.netcdf.chunkCacheSize";
+    private static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private static NetCdfChunkCache instance;
+
+    private final long maxSize;
+    // in access order, the least recently used chunk first
+    private final LinkedHashMap<String, Entry> entries;
+    private long size;
+
+    NetCdfChunkCache(long maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the cache shared by all readers, by default of 64 MB
+     */
+    static synchronized NetCdfChunkCache getInstance() {
+        if (instance == null) {
+            instance = new NetCdfChunkCache(Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the chunk stored under the given key, loading it if it is not cached.
+     *
+     * @param key    identifies the file, the variable and the chunk
+     * @param loader reads and decompresses the chunk
+     */
+    Array getChunk(String key, ChunkLoader loader) throws IOException {
+        final Entry entry;
+        synchronized (entries) {
+            Entry existing = entries.get(key);
+            if (existing == null) {
+                existing = new Entry();
+                entries.put(key, existing);
+            }
+            entry = existing;
+        }
+        final Array chunk;
+        boolean loaded = false;
+        synchronized (entry) {
+            if (entry.chunk == null) {
+                boolean succeeded = false;
+                try {
+                    entry.chunk = loader.load();
+                    succeeded = true;
+                } finally {
+                    if (!succeeded) {
+                        synchronized (entries) {
+                            entries.remove(key, entry);
+                        }
+                    }
+                }
+                loaded = true;
+            }
+            chunk = entry.chunk;
+        }
+        if (loaded) {
+            synchronized (entries) {
+                // a failed load of another thread may have removed the entry, then it is not kept
+                if (entries.get(key) == entry) {
+                    entry.size = chunk.getSizeBytes();
+                    size += entry.size;
+                    evict(entry);
+                }
+            }
+        }
+        return chunk;
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    int getNumChunks() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void evict(Entry keep) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            // chunks still loading are not accounted yet
+            if (entry != keep && entry.size > 0) {
+                size -= entry.size;
+                iterator.remove();
+            }
+        }
+    }
+
+    interface ChunkLoader {
+
+        Array load() throws IOException;
+    }
+
+    private static class Entry {
+
+        private Array chunk;
+        private long size;
+    }
+}
@@ -0,0 +1,104 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.image.ImageManager;
+import org.esa.snap.core.image.ResolutionLevel;
+import org.esa.snap.core.image.SingleBandedOpImage;
+import org.esa.snap.core.util.ImageUtils;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+import javax.media.jai.PlanarImage;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Source image of a band of a chunked NetCDF variable. The tiles are the chunks of the variable, which are taken from
+ * the shared {@link NetCdfChunkCache}, so a chunk asked for by several images is decompressed once while it is cached.
+ */
+final class NetCdfChunkOpImage extends SingleBandedOpImage {
+
+    private final NetcdfFile netcdfFile;
+    private final Variable variable;
+    private final String keyPrefix;
+    private final NetCdfChunkCache cache;
+
+    NetCdfChunkOpImage(Band band, NetcdfFile netcdfFile, Variable variable, Dimension chunkSize, String fileKey,
+                       NetCdfChunkCache cache) {
+        super(ImageManager.getDataBufferType(band.getDataType()), band.getRasterWidth(), band.getRasterHeight(),
+              chunkSize, null, ResolutionLevel.MAXRES);
+        this.netcdfFile = netcdfFile;
+        this.variable = variable;
+        this.keyPrefix = fileKey + ":" + variable.getFullName() + ":";
+        this.cache = cache;
+    }
+
+    @Override
+    protected void computeRect(PlanarImage[] sourceImages, WritableRaster tile, Rectangle destRect) {
+        final ComponentSampleModel sampleModel = (ComponentSampleModel) tile.getSampleModel();
+        final DataBuffer dataBuffer = tile.getDataBuffer();
+        final Object destData = ImageUtils.getPrimitiveArray(dataBuffer);
+        final Rectangle bounds = getBounds();
+        final int chunkWidth = getTileWidth();
+        final int chunkHeight = getTileHeight();
+        // the tiles are the chunks, a rectangle spanning several chunks is only requested at the image edges
+        for (int chunkY = destRect.y / chunkHeight; chunkY <= (destRect.y + destRect.height - 1) / chunkHeight; chunkY++) {
+            for (int chunkX = destRect.x / chunkWidth; chunkX <= (destRect.x + destRect.width - 1) / chunkWidth; chunkX++) {
+                final Rectangle chunkRect = new Rectangle(chunkX * chunkWidth, chunkY * chunkHeight,
+                                                          chunkWidth, chunkHeight).intersection(bounds);
+                final Object chunkData = getChunk(chunkX, chunkY, chunkRect).getStorage();
+                final Rectangle part = chunkRect.intersection(destRect);
+                for (int y = part.y; y < part.y + part.height; y++) {
+                    final int srcPos = (y - chunkRect.y) * chunkRect.width + (part.x - chunkRect.x);
+                    final int destPos = dataBuffer.getOffset() +
+                                        sampleModel.getOffset(part.x - tile.getSampleModelTranslateX(),
+                                                              y - tile.getSampleModelTranslateY());
+                    System.arraycopy(chunkData, srcPos, destData, destPos, part.width);
+                }
+            }
+        }
+    }
+
+    private Array getChunk(int chunkX, int chunkY, final Rectangle chunkRect) {
+        try {
+            return cache.getChunk(keyPrefix + chunkY + ":" + chunkX, new NetCdfChunkCache.ChunkLoader() {
+                @Override
+                public Array load() throws IOException {
+                    return readChunk(chunkRect);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + variable.getFullName() + " of " + netcdfFile.getLocation(), e);
+        }
+    }
+
+    private Array readChunk(Rectangle chunkRect) throws IOException {
+        // leading dimensions, if any, are of size one
+        final int rank = variable.getRank();
+        final int[] origin = new int[rank];
+        final int[] shape = new int[rank];
+        Arrays.fill(shape, 1);
+        origin[rank - 2] = chunkRect.y;
+        origin[rank - 1] = chunkRect.x;
+        shape[rank - 2] = chunkRect.height;
+        shape[rank - 1] = chunkRect.width;
+        final Array chunk;
+        try {
+            // the NetCDF file is not thread safe, the reader of the product synchronises on it as well
+            synchronized (netcdfFile) {
+                chunk = variable.read(origin, shape);
+            }
+        } catch (InvalidRangeException e) {
+            throw new IOException(e);
+        }
+        // a small variable cached by the NetCDF file is returned as view on all of its data
+        return variable.isCaching() ? chunk.copy() : chunk;
+    }
+}
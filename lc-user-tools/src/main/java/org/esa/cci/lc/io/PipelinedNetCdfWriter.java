@@ -0,0 +1,94 @@
+package org.esa.cci.lc.io;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.dataio.netcdf.AbstractNetCdfWriterPlugIn;
+import org.esa.snap.dataio.netcdf.DefaultNetCdfWriter;
+
+import java.io.IOException;
+
+/**
+ * A NetCDF writer which hands the raster data to a {@link WritePipeline}. The threads computing the raster data
+ * return as soon as the data is queued, while the data is compressed and written by a write worker in the order it
+ * has been given to the writer.
+ * <p>
+ * Subclasses which need to change how the raster data is written override
+ * {@link #writeQueuedBandRasterData(Band, int, int, int, int, ProductData, ProgressMonitor)}.
+ */
+public class PipelinedNetCdfWriter extends DefaultNetCdfWriter {
+
+    private WritePipeline pipeline;
+
+    public PipelinedNetCdfWriter(AbstractNetCdfWriterPlugIn writerPlugIn) {
+        super(writerPlugIn);
+    }
+
+    /**
+     * @return the maximum number of raster data copies held by a writer at once, the queued ones and the one being
+     * written
+     */
+    public static int getMaxQueuedWrites() {
+        return Math.max(0, Integer.getInteger(WritePipeline.QUEUE_SIZE_PROPERTY, WritePipeline.DEFAULT_QUEUE_SIZE)) + 1;
+    }
+
+    @Override
+    public final void writeBandRasterData(final Band sourceBand, final int sourceOffsetX, final int sourceOffsetY,
+                                          final int sourceWidth, final int sourceHeight, ProductData sourceBuffer,
+                                          final ProgressMonitor pm) throws IOException {
+        // the caller may reuse the buffer as soon as this method returns
+        final ProductData queuedBuffer = ProductData.createInstance(sourceBuffer.getType(), sourceBuffer.getNumElems());
+        System.arraycopy(sourceBuffer.getElems(), 0, queuedBuffer.getElems(), 0, sourceBuffer.getNumElems());
+        getPipeline().submit(new WritePipeline.WriteTask() {
+            @Override
+            public void write() throws IOException {
+                writeQueuedBandRasterData(sourceBand, sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                          queuedBuffer, ProgressMonitor.NULL);
+            }
+        });
+    }
+
+    /**
+     * Writes the raster data on a worker of the pipeline.
+     */
+    protected void writeQueuedBandRasterData(Band sourceBand, int sourceOffsetX, int sourceOffsetY, int sourceWidth,
+                                             int sourceHeight, ProductData sourceBuffer, ProgressMonitor pm) throws IOException {
+        super.writeBandRasterData(sourceBand, sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight, sourceBuffer, pm);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        final WritePipeline currentPipeline = getCurrentPipeline();
+        if (currentPipeline != null) {
+            currentPipeline.drain();
+        }
+        super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        final WritePipeline currentPipeline;
+        synchronized (this) {
+            currentPipeline = pipeline;
+            pipeline = null;
+        }
+        try {
+            if (currentPipeline != null) {
+                currentPipeline.close();
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    private synchronized WritePipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = new WritePipeline("NetCDF writer " + getOutput());
+        }
+        return pipeline;
+    }
+
+    private synchronized WritePipeline getCurrentPipeline() {
+        return pipeline;
+    }
+}
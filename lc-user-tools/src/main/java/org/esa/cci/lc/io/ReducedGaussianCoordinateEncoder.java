@@ -0,0 +1,79 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.dataio.netcdf.nc.NFileWriteable;
+import org.esa.snap.dataio.netcdf.nc.NVariable;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+
+import java.io.IOException;
+
+/**
+ * Coordinates of a reduced Gaussian grid. The rows have different numbers of cells, therefore the latitudes are
+ * given per row together with the number of cells of each row ({@code reduced_points}) and the longitudes are given
+ * per cell.
+ */
+class ReducedGaussianCoordinateEncoder implements CoordinateEncoder {
+
+    static final String CELL_DIMENSION = "cell";
+
+    private final PlanetaryGrid planetaryGrid;
+    private NVariable latVar;
+    private NVariable reducedPointsVar;
+    private NVariable lonVar;
+
+    ReducedGaussianCoordinateEncoder(PlanetaryGrid planetaryGrid) {
+        this.planetaryGrid = planetaryGrid;
+    }
+
+    @Override
+    public void addCoordVars(NFileWriteable writeable) throws IOException {
+        latVar = writeable.addVariable("lat", DataType.FLOAT, null, "lat");
+        Attribute attributeLatUnits = latVar.addAttribute("units", "degrees_north");
+        Attribute attributeLatLongName = latVar.addAttribute("long_name", "latitude");
+        Attribute attributeLatStandardName = latVar.addAttribute("standard_name", "latitude");
+
+        reducedPointsVar = writeable.addVariable("reduced_points", DataType.INT, null, "lat");
+        Attribute attributePointsLongName = reducedPointsVar.addAttribute("long_name", "number of cells per latitude row");
+
+        lonVar = writeable.addVariable("lon", DataType.FLOAT, null, CELL_DIMENSION);
+        Attribute attributeLonUnits = lonVar.addAttribute("units", "degrees_east");
+        Attribute attributeLonLongName = lonVar.addAttribute("long_name", "longitude");
+        Attribute attributeLonStandardName = lonVar.addAttribute("standard_name", "longitude");
+    }
+
+    @Override
+    public void fillCoordinateVars(NFileWriteable writeable) throws IOException {
+        final int numRows = planetaryGrid.getNumRows();
+        final int numCells = (int) planetaryGrid.getNumBins();
+
+        latVar.writeFully(Array.factory(DataType.FLOAT, new int[]{numRows}, getLatValues()));
+        reducedPointsVar.writeFully(Array.factory(DataType.INT, new int[]{numRows}, getReducedPoints()));
+        lonVar.writeFully(Array.factory(DataType.FLOAT, new int[]{numCells}, getLonValues()));
+    }
+
+    float[] getLatValues() {
+        final float[] lats = new float[planetaryGrid.getNumRows()];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = (float) planetaryGrid.getCenterLat(i);
+        }
+        return lats;
+    }
+
+    int[] getReducedPoints() {
+        final int[] points = new int[planetaryGrid.getNumRows()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = planetaryGrid.getNumCols(i);
+        }
+        return points;
+    }
+
+    float[] getLonValues() {
+        final float[] lons = new float[(int) planetaryGrid.getNumBins()];
+        for (int i = 0; i < lons.length; i++) {
+            lons[i] = ((float) planetaryGrid.getCenterLatLon(i)[1] + 360.0f) % 360.0f;
+        }
+        return lons;
+    }
+}
@@ -92,18 +92,13 @@ public class RegionalPlanetaryGrid implements PlanetaryGrid {
         if (bin < binIndexOffset || bin > binIndexMax) {
             return false;
         }
-        final int numColsParent = globalGrid.getNumCols(0); // OK to use one value for all rows, cause we assume rectangular grids for now
-        for (int i = 0; i < getNumRows(); i++) {
-            final long startBinIndex = getFirstBinIndex(i);
-            final long endBinIndex = startBinIndex + numCols - 1;
-            final long endParentRowBinIndex = globalGrid.getFirstBinIndex(i + rowOffset) + numColsParent - 1;
-            if (bin >= startBinIndex && bin <= endBinIndex) {
-                return true;
-            } else if (bin < startBinIndex || (bin > endBinIndex && bin <= endParentRowBinIndex)) {
-                return false;
-            }
+        // rectangular grids are assumed for now, so the column can be derived from the first bin of the row
+        final int globalRow = globalGrid.getRowIndex(bin);
+        if (globalRow < rowOffset || globalRow >= rowOffset + numRows) {
+            return false;
         }
-        return false;
+        final long globalCol = bin - globalGrid.getFirstBinIndex(globalRow);
+        return globalCol >= columnOffset && globalCol < columnOffset + numCols;
     }
 
     private void initBinIndexValues(PlanetaryGrid globalGrid) {
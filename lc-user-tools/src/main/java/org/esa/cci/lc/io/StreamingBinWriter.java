@@ -0,0 +1,42 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.operator.BinWriter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link BinWriter} which can also consume the temporal bins piecewise, while they are produced. Only the bins of
+ * the rows not yet written are kept in memory, so the memory needed does not depend on the number of bins.
+ * <p>
+ * Usage: {@link #open(Map)}, any number of {@link #writeBins(List)}, {@link #close()}. The bins must be passed in
+ * ascending order of their bin index over all calls of {@link #writeBins(List)}. If the production of the bins
+ * fails, {@link #abort()} is called instead of {@link #close()}.
+ */
+public interface StreamingBinWriter extends BinWriter {
+
+    /**
+     * Creates the target file and writes everything except the bin data.
+     */
+    void open(Map<String, String> metadataProperties) throws IOException;
+
+    /**
+     * Writes the given bins. The rows preceding the row of the first bin which have not been written yet are
+     * written as fill values.
+     */
+    void writeBins(List<TemporalBin> temporalBins) throws IOException;
+
+    /**
+     * Writes the remaining rows and closes the target file.
+     */
+    void close() throws IOException;
+
+    /**
+     * Closes the target file after the production of the bins has failed. The remaining rows are not written.
+     */
+    default void abort() throws IOException {
+        close();
+    }
+}
@@ -0,0 +1,155 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.core.util.logging.BeamLogManager;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Merges the partial bin files written by the workers of a partitioned aggregation (see {@link StripeBinWriter})
+ * into the target product. The stripes are streamed one after the other into a {@link StreamingBinWriter}, e.g.
+ * the {@link LcBinWriter}, so only a small batch of bins is held in memory.
+ * <p>
+ * Before anything is written, the stripe files are checked for completeness: they must have been written for the
+ * same number of stripes and output features, and the stripes must follow each other without gap or overlap and
+ * cover exactly the rows of the target grid to be written.
+ */
+public class StripeBinMerger {
+
+    private static final int BATCH_SIZE = 8192;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final List<File> stripeFiles;
+    private final int firstRow;
+    private final int numRows;
+    private Logger logger;
+
+    /**
+     * @param stripeFiles the files of all stripes, ordered by the stripe index
+     * @param firstRow    the first row of the target grid covered by the stripes
+     * @param numRows     the number of rows of the target grid covered by the stripes
+     */
+    public StripeBinMerger(List<File> stripeFiles, int firstRow, int numRows) {
+        this.stripeFiles = stripeFiles;
+        this.firstRow = firstRow;
+        this.numRows = numRows;
+        logger = BeamLogManager.getSystemLogger();
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Writes the bins of all stripes to the given writer.
+     *
+     * @param binWriter          the writer of the target product, the output context must be set already
+     * @param outputFeatureNames the output features expected in the stripe files
+     */
+    public void merge(StreamingBinWriter binWriter, String[] outputFeatureNames) throws IOException {
+        validateStripes(outputFeatureNames);
+        binWriter.open(new HashMap<String, String>());
+        boolean succeeded = false;
+        try {
+            for (int i = 0; i < stripeFiles.size(); i++) {
+                mergeStripe(stripeFiles.get(i), binWriter, outputFeatureNames.length);
+                logger.info(String.format("Merged stripe %d of %d", i + 1, stripeFiles.size()));
+            }
+            succeeded = true;
+        } finally {
+            if (succeeded) {
+                binWriter.close();
+            } else {
+                binWriter.abort();
+            }
+        }
+    }
+
+    private void validateStripes(String[] outputFeatureNames) throws IOException {
+        int nextRow = firstRow;
+        for (int i = 0; i < stripeFiles.size(); i++) {
+            final File stripeFile = stripeFiles.get(i);
+            if (!stripeFile.isFile()) {
+                throw new IOException("Missing stripe file " + stripeFile);
+            }
+            final StripeHeader header;
+            try (DataInputStream inputStream = new DataInputStream(new FileInputStream(stripeFile))) {
+                header = readHeader(stripeFile, inputStream);
+            }
+            if (header.stripeIndex != i || (header.numStripes != 0 && header.numStripes != stripeFiles.size())) {
+                throw new IOException(String.format("Stripe file %s contains stripe %d of %d, expected stripe %d of %d",
+                                                    stripeFile, header.stripeIndex + 1, header.numStripes,
+                                                    i + 1, stripeFiles.size()));
+            }
+            if (!Arrays.equals(header.featureNames, outputFeatureNames)) {
+                throw new IOException("Stripe file " + stripeFile + " contains other output features than expected");
+            }
+            if (header.firstRow != nextRow) {
+                throw new IOException(String.format("Stripe file %s starts at row %d, expected row %d",
+                                                    stripeFile, header.firstRow, nextRow));
+            }
+            nextRow = header.firstRow + header.numRows;
+        }
+        if (nextRow != firstRow + numRows) {
+            throw new IOException(String.format("The stripes end at row %d, expected row %d", nextRow, firstRow + numRows));
+        }
+    }
+
+    private void mergeStripe(File stripeFile, StreamingBinWriter binWriter, int numFeatures) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(stripeFile), BUFFER_SIZE))) {
+            readHeader(stripeFile, inputStream);
+            final List<TemporalBin> batch = new ArrayList<>(BATCH_SIZE);
+            long binIndex;
+            while ((binIndex = inputStream.readLong()) != StripeBinWriter.END_OF_STRIPE) {
+                final TemporalBin temporalBin = new TemporalBin(binIndex, numFeatures);
+                final float[] featureValues = temporalBin.getFeatureValues();
+                for (int i = 0; i < numFeatures; i++) {
+                    featureValues[i] = inputStream.readFloat();
+                }
+                batch.add(temporalBin);
+                if (batch.size() == BATCH_SIZE) {
+                    binWriter.writeBins(batch);
+                    batch.clear();
+                }
+            }
+            binWriter.writeBins(batch);
+        } catch (EOFException e) {
+            throw new IOException("Stripe file " + stripeFile + " is incomplete", e);
+        }
+    }
+
+    private static StripeHeader readHeader(File stripeFile, DataInputStream inputStream) throws IOException {
+        if (inputStream.readInt() != StripeBinWriter.MAGIC || inputStream.readInt() != StripeBinWriter.VERSION) {
+            throw new IOException("Not a stripe file of the expected version: " + stripeFile);
+        }
+        final StripeHeader header = new StripeHeader();
+        header.stripeIndex = inputStream.readInt();
+        header.numStripes = inputStream.readInt();
+        header.firstRow = inputStream.readInt();
+        header.numRows = inputStream.readInt();
+        header.featureNames = new String[inputStream.readInt()];
+        for (int i = 0; i < header.featureNames.length; i++) {
+            header.featureNames[i] = inputStream.readUTF();
+        }
+        return header;
+    }
+
+    private static class StripeHeader {
+
+        private int stripeIndex;
+        private int numStripes;
+        private int firstRow;
+        private int numRows;
+        private String[] featureNames;
+    }
+}
@@ -0,0 +1,187 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.core.util.logging.BeamLogManager;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes the temporal bins of one latitude stripe of a partitioned aggregation into a partial bin file. The partial
+ * files of all stripes are merged into the target product by the {@link StripeBinMerger}.
+ * <p>
+ * The bins are first written to a file with the extension {@code .part}, which is renamed when the stripe is
+ * complete. So a stripe file only exists if its worker has finished successfully.
+ */
+public class StripeBinWriter implements StreamingBinWriter {
+
+    static final int MAGIC = 0x4c435342;
+    static final int VERSION = 1;
+    static final long END_OF_STRIPE = -1L;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int NUM_ROWS_OFFSET = 20;
+
+    private final int stripeIndex;
+    private final int numStripes;
+    private final int firstRow;
+    private int numRows;
+    private int writtenNumRows;
+    private String[] outputFeatureNames;
+    private String targetFilePath;
+    private Logger logger;
+    private DataOutputStream outputStream;
+    private File partFile;
+    private long numBins;
+    private boolean failed;
+
+    /**
+     * @param stripeIndex the index of the stripe, starting at 0 for the northernmost stripe
+     * @param numStripes  the number of stripes the target grid is split into, or 0 if it is not known in advance
+     * @param firstRow    the first row of the stripe within the global planetary grid
+     * @param numRows     the number of rows of the stripe
+     */
+    public StripeBinWriter(int stripeIndex, int numStripes, int firstRow, int numRows) {
+        this.stripeIndex = stripeIndex;
+        this.numStripes = numStripes;
+        this.firstRow = firstRow;
+        this.numRows = numRows;
+        logger = BeamLogManager.getSystemLogger();
+    }
+
+    /**
+     * @return the file the given stripe of the product with the given id is written to
+     */
+    public static File getStripeFile(File stripeDir, String productId, int stripeIndex, int numStripes) {
+        return new File(stripeDir, String.format("%s-stripe-%d-of-%d.bin", productId, stripeIndex + 1, numStripes));
+    }
+
+    /**
+     * Sets the number of rows of the stripe if it is known only after the stripe has been opened. Must be called
+     * before {@link #close()}.
+     */
+    public void setNumRows(int numRows) {
+        this.numRows = numRows;
+    }
+
+    /**
+     * Alternative to {@link #setBinningContext(BinningContext)} if the temporal bins are not created by the
+     * binning framework.
+     */
+    public void setOutputFeatureNames(String[] outputFeatureNames) {
+        this.outputFeatureNames = outputFeatureNames;
+    }
+
+    @Override
+    public void setBinningContext(BinningContext binningContext) {
+        setOutputFeatureNames(LcBinWriter.getOutputFeatureNames(binningContext.getBinManager()));
+    }
+
+    @Override
+    public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) throws IOException {
+        try {
+            open(metadataProperties);
+            writeBins(temporalBins);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void open(Map<String, String> metadataProperties) throws IOException {
+        if (outputFeatureNames == null) {
+            throw new IllegalStateException("Output feature names are not set.");
+        }
+        failed = true;
+        partFile = new File(targetFilePath + ".part");
+        outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partFile), BUFFER_SIZE));
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(VERSION);
+        outputStream.writeInt(stripeIndex);
+        outputStream.writeInt(numStripes);
+        outputStream.writeInt(firstRow);
+        outputStream.writeInt(numRows);
+        writtenNumRows = numRows;
+        outputStream.writeInt(outputFeatureNames.length);
+        for (String featureName : outputFeatureNames) {
+            outputStream.writeUTF(featureName);
+        }
+        numBins = 0;
+        failed = false;
+    }
+
+    @Override
+    public void writeBins(List<TemporalBin> temporalBins) throws IOException {
+        failed = true;
+        for (TemporalBin temporalBin : temporalBins) {
+            final float[] featureValues = temporalBin.getFeatureValues();
+            outputStream.writeLong(temporalBin.getIndex());
+            for (int i = 0; i < outputFeatureNames.length; i++) {
+                outputStream.writeFloat(featureValues[i]);
+            }
+        }
+        numBins += temporalBins.size();
+        failed = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (outputStream == null) {
+            return;
+        }
+        try {
+            if (!failed) {
+                outputStream.writeLong(END_OF_STRIPE);
+            }
+        } finally {
+            outputStream.close();
+            outputStream = null;
+        }
+        if (failed) {
+            partFile.delete();
+            return;
+        }
+        if (numRows != writtenNumRows) {
+            try (RandomAccessFile file = new RandomAccessFile(partFile, "rw")) {
+                file.seek(NUM_ROWS_OFFSET);
+                file.writeInt(numRows);
+            }
+        }
+        final File targetFile = new File(targetFilePath);
+        if (targetFile.exists() && !targetFile.delete()) {
+            throw new IOException("Could not replace stripe file " + targetFile);
+        }
+        if (!partFile.renameTo(targetFile)) {
+            throw new IOException("Could not rename " + partFile + " to " + targetFile);
+        }
+        logger.info(String.format("Written %d bins of stripe %d to %s", numBins, stripeIndex + 1, targetFile));
+    }
+
+    @Override
+    public void abort() throws IOException {
+        failed = true;
+        close();
+    }
+
+    @Override
+    public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+        targetFilePath = targetFileTemplatePath;
+    }
+
+    @Override
+    public String getTargetFilePath() {
+        return targetFilePath;
+    }
+
+    @Override
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+}
@@ -0,0 +1,234 @@
+package org.esa.cci.lc.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes write operations off the submitting threads, in the order they have been submitted. The NetCDF4 library
+ * compresses the chunks while they are written, so the producing threads can go on computing the next data while
+ * the chunks are compressed and written. At most a configurable number of write operations, and with them their
+ * data, is queued; further submissions block until the queued operations have caught up.
+ * <p>
+ * The operations of a pipeline run one after the other, as the NetCDF library can not write one file from several
+ * threads. The operations of all pipelines share a pool of workers, so the files written at the same time, e.g. the
+ * products of a parallel conversion or the formats of a fan-out aggregation, are compressed in parallel. The number
+ * of workers defaults to the number of processors and can be changed by the system property
+ * {@value #NUM_WORKERS_PROPERTY}.
+ * <p>
+ * The queue size defaults to {@link #DEFAULT_QUEUE_SIZE} and can be changed by the system property
+ * {@value #QUEUE_SIZE_PROPERTY}. A queue size of zero disables the pipeline, the operations are then executed
+ * directly by the submitting thread.
+ * <p>
+ * If a write operation fails, all following operations are skipped and the failure is thrown by the next call of
+ * {@link #submit(WriteTask)}, {@link #drain()} or {@link #close()}.
+ */
+class WritePipeline {
+
+    static final String QUEUE_SIZE_PROPERTY = "lc.writer.queueSize";
+    static final int DEFAULT_QUEUE_SIZE = 4;
+    static final String NUM_WORKERS_PROPERTY = "lc.writer.numWorkers";
+
+    private static ThreadPoolExecutor sharedWorkers;
+
+    /**
+     * A write operation. It must own its data, the data must not be changed after submission.
+     */
+    interface WriteTask {
+
+        void write() throws IOException;
+    }
+
+    private final String name;
+    private final Executor workers;
+    private final ExecutorService ownThread;
+    private final Semaphore queuePermits;
+    // the operations waiting for their predecessor, guarded by itself
+    private final ArrayDeque<Runnable> waiting;
+    private Runnable active;
+    private boolean closed;
+    private volatile IOException failure;
+
+    WritePipeline(String name) {
+        this(name, Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE));
+    }
+
+    WritePipeline(String name, int queueSize) {
+        this(name, queueSize, queueSize > 0 ? getSharedWorkers() : null, null);
+    }
+
+    WritePipeline(String name, int queueSize, Executor workers) {
+        this(name, queueSize, workers, null);
+    }
+
+    private WritePipeline(String name, int queueSize, Executor workers, ExecutorService ownThread) {
+        this.name = name;
+        this.workers = queueSize > 0 ? workers : null;
+        this.ownThread = ownThread;
+        queuePermits = queueSize > 0 ? new Semaphore(queueSize) : null;
+        waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * Creates a pipeline which executes its operations on a thread of its own instead of the shared workers. To be
+     * used if the operations submit to other pipelines and wait for them, which could otherwise occupy all shared
+     * workers.
+     */
+    static WritePipeline createWithOwnThread(String name) {
+        final ExecutorService thread = Executors.newSingleThreadExecutor(createThreadFactory(name));
+        return new WritePipeline(name, Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE), thread, thread);
+    }
+
+    /**
+     * Queues the given write operation. Blocks while the queue is full.
+     */
+    void submit(final WriteTask task) throws IOException {
+        checkFailure();
+        if (workers == null) {
+            task.write();
+            return;
+        }
+        try {
+            queuePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write queue");
+        }
+        try {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (failure == null) {
+                            task.write();
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (Throwable t) {
+                        failure = new IOException("Write operation failed", t);
+                    } finally {
+                        queuePermits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queuePermits.release();
+            throw new IOException("Write pipeline " + name + " is already closed", e);
+        }
+    }
+
+    /**
+     * Waits until all submitted write operations are done.
+     */
+    void drain() throws IOException {
+        if (workers != null) {
+            final CountDownLatch done = new CountDownLatch(1);
+            try {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // all operations submitted before are done when this one runs
+                        done.countDown();
+                    }
+                });
+                done.await();
+            } catch (RejectedExecutionException e) {
+                // closed already, all operations are done
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the write queue");
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Waits until all submitted write operations are done and rejects further ones.
+     */
+    void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            synchronized (waiting) {
+                closed = true;
+            }
+            if (ownThread != null) {
+                ownThread.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Hands the operation to the workers as soon as the operation submitted before has completed.
+     */
+    private void execute(final Runnable operation) {
+        synchronized (waiting) {
+            if (closed) {
+                throw new RejectedExecutionException("Write pipeline " + name + " is closed");
+            }
+            waiting.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        operation.run();
+                    } finally {
+                        executeNext();
+                    }
+                }
+            });
+            if (active == null) {
+                executeNext();
+            }
+        }
+    }
+
+    private void executeNext() {
+        synchronized (waiting) {
+            active = waiting.poll();
+            if (active != null) {
+                workers.execute(active);
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        final IOException e = failure;
+        if (e != null) {
+            throw new IOException("A previous write operation failed", e);
+        }
+    }
+
+    private static synchronized Executor getSharedWorkers() {
+        if (sharedWorkers == null) {
+            final int numWorkers = Math.max(1, Integer.getInteger(NUM_WORKERS_PROPERTY,
+                                                                  Runtime.getRuntime().availableProcessors()));
+            sharedWorkers = new ThreadPoolExecutor(numWorkers, numWorkers, 60L, TimeUnit.SECONDS,
+                                                   new LinkedBlockingQueue<Runnable>(),
+                                                   createThreadFactory("LC write worker"));
+            // the workers are only needed while products are written
+            sharedWorkers.allowCoreThreadTimeOut(true);
+        }
+        return sharedWorkers;
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
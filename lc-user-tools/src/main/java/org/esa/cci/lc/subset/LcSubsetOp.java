@@ -2,6 +2,8 @@ package org.esa.cci.lc.subset;
 
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.cci.lc.io.*;
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.dataio.ProductWriter;
 import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.GPF;
@@ -13,10 +15,15 @@ import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.cci.lc.util.LcHelper;
 import org.esa.cci.lc.util.PlanetaryGridName;
+import org.esa.cci.lc.util.RunMetrics;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 
+import java.awt.Rectangle;
 import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @OperatorMetadata(
         alias = "LCCCI.Subset",
@@ -53,35 +60,108 @@ public class LcSubsetOp extends Operator {
             })
     private PredefinedRegion predefinedRegion;
 
+    @Parameter(description = "Further predefined regions which are subset in the same pass over the source product. " +
+            "Parts of the source covered by several regions are read only once.",
+            label = "Additional Predefined Regions")
+    private PredefinedRegion[] additionalRegions;
 
     // for test cases
     Product subsetProduct;
     boolean writeProduct = true;
     private File targetFile;
+    private String sourceId;
 
     @Override
     public void initialize() throws OperatorException {
         validateInputSettings();
         targetDir = LcHelper.ensureTargetDir(targetDir, getSourceProduct());
 
-        String id = createId();
+        final RegionSubset primarySubset = createRegionSubset(predefinedRegion);
+        subsetProduct = primarySubset.product;
+        if (targetFile == null) {
+            targetFile = primarySubset.targetFile;
+        }
 
-        if (isPredefinedRegionSet()) {
-            final PredefinedRegion r = predefinedRegion;
-            north = r.getNorth();
-            east = r.getEast();
-            south = r.getSouth();
-            west = r.getWest();
-            MetadataElement globalAttributes = getSourceProduct().getMetadataRoot().getElement(LcMapMetadata.GLOBAL_ATTRIBUTES_ELEMENT_NAME);
-            if (globalAttributes.getAttributeString("grid_name", "").startsWith("Regular gaussian grid")) {
+        if (writeProduct) {
+            final RunMetrics metrics = RunMetrics.start(getClass().getSimpleName() + "-" + getSourceProduct().getName());
+            try {
+                final Map<File, Product> writtenProducts = new LinkedHashMap<>();
+                final long startTime = metrics.startPhase();
+                if (additionalRegions == null || additionalRegions.length == 0) {
+                    GPF.writeProduct(subsetProduct, targetFile, primarySubset.formatName, false, ProgressMonitor.NULL);
+                    writtenProducts.put(targetFile, subsetProduct);
+                } else {
+                    final MultiRegionSubsetWriter subsetWriter = new MultiRegionSubsetWriter(getSourceProduct());
+                    subsetWriter.setLogger(getLogger());
+                    addRegionSubset(subsetWriter, primarySubset, targetFile);
+                    writtenProducts.put(targetFile, subsetProduct);
+                    for (PredefinedRegion additionalRegion : additionalRegions) {
+                        final RegionSubset regionSubset = createRegionSubset(additionalRegion);
+                        addRegionSubset(subsetWriter, regionSubset, regionSubset.targetFile);
+                        writtenProducts.put(regionSubset.targetFile, regionSubset.product);
+                    }
+                    try {
+                        subsetWriter.write();
+                    } catch (IOException e) {
+                        throw new OperatorException("Could not write regional subsets.", e);
+                    }
+                }
+                metrics.endPhase(RunMetrics.Phase.WRITE, startTime);
+                for (Product writtenProduct : writtenProducts.values()) {
+                    metrics.addWrittenProduct(writtenProduct);
+                }
+                writeMetricsReports(metrics, writtenProducts.keySet());
+            } finally {
+                metrics.close();
+            }
+        }
+        setTargetProduct(new Product("dummy", "dummyType", 10, 10));
+    }
+
+    /**
+     * Writes the metrics of the run next to each subset written.
+     */
+    private void writeMetricsReports(RunMetrics metrics, Iterable<File> files) {
+        for (File file : files) {
+            try {
+                getLogger().info("Run metrics written to " + metrics.writeReport(file));
+            } catch (IOException e) {
+                getLogger().warning("Could not write run metrics of " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the subset of the given predefined region, or of the user defined bounds if the region is null.
+     */
+    private RegionSubset createRegionSubset(PredefinedRegion region) {
+        final String regionIdentifier = getRegionIdentifier(region);
+        String id = createId(regionIdentifier);
+
+        float north;
+        float east;
+        float south;
+        float west;
+        if (region != null) {
+            north = region.getNorth();
+            east = region.getEast();
+            south = region.getSouth();
+            west = region.getWest();
+            if (isRegularGuassianGrid()) {
                 // shift only for predefined regions
                 east = (east + 360) % 360;
                 west = (west + 360) % 360;
             }
+        } else {
+            north = this.north;
+            east = this.east;
+            south = this.south;
+            west = this.west;
         }
 
-        subsetProduct = LcHelper.createProductSubset(getSourceProduct(), north, east, south, west, getRegionIdentifier());
-        subsetProduct.setPreferredTileSize(LcHelper.TILE_SIZE);
+        final Product subset = LcHelper.createProductSubset(getSourceProduct(), north, east, south, west, regionIdentifier);
+        subset.setPreferredTileSize(LcHelper.TILE_SIZE);
+        final Rectangle sourceRegion = LcHelper.getSubsetRegion(getSourceProduct(), north, east, south, west);
 
         updateIdMetadataAttribute(id);
         String formatName;
@@ -91,10 +171,10 @@ public class LcSubsetOp extends Operator {
         } else if (id.startsWith("ESACCI-LC-L4-WB-Map-")) {
             formatName = LcWbNetCdf4WriterPlugIn.FORMAT_NAME;
         } else if (id.startsWith("ESACCI-LC-L4-PFT")) {
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("parent_path", sourceProduct.getFileLocation().getAbsolutePath());
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("parent_path", sourceProduct.getFileLocation().getAbsolutePath());
             formatName = LcCdsNetCDF4WriterPlugin.FORMAT_NAME;
         } else if (id.startsWith("C3S-LC-L4-LCCS-Map")) {
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("parent_path", sourceProduct.getFileLocation().getAbsolutePath());
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("parent_path", sourceProduct.getFileLocation().getAbsolutePath());
             formatName = LcCdsNetCDF4WriterPlugin.FORMAT_NAME;
         }
         else {
@@ -102,23 +182,23 @@ public class LcSubsetOp extends Operator {
         }
         if (format.equals("lccds") || format.equals("lcpft")){
             formatName= LcCdsNetCDF4WriterPlugin.FORMAT_NAME;
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("parent_path", sourceProduct.getFileLocation().getAbsolutePath());
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lat_min", south.toString());
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lat_max", north.toString());
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lon_min", west.toString());
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lon_max", east.toString());
-            subsetProduct.getMetadataRoot().getElement("global_attributes").setAttributeString("subsetted", "true");
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("parent_path", sourceProduct.getFileLocation().getAbsolutePath());
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lat_min", String.valueOf(south));
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lat_max", String.valueOf(north));
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lon_min", String.valueOf(west));
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("geospatial_lon_max", String.valueOf(east));
+            subset.getMetadataRoot().getElement("global_attributes").setAttributeString("subsetted", "true");
 
         }
+        return new RegionSubset(subset, sourceRegion, formatName, new File(targetDir, id + ".nc"));
+    }
 
-        if (targetFile == null) {
-            targetFile = new File(targetDir, id + ".nc");
-        }
-
-        if (writeProduct) {
-            GPF.writeProduct(subsetProduct, targetFile, formatName, false, ProgressMonitor.NULL);
+    private void addRegionSubset(MultiRegionSubsetWriter subsetWriter, RegionSubset regionSubset, File file) {
+        final ProductWriter writer = ProductIO.getProductWriter(regionSubset.formatName);
+        if (writer == null) {
+            throw new OperatorException("No writer found for format " + regionSubset.formatName);
         }
-        setTargetProduct(new Product("dummy", "dummyType", 10, 10));
+        subsetWriter.addRegion(regionSubset.product, regionSubset.sourceRegion, writer, file);
     }
 
     private void validateInputSettings() {
@@ -136,6 +216,15 @@ public class LcSubsetOp extends Operator {
                 throw new OperatorException(String.format(msg, PlanetaryGridName.REGULAR_GAUSSIAN_GRID));
             }
         }
+        if (isRegularGuassianGrid() && additionalRegions != null) {
+            for (PredefinedRegion additionalRegion : additionalRegions) {
+                if (additionalRegion.getEast() > 0 && additionalRegion.getWest() < 0) {
+                    String msg = "The planetary grid '%s' can not be used in combination with the region '%s' " +
+                            "which crosses the prime meridian.";
+                    throw new OperatorException(String.format(msg, PlanetaryGridName.REGULAR_GAUSSIAN_GRID, additionalRegion));
+                }
+            }
+        }
 
     }
 
@@ -163,22 +252,30 @@ public class LcSubsetOp extends Operator {
         }
     }
 
-    private String createId() {
+    private String createId(String regionIdentifier) {
         MetadataElement metadataRoot = getSourceProduct().getMetadataRoot();
         if (metadataRoot.containsElement(LcMapMetadata.GLOBAL_ATTRIBUTES_ELEMENT_NAME)) {
             MetadataElement globalAttributes = metadataRoot.getElement(LcMapMetadata.GLOBAL_ATTRIBUTES_ELEMENT_NAME);
-            final String id = globalAttributes.getAttributeString("id");
+            if (sourceId == null) {
+                // the id of the source is replaced by the id of the subset, see updateIdMetadataAttribute()
+                sourceId = globalAttributes.getAttributeString("id");
+            }
+            final String id = sourceId;
             int p1 = id.lastIndexOf("-");
             int p2 = id.lastIndexOf("-", p1);
-            return id.substring(0, p2) + "-" + getRegionIdentifier() + id.substring(p2);
+            return id.substring(0, p2) + "-" + regionIdentifier + id.substring(p2);
         } else {
             throw new IllegalStateException("Missing metadata element " + LcMapMetadata.GLOBAL_ATTRIBUTES_ELEMENT_NAME);
         }
     }
 
     private String getRegionIdentifier() {
-        if (isPredefinedRegionSet()) {
-            return predefinedRegion.toString();
+        return getRegionIdentifier(predefinedRegion);
+    }
+
+    private static String getRegionIdentifier(PredefinedRegion region) {
+        if (region != null) {
+            return region.toString();
         } else {
             return "USER_REGION";
         }
@@ -212,6 +309,10 @@ public class LcSubsetOp extends Operator {
         this.predefinedRegion = predefinedRegion;
     }
 
+    public void setAdditionalRegions(PredefinedRegion... additionalRegions) {
+        this.additionalRegions = additionalRegions;
+    }
+
     private boolean isPredefinedRegionSet() {
         return predefinedRegion != null;
     }
@@ -235,6 +336,21 @@ public class LcSubsetOp extends Operator {
         return valid;
     }
 
+    private static class RegionSubset {
+
+        private final Product product;
+        private final Rectangle sourceRegion;
+        private final String formatName;
+        private final File targetFile;
+
+        private RegionSubset(Product product, Rectangle sourceRegion, String formatName, File targetFile) {
+            this.product = product;
+            this.sourceRegion = sourceRegion;
+            this.formatName = formatName;
+            this.targetFile = targetFile;
+        }
+    }
+
     /**
      * The Service Provider Interface (SPI) for the operator.
      * It provides operator meta-data and is a factory for new operator instances.
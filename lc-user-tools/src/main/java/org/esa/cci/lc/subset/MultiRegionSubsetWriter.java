@@ -0,0 +1,140 @@
+package org.esa.cci.lc.subset;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.ProductWriter;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.logging.BeamLogManager;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Writes several regional subsets of a source product in one pass over the source. The source bands are read in
+ * stripes of whole tile rows covering all regions, and every stripe is handed to all regions it intersects. Parts
+ * of the source covered by several regions are read only once.
+ */
+class MultiRegionSubsetWriter {
+
+    private final Product sourceProduct;
+    private final List<RegionSubset> regionSubsets;
+    private Logger logger;
+
+    MultiRegionSubsetWriter(Product sourceProduct) {
+        this.sourceProduct = sourceProduct;
+        regionSubsets = new ArrayList<>();
+        logger = BeamLogManager.getSystemLogger();
+    }
+
+    void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * @param subsetProduct the subset product, its bands must have the names of the source bands
+     * @param sourceRegion  the region of the source product the subset has been created from
+     * @param writer        the writer of the subset product
+     * @param targetFile    the file the subset product is written to
+     */
+    void addRegion(Product subsetProduct, Rectangle sourceRegion, ProductWriter writer, File targetFile) {
+        if (subsetProduct.getSceneRasterWidth() != sourceRegion.width
+            || subsetProduct.getSceneRasterHeight() != sourceRegion.height) {
+            throw new IllegalArgumentException("Size of subset product " + subsetProduct.getName() +
+                                               " does not match the source region " + sourceRegion);
+        }
+        regionSubsets.add(new RegionSubset(subsetProduct, sourceRegion, writer, targetFile));
+    }
+
+    void write() throws IOException {
+        if (regionSubsets.isEmpty()) {
+            return;
+        }
+        Rectangle unionRegion = null;
+        for (RegionSubset regionSubset : regionSubsets) {
+            unionRegion = unionRegion == null ? new Rectangle(regionSubset.sourceRegion) : unionRegion.union(regionSubset.sourceRegion);
+        }
+        final int stripeHeight = sourceProduct.getNumBands() > 0
+                                 ? Math.max(1, sourceProduct.getBandAt(0).getSourceImage().getTileHeight())
+                                 : unionRegion.height;
+        // stripes start at tile boundaries, so every source tile is computed once
+        final int firstStripeY = unionRegion.y / stripeHeight * stripeHeight;
+
+        boolean succeeded = false;
+        try {
+            for (RegionSubset regionSubset : regionSubsets) {
+                regionSubset.writer.writeProductNodes(regionSubset.subsetProduct, regionSubset.targetFile);
+            }
+            for (int stripeY = firstStripeY; stripeY < unionRegion.y + unionRegion.height; stripeY += stripeHeight) {
+                final Rectangle stripeRect = new Rectangle(unionRegion.x, stripeY, unionRegion.width, stripeHeight)
+                        .intersection(unionRegion);
+                for (Band sourceBand : sourceProduct.getBands()) {
+                    writeStripe(sourceBand, stripeRect);
+                }
+                logger.info(String.format("Written lines %d to %d of %d regional subsets",
+                                          stripeRect.y, stripeRect.y + stripeRect.height - 1, regionSubsets.size()));
+            }
+            for (RegionSubset regionSubset : regionSubsets) {
+                regionSubset.writer.flush();
+            }
+            succeeded = true;
+        } finally {
+            IOException closeException = null;
+            for (RegionSubset regionSubset : regionSubsets) {
+                try {
+                    regionSubset.writer.close();
+                } catch (IOException e) {
+                    if (closeException == null) {
+                        closeException = e;
+                    }
+                }
+            }
+            if (closeException != null && succeeded) {
+                throw closeException;
+            }
+        }
+    }
+
+    private void writeStripe(Band sourceBand, Rectangle stripeRect) throws IOException {
+        Raster stripe = null;
+        for (RegionSubset regionSubset : regionSubsets) {
+            final Band subsetBand = regionSubset.subsetProduct.getBand(sourceBand.getName());
+            if (subsetBand == null || !regionSubset.writer.shouldWrite(subsetBand)) {
+                continue;
+            }
+            final Rectangle part = stripeRect.intersection(regionSubset.sourceRegion);
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (stripe == null) {
+                stripe = sourceBand.getSourceImage().getData(stripeRect);
+            }
+            final ProductData data = ProductData.createInstance(subsetBand.getDataType(), part.width * part.height);
+            stripe.getDataElements(part.x, part.y, part.width, part.height, data.getElems());
+            regionSubset.writer.writeBandRasterData(subsetBand,
+                                                    part.x - regionSubset.sourceRegion.x,
+                                                    part.y - regionSubset.sourceRegion.y,
+                                                    part.width, part.height, data, ProgressMonitor.NULL);
+        }
+    }
+
+    private static class RegionSubset {
+
+        private final Product subsetProduct;
+        private final Rectangle sourceRegion;
+        private final ProductWriter writer;
+        private final File targetFile;
+
+        private RegionSubset(Product subsetProduct, Rectangle sourceRegion, ProductWriter writer, File targetFile) {
+            this.subsetProduct = subsetProduct;
+            this.sourceRegion = sourceRegion;
+            this.writer = writer;
+            this.targetFile = targetFile;
+        }
+    }
+}
@@ -6,16 +6,17 @@ import org.esa.snap.core.datamodel.PixelPos;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.GPF;
 import org.esa.snap.core.gpf.OperatorException;
+import org.esa.cci.lc.aggregation.CompiledPftLut;
 import org.esa.cci.lc.aggregation.Lccs2PftLut;
-import org.esa.cci.lc.aggregation.Lccs2PftLutBuilder;
 import org.esa.cci.lc.aggregation.Lccs2PftLutException;
 import org.esa.cci.lc.io.LcWriterUtils;
 
 import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.HashMap;
 
 public class LcHelper {
@@ -50,9 +51,7 @@ public class LcHelper {
     }
 
     public static Product createProductSubset(Product product, double north, double east, double south, double west, String regionIdentifier) {
-        Rectangle pixelRect = getPixelBounds(north, east, south, west, product.getSceneGeoCoding());
-        Rectangle productRect = new Rectangle(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
-        pixelRect = pixelRect.intersection(productRect);
+        final Rectangle pixelRect = getSubsetRegion(product, north, east, south, west);
         final HashMap<String, Object> parameters = new HashMap<>();
         parameters.put("region", pixelRect);
         parameters.put("copyMetadata", true);
@@ -68,6 +67,16 @@ public class LcHelper {
         return subset;
     }
 
+    /**
+     * @return the pixel region of the product covered by the given bounds, as used by
+     * {@link #createProductSubset(Product, double, double, double, double, String)}
+     */
+    public static Rectangle getSubsetRegion(Product product, double north, double east, double south, double west) {
+        final Rectangle pixelRect = getPixelBounds(north, east, south, west, product.getSceneGeoCoding());
+        final Rectangle productRect = new Rectangle(0, 0, product.getSceneRasterWidth(), product.getSceneRasterHeight());
+        return pixelRect.intersection(productRect);
+    }
+
     private static Rectangle getPixelBounds(double north, double east, double south, double west, GeoCoding geoCoding) {
         final GeoPos ulGePo = new GeoPos((float) north, (float) west);
         final GeoPos lrGePo = new GeoPos((float) south, (float) east);
@@ -105,22 +114,20 @@ public class LcHelper {
     public static void addPFTTableInfoToLcProperties(HashMap<String, String> lcProperties, boolean outputPFTClasses, File userPFTConversionTable, File additionalUserMapPFTConversionTable) {
         if (outputPFTClasses) {
             try {
-                // lutBuilder only used to read the comment of table.
-                Lccs2PftLutBuilder lutBuilder = new Lccs2PftLutBuilder();
                 String pftTableEntry;
                 if (userPFTConversionTable != null) {
                     pftTableEntry = String.format("User defined PFT conversion table used (%s)",
                                                   userPFTConversionTable.getName());
-                    lutBuilder = lutBuilder.useLccs2PftTable(new FileReader(userPFTConversionTable));
                 } else {
                     pftTableEntry = "LC-CCI conform PFT conversion table";
                 }
                 if (additionalUserMapPFTConversionTable != null) {
                     pftTableEntry += String.format(" + additional user map PFT conversion table (%s)",
                                                    additionalUserMapPFTConversionTable.getName());
-                    lutBuilder = lutBuilder.useAdditionalUserMap(new FileReader(additionalUserMapPFTConversionTable));
                 }
-                Lccs2PftLut pftLut = lutBuilder.create();
+                // the look-up table is cached, so the tables are not read again by the operators
+                Lccs2PftLut pftLut = CompiledPftLut.getInstance(toUrl(userPFTConversionTable),
+                                                                toUrl(additionalUserMapPFTConversionTable), 1.0f);
                 if (pftLut.getComment() != null) {
                     lcProperties.put("pft_table_comment", pftLut.getComment());
                 }
@@ -136,6 +143,10 @@ public class LcHelper {
         }
     }
 
+    private static URL toUrl(File file) throws MalformedURLException {
+        return file != null ? file.toURI().toURL() : null;
+    }
+
     public static Dimension convertToDimension(String tileSizeString) {
         if (tileSizeString == null || !tileSizeString.contains(":") || tileSizeString.split(":").length != 2) {
             String msg = String.format("Not able to convert missing or invalid value (%s)", tileSizeString);
@@ -5,7 +5,7 @@ package org.esa.cci.lc.util;
  */
 public enum PlanetaryGridName {
     REGULAR_GAUSSIAN_GRID,
-    //    REDUCED_GAUSSIAN_GRID,
+    REDUCED_GAUSSIAN_GRID,
     GEOGRAPHIC_LAT_LON,
 //    ROTATED_LAT_LON
 
@@ -0,0 +1,391 @@
+package org.esa.cci.lc.util;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.FileUtils;
+import org.esa.snap.core.util.logging.BeamLogManager;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.media.jai.CacheDiagnostics;
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Performance counters of a run of an LC operator: the time spent in the phases of the run, the number of source
+ * pixels, bins and bytes written, the hit rate of the JAI tile cache and the peak heap usage. The counters are
+ * {@link LongAdder}s, so they can be updated by many threads without locking.
+ * <p>
+ * A run started by {@link #start(String)} is registered as MXBean named {@value #OBJECT_NAME_PREFIX}&lt;run name&gt;
+ * until it is closed, so its counters can be watched with any JMX console while the run is in progress. At the end
+ * of the run, {@link #writeReport(File)} writes the counters as JSON file next to the output product.
+ * <p>
+ * The phase times are summed over all threads, so they can exceed the elapsed time. The decoding of the source data
+ * is done by the readers and counted as read time, the compression of the NetCDF4 chunks is done while they are
+ * written and counted as write time. Operators which write their target with a {@code WriteOp} count the whole
+ * write as write time, including the computation of the target data pulled by the writer.
+ * <p>
+ * The JAI tile cache only counts hits and misses while its diagnostics are enabled, which is a setting of the whole
+ * JVM. It is left untouched unless the system property {@value #TILE_CACHE_DIAGNOSTICS_PROPERTY} is set to
+ * {@code true}, then the diagnostics are enabled while a started run is open and disabled again when the last open
+ * run is closed. The tile cache figures are only written to the report of a run with enabled diagnostics.
+ */
+public class RunMetrics implements RunMetricsMXBean, Closeable {
+
+    public enum Phase {
+        READ,
+        PROCESS,
+        WRITE
+    }
+
+    static final String OBJECT_NAME_PREFIX = "org.esa.cci.lc:type=RunMetrics,name=";
+    static final String REPORT_EXTENSION = ".metrics.json";
+    static final String TILE_CACHE_DIAGNOSTICS_PROPERTY = "lc.metrics.tileCacheDiagnostics";
+
+    private static final Object DIAGNOSTICS_LOCK = new Object();
+    private static int numDiagnosticRuns;
+
+    private static final double NANOS_PER_SECOND = 1.0e9;
+
+    private final String runName;
+    private final long startNanos;
+    private final LongAdder[] phaseNanos;
+    private final LongAdder pixels;
+    private final LongAdder bins;
+    private final LongAdder bytesWritten;
+    private final long tileCacheHitsAtStart;
+    private final long tileCacheMissesAtStart;
+    private volatile long endNanos;
+    private ObjectName objectName;
+    private boolean diagnosticsEnabled;
+
+    /**
+     * Creates the counters of a run which is neither registered over JMX nor resets the peak heap usage. Used by
+     * components which are instrumented but may run without a {@link #start(String) started} run.
+     */
+    public RunMetrics(String runName) {
+        this.runName = runName;
+        phaseNanos = new LongAdder[Phase.values().length];
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+        pixels = new LongAdder();
+        bins = new LongAdder();
+        bytesWritten = new LongAdder();
+        final CacheDiagnostics cacheDiagnostics = getCacheDiagnostics();
+        tileCacheHitsAtStart = cacheDiagnostics != null ? cacheDiagnostics.getCacheHitCount() : 0;
+        tileCacheMissesAtStart = cacheDiagnostics != null ? cacheDiagnostics.getCacheMissCount() : 0;
+        endNanos = -1;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts a run: the peak heap usage is reset and the counters are registered over JMX.
+     */
+    public static RunMetrics start(String runName) {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+        final boolean diagnosticsEnabled = Boolean.parseBoolean(System.getProperty(TILE_CACHE_DIAGNOSTICS_PROPERTY)) &&
+                                           enableTileCacheDiagnostics();
+        final RunMetrics metrics = new RunMetrics(runName);
+        metrics.diagnosticsEnabled = diagnosticsEnabled;
+        metrics.register();
+        return metrics;
+    }
+
+    /**
+     * @return the start time of a phase, to be passed to {@link #endPhase(Phase, long)}
+     */
+    public long startPhase() {
+        return System.nanoTime();
+    }
+
+    public void endPhase(Phase phase, long startTime) {
+        phaseNanos[phase.ordinal()].add(System.nanoTime() - startTime);
+    }
+
+    public void addPixels(long numPixels) {
+        pixels.add(numPixels);
+    }
+
+    public void addBins(long numBins) {
+        bins.add(numBins);
+    }
+
+    /**
+     * Counts the uncompressed bytes of raster data handed to a writer.
+     */
+    public void addBytesWritten(long numBytes) {
+        bytesWritten.add(numBytes);
+    }
+
+    /**
+     * Counts the pixels and the uncompressed raster bytes of all bands of a product written at once.
+     */
+    public void addWrittenProduct(Product product) {
+        final long numPixels = (long) product.getSceneRasterWidth() * product.getSceneRasterHeight();
+        addPixels(numPixels);
+        for (Band band : product.getBands()) {
+            final long bandPixels = (long) band.getRasterWidth() * band.getRasterHeight();
+            addBytesWritten(bandPixels * ProductData.getElemSize(band.getDataType()));
+        }
+    }
+
+    /**
+     * Stops the elapsed time.
+     */
+    public void finish() {
+        if (endNanos < 0) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Finishes the run and writes the counters as JSON file next to the given output product.
+     *
+     * @return the report file
+     */
+    public File writeReport(File outputFile) throws IOException {
+        finish();
+        final File reportFile = getReportFile(outputFile);
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(reportFile.toPath()), StandardCharsets.UTF_8)) {
+            writer.write(toJson(outputFile));
+        }
+        return reportFile;
+    }
+
+    static File getReportFile(File outputFile) {
+        return new File(outputFile.getAbsoluteFile().getParentFile(),
+                        FileUtils.getFilenameWithoutExtension(outputFile) + REPORT_EXTENSION);
+    }
+
+    /**
+     * Finishes the run and removes its registration over JMX.
+     */
+    @Override
+    public void close() {
+        finish();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                BeamLogManager.getSystemLogger().warning("Could not unregister run metrics " + objectName + ": " + e.getMessage());
+            }
+            objectName = null;
+        }
+        if (diagnosticsEnabled) {
+            diagnosticsEnabled = false;
+            disableTileCacheDiagnostics();
+        }
+    }
+
+    @Override
+    public String getRunName() {
+        return runName;
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        final long end = endNanos >= 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / NANOS_PER_SECOND;
+    }
+
+    @Override
+    public double getReadSeconds() {
+        return getPhaseSeconds(Phase.READ);
+    }
+
+    @Override
+    public double getProcessSeconds() {
+        return getPhaseSeconds(Phase.PROCESS);
+    }
+
+    @Override
+    public double getWriteSeconds() {
+        return getPhaseSeconds(Phase.WRITE);
+    }
+
+    public double getPhaseSeconds(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum() / NANOS_PER_SECOND;
+    }
+
+    @Override
+    public long getPixels() {
+        return pixels.sum();
+    }
+
+    @Override
+    public double getPixelsPerSecond() {
+        return perSecond(getPixels());
+    }
+
+    @Override
+    public long getBins() {
+        return bins.sum();
+    }
+
+    @Override
+    public double getBinsPerSecond() {
+        return perSecond(getBins());
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getTileCacheHits() {
+        final CacheDiagnostics cacheDiagnostics = getCacheDiagnostics();
+        return cacheDiagnostics != null ? cacheDiagnostics.getCacheHitCount() - tileCacheHitsAtStart : 0;
+    }
+
+    @Override
+    public long getTileCacheMisses() {
+        final CacheDiagnostics cacheDiagnostics = getCacheDiagnostics();
+        return cacheDiagnostics != null ? cacheDiagnostics.getCacheMissCount() - tileCacheMissesAtStart : 0;
+    }
+
+    /**
+     * @return the ratio of tile cache hits to all tile requests, or NaN if there has been no request
+     */
+    @Override
+    public double getTileCacheHitRate() {
+        final long hits = getTileCacheHits();
+        final long requests = hits + getTileCacheMisses();
+        return requests > 0 ? (double) hits / requests : Double.NaN;
+    }
+
+    /**
+     * @return the sum of the peak usages of the heap memory pools since the start of the run
+     */
+    @Override
+    public long getPeakHeapBytes() {
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.getPeakUsage() != null) {
+                peakHeapBytes += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peakHeapBytes;
+    }
+
+    String toJson(File outputFile) {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        appendString(json, "run", runName).append(",\n");
+        appendString(json, "product", outputFile.getPath()).append(",\n");
+        appendNumber(json, "elapsedSeconds", getElapsedSeconds()).append(",\n");
+        json.append("  \"phaseSeconds\": {");
+        for (Phase phase : Phase.values()) {
+            json.append(phase.ordinal() > 0 ? ", " : "");
+            json.append('"').append(phase.name().toLowerCase(Locale.ENGLISH)).append("\": ");
+            json.append(formatNumber(getPhaseSeconds(phase)));
+        }
+        json.append("},\n");
+        appendNumber(json, "pixels", getPixels()).append(",\n");
+        appendNumber(json, "pixelsPerSecond", getPixelsPerSecond()).append(",\n");
+        appendNumber(json, "bins", getBins()).append(",\n");
+        appendNumber(json, "binsPerSecond", getBinsPerSecond()).append(",\n");
+        appendNumber(json, "bytesWritten", getBytesWritten()).append(",\n");
+        appendNumber(json, "outputFileBytes", outputFile.isFile() ? outputFile.length() : 0).append(",\n");
+        if (diagnosticsEnabled) {
+            // without diagnostics the tile cache does not count, so its figures would be meaningless
+            appendNumber(json, "tileCacheHits", getTileCacheHits()).append(",\n");
+            appendNumber(json, "tileCacheMisses", getTileCacheMisses()).append(",\n");
+            appendNumber(json, "tileCacheHitRate", getTileCacheHitRate()).append(",\n");
+        }
+        appendNumber(json, "peakHeapBytes", getPeakHeapBytes()).append("\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private void register() {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(runName));
+            mBeanServer.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            // the run works as well without JMX, e.g. if another run of the same name is in progress
+            BeamLogManager.getSystemLogger().warning("Could not register run metrics of " + runName + ": " + e.getMessage());
+        }
+    }
+
+    private double perSecond(long count) {
+        final double elapsedSeconds = getElapsedSeconds();
+        return elapsedSeconds > 0 ? count / elapsedSeconds : Double.NaN;
+    }
+
+    private static boolean enableTileCacheDiagnostics() {
+        final CacheDiagnostics cacheDiagnostics = getCacheDiagnostics();
+        if (cacheDiagnostics == null) {
+            return false;
+        }
+        synchronized (DIAGNOSTICS_LOCK) {
+            if (numDiagnosticRuns++ == 0) {
+                cacheDiagnostics.enableDiagnostics();
+            }
+        }
+        return true;
+    }
+
+    private static void disableTileCacheDiagnostics() {
+        final CacheDiagnostics cacheDiagnostics = getCacheDiagnostics();
+        synchronized (DIAGNOSTICS_LOCK) {
+            if (--numDiagnosticRuns == 0 && cacheDiagnostics != null) {
+                cacheDiagnostics.disableDiagnostics();
+            }
+        }
+    }
+
+    private static CacheDiagnostics getCacheDiagnostics() {
+        final TileCache tileCache = JAI.getDefaultInstance().getTileCache();
+        return tileCache instanceof CacheDiagnostics ? (CacheDiagnostics) tileCache : null;
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String name, String value) {
+        json.append("  \"").append(name).append("\": \"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    private static StringBuilder appendNumber(StringBuilder json, String name, double value) {
+        return json.append("  \"").append(name).append("\": ").append(formatNumber(value));
+    }
+
+    private static StringBuilder appendNumber(StringBuilder json, String name, long value) {
+        return json.append("  \"").append(name).append("\": ").append(value);
+    }
+
+    private static String formatNumber(double value) {
+        // JSON has no representation of NaN
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.ENGLISH, "%.3f", value);
+    }
+}
@@ -0,0 +1,35 @@
+package org.esa.cci.lc.util;
+
+/**
+ * The counters of a {@link RunMetrics} as exposed over JMX while the run is in progress.
+ */
+public interface RunMetricsMXBean {
+
+    String getRunName();
+
+    double getElapsedSeconds();
+
+    double getReadSeconds();
+
+    double getProcessSeconds();
+
+    double getWriteSeconds();
+
+    long getPixels();
+
+    double getPixelsPerSecond();
+
+    long getBins();
+
+    double getBinsPerSecond();
+
+    long getBytesWritten();
+
+    long getTileCacheHits();
+
+    long getTileCacheMisses();
+
+    double getTileCacheHitRate();
+
+    long getPeakHeapBytes();
+}
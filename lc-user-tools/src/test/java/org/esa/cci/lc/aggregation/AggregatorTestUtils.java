@@ -1,8 +1,12 @@
 package org.esa.cci.lc.aggregation;
 
+import org.esa.snap.binning.Aggregator;
 import org.esa.snap.binning.BinContext;
 import org.esa.snap.binning.Observation;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.VariableContext;
 import org.esa.snap.binning.support.ObservationImpl;
+import org.esa.snap.binning.support.VariableContextImpl;
 import org.esa.snap.binning.support.VectorImpl;
 
 import java.util.HashMap;
@@ -21,6 +25,48 @@ public class AggregatorTestUtils {
         return new ObservationImpl(lat, lon, 0.0, values);
     }
 
+    public static AreaCalculator createAreaCalculator(boolean regularGrid, PlanetaryGrid planetaryGrid, double mapResolution) {
+        if (regularGrid) {
+            return new RegularGridAreaCalculator(planetaryGrid, mapResolution, mapResolution);
+        }
+        return new FractionalAreaCalculator(planetaryGrid, mapResolution, mapResolution);
+    }
+
+    public static Aggregator createMapAggregator(AreaCalculator areaCalculator) {
+        final LcMapAggregatorConfig config = new LcMapAggregatorConfig(true, 5, true, null, null, false, null, areaCalculator);
+        return new LcMapAggregatorDescriptor().createAggregator(new VariableContextImpl(), config);
+    }
+
+    public static Aggregator createAccuracyAggregator(VariableContext varCtx, String sourceVarName, int rowRatio,
+                                                      int maxHistogramValue) {
+        final LcAccuracyAggregatorConfig config = new LcAccuracyAggregatorConfig(sourceVarName, "confidence", rowRatio,
+                                                                                 maxHistogramValue);
+        return new LcAccuracyAggregatorDescriptor().createAggregator(varCtx, config);
+    }
+
+    public static Aggregator createMajorityAggregator(VariableContext varCtx, String sourceVarName, int rowRatio,
+                                                      int maxHistogramValue) {
+        final LcMajorityAggregatorConfig config = new LcMajorityAggregatorConfig(sourceVarName, sourceVarName, rowRatio,
+                                                                                 maxHistogramValue);
+        return new LcMajorityAggregatorDescriptor().createAggregator(varCtx, config);
+    }
+
+    public static Aggregator createPftAggregator(VariableContext varCtx, String varName) {
+        return new LcPftAggregator(varCtx, varName, 1.0);
+    }
+
+    public static Aggregator createPftMultiAggregator(VariableContext varCtx, String[] varNames) {
+        return new LcPftMultiAggregatorDescriptor().createAggregator(varCtx, new LcPftMultiAggregatorConfig(varNames, 1.0));
+    }
+
+    public static Aggregator createNdviAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames) {
+        return new LcNDVIAggregator(varCtx, sourceVarNames, targetVarNames);
+    }
+
+    public static Aggregator createCondOccAggregator(VariableContext varCtx, String[] sourceVarNames, String[] targetVarNames) {
+        return new LcCondOccAggregator(varCtx, sourceVarNames, targetVarNames);
+    }
+
     public static BinContext createCtx() {
         return new BinContext() {
             private HashMap map = new HashMap();
@@ -0,0 +1,71 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BoundedValueCounterTest {
+
+    @Test
+    public void testSameResultsAsSorting_BoundedValues() throws Exception {
+        final Random random = new Random(42);
+        final BoundedValueCounter counter = new BoundedValueCounter(100, 4);
+        for (int run = 0; run < 500; run++) {
+            final float[] values = new float[random.nextInt(40)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(run % 2 == 0 ? 101 : 5);
+            }
+            assertSameResults(counter, values);
+        }
+    }
+
+    @Test
+    public void testSameResultsAsSorting_UnboundedValues() throws Exception {
+        final BoundedValueCounter counter = new BoundedValueCounter(100, 4);
+        // values beyond the histogram range or fractional values are sorted
+        assertSameResults(counter, new float[]{3, 3, 101, 7, 7, 120});
+        assertSameResults(counter, new float[]{12.5f, 3, 3});
+        assertSameResults(counter, new float[]{3, 2, -1, 2, 1, -1});
+        assertSameResults(counter, new float[]{3, 2, Float.NaN, 2});
+        // a counter without histogram
+        assertSameResults(new BoundedValueCounter(-1, 4), new float[]{5, 5, 1, 2, 5, 1, 1});
+    }
+
+    @Test
+    public void testNoValues() throws Exception {
+        final BoundedValueCounter counter = new BoundedValueCounter(100, 4);
+        assertEquals(Float.NaN, counter.computeMedian(), 0.0f);
+        assertEquals(Float.NaN, counter.computeMajority(), 0.0f);
+    }
+
+    @Test
+    public void testGetMaxHistogramValue() throws Exception {
+        assertEquals(BoundedValueCounter.MAX_HISTOGRAM_VALUE,
+                     BoundedValueCounter.getMaxHistogramValue(new Band("b", ProductData.TYPE_UINT8, 1, 1)));
+        assertEquals(BoundedValueCounter.MAX_HISTOGRAM_VALUE,
+                     BoundedValueCounter.getMaxHistogramValue(new Band("b", ProductData.TYPE_INT16, 1, 1)));
+        assertEquals(-1, BoundedValueCounter.getMaxHistogramValue(new Band("b", ProductData.TYPE_FLOAT32, 1, 1)));
+        final Band scaledBand = new Band("b", ProductData.TYPE_UINT8, 1, 1);
+        scaledBand.setScalingFactor(0.5);
+        assertEquals(-1, BoundedValueCounter.getMaxHistogramValue(scaledBand));
+        assertEquals(-1, BoundedValueCounter.getMaxHistogramValue(null));
+    }
+
+    private static void assertSameResults(BoundedValueCounter counter, float[] values) {
+        final String message = Arrays.toString(values);
+        counter.reset();
+        for (float value : values) {
+            counter.add(value);
+        }
+        assertEquals(values.length, counter.getNumValues());
+        final float expectedMedian = LcAccuracyAggregator.computeMedian(values.clone(), values.length);
+        final float expectedMajority = LcMajorityAggregator.computeMajority(values.clone(), values.length);
+        assertEquals(message, expectedMedian, counter.computeMedian(), 0.0f);
+        assertEquals(message, expectedMajority, counter.computeMajority(), 0.0f);
+    }
+}
@@ -0,0 +1,81 @@
+package org.esa.cci.lc.aggregation;
+
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.net.URL;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CompiledPftLutTest {
+
+    private static final URL ADDITIONAL_TABLE = CompiledPftLutTest.class.getResource("TEST_LCCS2PFT_KG_ADDITIONAL.csv");
+
+    @Test
+    public void testSameFactorsAsDefaultLut() throws Exception {
+        Lccs2PftLut expectedLut = new Lccs2PftLutBuilder().create();
+        CompiledPftLut compiledLut = CompiledPftLut.getInstance(null, null, 1.0f);
+
+        assertEquals(expectedLut.getComment(), compiledLut.getComment());
+        assertArrayEquals(expectedLut.getPFTNames(), compiledLut.getPFTNames());
+        assertEquals(expectedLut.getPFTNames().length, compiledLut.getNumPFTs());
+        for (int classValue : LCCS.getInstance().getClassValues()) {
+            final float[] expectedFactors = expectedLut.getConversionFactors(classValue);
+            assertArrayEquals(expectedFactors, compiledLut.getConversionFactors(classValue), 0.0f);
+            assertArrayEquals(expectedFactors, compiledLut.getFactors(compiledLut.getClassIndex(classValue), 21), 0.0f);
+        }
+    }
+
+    @Test
+    public void testSameFactorsAsAdditionalUserMapLut() throws Exception {
+        Lccs2PftLut expectedLut = new Lccs2PftLutBuilder()
+                .useAdditionalUserMap(new InputStreamReader(ADDITIONAL_TABLE.openStream()))
+                .create();
+        CompiledPftLut compiledLut = CompiledPftLut.getInstance(null, ADDITIONAL_TABLE, 1.0f);
+
+        assertEquals(expectedLut.getComment(), compiledLut.getComment());
+        int[] userClasses = {Integer.MIN_VALUE, -1, 0, 12, 21, 31, 1000};
+        for (int classValue : LCCS.getInstance().getClassValues()) {
+            final int classIndex = compiledLut.getClassIndex(classValue);
+            for (int userClass : userClasses) {
+                final float[] expectedFactors = expectedLut.getConversionFactors(classValue, userClass);
+                assertArrayEquals(expectedFactors, compiledLut.getConversionFactors(classValue, userClass), 0.0f);
+                assertArrayEquals(expectedFactors, compiledLut.getFactors(classIndex, userClass), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testScaledInstance() throws Exception {
+        CompiledPftLut unscaledLut = CompiledPftLut.getInstance(null, ADDITIONAL_TABLE, 1.0f);
+        CompiledPftLut scaledLut = CompiledPftLut.getInstance(null, ADDITIONAL_TABLE, 1 / 100.0f);
+        Lccs2PftLut expectedLut = new Lccs2PftLutBuilder()
+                .useScaleFactor(1 / 100.0f)
+                .useAdditionalUserMap(new InputStreamReader(ADDITIONAL_TABLE.openStream()))
+                .create();
+
+        assertNotSame(unscaledLut, scaledLut);
+        for (int classValue : LCCS.getInstance().getClassValues()) {
+            assertArrayEquals(expectedLut.getConversionFactors(classValue, 31),
+                              scaledLut.getConversionFactors(classValue, 31), 0.0f);
+        }
+    }
+
+    @Test
+    public void testInstancesAreCached() throws Exception {
+        assertSame(CompiledPftLut.getInstance(null, null, 1.0f), CompiledPftLut.getInstance(null, null, 1.0f));
+        assertSame(CompiledPftLut.getInstance(null, null, 0.01f), CompiledPftLut.getInstance(null, null, 0.01f));
+        assertNotSame(CompiledPftLut.getInstance(null, null, 1.0f), CompiledPftLut.getInstance(null, ADDITIONAL_TABLE, 1.0f));
+    }
+
+    @Test
+    public void testUnknownClassIsMappedToNoData() throws Exception {
+        CompiledPftLut compiledLut = CompiledPftLut.getInstance(null, null, 1.0f);
+        assertEquals(0, compiledLut.getClassIndex(-5));
+        assertEquals(0, compiledLut.getClassIndex(13));
+        assertEquals(0, compiledLut.getClassIndex(300));
+    }
+}
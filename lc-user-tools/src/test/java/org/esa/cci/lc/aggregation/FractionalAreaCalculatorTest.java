@@ -1,6 +1,7 @@
 package org.esa.cci.lc.aggregation;
 
 import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.ReducedGaussianGrid;
 import org.esa.snap.binning.support.RegularGaussianGrid;
 import org.esa.snap.binning.support.SEAGrid;
 import org.junit.Test;
@@ -80,6 +81,24 @@ public class FractionalAreaCalculatorTest {
         assertEquals(Math.pow(320.0 / 129600.0, 2.0), fraction, 1.0e-6);
     }
 
+    @Test
+    public void testCalculate_ReducedGaussianGrid() throws Exception {
+        PlanetaryGrid reducedGrid = new ReducedGaussianGrid(320);
+        PlanetaryGrid regularGrid = new RegularGaussianGrid(320);
+        AreaCalculator reducedCalculator = new FractionalAreaCalculator(reducedGrid, 129600, 64800);
+        AreaCalculator regularCalculator = new FractionalAreaCalculator(regularGrid, 129600, 64800);
+
+        // rows have the same latitude bounds, but the reduced rows have less and therefore wider cells
+        double[] lats = {0.1, 45.3, 60.2, -75.7, 89.5};
+        for (double lat : lats) {
+            final int row = reducedGrid.getRowIndex(reducedGrid.getBinIndex(lat, 10.4));
+            final double reducedFraction = calcFractionForLonLat(10.4, lat, reducedGrid, reducedCalculator);
+            final double regularFraction = calcFractionForLonLat(10.4, lat, regularGrid, regularCalculator);
+            final double cellWidthRatio = (double) reducedGrid.getNumCols(row) / regularGrid.getNumCols(row);
+            assertEquals("lat " + lat, regularFraction * cellWidthRatio, reducedFraction, 1.0e-9);
+        }
+    }
+
     @Test
     public void testFractionCalculation() throws Exception {
 
@@ -59,4 +59,26 @@ public class LCCSTest {
         assertEquals("tree_or_shrub_cover", flagMeanings[3]);
         assertEquals("mosaic_cropland", flagMeanings[5]);
     }
+
+    @Test
+    public void testClassIndexLookup() throws Exception {
+        final String TEST_STRING = "0 | No data | no_data\n" +
+                                   "10 | Cropland | cropland\n" +
+                                   "170 | Mosaic cropland | mosaic_cropland\n" +
+                                   "220 | Mosaic natural vegetation | mosaic_natural";
+        LCCS lccs = LCCS.load(new StringReader(TEST_STRING));
+
+        assertEquals(1, lccs.getClassIndex(10));
+        assertEquals(3, lccs.getClassIndex(220));
+        assertEquals(170, lccs.getClassValue(2));
+        // unknown values are mapped to no-data
+        assertEquals(0, lccs.getClassIndex(11));
+        assertEquals(0, lccs.getClassIndex(-1));
+        assertEquals(0, lccs.getClassIndex(1000));
+
+        int[] classIndexLut = lccs.getClassIndexLut();
+        assertEquals(256, classIndexLut.length);
+        assertEquals(2, classIndexLut[170]);
+        assertEquals(0, classIndexLut[255]);
+    }
 }
@@ -117,6 +117,34 @@ public class LcAccuracyAggregatorTest {
         assertThat(elements[0], is(2.6f));
     }
 
+    @Test
+    public void testThatHistogramOfBoundedValuesResolvesTo_TheSameMedianAsSorting() {
+        // preparation
+        final VariableContextImpl varCtx = new VariableContextImpl();
+        varCtx.defineVariable("name");
+        final LcAccuracyAggregator histogramAggregator = new LcAccuracyAggregator(varCtx, new String[]{"name"}, new String[]{"confidence"}, 8, 100);
+        final float[] evenObservations = {90f, 10f, 55f, 40f};
+        final float[] oddObservations = {100f, 0f, 55f, 55f, 101f};
+        final SpatialBin otherBin = new SpatialBin();
+        final float[] otherElements = new float[1];
+
+        // execution, the bins are open at the same time
+        histogramAggregator.initSpatial(spatialBin, new VectorImpl(elements));
+        histogramAggregator.initSpatial(otherBin, new VectorImpl(otherElements));
+        for (int i = 0; i < oddObservations.length; i++) {
+            if (i < evenObservations.length) {
+                histogramAggregator.aggregateSpatial(spatialBin, new ObservationImpl(latitude, longitude, mjd, evenObservations[i]), new VectorImpl(elements));
+            }
+            histogramAggregator.aggregateSpatial(otherBin, new ObservationImpl(latitude, longitude, mjd, oddObservations[i]), new VectorImpl(otherElements));
+        }
+        histogramAggregator.completeSpatial(spatialBin, 0, new VectorImpl(elements));
+        histogramAggregator.completeSpatial(otherBin, 0, new VectorImpl(otherElements));
+
+        //validation
+        assertThat(elements[0], is(47.5f));
+        assertThat(otherElements[0], is(55f));
+    }
+
     @Test
     public void testThatTemporalAggregationAndComputeOutputDoesNotChangeTheSpatialResult() {
         // preparation
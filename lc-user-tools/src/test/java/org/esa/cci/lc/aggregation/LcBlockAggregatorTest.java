@@ -0,0 +1,227 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.operator.BinWriter;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.RegularGaussianGrid;
+import org.esa.snap.binning.support.VariableContextImpl;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LcBlockAggregatorTest {
+
+    private static final LCCS LCCS_CLASSES = LCCS.getInstance();
+
+    private PlanetaryGrid planetaryGrid;
+    private LcMapAggregator mapAggregator;
+    private int[] classIndexLut;
+
+    @Before
+    public void setUp() throws Exception {
+        // 10 degree cells
+        planetaryGrid = new PlateCarreeGrid(18);
+        LcMapAggregatorConfig config = new LcMapAggregatorConfig(true, 1, false, null, null, false, null, null);
+        mapAggregator = (LcMapAggregator) new LcMapAggregatorDescriptor().createAggregator(new VariableContextImpl(), config);
+        classIndexLut = LCCS_CLASSES.getClassIndexLut();
+    }
+
+    @Test
+    public void testIsApplicable() throws Exception {
+        Product product = createProduct(360, 180, -180.0, 90.0);
+        assertTrue(LcBlockAggregator.isApplicable(product, planetaryGrid));
+        assertFalse(LcBlockAggregator.isApplicable(product, new RegularGaussianGrid(64)));
+        // regional product aligned to the global raster
+        assertTrue(LcBlockAggregator.isApplicable(createProduct(40, 20, 10.0, 50.0), planetaryGrid));
+        // regional product not aligned to the global raster
+        assertFalse(LcBlockAggregator.isApplicable(createProduct(40, 20, 10.25, 50.0), planetaryGrid));
+        // product without geo-coding
+        assertFalse(LcBlockAggregator.isApplicable(new Product("P", "T", 360, 180), planetaryGrid));
+    }
+
+    @Test
+    public void testAggregate_Global() throws Exception {
+        Product product = createProduct(360, 180, -180.0, 90.0);
+        LcBlockAggregator blockAggregator = new LcBlockAggregator(product, planetaryGrid, "lccs_class",
+                                                                  mapAggregator, classIndexLut, 0);
+        CollectingBinWriter binWriter = new CollectingBinWriter();
+        blockAggregator.aggregate(binWriter, null);
+
+        assertEquals(planetaryGrid.getNumBins(), binWriter.bins.size());
+        assertCell(binWriter.bins, 45.0, -175.0, 10);
+        assertCell(binWriter.bins, -45.0, -5.0, 10);
+        assertCell(binWriter.bins, 45.0, 5.0, 20);
+        assertCell(binWriter.bins, -85.0, 175.0, 20);
+    }
+
+    @Test
+    public void testAggregate_MixedCell() throws Exception {
+        // 0.7 of the cell from 0 to 10 degree east is covered by class 20
+        Product product = createProduct(360, 180, -180.0, 90.0);
+        product.removeBand(product.getBand("lccs_class"));
+        product.addBand("lccs_class", "X < 183 ? 10 : 20", ProductData.TYPE_UINT8);
+        LcBlockAggregator blockAggregator = new LcBlockAggregator(product, planetaryGrid, "lccs_class",
+                                                                  mapAggregator, classIndexLut, 0);
+        CollectingBinWriter binWriter = new CollectingBinWriter();
+        blockAggregator.aggregate(binWriter, null);
+
+        TemporalBin bin = findBin(binWriter.bins, planetaryGrid.getBinIndex(5.0, 5.0));
+        assertEquals(0.3f, bin.getFeatureValues()[LCCS_CLASSES.getClassIndex((short) 10)], 1.0e-5f);
+        assertEquals(0.7f, bin.getFeatureValues()[LCCS_CLASSES.getClassIndex((short) 20)], 1.0e-5f);
+        assertEquals(20.0f, bin.getFeatureValues()[LCCS_CLASSES.getNumClasses()], 0.0f);
+    }
+
+    @Test
+    public void testAggregate_Region() throws Exception {
+        Product product = createProduct(360, 180, -180.0, 90.0);
+        LcBlockAggregator blockAggregator = new LcBlockAggregator(product, planetaryGrid, "lccs_class",
+                                                                  mapAggregator, classIndexLut, 0);
+        CollectingBinWriter binWriter = new CollectingBinWriter();
+        ReferencedEnvelope region = new ReferencedEnvelope(-15.0, 15.0, 25.0, 5.0, DefaultGeographicCRS.WGS84);
+        blockAggregator.aggregate(binWriter, region);
+
+        assertEquals(3 * 4, binWriter.bins.size());
+        assertCell(binWriter.bins, 25.0, -15.0, 10);
+        assertCell(binWriter.bins, 5.0, 15.0, 20);
+    }
+
+    @Test
+    public void testAggregate_WithCellStatistic() throws Exception {
+        Product product = createProduct(360, 180, -180.0, 90.0);
+        product.addBand("change_count", "Y < 90 ? 1 : 2", ProductData.TYPE_FLOAT32);
+        LcBlockAggregator blockAggregator = new LcBlockAggregator(product, planetaryGrid, "lccs_class",
+                                                                  mapAggregator, classIndexLut, 0);
+        blockAggregator.setCellStatistic("change_count", "change_count", LcBlockAggregator.CellStatistic.MAJORITY);
+        String[] outputFeatureNames = blockAggregator.getOutputFeatureNames();
+        assertEquals("change_count", outputFeatureNames[outputFeatureNames.length - 1]);
+
+        CollectingBinWriter binWriter = new CollectingBinWriter();
+        blockAggregator.aggregate(binWriter, null);
+
+        float[] northValues = findBin(binWriter.bins, planetaryGrid.getBinIndex(45.0, 5.0)).getFeatureValues();
+        assertEquals(1.0f, northValues[outputFeatureNames.length - 1], 0.0f);
+        float[] southValues = findBin(binWriter.bins, planetaryGrid.getBinIndex(-45.0, 5.0)).getFeatureValues();
+        assertEquals(2.0f, southValues[outputFeatureNames.length - 1], 0.0f);
+    }
+
+    @Test
+    public void testAggregate_Stripes() throws Exception {
+        // 0.4 degree cells, so source rows are shared by neighbouring target rows
+        PlanetaryGrid grid = new PlateCarreeGrid(450);
+        Product product = createProduct(360, 180, -180.0, 90.0);
+        product.removeBand(product.getBand("lccs_class"));
+        product.addBand("lccs_class", "(X + Y) % 3 == 0 ? 10 : 20", ProductData.TYPE_UINT8);
+        LcBlockAggregator wholeAggregator = new LcBlockAggregator(product, grid, "lccs_class", mapAggregator, classIndexLut, 0);
+        CollectingBinWriter wholeWriter = new CollectingBinWriter();
+        wholeAggregator.aggregate(wholeWriter, null);
+
+        List<TemporalBin> stripeBins = new ArrayList<>();
+        int[][] stripes = {{0, 100}, {100, 151}, {251, 199}};
+        for (int[] stripe : stripes) {
+            LcBlockAggregator stripeAggregator = new LcBlockAggregator(product, grid, "lccs_class", mapAggregator, classIndexLut, 0);
+            stripeAggregator.setTargetRows(stripe[0], stripe[1]);
+            CollectingBinWriter stripeWriter = new CollectingBinWriter();
+            stripeAggregator.aggregate(stripeWriter, null);
+            stripeBins.addAll(stripeWriter.bins);
+        }
+
+        assertEquals(wholeWriter.bins.size(), stripeBins.size());
+        for (int i = 0; i < stripeBins.size(); i++) {
+            assertEquals(wholeWriter.bins.get(i).getIndex(), stripeBins.get(i).getIndex());
+            assertArrayEquals(wholeWriter.bins.get(i).getFeatureValues(), stripeBins.get(i).getFeatureValues(), 0.0f);
+        }
+    }
+
+    @Test
+    public void testAggregate_StripeOutsideOfRegion() throws Exception {
+        Product product = createProduct(360, 180, -180.0, 90.0);
+        LcBlockAggregator blockAggregator = new LcBlockAggregator(product, planetaryGrid, "lccs_class",
+                                                                  mapAggregator, classIndexLut, 0);
+        blockAggregator.setTargetRows(10, 8);
+        CollectingBinWriter binWriter = new CollectingBinWriter();
+        ReferencedEnvelope region = new ReferencedEnvelope(-15.0, 15.0, 25.0, 5.0, DefaultGeographicCRS.WGS84);
+        blockAggregator.aggregate(binWriter, region);
+
+        assertEquals(0, binWriter.bins.size());
+    }
+
+    @Test
+    public void testIsUniform() throws Exception {
+        // two lines of four columns
+        float[] samples = {210, 210, 10, 210,
+                           210, 210, 10, 10};
+        assertTrue(LcBlockAggregator.isUniform(samples, 4, 0, 2, 2));
+        assertTrue(LcBlockAggregator.isUniform(samples, 4, 2, 3, 2));
+        assertFalse(LcBlockAggregator.isUniform(samples, 4, 2, 4, 2));
+        assertTrue(LcBlockAggregator.isUniform(samples, 4, 3, 4, 1));
+        assertFalse(LcBlockAggregator.isUniform(samples, 4, 0, 4, 2));
+    }
+
+    private void assertCell(List<TemporalBin> bins, double lat, double lon, int expectedClass) {
+        final TemporalBin bin = findBin(bins, planetaryGrid.getBinIndex(lat, lon));
+        final float[] featureValues = bin.getFeatureValues();
+        assertEquals(1.0f, featureValues[LCCS_CLASSES.getClassIndex((short) expectedClass)], 1.0e-6f);
+        assertEquals(expectedClass, featureValues[LCCS_CLASSES.getNumClasses()], 0.0f);
+    }
+
+    private static TemporalBin findBin(List<TemporalBin> bins, long binIndex) {
+        for (TemporalBin bin : bins) {
+            if (bin.getIndex() == binIndex) {
+                return bin;
+            }
+        }
+        throw new AssertionError("No bin with index " + binIndex);
+    }
+
+    private static Product createProduct(int width, int height, double easting, double northing) throws Exception {
+        final Product product = new Product("P", "T", width, height);
+        // western hemisphere is class 10, eastern hemisphere class 20
+        product.addBand("lccs_class", "X < " + (-easting) + " ? 10 : 20", ProductData.TYPE_UINT8);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, width, height,
+                                                   easting + 0.5, northing - 0.5, 1.0, 1.0));
+        return product;
+    }
+
+    private static class CollectingBinWriter implements BinWriter {
+
+        private final List<TemporalBin> bins = new ArrayList<>();
+
+        @Override
+        public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void setBinningContext(BinningContext binningContext) {
+        }
+
+        @Override
+        public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+        }
+
+        @Override
+        public String getTargetFilePath() {
+            return null;
+        }
+
+        @Override
+        public void setLogger(Logger logger) {
+        }
+    }
+}
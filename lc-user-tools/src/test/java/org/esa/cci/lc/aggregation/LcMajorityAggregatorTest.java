@@ -99,6 +99,27 @@ public class LcMajorityAggregatorTest {
         assertThat(elements[0], is(2f));
     }
 
+    @Test
+    public void testThatHistogramOfBoundedValuesResolvesTo_TheSameMajorityAsSorting() {
+        // preparation
+        final VariableContextImpl varCtx = new VariableContextImpl();
+        varCtx.defineVariable("name");
+        final LcMajorityAggregator histogramAggregator = new LcMajorityAggregator(varCtx, new String[]{"name"}, new String[]{"change_count"}, 8, 255);
+        final float[] observations = {3f, 1f, 3f, 2f, 1f, 2f, 0f};
+
+        // execution, the counter of the first bin is reused for the second one
+        for (int run = 0; run < 2; run++) {
+            histogramAggregator.initSpatial(spatialBin, new VectorImpl(elements));
+            for (float observation : observations) {
+                histogramAggregator.aggregateSpatial(spatialBin, new ObservationImpl(latitude, longitude, mjd, observation), new VectorImpl(elements));
+            }
+            histogramAggregator.completeSpatial(spatialBin, 0, new VectorImpl(elements));
+
+            //validation, equal counts resolve to the smallest value
+            assertThat(elements[0], is(1f));
+        }
+    }
+
     @Test
     public void testThatTemporalAggregationAndComputeOutputDoesNotChangeTheSpatialResult() {
         // preparation
@@ -11,6 +11,7 @@ import org.esa.cci.lc.util.PlanetaryGridName;
 import org.esa.cci.lc.util.TestProduct;
 import org.esa.snap.dataio.netcdf.NetCdfActivator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.hamcrest.core.IsNull;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -25,6 +26,7 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 
 public class LcMapAggregationOpTest {
@@ -112,6 +114,25 @@ public class LcMapAggregationOpTest {
         initOp(aggrOp);
     }
 
+    @Test
+    public void testSnapToTargetGrid() throws Exception {
+        // 10 degree cells
+        ReferencedEnvelope region = new ReferencedEnvelope(-12.5, 33.0, 21.0, 47.5, DefaultGeographicCRS.WGS84);
+        ReferencedEnvelope snapped = AbstractLcAggregationOp.snapToTargetGrid(region, 18);
+        assertEquals(-20.0, snapped.getMinimum(0), 1.0e-9);
+        assertEquals(40.0, snapped.getMaximum(0), 1.0e-9);
+        assertEquals(20.0, snapped.getMinimum(1), 1.0e-9);
+        assertEquals(50.0, snapped.getMaximum(1), 1.0e-9);
+
+        // borders on cell borders are moved by one cell, but not beyond the globe
+        region = new ReferencedEnvelope(-180.0, 10.0, 40.0, 90.0, DefaultGeographicCRS.WGS84);
+        snapped = AbstractLcAggregationOp.snapToTargetGrid(region, 18);
+        assertEquals(-180.0, snapped.getMinimum(0), 1.0e-9);
+        assertEquals(20.0, snapped.getMaximum(0), 1.0e-9);
+        assertEquals(30.0, snapped.getMinimum(1), 1.0e-9);
+        assertEquals(90.0, snapped.getMaximum(1), 1.0e-9);
+    }
+
     @Test
     public void testTargetProductCreation_WithOnlyPFTClasses() throws Exception {
         // preparation
@@ -190,6 +211,17 @@ public class LcMapAggregationOpTest {
     }
 
 
+    @Test
+    public void testValidateFormats() {
+        AbstractLcAggregationOp.validateFormats(new String[]{"lccci", "lccds", "lcpft"});
+        try {
+            AbstractLcAggregationOp.validateFormats(new String[]{"lccci", "lcxyz"});
+            fail("OperatorException expected");
+        } catch (OperatorException oe) {
+            assertThat(oe.getMessage(), containsString("lcxyz"));
+        }
+    }
+
     @Test
     public void testRegionEnvelope_WithPredefinedRegion() throws Exception {
         LcMapAggregationOp aggrOp = createAggrOp();
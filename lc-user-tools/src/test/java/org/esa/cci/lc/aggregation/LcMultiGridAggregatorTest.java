@@ -0,0 +1,192 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.operator.BinWriter;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.RegularGaussianGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.esa.snap.binning.support.VariableContextImpl;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LcMultiGridAggregatorTest {
+
+    private static final LCCS LCCS_CLASSES = LCCS.getInstance();
+
+    private int[] classIndexLut;
+
+    @Before
+    public void setUp() throws Exception {
+        classIndexLut = LCCS_CLASSES.getClassIndexLut();
+    }
+
+    @Test
+    public void testIsApplicable() throws Exception {
+        Product product = createProduct();
+        assertTrue(LcMultiGridAggregator.isApplicable(product, new PlateCarreeGrid(18)));
+        assertTrue(LcMultiGridAggregator.isApplicable(product, new RegularGaussianGrid(64)));
+        assertFalse(LcMultiGridAggregator.isApplicable(product, new SEAGrid(18)));
+        assertFalse(LcMultiGridAggregator.isApplicable(new Product("P", "T", 360, 180), new PlateCarreeGrid(18)));
+    }
+
+    @Test
+    public void testAggregate_SameResultAsBlockAggregation() throws Exception {
+        Product product = createProduct();
+        product.addBand("change_count", "Y < 90 ? 1 : 2", ProductData.TYPE_FLOAT32);
+        PlanetaryGrid coarseGrid = new PlateCarreeGrid(18);
+        PlanetaryGrid fineGrid = new PlateCarreeGrid(36);
+
+        LcMultiGridAggregator multiGridAggregator = new LcMultiGridAggregator(product, "lccs_class", classIndexLut, 0);
+        multiGridAggregator.setCellStatistic("change_count", "change_count", LcBlockAggregator.CellStatistic.MAJORITY);
+        CollectingBinWriter coarseWriter = new CollectingBinWriter();
+        CollectingBinWriter fineWriter = new CollectingBinWriter();
+        multiGridAggregator.addTarget(coarseGrid, createMapAggregator(), null, null, coarseWriter);
+        multiGridAggregator.addTarget(fineGrid, createMapAggregator(), null, null, fineWriter);
+        multiGridAggregator.aggregate();
+
+        assertSameBins(aggregateBlockwise(product, coarseGrid, null), coarseWriter.bins);
+        assertSameBins(aggregateBlockwise(product, fineGrid, null), fineWriter.bins);
+    }
+
+    @Test
+    public void testAggregate_Region() throws Exception {
+        Product product = createProduct();
+        PlanetaryGrid coarseGrid = new PlateCarreeGrid(18);
+        PlanetaryGrid fineGrid = new PlateCarreeGrid(36);
+        ReferencedEnvelope region = new ReferencedEnvelope(-15.0, 15.0, 25.0, 5.0, DefaultGeographicCRS.WGS84);
+
+        LcMultiGridAggregator multiGridAggregator = new LcMultiGridAggregator(product, "lccs_class", classIndexLut, 0);
+        CollectingBinWriter coarseWriter = new CollectingBinWriter();
+        CollectingBinWriter fineWriter = new CollectingBinWriter();
+        multiGridAggregator.addTarget(coarseGrid, createMapAggregator(), null, region, coarseWriter);
+        multiGridAggregator.addTarget(fineGrid, createMapAggregator(), null, region, fineWriter);
+        multiGridAggregator.aggregate();
+
+        assertSameBins(aggregateBlockwise(product, coarseGrid, region), coarseWriter.bins);
+        assertSameBins(aggregateBlockwise(product, fineGrid, region), fineWriter.bins);
+    }
+
+    @Test
+    public void testAggregate_OverlappingRegions() throws Exception {
+        Product product = createProduct();
+        PlanetaryGrid grid = new PlateCarreeGrid(36);
+        ReferencedEnvelope westRegion = new ReferencedEnvelope(-30.0, 10.0, 40.0, -20.0, DefaultGeographicCRS.WGS84);
+        ReferencedEnvelope eastRegion = new ReferencedEnvelope(-10.0, 30.0, 20.0, -40.0, DefaultGeographicCRS.WGS84);
+
+        LcMultiGridAggregator multiGridAggregator = new LcMultiGridAggregator(product, "lccs_class", classIndexLut, 0);
+        CollectingBinWriter westWriter = new CollectingBinWriter();
+        CollectingBinWriter eastWriter = new CollectingBinWriter();
+        multiGridAggregator.addTarget(grid, createMapAggregator(), null, westRegion, westWriter);
+        multiGridAggregator.addTarget(grid, createMapAggregator(), null, eastRegion, eastWriter);
+        multiGridAggregator.aggregate();
+
+        assertSameBins(aggregateBlockwise(product, grid, westRegion), westWriter.bins);
+        assertSameBins(aggregateBlockwise(product, grid, eastRegion), eastWriter.bins);
+    }
+
+    @Test
+    public void testAggregate_GaussianGrid() throws Exception {
+        Product product = createProduct();
+        PlanetaryGrid gaussianGrid = new RegularGaussianGrid(64);
+
+        LcMultiGridAggregator multiGridAggregator = new LcMultiGridAggregator(product, "lccs_class", classIndexLut, 0);
+        CollectingBinWriter binWriter = new CollectingBinWriter();
+        multiGridAggregator.addTarget(gaussianGrid, createMapAggregator(), null, null, binWriter);
+        multiGridAggregator.aggregate();
+
+        assertEquals(gaussianGrid.getNumBins(), binWriter.bins.size());
+        assertCellClass(binWriter.bins, gaussianGrid.getBinIndex(45.0, -90.0), 10);
+        assertCellClass(binWriter.bins, gaussianGrid.getBinIndex(-45.0, 90.0), 20);
+        long previousIndex = -1;
+        for (TemporalBin bin : binWriter.bins) {
+            assertTrue(bin.getIndex() > previousIndex);
+            previousIndex = bin.getIndex();
+        }
+    }
+
+    private List<TemporalBin> aggregateBlockwise(Product product, PlanetaryGrid planetaryGrid, ReferencedEnvelope region) throws Exception {
+        LcBlockAggregator blockAggregator = new LcBlockAggregator(product, planetaryGrid, "lccs_class",
+                                                                  createMapAggregator(), classIndexLut, 0);
+        if (product.containsBand("change_count")) {
+            blockAggregator.setCellStatistic("change_count", "change_count", LcBlockAggregator.CellStatistic.MAJORITY);
+        }
+        CollectingBinWriter binWriter = new CollectingBinWriter();
+        blockAggregator.aggregate(binWriter, region);
+        return binWriter.bins;
+    }
+
+    private static LcMapAggregator createMapAggregator() {
+        LcMapAggregatorConfig config = new LcMapAggregatorConfig(true, 1, false, null, null, false, null, null);
+        return (LcMapAggregator) new LcMapAggregatorDescriptor().createAggregator(new VariableContextImpl(), config);
+    }
+
+    private static void assertSameBins(List<TemporalBin> expectedBins, List<TemporalBin> actualBins) {
+        assertEquals(expectedBins.size(), actualBins.size());
+        for (int i = 0; i < expectedBins.size(); i++) {
+            assertEquals(expectedBins.get(i).getIndex(), actualBins.get(i).getIndex());
+            assertArrayEquals(expectedBins.get(i).getFeatureValues(), actualBins.get(i).getFeatureValues(), 0.0f);
+        }
+    }
+
+    private static void assertCellClass(List<TemporalBin> bins, long binIndex, int expectedClass) {
+        for (TemporalBin bin : bins) {
+            if (bin.getIndex() == binIndex) {
+                assertEquals(expectedClass, bin.getFeatureValues()[LCCS_CLASSES.getNumClasses()], 0.0f);
+                return;
+            }
+        }
+        throw new AssertionError("No bin with index " + binIndex);
+    }
+
+    private static Product createProduct() throws Exception {
+        final Product product = new Product("P", "T", 360, 180);
+        // western hemisphere is class 10, eastern hemisphere class 20, with a mixed strip
+        product.addBand("lccs_class", "X < 175 ? 10 : X < 183 ? (Y % 2 == 0 ? 10 : 30) : 20", ProductData.TYPE_UINT8);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 360, 180, -179.5, 89.5, 1.0, 1.0));
+        return product;
+    }
+
+    private static class CollectingBinWriter implements BinWriter {
+
+        private final List<TemporalBin> bins = new ArrayList<>();
+
+        @Override
+        public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void setBinningContext(BinningContext binningContext) {
+        }
+
+        @Override
+        public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+        }
+
+        @Override
+        public String getTargetFilePath() {
+            return null;
+        }
+
+        @Override
+        public void setLogger(Logger logger) {
+        }
+    }
+}
@@ -18,11 +18,12 @@ public class LcNDVIAggregatorTest {
         LcNDVIAggregator aggregator = createAggregator();
 
         String[] spatialFeatureNames = aggregator.getSpatialFeatureNames();
-        String[] temporalFeatureNames = aggregator.getOutputFeatureNames();
+        String[] temporalFeatureNames = aggregator.getTemporalFeatureNames();
         String[] outputFeatureNames = aggregator.getOutputFeatureNames();
-        assertThat(spatialFeatureNames, is(new String[]{"ndvi_mean_mean", "ndvi_nYearObs_sum"}));
-        assertThat(temporalFeatureNames, is(spatialFeatureNames));
-        assertThat(outputFeatureNames, is(spatialFeatureNames));
+        assertThat(spatialFeatureNames, is(new String[]{"ndvi_mean_mean", "ndvi_nYearObs_sum",
+                "ndvi_mean_mean_count", "ndvi_nYearObs_sum_count"}));
+        assertThat(temporalFeatureNames, is(new String[]{"ndvi_mean_mean", "ndvi_nYearObs_sum"}));
+        assertThat(outputFeatureNames, is(temporalFeatureNames));
     }
 
     @Test
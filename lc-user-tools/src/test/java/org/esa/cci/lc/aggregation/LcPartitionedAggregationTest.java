@@ -0,0 +1,169 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.cci.lc.io.StreamingBinWriter;
+import org.esa.cci.lc.io.StripeBinMerger;
+import org.esa.cci.lc.io.StripeBinWriter;
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.VariableContextImpl;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Aggregates the stripes of a partitioned aggregation in separate local processes and merges the results.
+ */
+public class LcPartitionedAggregationTest {
+
+    private static final int NUM_STRIPES = 3;
+    private static final int NUM_GRID_ROWS = 450;
+
+    private File stripeDir;
+
+    @Before
+    public void setUp() throws Exception {
+        stripeDir = Files.createTempDirectory(LcPartitionedAggregationTest.class.getSimpleName()).toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = stripeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        stripeDir.delete();
+    }
+
+    @Test
+    public void testGetStripeRows() throws Exception {
+        assertArrayEquals(new int[]{0, 3}, LcMapAggregationOp.getStripeRows(0, 10, 3, 0));
+        assertArrayEquals(new int[]{3, 3}, LcMapAggregationOp.getStripeRows(0, 10, 3, 1));
+        assertArrayEquals(new int[]{6, 4}, LcMapAggregationOp.getStripeRows(0, 10, 3, 2));
+        assertArrayEquals(new int[]{25, 5}, LcMapAggregationOp.getStripeRows(20, 10, 2, 1));
+    }
+
+    @Test
+    public void testStripesInSeparateProcesses() throws Exception {
+        final List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            final ProcessBuilder processBuilder = new ProcessBuilder(getJavaExecutable(),
+                                                                     "-cp", System.getProperty("java.class.path"),
+                                                                     StripeWorker.class.getName(),
+                                                                     stripeDir.getPath(), String.valueOf(i));
+            processBuilder.inheritIO();
+            workers.add(processBuilder.start());
+        }
+        for (Process worker : workers) {
+            assertTrue("worker did not finish in time", worker.waitFor(5, TimeUnit.MINUTES));
+            assertEquals(0, worker.exitValue());
+        }
+
+        final List<File> stripeFiles = new ArrayList<>();
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripeFiles.add(StripeBinWriter.getStripeFile(stripeDir, "test", i, NUM_STRIPES));
+        }
+        final LcBlockAggregator blockAggregator = createBlockAggregator();
+        final CollectingBinWriter mergedWriter = new CollectingBinWriter();
+        new StripeBinMerger(stripeFiles, 0, NUM_GRID_ROWS).merge(mergedWriter, blockAggregator.getOutputFeatureNames());
+
+        final CollectingBinWriter wholeWriter = new CollectingBinWriter();
+        blockAggregator.aggregate(wholeWriter, null);
+        assertEquals(wholeWriter.bins.size(), mergedWriter.bins.size());
+        for (int i = 0; i < wholeWriter.bins.size(); i++) {
+            assertEquals(wholeWriter.bins.get(i).getIndex(), mergedWriter.bins.get(i).getIndex());
+            assertArrayEquals(wholeWriter.bins.get(i).getFeatureValues(), mergedWriter.bins.get(i).getFeatureValues(), 0.0f);
+        }
+    }
+
+    private static String getJavaExecutable() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    }
+
+    private static LcBlockAggregator createBlockAggregator() throws Exception {
+        final Product product = new Product("P", "T", 360, 180);
+        product.addBand("lccs_class", "(X + Y) % 3 == 0 ? 10 : (X < 180 ? 20 : 30)", ProductData.TYPE_UINT8);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 360, 180, -179.5, 89.5, 1.0, 1.0));
+        final PlanetaryGrid planetaryGrid = new PlateCarreeGrid(NUM_GRID_ROWS);
+        final LcMapAggregatorConfig config = new LcMapAggregatorConfig(true, 2, false, null, null, false, null, null);
+        final LcMapAggregator mapAggregator = (LcMapAggregator) new LcMapAggregatorDescriptor().createAggregator(new VariableContextImpl(), config);
+        return new LcBlockAggregator(product, planetaryGrid, "lccs_class", mapAggregator,
+                                     LCCS.getInstance().getClassIndexLut(), 0);
+    }
+
+    /**
+     * Aggregates one stripe into the stripe directory, arguments are the stripe directory and the stripe index.
+     */
+    public static class StripeWorker {
+
+        public static void main(String[] args) throws Exception {
+            final File stripeDir = new File(args[0]);
+            final int stripeIndex = Integer.parseInt(args[1]);
+            final LcBlockAggregator blockAggregator = createBlockAggregator();
+            final int[] stripeRows = LcMapAggregationOp.getStripeRows(0, NUM_GRID_ROWS, NUM_STRIPES, stripeIndex);
+            blockAggregator.setTargetRows(stripeRows[0], stripeRows[1]);
+            final StripeBinWriter stripeWriter = new StripeBinWriter(stripeIndex, NUM_STRIPES, stripeRows[0], stripeRows[1]);
+            stripeWriter.setOutputFeatureNames(blockAggregator.getOutputFeatureNames());
+            stripeWriter.setTargetFileTemplatePath(StripeBinWriter.getStripeFile(stripeDir, "test", stripeIndex, NUM_STRIPES).getPath());
+            blockAggregator.aggregate(stripeWriter, null);
+            System.exit(0);
+        }
+    }
+
+    private static class CollectingBinWriter implements StreamingBinWriter {
+
+        private final List<TemporalBin> bins = new ArrayList<>();
+
+        @Override
+        public void open(Map<String, String> metadataProperties) {
+        }
+
+        @Override
+        public void writeBins(List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void setBinningContext(BinningContext binningContext) {
+        }
+
+        @Override
+        public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+        }
+
+        @Override
+        public String getTargetFilePath() {
+            return null;
+        }
+
+        @Override
+        public void setLogger(Logger logger) {
+        }
+    }
+}
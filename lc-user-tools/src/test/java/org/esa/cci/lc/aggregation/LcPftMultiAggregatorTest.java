@@ -0,0 +1,97 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.Aggregator;
+import org.esa.snap.binning.BinContext;
+import org.esa.snap.binning.Observation;
+import org.esa.snap.binning.support.VariableContextImpl;
+import org.esa.snap.binning.support.VectorImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.esa.cci.lc.aggregation.AggregatorTestUtils.*;
+import static org.hamcrest.core.Is.*;
+import static org.junit.Assert.*;
+
+public class LcPftMultiAggregatorTest {
+
+    private static final String[] VAR_NAMES = {"TREES-BD", "GRASS-NAT", "WATER"};
+
+    private VariableContextImpl varCtx;
+
+    @Before
+    public void setUp() throws Exception {
+        varCtx = new VariableContextImpl();
+        for (String varName : VAR_NAMES) {
+            varCtx.defineVariable(varName);
+        }
+    }
+
+    @Test
+    public void testFeatureNames() throws Exception {
+        LcPftMultiAggregator aggregator = createAggregator();
+
+        assertThat(aggregator.getSpatialFeatureNames(), is(new String[]{
+                "TREES-BD_sum", "TREES-BD_sum_sq", "GRASS-NAT_sum", "GRASS-NAT_sum_sq", "WATER_sum", "WATER_sum_sq"}));
+        assertThat(aggregator.getTemporalFeatureNames(), is(new String[]{
+                "TREES-BD_sum", "TREES-BD_sum_sq", "TREES-BD_weights",
+                "GRASS-NAT_sum", "GRASS-NAT_sum_sq", "GRASS-NAT_weights",
+                "WATER_sum", "WATER_sum_sq", "WATER_weights"}));
+        assertThat(aggregator.getOutputFeatureNames(), is(new String[]{
+                "TREES-BD", "TREES-BD_sigma", "GRASS-NAT", "GRASS-NAT_sigma", "WATER", "WATER_sigma"}));
+        assertThat(new LcPftMultiAggregatorDescriptor().getTargetVarNames(new LcPftMultiAggregatorConfig(VAR_NAMES, 1.0)),
+                   is(aggregator.getOutputFeatureNames()));
+    }
+
+    @Test
+    public void testAggregation_SameAsSingleAggregators() throws Exception {
+        Observation[] observations = {
+                obs(30.0f, 50.0f, Float.NaN),
+                obs(40.0f, 55.0f, Float.NaN),
+                obs(Float.NaN, 45.0f, Float.NaN),
+                obs(35.0f, Float.NaN, Float.NaN),
+                obs(20.0f, 60.0f, Float.NaN)
+        };
+
+        LcPftMultiAggregator multiAggregator = createAggregator();
+        float[] multiOutput = aggregate(multiAggregator, observations);
+
+        for (int i = 0; i < VAR_NAMES.length; i++) {
+            LcPftAggregator aggregator = new LcPftAggregator(varCtx, VAR_NAMES[i], 1.0);
+            float[] output = aggregate(aggregator, observations);
+            assertEquals(VAR_NAMES[i], output[0], multiOutput[2 * i], 1.0e-6f);
+            assertEquals(VAR_NAMES[i], output[1], multiOutput[2 * i + 1], 1.0e-6f);
+        }
+        assertEquals(31.25f, multiOutput[0], 1.0e-5f);
+        assertEquals(52.5f, multiOutput[2], 1.0e-5f);
+        assertTrue(Float.isNaN(multiOutput[4]));
+        assertTrue(Float.isNaN(multiOutput[5]));
+    }
+
+    private LcPftMultiAggregator createAggregator() {
+        LcPftMultiAggregatorConfig config = new LcPftMultiAggregatorConfig(VAR_NAMES, 1.0);
+        return (LcPftMultiAggregator) new LcPftMultiAggregatorDescriptor().createAggregator(varCtx, config);
+    }
+
+    private static float[] aggregate(Aggregator aggregator, Observation[] observations) {
+        BinContext ctx = createCtx();
+        VectorImpl spatialVector = vec(new float[aggregator.getSpatialFeatureNames().length]);
+        aggregator.initSpatial(ctx, spatialVector);
+        for (Observation observation : observations) {
+            aggregator.aggregateSpatial(ctx, observation, spatialVector);
+        }
+        aggregator.completeSpatial(ctx, observations.length, spatialVector);
+
+        VectorImpl temporalVector = vec(new float[aggregator.getTemporalFeatureNames().length]);
+        aggregator.initTemporal(ctx, temporalVector);
+        aggregator.aggregateTemporal(ctx, spatialVector, observations.length, temporalVector);
+        aggregator.completeTemporal(ctx, 1, temporalVector);
+
+        VectorImpl outputVector = vec(new float[aggregator.getOutputFeatureNames().length]);
+        aggregator.computeOutput(temporalVector, outputVector);
+        float[] output = new float[outputVector.size()];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = outputVector.get(i);
+        }
+        return output;
+    }
+}
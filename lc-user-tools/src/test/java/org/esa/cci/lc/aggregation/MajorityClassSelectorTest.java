@@ -0,0 +1,58 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.support.VectorImpl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MajorityClassSelectorTest {
+
+    @Test
+    public void testSelect() throws Exception {
+        MajorityClassSelector selector = new MajorityClassSelector(3);
+        VectorImpl areas = new VectorImpl(new float[]{0.1f, Float.NaN, 0.4f, 0.05f, 0.3f, 0.15f});
+        assertEquals(3, selector.select(areas, 6));
+        assertEquals(2, selector.getClassIndex(0));
+        assertEquals(4, selector.getClassIndex(1));
+        assertEquals(5, selector.getClassIndex(2));
+    }
+
+    @Test
+    public void testSelect_LessClassesObservedThanRequested() throws Exception {
+        MajorityClassSelector selector = new MajorityClassSelector(4);
+        VectorImpl areas = new VectorImpl(new float[]{Float.NaN, 0.75f, Float.NaN, 0.25f});
+        assertEquals(2, selector.select(areas, 4));
+        assertEquals(1, selector.getClassIndex(0));
+        assertEquals(3, selector.getClassIndex(1));
+    }
+
+    @Test
+    public void testSelect_EqualAreasAreRankedByIndex() throws Exception {
+        MajorityClassSelector selector = new MajorityClassSelector(3);
+        VectorImpl areas = new VectorImpl(new float[]{0.2f, 0.3f, 0.2f, 0.3f, 0.0f});
+        assertEquals(3, selector.select(areas, 5));
+        assertEquals(1, selector.getClassIndex(0));
+        assertEquals(3, selector.getClassIndex(1));
+        assertEquals(0, selector.getClassIndex(2));
+    }
+
+    @Test
+    public void testSelect_OnlyConsidersGivenNumberOfClasses() throws Exception {
+        MajorityClassSelector selector = new MajorityClassSelector(2);
+        VectorImpl areas = new VectorImpl(new float[]{0.2f, 0.3f, 0.9f});
+        assertEquals(2, selector.select(areas, 2));
+        assertEquals(1, selector.getClassIndex(0));
+        assertEquals(0, selector.getClassIndex(1));
+        // the selector is reused
+        assertEquals(2, selector.select(new VectorImpl(new float[]{0.5f, Float.NaN, 0.6f}), 3));
+        assertEquals(2, selector.getClassIndex(0));
+        assertEquals(0, selector.getClassIndex(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetClassIndex_RankNotSelected() throws Exception {
+        MajorityClassSelector selector = new MajorityClassSelector(2);
+        selector.select(new VectorImpl(new float[]{0.5f, Float.NaN}), 2);
+        selector.getClassIndex(1);
+    }
+}
@@ -0,0 +1,72 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.esa.snap.binning.support.RegularGaussianGrid;
+import org.esa.snap.binning.support.SEAGrid;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegularGridAreaCalculatorTest {
+
+    @Test
+    public void testIsSupported() throws Exception {
+        assertTrue(RegularGridAreaCalculator.isSupported(new PlateCarreeGrid(180)));
+        assertTrue(RegularGridAreaCalculator.isSupported(new RegularGaussianGrid(64)));
+        assertFalse(RegularGridAreaCalculator.isSupported(new SEAGrid(180)));
+    }
+
+    @Test
+    public void testCalculate_PlateCarree_SameResultAsFractionalAreaCalculator() throws Exception {
+        PlanetaryGrid planetaryGrid = new PlateCarreeGrid(36);
+        // pixel size of 0.72 degree, so pixels overlap the borders of the 5 degree cells
+        assertSameAsFractionalAreaCalculator(planetaryGrid, 500, 250);
+    }
+
+    @Test
+    public void testCalculate_RegularGaussianGrid_SameResultAsFractionalAreaCalculator() throws Exception {
+        PlanetaryGrid planetaryGrid = new RegularGaussianGrid(64);
+        assertSameAsFractionalAreaCalculator(planetaryGrid, 450, 225);
+    }
+
+    @Test
+    public void testCalculate_WhenPixelCrossesAntiMeridian() throws Exception {
+        PlanetaryGrid planetaryGrid = new PlateCarreeGrid(180);
+        AreaCalculator areaCalculator = new RegularGridAreaCalculator(planetaryGrid, 1.0, 1.0);
+        // observation from -180.5 to -179.5 and target cell from 179 to 180
+        long binIndex = planetaryGrid.getBinIndex(0.5, 179.5);
+        assertEquals(0.5, areaCalculator.calculate(-180.0, 0.5, binIndex), 1.0e-6);
+        // target cell from -180 to -179
+        binIndex = planetaryGrid.getBinIndex(0.5, -179.5);
+        assertEquals(0.5, areaCalculator.calculate(-180.0, 0.5, binIndex), 1.0e-6);
+    }
+
+    @Test
+    public void testCalculate_ObservationNotAtPixelCenter() throws Exception {
+        PlanetaryGrid planetaryGrid = new PlateCarreeGrid(180);
+        AreaCalculator areaCalculator = new RegularGridAreaCalculator(planetaryGrid, 0.5, 0.5);
+        long binIndex = planetaryGrid.getBinIndex(10.5, 20.5);
+        // the observation overlaps the upper left corner of the cell by a quarter in each direction
+        assertEquals(0.0625, areaCalculator.calculate(20.0, 11.0, binIndex), 1.0e-6);
+    }
+
+    private void assertSameAsFractionalAreaCalculator(PlanetaryGrid planetaryGrid, int mapWidth, int mapHeight) {
+        double mapResolutionX = 180.0 / mapHeight;
+        double mapResolutionY = 360.0 / mapWidth;
+        AreaCalculator expectedCalculator = new FractionalAreaCalculator(planetaryGrid, mapResolutionX, mapResolutionY);
+        AreaCalculator actualCalculator = new RegularGridAreaCalculator(planetaryGrid, mapResolutionX, mapResolutionY);
+        for (int y = 0; y < mapHeight; y++) {
+            double lat = 90.0 - (y + 0.5) * mapResolutionX;
+            for (int x = 0; x < mapWidth; x++) {
+                double lon = -180.0 + (x + 0.5) * mapResolutionY;
+                long binIndex = planetaryGrid.getBinIndex(lat, lon);
+                String msg = String.format("lat=%f, lon=%f", lat, lon);
+                assertEquals(msg, expectedCalculator.calculate(lon, lat, binIndex),
+                             actualCalculator.calculate(lon, lat, binIndex), 1.0e-9);
+            }
+        }
+    }
+}
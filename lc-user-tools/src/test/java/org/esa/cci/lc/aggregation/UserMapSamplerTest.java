@@ -0,0 +1,86 @@
+package org.esa.cci.lc.aggregation;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+
+import static org.junit.Assert.assertEquals;
+
+public class UserMapSamplerTest {
+
+    private static final int WIDTH = 360;
+    private static final int HEIGHT = 180;
+
+    private Product userMap;
+
+    @Before
+    public void setUp() throws Exception {
+        userMap = new Product("userMap", "T", WIDTH, HEIGHT);
+        // small tiles, so more tiles are accessed than can be cached
+        userMap.setPreferredTileSize(new Dimension(20, 20));
+        final int[] classes = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = i % 251;
+        }
+        final Band band = userMap.addBand("classes", ProductData.TYPE_INT32);
+        band.setRasterData(ProductData.createInstance(classes));
+        // 1 degree pixels, starting at -180/90
+        userMap.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, WIDTH, HEIGHT,
+                                                   -179.5, 89.5, 1.0, 1.0));
+    }
+
+    @Test
+    public void testSameSamplesAsGeoCodingLookup() throws Exception {
+        final UserMapSampler sampler = new UserMapSampler(userMap);
+        for (int run = 0; run < 2; run++) {
+            for (double lat = 89.75; lat > -90.0; lat -= 0.5) {
+                for (double lon = -179.75; lon < 180.0; lon += 2.5) {
+                    assertEquals("lat=" + lat + ", lon=" + lon,
+                                 getSampleViaGeoCoding(lat, lon), sampler.getSample(lat, lon), 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLocationOutsideOfUserMap() throws Exception {
+        final Product regionalMap = new Product("regionalMap", "T", 10, 10);
+        regionalMap.addBand("classes", "7", ProductData.TYPE_INT8);
+        regionalMap.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, 10, 10, 0.5, 49.5, 1.0, 1.0));
+        final UserMapSampler sampler = new UserMapSampler(regionalMap);
+
+        assertEquals(7.0f, sampler.getSample(45.0, 5.0), 0.0f);
+        assertEquals(Float.NaN, sampler.getSample(45.0, -5.0), 0.0f);
+        assertEquals(Float.NaN, sampler.getSample(55.0, 5.0), 0.0f);
+    }
+
+    @Test
+    public void testCloseKeepsUserMapOfCaller() throws Exception {
+        final UserMapSampler sampler = new UserMapSampler(userMap);
+        sampler.getSample(45.0, 5.0);
+        sampler.close();
+
+        assertEquals(1, userMap.getNumBands());
+        assertEquals(getSampleViaGeoCoding(45.0, 5.0), new UserMapSampler(userMap).getSample(45.0, 5.0), 0.0f);
+    }
+
+    private float getSampleViaGeoCoding(double lat, double lon) {
+        final Band firstBand = userMap.getBandAt(0);
+        final PixelPos pixelPos = firstBand.getGeoCoding().getPixelPos(new GeoPos(lat, lon), null);
+        final int pixX = (int) Math.floor(pixelPos.getX());
+        final int pixY = (int) Math.floor(pixelPos.getY());
+        if (firstBand.getGeophysicalImage().getBounds().contains(pixX, pixY)) {
+            return firstBand.getGeophysicalImage().getData(new Rectangle(pixX, pixY, 1, 1)).getSample(pixX, pixY, 0);
+        }
+        return Float.NaN;
+    }
+}
@@ -0,0 +1,137 @@
+package org.esa.cci.lc.conversion;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.AbstractProductWriter;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class BlockConverterTest {
+
+    @Test
+    public void testConvert_BlocksInOrder() throws Exception {
+        final Product product = createSourceProduct();
+        // blocks of 2 lines, 3 blocks in flight
+        final ConversionPlan plan = ConversionPlan.create(7, 10, 2, 2, 1000, 3, 1);
+        assertEquals(2, plan.getBlockHeight());
+        assertEquals(3, plan.getMaxBlocksInFlight());
+        final RecordingWriter writer = new RecordingWriter(false);
+
+        new BlockConverter(plan, Logger.getAnonymousLogger()).convert(product, writer, new File("converted.nc"));
+
+        final List<String> expectedBlocks = new ArrayList<>();
+        for (int y = 0; y < 10; y += 2) {
+            expectedBlocks.add("byte:" + y + ":2");
+            expectedBlocks.add("short:" + y + ":2");
+        }
+        assertEquals(expectedBlocks, writer.blocks);
+        assertArrayEquals((byte[]) product.getBand("byte").getData().getElems(), (byte[]) writer.getData("byte").getElems());
+        assertArrayEquals((short[]) product.getBand("short").getData().getElems(), (short[]) writer.getData("short").getElems());
+        assertTrue(writer.closed);
+        assertFalse(writer.deleted);
+    }
+
+    @Test
+    public void testConvert_LastBlockShorter() throws Exception {
+        final Product product = createSourceProduct();
+        final ConversionPlan plan = ConversionPlan.create(7, 10, 4, 2, 1000, 2, 1);
+        final RecordingWriter writer = new RecordingWriter(false);
+
+        new BlockConverter(plan, Logger.getAnonymousLogger()).convert(product, writer, new File("converted.nc"));
+
+        assertEquals(Arrays.asList("byte:0:4", "short:0:4", "byte:4:4", "short:4:4", "byte:8:2", "short:8:2"),
+                     writer.blocks);
+        assertArrayEquals((short[]) product.getBand("short").getData().getElems(), (short[]) writer.getData("short").getElems());
+    }
+
+    @Test
+    public void testConvert_FailureDeletesOutput() throws Exception {
+        final Product product = createSourceProduct();
+        final ConversionPlan plan = ConversionPlan.create(7, 10, 2, 2, 1000, 3, 1);
+        final RecordingWriter writer = new RecordingWriter(true);
+
+        try {
+            new BlockConverter(plan, Logger.getAnonymousLogger()).convert(product, writer, new File("converted.nc"));
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertTrue(writer.closed);
+        assertTrue(writer.deleted);
+    }
+
+    private static Product createSourceProduct() {
+        final Product product = new Product("source", "T", 7, 10);
+        product.setPreferredTileSize(7, 3);
+        final byte[] byteData = new byte[7 * 10];
+        final short[] shortData = new short[7 * 10];
+        for (int i = 0; i < byteData.length; i++) {
+            byteData[i] = (byte) i;
+            shortData[i] = (short) (i * 100);
+        }
+        product.addBand("byte", ProductData.TYPE_UINT8).setRasterData(ProductData.createInstance(byteData));
+        product.addBand("short", ProductData.TYPE_INT16).setRasterData(ProductData.createInstance(shortData));
+        return product;
+    }
+
+    private static class RecordingWriter extends AbstractProductWriter {
+
+        private final boolean failing;
+        private final List<String> blocks = new ArrayList<>();
+        private final List<ProductData> data = new ArrayList<>();
+        private boolean closed;
+        private boolean deleted;
+
+        private RecordingWriter(boolean failing) {
+            super(null);
+            this.failing = failing;
+        }
+
+        private ProductData getData(String bandName) {
+            return data.get(getSourceProduct().getBandIndex(bandName));
+        }
+
+        @Override
+        protected void writeProductNodesImpl() throws IOException {
+            final Product product = getSourceProduct();
+            for (Band band : product.getBands()) {
+                data.add(ProductData.createInstance(band.getDataType(), band.getRasterWidth() * band.getRasterHeight()));
+            }
+        }
+
+        @Override
+        public void writeBandRasterData(Band band, int offsetX, int offsetY, int width, int height,
+                                        ProductData buffer, ProgressMonitor pm) throws IOException {
+            if (failing && offsetY > 0) {
+                throw new IOException("Disk full");
+            }
+            blocks.add(band.getName() + ":" + offsetY + ":" + height);
+            final ProductData bandData = getData(band.getName());
+            System.arraycopy(buffer.getElems(), 0, bandData.getElems(), offsetY * band.getRasterWidth(), width * height);
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+
+        @Override
+        public void deleteOutput() throws IOException {
+            deleted = true;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.esa.cci.lc.conversion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConversionPlanTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Test
+    public void testCreate_FullChunkHeight() throws Exception {
+        // byte map of 129600 x 64800, one chunk row of a band has about 250 MB
+        final ConversionPlan plan = ConversionPlan.create(129600, 64800, 2025, 1, 8 * GB, 8, 5);
+        assertEquals(2025, plan.getBlockHeight());
+        assertEquals(129600L * 2025, plan.getBlockSize());
+        // limited by the number of processors
+        assertEquals(8, plan.getMaxBlocksInFlight());
+    }
+
+    @Test
+    public void testCreate_LimitedByBudget() throws Exception {
+        // short map and 1 GB of budget, the writer holds 5 blocks
+        final ConversionPlan plan = ConversionPlan.create(129600, 64800, 2025, 2, GB, 8, 5);
+        // largest divisor of 2025 not exceeding 690 lines
+        assertEquals(675, plan.getBlockHeight());
+        assertEquals(129600L * 2 * 675, plan.getBlockSize());
+        assertEquals(1, plan.getMaxBlocksInFlight());
+    }
+
+    @Test
+    public void testCreate_BudgetTooSmall() throws Exception {
+        final ConversionPlan plan = ConversionPlan.create(129600, 64800, 2025, 4, 1024, 8, 5);
+        assertEquals(1, plan.getBlockHeight());
+        assertEquals(1, plan.getMaxBlocksInFlight());
+    }
+
+    @Test
+    public void testCreate_SceneSmallerThanChunk() throws Exception {
+        final ConversionPlan plan = ConversionPlan.create(360, 180, 2025, 4, GB, 4, 5);
+        assertEquals(180, plan.getBlockHeight());
+        assertEquals(4, plan.getMaxBlocksInFlight());
+    }
+
+    @Test
+    public void testComputeBlockHeight() throws Exception {
+        assertEquals(2025, ConversionPlan.computeBlockHeight(2025, 5000));
+        assertEquals(2025, ConversionPlan.computeBlockHeight(2025, 2025));
+        assertEquals(675, ConversionPlan.computeBlockHeight(2025, 2024));
+        assertEquals(405, ConversionPlan.computeBlockHeight(2025, 500));
+        assertEquals(1, ConversionPlan.computeBlockHeight(2025, 2));
+        assertEquals(1, ConversionPlan.computeBlockHeight(2025, 0));
+    }
+}
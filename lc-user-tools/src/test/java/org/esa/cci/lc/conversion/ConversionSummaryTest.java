@@ -0,0 +1,47 @@
+package org.esa.cci.lc.conversion;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConversionSummaryTest {
+
+    private File targetDir;
+
+    @Before
+    public void setUp() throws Exception {
+        targetDir = Files.createTempDirectory(ConversionSummaryTest.class.getSimpleName()).toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new File(targetDir, ConversionSummary.FILE_NAME).delete();
+        targetDir.delete();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        final ConversionSummary summary = new ConversionSummary();
+        summary.addConverted(new File("map-1992.tif"), new File("map-1992.nc"), 12.34);
+        summary.addFailed(new File("map-1993.tif"), new IllegalArgumentException("input file name\tdoes not\nmatch"), 0.5);
+        summary.addFailed(new File("map-1994.tif"), new NullPointerException(), 0.0);
+        assertEquals(3, summary.getNumFiles());
+        assertEquals(2, summary.getNumFailed());
+
+        final File summaryFile = summary.write(targetDir);
+
+        assertEquals(new File(targetDir, ConversionSummary.FILE_NAME), summaryFile);
+        final List<String> lines = Files.readAllLines(summaryFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertEquals("map-1992.tif\tconverted\t12.3\tmap-1992.nc", lines.get(1));
+        assertEquals("map-1993.tif\tfailed\t0.5\tinput file name does not match", lines.get(2));
+        assertEquals("map-1994.tif\tfailed\t0.0\tjava.lang.NullPointerException", lines.get(3));
+    }
+}
@@ -0,0 +1,75 @@
+package org.esa.cci.lc.conversion;
+
+import org.esa.snap.core.gpf.OperatorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LcConversionOpTest {
+
+    private File sourceDir;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDir = Files.createTempDirectory(LcConversionOpTest.class.getSimpleName()).toFile();
+        final String[] fileNames = {
+                "ESACCI-LC-L4-LCCS-Map-300m-P1Y-1993-v2.0.7.tif",
+                "ESACCI-LC-L4-LCCS-Map-300m-P1Y-1992-v2.0.7.tif",
+                "ESACCI-LC-L4-LCCS-Map-300m-P1Y-1992-v2.0.7_qualityflag1.tif",
+                "ESACCI-LC-L4-LCCS-Map-300m-P1Y-2010-v2.0.7.tif",
+                "readme.txt"
+        };
+        for (String fileName : fileNames) {
+            new File(sourceDir, fileName).createNewFile();
+        }
+        new File(sourceDir, "subdir.tif").mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = sourceDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        sourceDir.delete();
+    }
+
+    @Test
+    public void testListSourceFiles() throws Exception {
+        final List<File> sourceFiles = LcConversionOp.listSourceFiles(sourceDir, "*.tif");
+        assertEquals(Arrays.asList(new File(sourceDir, "ESACCI-LC-L4-LCCS-Map-300m-P1Y-1992-v2.0.7.tif"),
+                                   new File(sourceDir, "ESACCI-LC-L4-LCCS-Map-300m-P1Y-1993-v2.0.7.tif"),
+                                   new File(sourceDir, "ESACCI-LC-L4-LCCS-Map-300m-P1Y-2010-v2.0.7.tif")),
+                     sourceFiles);
+    }
+
+    @Test
+    public void testListSourceFiles_YearRange() throws Exception {
+        final List<File> sourceFiles = LcConversionOp.listSourceFiles(sourceDir, "ESACCI-LC-L4-LCCS-Map-300m-P1Y-199?-*.tif");
+        assertEquals(2, sourceFiles.size());
+        assertEquals("ESACCI-LC-L4-LCCS-Map-300m-P1Y-1992-v2.0.7.tif", sourceFiles.get(0).getName());
+        assertEquals("ESACCI-LC-L4-LCCS-Map-300m-P1Y-1993-v2.0.7.tif", sourceFiles.get(1).getName());
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testNeitherSourceProductNorSourceDir() throws Exception {
+        new LcConversionOp().getTargetProduct();
+    }
+
+    @Test(expected = OperatorException.class)
+    public void testSourceDir_NoMatchingFile() throws Exception {
+        final LcConversionOp conversionOp = new LcConversionOp();
+        conversionOp.setParameter("sourceDir", sourceDir);
+        conversionOp.setParameter("sourceFilePattern", "*.nc");
+        conversionOp.getTargetProduct();
+    }
+}
@@ -2,12 +2,17 @@ package org.esa.cci.lc.conversion;
 
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
 import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.PixelPos;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.gpf.OperatorException;
+import org.esa.cci.lc.aggregation.CompiledPftLut;
 import org.esa.cci.lc.aggregation.Lccs2PftLut;
 import org.esa.cci.lc.aggregation.Lccs2PftLutBuilder;
+import org.esa.cci.lc.aggregation.UserMapSampler;
 import org.esa.cci.lc.util.TestProduct;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.After;
@@ -17,6 +22,7 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.TransformException;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -138,6 +144,41 @@ public class RemapInternalOpTest {
         checkPftBandsArePresent(targetProduct, lut);
     }
 
+    @Test()
+    public void testPftValues_WithAdditionalUserMap() throws Exception {
+        final RemapInternalOp remapOp = new RemapInternalOp();
+        remapOp.setSourceProduct(testSource);
+        remapOp.setSourceProduct("additionalUserMap", testUserMap);
+        final File additionalMapFile = new File(RESOURCE_PATH_ADDITIONAL_MAP.toURI());
+        remapOp.setParameter("additionalUserMapPFTConversionTable", additionalMapFile);
+        final Product targetProduct = remapOp.getTargetProduct();
+
+        // expected values computed pixel by pixel and band by band
+        final CompiledPftLut lut = CompiledPftLut.getInstance(null, additionalMapFile.toURI().toURL(), 1.0f);
+        final UserMapSampler userMapSampler = new UserMapSampler(testUserMap);
+        final GeoCoding geoCoding = testSource.getSceneGeoCoding();
+        final Band lccsBand = testSource.getBand("lccs_class");
+        final String[] pftNames = lut.getPFTNames();
+        final int[][] pixels = {{0, 0}, {17, 3}, {180, 90}, {271, 133}, {359, 179}};
+        for (int i = 0; i < pftNames.length; i++) {
+            final Band pftBand = targetProduct.getBand(pftNames[i]);
+            for (int[] pixel : pixels) {
+                final int x = pixel[0];
+                final int y = pixel[1];
+                final int lccsClass = getSample(lccsBand, x, y);
+                final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(x, y), null);
+                final float userSample = userMapSampler.getSample(geoPos.getLat(), geoPos.getLon());
+                final int userClass = Float.isNaN(userSample) ? -1 : (int) userSample;
+                final double value = lut.getFactors(lut.getClassIndex(lccsClass), userClass)[i] * 100.0;
+                final short expected = (short) Math.floor(Double.isNaN(value) ? 0 : value);
+                assertEquals(pftNames[i] + " at " + x + "," + y, expected, getSample(pftBand, x, y));
+            }
+        }
+    }
+
+    private static int getSample(Band band, int x, int y) {
+        return band.getSourceImage().getData(new Rectangle(x, y, 1, 1)).getSample(x, y, 0);
+    }
 
     private void checkPftBandsArePresent(Product targetProduct, Lccs2PftLut lut) {
         final String[] pftNames = lut.getPFTNames();
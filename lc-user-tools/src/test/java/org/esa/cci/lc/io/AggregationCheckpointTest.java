@@ -0,0 +1,168 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class AggregationCheckpointTest {
+
+    private static final String[] FEATURE_NAMES = {"f1"};
+
+    private PlanetaryGrid planetaryGrid;
+    private File checkpointDir;
+
+    @Before
+    public void setUp() throws Exception {
+        planetaryGrid = new PlateCarreeGrid(18);
+        checkpointDir = Files.createTempDirectory(AggregationCheckpointTest.class.getSimpleName()).toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = checkpointDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        checkpointDir.delete();
+    }
+
+    @Test
+    public void testInterruptAndResume() throws Exception {
+        final AggregationCheckpoint checkpoint = new AggregationCheckpoint(checkpointDir, "product", 0, 18, FEATURE_NAMES);
+        assertFalse(checkpoint.load());
+        final StreamingBinWriter binWriter = checkpoint.createBinWriter(planetaryGrid, 2, 0);
+        binWriter.open(new HashMap<String, String>());
+        for (int row = 0; row < 5; row++) {
+            binWriter.writeBins(createRowBins(row));
+        }
+        // the aggregation fails in row 5
+        binWriter.abort();
+        assertTrue(checkpoint.getManifestFile().isFile());
+
+        final AggregationCheckpoint resumedCheckpoint = new AggregationCheckpoint(checkpointDir, "product", 0, 18, FEATURE_NAMES);
+        assertTrue(resumedCheckpoint.load());
+        assertEquals(4, resumedCheckpoint.getResumeRow());
+        assertFalse(resumedCheckpoint.isComplete());
+        final StreamingBinWriter resumedWriter = resumedCheckpoint.createBinWriter(planetaryGrid, 2, 0);
+        resumedWriter.open(new HashMap<String, String>());
+        for (int row = resumedCheckpoint.getResumeRow(); row < 18; row++) {
+            resumedWriter.writeBins(createRowBins(row));
+        }
+        resumedWriter.close();
+        assertTrue(resumedCheckpoint.isComplete());
+        assertEquals(9, resumedCheckpoint.getSegmentFiles().size());
+
+        final CollectingBinWriter mergedWriter = new CollectingBinWriter();
+        new StripeBinMerger(resumedCheckpoint.getSegmentFiles(), 0, 18).merge(mergedWriter, FEATURE_NAMES);
+        assertEquals(planetaryGrid.getNumBins(), mergedWriter.bins.size());
+        for (int i = 0; i < mergedWriter.bins.size(); i++) {
+            assertEquals(i, mergedWriter.bins.get(i).getIndex());
+            assertEquals(planetaryGrid.getRowIndex(i), mergedWriter.bins.get(i).getFeatureValues()[0], 0.0f);
+        }
+
+        resumedCheckpoint.delete();
+        assertEquals(0, checkpointDir.listFiles().length);
+    }
+
+    @Test
+    public void testRegionalRowsWithoutCheckpointRows() throws Exception {
+        final AggregationCheckpoint checkpoint = new AggregationCheckpoint(checkpointDir, "product", 3, 4, FEATURE_NAMES);
+        final StreamingBinWriter binWriter = checkpoint.createBinWriter(planetaryGrid, 0, 0);
+        binWriter.open(new HashMap<String, String>());
+        for (int row = 3; row < 7; row++) {
+            binWriter.writeBins(createRowBins(row));
+        }
+        binWriter.close();
+
+        assertTrue(checkpoint.isComplete());
+        assertEquals(7, checkpoint.getEndRow());
+        assertEquals(1, checkpoint.getSegmentFiles().size());
+    }
+
+    @Test
+    public void testLoad_OtherAggregation() throws Exception {
+        final AggregationCheckpoint checkpoint = new AggregationCheckpoint(checkpointDir, "product", 0, 18, FEATURE_NAMES);
+        final StreamingBinWriter binWriter = checkpoint.createBinWriter(planetaryGrid, 1, 0);
+        binWriter.open(new HashMap<String, String>());
+        binWriter.writeBins(createRowBins(0));
+        binWriter.writeBins(createRowBins(1));
+        binWriter.abort();
+
+        final AggregationCheckpoint otherCheckpoint = new AggregationCheckpoint(checkpointDir, "product", 0, 18,
+                                                                                new String[]{"f2"});
+        try {
+            otherCheckpoint.load();
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("another aggregation"));
+        }
+    }
+
+    private List<TemporalBin> createRowBins(int row) {
+        final List<TemporalBin> bins = new ArrayList<>();
+        final long firstBinIndex = planetaryGrid.getFirstBinIndex(row);
+        for (int col = 0; col < planetaryGrid.getNumCols(row); col++) {
+            final TemporalBin bin = new TemporalBin(firstBinIndex + col, FEATURE_NAMES.length);
+            bin.getFeatureValues()[0] = row;
+            bins.add(bin);
+        }
+        return bins;
+    }
+
+    private static class CollectingBinWriter implements StreamingBinWriter {
+
+        private final List<TemporalBin> bins = new ArrayList<>();
+
+        @Override
+        public void open(Map<String, String> metadataProperties) {
+        }
+
+        @Override
+        public void writeBins(List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void setBinningContext(BinningContext binningContext) {
+        }
+
+        @Override
+        public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+        }
+
+        @Override
+        public String getTargetFilePath() {
+            return null;
+        }
+
+        @Override
+        public void setLogger(Logger logger) {
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.support.ReducedGaussianGrid;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinCellWriterTest {
+
+    @Test
+    public void testWrite_ReducedGaussianGrid() throws Exception {
+        final PlanetaryGrid grid = new ReducedGaussianGrid(64);
+        final int numCells = (int) grid.getNumBins();
+        final CellCollector collector = new CellCollector(numCells, 2, BinRasterWriter.DEFAULT_BUFFER_SIZE);
+        final long firstIndex = grid.getBinIndex(89.0, -179.0);
+        final long equatorIndex = grid.getBinIndex(0.5, 10.0);
+        final long lastIndex = grid.getBinIndex(-89.0, 179.0);
+        collector.write(createBin(firstIndex, 1.0f));
+        collector.write(createBin(equatorIndex, 2.0f));
+        collector.write(createBin(lastIndex, 3.0f));
+        collector.finish();
+
+        assertEquals(1, collector.segmentRanges.size());
+        assertEquals(-1.0f, collector.cells[0][(int) firstIndex], 0.0f);
+        assertEquals(1.0f, collector.cells[1][(int) firstIndex], 0.0f);
+        assertEquals(2.0f, collector.cells[1][(int) equatorIndex], 0.0f);
+        assertEquals(3.0f, collector.cells[1][(int) lastIndex], 0.0f);
+        assertEquals(Float.NaN, collector.cells[1][(int) equatorIndex - 1], 0.0f);
+        assertEquals(Float.NaN, collector.cells[1][(int) equatorIndex + 1], 0.0f);
+    }
+
+    @Test
+    public void testWrite_SegmentsWithinBudget() throws Exception {
+        // the budget allows 10 cells for 2 variables, the last segment has only 5 cells
+        final CellCollector collector = new CellCollector(45, 2, 10 * 2 * 4);
+        assertEquals(10, collector.getSegmentSize());
+        collector.write(createBin(3, 1.0f));
+        collector.write(createBin(27, 2.0f));
+        collector.write(createBin(40, 3.0f));
+        collector.finish();
+
+        assertEquals(5, collector.segmentRanges.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i * 10, collector.segmentRanges.get(i)[0]);
+            assertEquals(10, collector.segmentRanges.get(i)[1]);
+        }
+        assertEquals(40, collector.segmentRanges.get(4)[0]);
+        assertEquals(5, collector.segmentRanges.get(4)[1]);
+        assertEquals(1.0f, collector.cells[1][3], 0.0f);
+        assertEquals(2.0f, collector.cells[1][27], 0.0f);
+        assertEquals(3.0f, collector.cells[1][40], 0.0f);
+        // the buffers are cleared after each segment
+        assertEquals(Float.NaN, collector.cells[1][13], 0.0f);
+        assertEquals(Float.NaN, collector.cells[1][37], 0.0f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrite_BinsNotInAscendingOrder() throws Exception {
+        final CellCollector collector = new CellCollector(45, 1, BinRasterWriter.DEFAULT_BUFFER_SIZE);
+        collector.write(createBin(27, 2.0f));
+        collector.write(createBin(3, 1.0f));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrite_BinOutsideOfGrid() throws Exception {
+        final CellCollector collector = new CellCollector(45, 1, BinRasterWriter.DEFAULT_BUFFER_SIZE);
+        collector.write(createBin(45, 1.0f));
+    }
+
+    private static TemporalBin createBin(long binIndex, float value) {
+        final TemporalBin bin = new TemporalBin(binIndex, 2);
+        bin.getFeatureValues()[0] = -value;
+        bin.getFeatureValues()[1] = value;
+        return bin;
+    }
+
+    private static class CellCollector extends BinCellWriter {
+
+        private final float[][] cells;
+        private final boolean[][] written;
+        private final List<int[]> segmentRanges;
+
+        private CellCollector(int numCells, int numVariables, long bufferSize) {
+            super(numCells, numVariables, bufferSize, Logger.getAnonymousLogger());
+            cells = new float[numVariables][numCells];
+            written = new boolean[numVariables][numCells];
+            segmentRanges = new ArrayList<>();
+        }
+
+        @Override
+        protected void writeSegment(int variableIndex, int firstCell, int length, float[] data) throws IOException {
+            assertEquals(length, data.length);
+            for (int i = 0; i < length; i++) {
+                if (written[variableIndex][firstCell + i]) {
+                    throw new IllegalStateException("Cell " + (firstCell + i) + " written twice");
+                }
+                written[variableIndex][firstCell + i] = true;
+                cells[variableIndex][firstCell + i] = data[i];
+            }
+            if (variableIndex == 0) {
+                segmentRanges.add(new int[]{firstCell, length});
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.PlanetaryGrid;
+import org.esa.snap.binning.TemporalBin;
+import org.esa.snap.binning.support.PlateCarreeGrid;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinRasterWriterTest {
+
+    @Test
+    public void testWrite_Global() throws Exception {
+        // 10 degree cells, 36 x 18
+        final PlanetaryGrid grid = new PlateCarreeGrid(18);
+        final RasterCollector collector = new RasterCollector(grid, 2);
+        collector.write(createBin(grid.getBinIndex(85.0, -175.0), 1.0f));
+        collector.write(createBin(grid.getBinIndex(85.0, 175.0), 2.0f));
+        collector.write(createBin(grid.getBinIndex(5.0, 5.0), 3.0f));
+        collector.finish();
+
+        assertEquals(18, collector.numLinesWritten);
+        assertEquals(1.0f, collector.raster[1][0][0], 0.0f);
+        assertEquals(-1.0f, collector.raster[0][0][0], 0.0f);
+        assertEquals(2.0f, collector.raster[1][0][35], 0.0f);
+        assertEquals(3.0f, collector.raster[1][8][18], 0.0f);
+        assertEquals(Float.NaN, collector.raster[1][0][1], 0.0f);
+        assertEquals(Float.NaN, collector.raster[1][7][18], 0.0f);
+        assertEquals(Float.NaN, collector.raster[1][17][35], 0.0f);
+    }
+
+    @Test
+    public void testWrite_Region() throws Exception {
+        final PlateCarreeGrid globalGrid = new PlateCarreeGrid(18);
+        final ReferencedEnvelope region = new ReferencedEnvelope(-15.0, 15.0, 25.0, 5.0, DefaultGeographicCRS.WGS84);
+        final RegionalPlanetaryGrid regionalGrid = new RegionalPlanetaryGrid(globalGrid, region);
+        final RasterCollector collector = new RasterCollector(regionalGrid, 1);
+        // outside of the region, ignored
+        collector.write(createBin(globalGrid.getBinIndex(25.0, -25.0), 7.0f));
+        collector.write(createBin(globalGrid.getBinIndex(25.0, -15.0), 1.0f));
+        collector.write(createBin(globalGrid.getBinIndex(5.0, 15.0), 2.0f));
+        collector.write(createBin(globalGrid.getBinIndex(-45.0, 15.0), 7.0f));
+        collector.finish();
+
+        assertEquals(regionalGrid.getNumRows(), collector.numLinesWritten);
+        assertEquals(-1.0f, collector.raster[0][0][0], 0.0f);
+        final int lastRow = regionalGrid.getNumRows() - 1;
+        final int lastCol = regionalGrid.getNumCols(0) - 1;
+        assertEquals(-2.0f, collector.raster[0][lastRow][lastCol], 0.0f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrite_BinsNotInAscendingOrder() throws Exception {
+        final PlanetaryGrid grid = new PlateCarreeGrid(18);
+        final RasterCollector collector = new RasterCollector(grid, 1);
+        collector.write(createBin(grid.getBinIndex(5.0, 5.0), 3.0f));
+        collector.write(createBin(grid.getBinIndex(85.0, 5.0), 3.0f));
+    }
+
+    @Test
+    public void testWrite_ChunkAlignedStripes() throws Exception {
+        // 18 lines, chunks of 4 lines, the budget allows 3 lines of 36 values for 2 variables
+        final PlanetaryGrid grid = new PlateCarreeGrid(18);
+        final RasterCollector collector = new RasterCollector(grid, 2, 4, 3 * 36 * 2 * 4);
+        assertEquals(2, collector.getStripeHeight());
+        collector.write(createBin(grid.getBinIndex(5.0, 5.0), 3.0f));
+        collector.finish();
+
+        assertEquals(18, collector.numLinesWritten);
+        assertEquals(9, collector.stripeRanges.size());
+        for (int[] stripeRange : collector.stripeRanges) {
+            assertEquals(0, stripeRange[0] % 2);
+            assertEquals(2, stripeRange[1]);
+        }
+        assertEquals(3.0f, collector.raster[1][8][18], 0.0f);
+        assertEquals(Float.NaN, collector.raster[1][9][18], 0.0f);
+    }
+
+    @Test
+    public void testWrite_StripesEndAtChunkBoundaries() throws Exception {
+        // chunks of 5 lines, stripes of 5 lines, the last stripe has only 3 lines
+        final PlanetaryGrid grid = new PlateCarreeGrid(18);
+        final RasterCollector collector = new RasterCollector(grid, 1, 5, BinRasterWriter.DEFAULT_BUFFER_SIZE);
+        collector.finish();
+
+        assertEquals(4, collector.stripeRanges.size());
+        assertEquals(15, collector.stripeRanges.get(3)[0]);
+        assertEquals(3, collector.stripeRanges.get(3)[1]);
+        assertEquals(Float.NaN, collector.raster[0][17][0], 0.0f);
+    }
+
+    @Test
+    public void testComputeStripeHeight() throws Exception {
+        assertEquals(2025, BinRasterWriter.computeStripeHeight(2025, 5000));
+        assertEquals(2025, BinRasterWriter.computeStripeHeight(2025, 2025));
+        assertEquals(675, BinRasterWriter.computeStripeHeight(2025, 2024));
+        assertEquals(45, BinRasterWriter.computeStripeHeight(2025, 50));
+        assertEquals(1, BinRasterWriter.computeStripeHeight(2025, 2));
+        assertEquals(1, BinRasterWriter.computeStripeHeight(2025, 0));
+    }
+
+    private static TemporalBin createBin(long binIndex, float value) {
+        final TemporalBin bin = new TemporalBin(binIndex, 2);
+        bin.getFeatureValues()[0] = -value;
+        bin.getFeatureValues()[1] = value;
+        return bin;
+    }
+
+    private static class RasterCollector extends BinRasterWriter {
+
+        private final float[][][] raster;
+        private final List<int[]> stripeRanges;
+        private int numLinesWritten;
+
+        private RasterCollector(PlanetaryGrid planetaryGrid, int numVariables) {
+            this(planetaryGrid, numVariables, 2025, BinRasterWriter.DEFAULT_BUFFER_SIZE);
+        }
+
+        private RasterCollector(PlanetaryGrid planetaryGrid, int numVariables, int chunkHeight, long bufferSize) {
+            super(planetaryGrid, numVariables, chunkHeight, bufferSize, 100, Logger.getAnonymousLogger());
+            raster = new float[numVariables][getSceneHeight()][];
+            stripeRanges = new ArrayList<>();
+        }
+
+        @Override
+        protected void writeStripe(int variableIndex, int y, int height, float[] data) throws IOException {
+            assertEquals(height * getSceneWidth(), data.length);
+            for (int line = 0; line < height; line++) {
+                if (raster[variableIndex][y + line] != null) {
+                    throw new IllegalStateException("Line " + (y + line) + " written twice");
+                }
+                raster[variableIndex][y + line] = Arrays.copyOfRange(data, line * getSceneWidth(), (line + 1) * getSceneWidth());
+            }
+            if (variableIndex == 0) {
+                numLinesWritten += height;
+                stripeRanges.add(new int[]{y, height});
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.TemporalBin;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class FanOutBinWriterTest {
+
+    @Test
+    public void testAllWritersReceiveAllBins() throws Exception {
+        final RecordingWriter cciWriter = new RecordingWriter(false);
+        final RecordingWriter cdsWriter = new RecordingWriter(false);
+        final FanOutBinWriter fanOutWriter = new FanOutBinWriter();
+        fanOutWriter.addWriter(cciWriter, "");
+        fanOutWriter.addWriter(cdsWriter, "-lccds");
+        fanOutWriter.setTargetFileTemplatePath(new File("target", "product.nc").getPath());
+
+        fanOutWriter.open(new HashMap<String, String>());
+        final List<TemporalBin> rowBins = new ArrayList<>();
+        for (int row = 0; row < 10; row++) {
+            for (int col = 0; col < 5; col++) {
+                rowBins.add(new TemporalBin(row * 5 + col, 1));
+            }
+            fanOutWriter.writeBins(rowBins);
+            // the producer reuses its list
+            rowBins.clear();
+        }
+        fanOutWriter.close();
+
+        for (RecordingWriter writer : Arrays.asList(cciWriter, cdsWriter)) {
+            assertEquals(50, writer.binIndices.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, (long) writer.binIndices.get(i));
+            }
+            assertTrue(writer.opened);
+            assertTrue(writer.closed);
+            assertFalse(writer.aborted);
+            assertNotEquals(Thread.currentThread().getName(), writer.writingThread);
+        }
+        assertNotEquals(cciWriter.writingThread, cdsWriter.writingThread);
+        assertEquals(new File("target", "product.nc").getPath(), fanOutWriter.getTargetFilePath());
+        assertEquals(Arrays.asList(new File("target", "product.nc").getPath(), new File("target", "product-lccds.nc").getPath()),
+                     fanOutWriter.getTargetFilePaths());
+    }
+
+    @Test
+    public void testFailingWriterDoesNotStopTheOthers() throws Exception {
+        final RecordingWriter goodWriter = new RecordingWriter(false);
+        final RecordingWriter failingWriter = new RecordingWriter(true);
+        final FanOutBinWriter fanOutWriter = new FanOutBinWriter();
+        fanOutWriter.addWriter(goodWriter, "");
+        fanOutWriter.addWriter(failingWriter, "-lccds");
+        fanOutWriter.setTargetFileTemplatePath("product.nc");
+
+        fanOutWriter.open(new HashMap<String, String>());
+        fanOutWriter.writeBins(Collections.singletonList(new TemporalBin(0, 1)));
+        fanOutWriter.writeBins(Collections.singletonList(new TemporalBin(1, 1)));
+        try {
+            fanOutWriter.close();
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("product-lccds.nc"));
+        }
+
+        assertEquals(2, goodWriter.binIndices.size());
+        assertTrue(goodWriter.closed);
+        assertFalse(goodWriter.aborted);
+        assertTrue(failingWriter.aborted);
+    }
+
+    @Test
+    public void testWrite_CompletesOtherWritersOnFailure() throws Exception {
+        final RecordingWriter goodWriter = new RecordingWriter(false);
+        final RecordingWriter failingWriter = new RecordingWriter(true);
+        final FanOutBinWriter fanOutWriter = new FanOutBinWriter();
+        fanOutWriter.addWriter(failingWriter, "");
+        fanOutWriter.addWriter(goodWriter, "-lccds");
+        fanOutWriter.setTargetFileTemplatePath("product.nc");
+
+        try {
+            fanOutWriter.write(new HashMap<String, String>(), Arrays.asList(new TemporalBin(0, 1), new TemporalBin(1, 1)));
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertTrue(failingWriter.aborted);
+        assertTrue(goodWriter.closed);
+    }
+
+    @Test
+    public void testGetSuffixedPath() throws Exception {
+        assertEquals("product.nc", FanOutBinWriter.getSuffixedPath("product.nc", ""));
+        assertEquals("product-lccds.nc", FanOutBinWriter.getSuffixedPath("product.nc", "-lccds"));
+        assertEquals(new File("dir", "product-lccds.nc").getPath(),
+                     FanOutBinWriter.getSuffixedPath(new File("dir", "product.nc").getPath(), "-lccds"));
+        assertEquals("product-lccds", FanOutBinWriter.getSuffixedPath("product", "-lccds"));
+    }
+
+    private static class RecordingWriter implements StreamingBinWriter {
+
+        private final boolean failing;
+        private final List<Long> binIndices = new ArrayList<>();
+        private String targetFilePath;
+        private volatile String writingThread;
+        private volatile boolean opened;
+        private volatile boolean closed;
+        private volatile boolean aborted;
+
+        private RecordingWriter(boolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public void open(Map<String, String> metadataProperties) throws IOException {
+            opened = true;
+        }
+
+        @Override
+        public void writeBins(List<TemporalBin> temporalBins) throws IOException {
+            writingThread = Thread.currentThread().getName();
+            if (failing) {
+                throw new IOException("Disk full");
+            }
+            for (TemporalBin temporalBin : temporalBins) {
+                binIndices.add(temporalBin.getIndex());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+
+        @Override
+        public void abort() throws IOException {
+            aborted = true;
+        }
+
+        @Override
+        public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) throws IOException {
+            throw new IllegalStateException("Not used by the fan-out writer");
+        }
+
+        @Override
+        public void setBinningContext(BinningContext binningContext) {
+        }
+
+        @Override
+        public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+            this.targetFilePath = targetFileTemplatePath;
+        }
+
+        @Override
+        public String getTargetFilePath() {
+            return targetFilePath;
+        }
+
+        @Override
+        public void setLogger(Logger logger) {
+        }
+    }
+}
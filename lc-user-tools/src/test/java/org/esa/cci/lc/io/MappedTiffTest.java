@@ -0,0 +1,343 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class MappedTiffTest {
+
+    private File tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("mapped-tiff").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempDir.delete();
+    }
+
+    @Test
+    public void testRead_UncompressedStrips() throws Exception {
+        final short[] image = createImage(5, 4, false);
+        final File file = new File(tempDir, "strips.tif");
+        // strips of 3 lines, the last one has a single line
+        writeTiff(file, ByteOrder.LITTLE_ENDIAN, 5, 4, 8, 1, MappedTiff.COMPRESSION_NONE, 1, 0, 3, image);
+
+        final MappedTiff tiff = MappedTiff.open(file);
+        assertNotNull(tiff);
+        assertEquals(ProductData.TYPE_UINT8, tiff.getDataType());
+        assertFalse(tiff.isTiled());
+        assertEquals(new Dimension(5, 4), tiff.getTileSize());
+
+        // rectangle crossing both strips, written into a larger destination
+        final byte[] dest = new byte[2 + 4 * 7];
+        tiff.read(new Rectangle(1, 1, 3, 3), dest, 2, 7);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertEquals((byte) image[(y + 1) * 5 + x + 1], dest[2 + y * 7 + x]);
+            }
+        }
+        assertEquals(0, dest[0]);
+        assertEquals(0, dest[2 + 3]);
+    }
+
+    @Test
+    public void testRead_DeflateTilesWithPredictor() throws Exception {
+        final short[] image = createImage(6, 5, true);
+        final File file = new File(tempDir, "tiles.tif");
+        // 2 x 2 tiles of 4 x 4, padded at the right and bottom
+        writeTiff(file, ByteOrder.BIG_ENDIAN, 6, 5, 16, 2, MappedTiff.COMPRESSION_DEFLATE, 2, 4, 4, image);
+
+        final MappedTiff tiff = MappedTiff.open(file);
+        assertNotNull(tiff);
+        assertEquals(ProductData.TYPE_INT16, tiff.getDataType());
+        assertTrue(tiff.isTiled());
+        assertEquals(new Dimension(4, 4), tiff.getTileSize());
+
+        final short[] dest = new short[6 * 5];
+        tiff.read(new Rectangle(0, 0, 6, 5), dest, 0, 6);
+        assertArrayEquals(image, dest);
+
+        final short[] part = new short[2 * 2];
+        tiff.read(new Rectangle(3, 3, 2, 2), part, 0, 2);
+        assertArrayEquals(new short[]{image[3 * 6 + 3], image[3 * 6 + 4], image[4 * 6 + 3], image[4 * 6 + 4]}, part);
+    }
+
+    @Test
+    public void testRead_LzwStrips() throws Exception {
+        final short[] image = createImage(40, 30, false);
+        final File file = new File(tempDir, "lzw.tif");
+        writeTiff(file, ByteOrder.LITTLE_ENDIAN, 40, 30, 16, 1, MappedTiff.COMPRESSION_LZW, 2, 0, 7, image);
+
+        final MappedTiff tiff = MappedTiff.open(file);
+        assertNotNull(tiff);
+        assertEquals(ProductData.TYPE_UINT16, tiff.getDataType());
+
+        final short[] dest = new short[40 * 30];
+        tiff.read(new Rectangle(0, 0, 40, 30), dest, 0, 40);
+        assertArrayEquals(image, dest);
+    }
+
+    @Test
+    public void testDecodeLzw() throws Exception {
+        // long enough for codes of 9 to 12 bits
+        final byte[] data = new byte[20000];
+        final Random random = new Random(5);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) random.nextInt(12);
+        }
+        final byte[] decoded = new byte[data.length];
+
+        final int numDecoded = MappedTiff.decodeLzw(ByteBuffer.wrap(encodeLzw(data)), decoded, decoded.length);
+
+        assertEquals(data.length, numDecoded);
+        assertArrayEquals(data, decoded);
+    }
+
+    @Test
+    public void testOpen_UnsupportedLayout() throws Exception {
+        final File rgbFile = new File(tempDir, "rgb.tif");
+        writeTiff(rgbFile, ByteOrder.LITTLE_ENDIAN, 2, 2, 8, 1, MappedTiff.COMPRESSION_NONE, 1, 0, 2, new short[4]);
+        patchSamplesPerPixel(rgbFile, 3);
+        assertNull(MappedTiff.open(rgbFile));
+
+        final File noTiffFile = new File(tempDir, "no.tif");
+        try (OutputStream out = new FileOutputStream(noTiffFile)) {
+            out.write("This is not a TIFF file".getBytes("US-ASCII"));
+        }
+        assertNull(MappedTiff.open(noTiffFile));
+    }
+
+    private static short[] createImage(int width, int height, boolean signed) {
+        final short[] image = new short[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image[y * width + x] = (short) (signed ? y * 1000 + x * 7 - 2500 : (y * 13 + x * 3) % 200);
+            }
+        }
+        return image;
+    }
+
+    private static void writeTiff(File file, ByteOrder byteOrder, int width, int height, int bitsPerSample,
+                                  int sampleFormat, int compression, int predictor, int tileWidth, int segmentHeight,
+                                  short[] image) throws IOException {
+        final boolean tiled = tileWidth > 0;
+        final int segmentWidth = tiled ? tileWidth : width;
+        final int segmentsAcross = (width + segmentWidth - 1) / segmentWidth;
+        final int segmentsDown = (height + segmentHeight - 1) / segmentHeight;
+        final int bytesPerSample = bitsPerSample / 8;
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final long[] offsets = new long[segmentsAcross * segmentsDown];
+        final long[] byteCounts = new long[offsets.length];
+        for (int sy = 0; sy < segmentsDown; sy++) {
+            final int lines = tiled ? segmentHeight : Math.min(segmentHeight, height - sy * segmentHeight);
+            for (int sx = 0; sx < segmentsAcross; sx++) {
+                final ByteBuffer samples = ByteBuffer.allocate(segmentWidth * lines * bytesPerSample).order(byteOrder);
+                for (int y = 0; y < lines; y++) {
+                    for (int x = 0; x < segmentWidth; x++) {
+                        final int imageX = sx * segmentWidth + x;
+                        final int imageY = sy * segmentHeight + y;
+                        int value = imageX < width && imageY < height ? image[imageY * width + imageX] : 0;
+                        if (predictor == 2 && x > 0 && imageX - 1 < width && imageY < height) {
+                            value -= image[imageY * width + imageX - 1];
+                        }
+                        if (bytesPerSample == 1) {
+                            samples.put((byte) value);
+                        } else {
+                            samples.putShort((short) value);
+                        }
+                    }
+                }
+                final byte[] segment = encode(samples.array(), compression);
+                offsets[sy * segmentsAcross + sx] = 8 + body.size();
+                byteCounts[sy * segmentsAcross + sx] = segment.length;
+                body.write(segment);
+            }
+        }
+
+        final Map<Integer, long[]> tags = new HashMap<>();
+        tags.put(256, new long[]{width});
+        tags.put(257, new long[]{height});
+        tags.put(258, new long[]{bitsPerSample});
+        tags.put(259, new long[]{compression});
+        tags.put(277, new long[]{1});
+        tags.put(317, new long[]{predictor});
+        tags.put(339, new long[]{sampleFormat});
+        if (tiled) {
+            tags.put(322, new long[]{tileWidth});
+            tags.put(323, new long[]{segmentHeight});
+            tags.put(324, offsets);
+            tags.put(325, byteCounts);
+        } else {
+            tags.put(273, offsets);
+            tags.put(278, new long[]{segmentHeight});
+            tags.put(279, byteCounts);
+        }
+
+        // arrays of values follow the segments, the directory follows the arrays
+        final List<Integer> sortedTags = new ArrayList<>(tags.keySet());
+        Collections.sort(sortedTags);
+        final ByteBuffer arrays = ByteBuffer.allocate(4096).order(byteOrder);
+        final long arraysStart = 8 + body.size();
+        final Map<Integer, Long> arrayOffsets = new HashMap<>();
+        for (Integer tag : sortedTags) {
+            final long[] values = tags.get(tag);
+            if (values.length > 1) {
+                arrayOffsets.put(tag, arraysStart + arrays.position());
+                for (long value : values) {
+                    arrays.putInt((int) value);
+                }
+            }
+        }
+        final long ifdOffset = arraysStart + arrays.position();
+        final ByteBuffer ifd = ByteBuffer.allocate(2 + sortedTags.size() * 12 + 4).order(byteOrder);
+        ifd.putShort((short) sortedTags.size());
+        for (Integer tag : sortedTags) {
+            final long[] values = tags.get(tag);
+            ifd.putShort(tag.shortValue());
+            ifd.putShort((short) 4);
+            ifd.putInt(values.length);
+            ifd.putInt((int) (values.length > 1 ? arrayOffsets.get(tag) : values[0]));
+        }
+        ifd.putInt(0);
+
+        final ByteBuffer header = ByteBuffer.allocate(8).order(byteOrder);
+        header.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        header.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        header.putShort((short) 42);
+        header.putInt((int) ifdOffset);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(header.array());
+            out.write(body.toByteArray());
+            out.write(arrays.array(), 0, arrays.position());
+            out.write(ifd.array());
+        }
+    }
+
+    private static void patchSamplesPerPixel(File file, int samplesPerPixel) throws IOException {
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        final int ifdOffset = buffer.getInt(4);
+        final int numEntries = buffer.getShort(ifdOffset);
+        for (int i = 0; i < numEntries; i++) {
+            final int entry = ifdOffset + 2 + i * 12;
+            if (buffer.getShort(entry) == 277) {
+                buffer.putInt(entry + 8, samplesPerPixel);
+            }
+        }
+        Files.write(file.toPath(), bytes);
+    }
+
+    private static byte[] encode(byte[] samples, int compression) {
+        if (compression == MappedTiff.COMPRESSION_LZW) {
+            return encodeLzw(samples);
+        } else if (compression == MappedTiff.COMPRESSION_DEFLATE) {
+            final Deflater deflater = new Deflater();
+            deflater.setInput(samples);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            return out.toByteArray();
+        }
+        return samples;
+    }
+
+    private static byte[] encodeLzw(byte[] data) {
+        final LzwBitWriter out = new LzwBitWriter();
+        final Map<String, Integer> table = new HashMap<>();
+        for (int i = 0; i < 256; i++) {
+            table.put(String.valueOf((char) i), i);
+        }
+        int nextCode = 258;
+        int codeWidth = 9;
+        out.write(256, codeWidth);
+        String current = "";
+        for (byte b : data) {
+            final String extended = current + (char) (b & 0xff);
+            if (table.containsKey(extended)) {
+                current = extended;
+            } else {
+                out.write(table.get(current), codeWidth);
+                table.put(extended, nextCode++);
+                if (nextCode == 4094) {
+                    // the table is full, start over
+                    out.write(256, codeWidth);
+                    table.clear();
+                    for (int i = 0; i < 256; i++) {
+                        table.put(String.valueOf((char) i), i);
+                    }
+                    nextCode = 258;
+                    codeWidth = 9;
+                } else if (nextCode == (1 << codeWidth)) {
+                    codeWidth++;
+                }
+                current = String.valueOf((char) (b & 0xff));
+            }
+        }
+        out.write(table.get(current), codeWidth);
+        nextCode++;
+        if (nextCode == (1 << codeWidth) && codeWidth < 12) {
+            codeWidth++;
+        }
+        out.write(257, codeWidth);
+        return out.toByteArray();
+    }
+
+    private static class LzwBitWriter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private long bits;
+        private int numBits;
+
+        void write(int code, int width) {
+            bits = (bits << width) | code;
+            numBits += width;
+            while (numBits >= 8) {
+                bytes.write((int) (bits >>> (numBits - 8)) & 0xff);
+                numBits -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (numBits > 0) {
+                bytes.write((int) (bits << (8 - numBits)) & 0xff);
+                numBits = 0;
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.dataio.geotiff.GeoTiffProductReaderPlugIn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class MappedTiffsTest {
+
+    private Product product;
+    private MappedTiffs mappedTiffs;
+
+    @Before
+    public void setUp() throws Exception {
+        final File file = new File(MappedTiffsTest.class.getResource("/org/esa/cci/lc/aggregation/TEST_KG_MAP.tif").toURI());
+        product = new GeoTiffProductReaderPlugIn().createReaderInstance().readProductNodes(file, null);
+        mappedTiffs = new MappedTiffs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mappedTiffs.close();
+        product.dispose();
+    }
+
+    @Test
+    public void testGetSourceImage_SameSamplesAsGeoTiffReader() throws Exception {
+        final Band srcBand = product.getBandAt(0);
+        final RenderedImage mappedImage = mappedTiffs.getSourceImage(srcBand);
+
+        assertTrue(mappedImage instanceof MappedTiffOpImage);
+        final Dimension tileSize = mappedTiffs.getPreferredTileSize(product.getFileLocation(), new Dimension(1, 1));
+        assertEquals(new Dimension(mappedImage.getTileWidth(), mappedImage.getTileHeight()), tileSize);
+        final Raster expected = srcBand.getSourceImage().getData();
+        final Raster actual = mappedImage.getData();
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getTransferType(), actual.getTransferType());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("x=" + x + ", y=" + y, expected.getSample(x, y, 0), actual.getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testGetSourceImage_MappingSwitchedOff() throws Exception {
+        System.setProperty(MappedTiffs.MAPPED_PROPERTY, "false");
+        try {
+            final Band srcBand = product.getBandAt(0);
+            assertSame(srcBand.getSourceImage(), mappedTiffs.getSourceImage(srcBand));
+        } finally {
+            System.clearProperty(MappedTiffs.MAPPED_PROPERTY);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.esa.cci.lc.io;
+
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class NetCdfChunkCacheTest {
+
+    @Test
+    public void testGetChunk_LoadedOnce() throws Exception {
+        final NetCdfChunkCache cache = new NetCdfChunkCache(1000);
+        final CountingLoader loader = new CountingLoader(100);
+
+        final Array first = cache.getChunk("file:lccs_class:0:0", loader);
+        final Array second = cache.getChunk("file:lccs_class:0:0", loader);
+
+        assertSame(first, second);
+        assertEquals(1, loader.count.get());
+        assertEquals(1, cache.getNumChunks());
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void testGetChunk_EvictsLeastRecentlyUsed() throws Exception {
+        final NetCdfChunkCache cache = new NetCdfChunkCache(250);
+        final CountingLoader loaderA = new CountingLoader(100);
+        final CountingLoader loaderB = new CountingLoader(100);
+        final CountingLoader loaderC = new CountingLoader(100);
+
+        cache.getChunk("a", loaderA);
+        cache.getChunk("b", loaderB);
+        cache.getChunk("a", loaderA);
+        cache.getChunk("c", loaderC);
+
+        assertEquals(2, cache.getNumChunks());
+        assertEquals(200, cache.getSize());
+        cache.getChunk("a", loaderA);
+        assertEquals(1, loaderA.count.get());
+        cache.getChunk("b", loaderB);
+        assertEquals(2, loaderB.count.get());
+    }
+
+    @Test
+    public void testGetChunk_ConcurrentRequestsLoadOnce() throws Exception {
+        final NetCdfChunkCache cache = new NetCdfChunkCache(1000);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final NetCdfChunkCache.ChunkLoader blockingLoader = new NetCdfChunkCache.ChunkLoader() {
+            @Override
+            public Array load() throws IOException {
+                count.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return Array.factory(DataType.BYTE, new int[]{100});
+            }
+        };
+        final AtomicReference<Array> firstChunk = new AtomicReference<>();
+        final AtomicReference<Array> secondChunk = new AtomicReference<>();
+        final Thread first = startRequest(cache, blockingLoader, firstChunk);
+        loading.await();
+        final Thread second = startRequest(cache, blockingLoader, secondChunk);
+        // the second request waits for the chunk being loaded by the first one
+        while (second.getState() != Thread.State.BLOCKED) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(1, count.get());
+        assertNotNull(firstChunk.get());
+        assertSame(firstChunk.get(), secondChunk.get());
+    }
+
+    @Test
+    public void testGetChunk_FailureNotCached() throws Exception {
+        final NetCdfChunkCache cache = new NetCdfChunkCache(1000);
+        try {
+            cache.getChunk("a", new NetCdfChunkCache.ChunkLoader() {
+                @Override
+                public Array load() throws IOException {
+                    throw new IOException("HDF error");
+                }
+            });
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertEquals(0, cache.getNumChunks());
+
+        final CountingLoader loader = new CountingLoader(100);
+        cache.getChunk("a", loader);
+        assertEquals(1, loader.count.get());
+        assertEquals(100, cache.getSize());
+    }
+
+    private static Thread startRequest(final NetCdfChunkCache cache, final NetCdfChunkCache.ChunkLoader loader,
+                                       final AtomicReference<Array> result) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(cache.getChunk("a", loader));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static class CountingLoader implements NetCdfChunkCache.ChunkLoader {
+
+        private final int numBytes;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private CountingLoader(int numBytes) {
+            this.numBytes = numBytes;
+        }
+
+        @Override
+        public Array load() {
+            count.incrementAndGet();
+            return Array.factory(DataType.BYTE, new int[]{numBytes});
+        }
+    }
+}
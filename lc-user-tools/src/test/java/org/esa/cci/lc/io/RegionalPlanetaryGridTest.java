@@ -70,6 +70,25 @@ public class RegionalPlanetaryGridTest {
         assertFalse(grid.isBinIndexInRegionalGrid(binIndex));
     }
 
+    @Test
+    public void testIsBinIndexInRegionalGrid() throws Exception {
+        final PlanetaryGrid globalGrid = new PlateCarreeGrid(18);
+        final ReferencedEnvelope region = new ReferencedEnvelope(-15.0, 15.0, 25.0, 5.0, DefaultGeographicCRS.WGS84);
+        final RegionalPlanetaryGrid regionalGrid = new RegionalPlanetaryGrid(globalGrid, region);
+        int numContained = 0;
+        for (long bin = 0; bin < globalGrid.getNumBins(); bin++) {
+            final int row = globalGrid.getRowIndex(bin);
+            final long col = bin - globalGrid.getFirstBinIndex(row);
+            final boolean expected = row >= regionalGrid.getRowOffset() && row < regionalGrid.getRowOffset() + regionalGrid.getNumRows()
+                                     && col >= regionalGrid.getColumnOffset() && col < regionalGrid.getColumnOffset() + regionalGrid.getNumCols(0);
+            assertEquals("bin " + bin, expected, regionalGrid.isBinIndexInRegionalGrid(bin));
+            if (expected) {
+                numContained++;
+            }
+        }
+        assertEquals(regionalGrid.getNumBins(), numContained);
+    }
+
     private RegionalPlanetaryGrid createRegionalPlanetaryGrid(Rectangle2D.Double rectangle) {
         final ReferencedEnvelope region = new ReferencedEnvelope(rectangle, DefaultGeographicCRS.WGS84);
         final PlanetaryGrid globalGrid = new PlateCarreeGrid(1800);
@@ -0,0 +1,183 @@
+package org.esa.cci.lc.io;
+
+import org.esa.snap.binning.BinningContext;
+import org.esa.snap.binning.TemporalBin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class StripeBinMergerTest {
+
+    private static final String[] FEATURE_NAMES = {"f1", "f2"};
+
+    private File stripeDir;
+
+    @Before
+    public void setUp() throws Exception {
+        stripeDir = Files.createTempDirectory(StripeBinMergerTest.class.getSimpleName()).toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = stripeDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        stripeDir.delete();
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        final File stripe1 = writeStripe(0, 2, 0, 2, 0, 1, 2, 3);
+        final File stripe2 = writeStripe(1, 2, 2, 2, 4, 5, 7);
+        assertFalse(new File(stripe1.getPath() + ".part").exists());
+
+        final CollectingBinWriter binWriter = new CollectingBinWriter();
+        new StripeBinMerger(Arrays.asList(stripe1, stripe2), 0, 4).merge(binWriter, FEATURE_NAMES);
+
+        assertTrue(binWriter.closed);
+        assertEquals(7, binWriter.bins.size());
+        final long[] expectedIndices = {0, 1, 2, 3, 4, 5, 7};
+        for (int i = 0; i < expectedIndices.length; i++) {
+            final TemporalBin bin = binWriter.bins.get(i);
+            assertEquals(expectedIndices[i], bin.getIndex());
+            assertArrayEquals(new float[]{bin.getIndex(), -bin.getIndex()}, bin.getFeatureValues(), 0.0f);
+        }
+    }
+
+    @Test
+    public void testMerge_MissingStripe() throws Exception {
+        final File stripe1 = writeStripe(0, 2, 0, 2, 0, 1);
+        final File stripe2 = StripeBinWriter.getStripeFile(stripeDir, "product", 1, 2);
+
+        final CollectingBinWriter binWriter = new CollectingBinWriter();
+        try {
+            new StripeBinMerger(Arrays.asList(stripe1, stripe2), 0, 4).merge(binWriter, FEATURE_NAMES);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("Missing"));
+        }
+        assertFalse(binWriter.opened);
+    }
+
+    @Test
+    public void testMerge_GapBetweenStripes() throws Exception {
+        final File stripe1 = writeStripe(0, 2, 0, 2, 0, 1);
+        final File stripe2 = writeStripe(1, 2, 3, 1, 6);
+
+        try {
+            new StripeBinMerger(Arrays.asList(stripe1, stripe2), 0, 4).merge(new CollectingBinWriter(), FEATURE_NAMES);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("row"));
+        }
+    }
+
+    @Test
+    public void testMerge_StripesNotCoveringAllRows() throws Exception {
+        final File stripe1 = writeStripe(0, 2, 0, 2, 0, 1);
+        final File stripe2 = writeStripe(1, 2, 2, 2, 4, 5);
+
+        final CollectingBinWriter binWriter = new CollectingBinWriter();
+        try {
+            new StripeBinMerger(Arrays.asList(stripe1, stripe2), 0, 6).merge(binWriter, FEATURE_NAMES);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("row 6"));
+        }
+        try {
+            new StripeBinMerger(Arrays.asList(stripe1, stripe2), 1, 3).merge(binWriter, FEATURE_NAMES);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("expected row 1"));
+        }
+        assertFalse(binWriter.opened);
+    }
+
+    @Test
+    public void testMerge_OtherFeatures() throws Exception {
+        final File stripe1 = writeStripe(0, 1, 0, 2, 0, 1);
+
+        try {
+            new StripeBinMerger(Arrays.asList(stripe1), 0, 2).merge(new CollectingBinWriter(), new String[]{"f1", "f3"});
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("features"));
+        }
+    }
+
+    private File writeStripe(int stripeIndex, int numStripes, int firstRow, int numRows, long... binIndices) throws IOException {
+        final File stripeFile = StripeBinWriter.getStripeFile(stripeDir, "product", stripeIndex, numStripes);
+        final StripeBinWriter stripeWriter = new StripeBinWriter(stripeIndex, numStripes, firstRow, numRows);
+        stripeWriter.setOutputFeatureNames(FEATURE_NAMES);
+        stripeWriter.setTargetFileTemplatePath(stripeFile.getPath());
+        final List<TemporalBin> bins = new ArrayList<>();
+        for (long binIndex : binIndices) {
+            final TemporalBin bin = new TemporalBin(binIndex, FEATURE_NAMES.length);
+            bin.getFeatureValues()[0] = binIndex;
+            bin.getFeatureValues()[1] = -binIndex;
+            bins.add(bin);
+        }
+        stripeWriter.write(new HashMap<String, String>(), bins);
+        assertTrue(stripeFile.isFile());
+        return stripeFile;
+    }
+
+    private static class CollectingBinWriter implements StreamingBinWriter {
+
+        private final List<TemporalBin> bins = new ArrayList<>();
+        private boolean opened;
+        private boolean closed;
+
+        @Override
+        public void open(Map<String, String> metadataProperties) {
+            opened = true;
+        }
+
+        @Override
+        public void writeBins(List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void write(Map<String, String> metadataProperties, List<TemporalBin> temporalBins) {
+            bins.addAll(temporalBins);
+        }
+
+        @Override
+        public void setBinningContext(BinningContext binningContext) {
+        }
+
+        @Override
+        public void setTargetFileTemplatePath(String targetFileTemplatePath) {
+        }
+
+        @Override
+        public String getTargetFilePath() {
+            return null;
+        }
+
+        @Override
+        public void setLogger(Logger logger) {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.esa.cci.lc.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WritePipelineTest {
+
+    @Test
+    public void testSubmit_KeepsOrder() throws Exception {
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        final WritePipeline pipeline = new WritePipeline("test", 2);
+        for (int i = 0; i < 100; i++) {
+            pipeline.submit(new RecordingTask(written, i));
+        }
+        pipeline.drain();
+        assertEquals(100, written.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, written.get(i).intValue());
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void testSubmit_KeepsOrderOfEachPipelineOnSharedWorkers() throws Exception {
+        final ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            final List<List<Integer>> written = new ArrayList<>();
+            final List<WritePipeline> pipelines = new ArrayList<>();
+            for (int p = 0; p < 5; p++) {
+                written.add(Collections.synchronizedList(new ArrayList<Integer>()));
+                pipelines.add(new WritePipeline("test " + p, 2, workers));
+            }
+            for (int i = 0; i < 100; i++) {
+                for (int p = 0; p < pipelines.size(); p++) {
+                    pipelines.get(p).submit(new RecordingTask(written.get(p), i));
+                }
+            }
+            for (int p = 0; p < pipelines.size(); p++) {
+                pipelines.get(p).close();
+                assertEquals(100, written.get(p).size());
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(i, written.get(p).get(i).intValue());
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubmit_PipelinesWriteInParallel() throws Exception {
+        final ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            final CountDownLatch bothStarted = new CountDownLatch(2);
+            final WritePipeline pipeline1 = new WritePipeline("test 1", 1, workers);
+            final WritePipeline pipeline2 = new WritePipeline("test 2", 1, workers);
+            pipeline1.submit(new AwaitingTask(bothStarted));
+            pipeline2.submit(new AwaitingTask(bothStarted));
+            // each task only completes if the other one runs at the same time
+            pipeline1.close();
+            pipeline2.close();
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubmit_WithoutQueueRunsOnCaller() throws Exception {
+        final List<Thread> threads = new ArrayList<>();
+        final WritePipeline pipeline = new WritePipeline("test", 0);
+        pipeline.submit(new WritePipeline.WriteTask() {
+            @Override
+            public void write() throws IOException {
+                threads.add(Thread.currentThread());
+            }
+        });
+        assertEquals(1, threads.size());
+        assertSame(Thread.currentThread(), threads.get(0));
+        pipeline.close();
+    }
+
+    @Test
+    public void testFailure_SkipsFollowingTasksAndIsReported() throws Exception {
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        final WritePipeline pipeline = new WritePipeline("test", 4);
+        pipeline.submit(new RecordingTask(written, 0));
+        pipeline.submit(new WritePipeline.WriteTask() {
+            @Override
+            public void write() throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        pipeline.submit(new RecordingTask(written, 2));
+        try {
+            pipeline.close();
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertEquals("disk full", expected.getCause().getMessage());
+        }
+        assertEquals(1, written.size());
+        try {
+            pipeline.submit(new RecordingTask(written, 3));
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // the pipeline stays failed
+        }
+    }
+
+    private static class AwaitingTask implements WritePipeline.WriteTask {
+
+        private final CountDownLatch started;
+
+        private AwaitingTask(CountDownLatch started) {
+            this.started = started;
+        }
+
+        @Override
+        public void write() throws IOException {
+            started.countDown();
+            try {
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class RecordingTask implements WritePipeline.WriteTask {
+
+        private final List<Integer> written;
+        private final int value;
+
+        private RecordingTask(List<Integer> written, int value) {
+            this.written = written;
+            this.value = value;
+        }
+
+        @Override
+        public void write() throws IOException {
+            written.add(value);
+        }
+    }
+}
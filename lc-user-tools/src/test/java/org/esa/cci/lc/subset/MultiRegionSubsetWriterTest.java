@@ -0,0 +1,112 @@
+package org.esa.cci.lc.subset;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.AbstractProductWriter;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MultiRegionSubsetWriterTest {
+
+    @Test
+    public void testWrite_OverlappingRegions() throws Exception {
+        Product source = createSourceProduct();
+        Rectangle region1 = new Rectangle(0, 1, 4, 4);
+        Rectangle region2 = new Rectangle(2, 3, 6, 5);
+        RecordingWriter writer1 = new RecordingWriter();
+        RecordingWriter writer2 = new RecordingWriter();
+
+        MultiRegionSubsetWriter subsetWriter = new MultiRegionSubsetWriter(source);
+        subsetWriter.addRegion(createSubsetProduct(region1), region1, writer1, new File("region1.nc"));
+        subsetWriter.addRegion(createSubsetProduct(region2), region2, writer2, new File("region2.nc"));
+        subsetWriter.write();
+
+        assertRegion(region1, writer1);
+        assertRegion(region2, writer2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddRegion_SizeMismatch() throws Exception {
+        Product source = createSourceProduct();
+        MultiRegionSubsetWriter subsetWriter = new MultiRegionSubsetWriter(source);
+        subsetWriter.addRegion(createSubsetProduct(new Rectangle(0, 0, 4, 4)), new Rectangle(0, 0, 5, 4),
+                               new RecordingWriter(), new File("region.nc"));
+    }
+
+    private static void assertRegion(Rectangle region, RecordingWriter writer) {
+        assertTrue(writer.closed);
+        for (int y = 0; y < region.height; y++) {
+            for (int x = 0; x < region.width; x++) {
+                int expected = (region.y + y) * 100 + region.x + x;
+                assertEquals(expected, writer.data[y * region.width + x]);
+            }
+        }
+    }
+
+    private static Product createSourceProduct() {
+        Product product = new Product("source", "T", 10, 8);
+        product.setPreferredTileSize(10, 3);
+        Band band = product.addBand("b", ProductData.TYPE_INT32);
+        int[] data = new int[10 * 8];
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 10; x++) {
+                data[y * 10 + x] = y * 100 + x;
+            }
+        }
+        band.setRasterData(ProductData.createInstance(data));
+        return product;
+    }
+
+    private static Product createSubsetProduct(Rectangle region) {
+        Product product = new Product("subset", "T", region.width, region.height);
+        product.addBand("b", ProductData.TYPE_INT32);
+        return product;
+    }
+
+    private static class RecordingWriter extends AbstractProductWriter {
+
+        private int[] data;
+        private boolean closed;
+
+        private RecordingWriter() {
+            super(null);
+        }
+
+        @Override
+        protected void writeProductNodesImpl() throws IOException {
+            Product product = getSourceProduct();
+            data = new int[product.getSceneRasterWidth() * product.getSceneRasterHeight()];
+        }
+
+        @Override
+        public void writeBandRasterData(Band band, int offsetX, int offsetY, int width, int height,
+                                        ProductData buffer, ProgressMonitor pm) throws IOException {
+            int productWidth = band.getRasterWidth();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    data[(offsetY + y) * productWidth + offsetX + x] = buffer.getElemIntAt(y * width + x);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+
+        @Override
+        public void deleteOutput() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.esa.cci.lc.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.*;
+
+public class RunMetricsTest {
+
+    private File targetDir;
+
+    @Before
+    public void setUp() throws Exception {
+        targetDir = Files.createTempDirectory(RunMetricsTest.class.getSimpleName()).toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = targetDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        targetDir.delete();
+    }
+
+    @Test
+    public void testCountersOfConcurrentThreads() throws Exception {
+        final RunMetrics metrics = new RunMetrics("test");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long startTime = metrics.startPhase();
+                    metrics.addPixels(1000);
+                    metrics.addBins(10);
+                    metrics.addBytesWritten(40);
+                    metrics.endPhase(RunMetrics.Phase.PROCESS, startTime);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(100000, metrics.getPixels());
+        assertEquals(1000, metrics.getBins());
+        assertEquals(4000, metrics.getBytesWritten());
+        assertEquals(0.0, metrics.getReadSeconds(), 0.0);
+        assertEquals(0.0, metrics.getWriteSeconds(), 0.0);
+    }
+
+    @Test
+    public void testFinishStopsElapsedTime() throws Exception {
+        final RunMetrics metrics = new RunMetrics("test");
+        metrics.addPixels(500);
+        metrics.finish();
+        final double elapsedSeconds = metrics.getElapsedSeconds();
+        Thread.sleep(20);
+        assertEquals(elapsedSeconds, metrics.getElapsedSeconds(), 0.0);
+        assertEquals(500 / elapsedSeconds, metrics.getPixelsPerSecond(), 1.0e-6);
+    }
+
+    @Test
+    public void testRegisteredOverJmxWhileInProgress() throws Exception {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName(RunMetrics.OBJECT_NAME_PREFIX + ObjectName.quote("jmx test run"));
+        final RunMetrics metrics = RunMetrics.start("jmx test run");
+        try {
+            metrics.addBins(42);
+            assertTrue(mBeanServer.isRegistered(objectName));
+            assertEquals(42L, mBeanServer.getAttribute(objectName, "Bins"));
+            assertEquals("jmx test run", mBeanServer.getAttribute(objectName, "RunName"));
+        } finally {
+            metrics.close();
+        }
+        assertFalse(mBeanServer.isRegistered(objectName));
+    }
+
+    @Test
+    public void testWriteReport() throws Exception {
+        final File outputFile = new File(targetDir, "ESACCI-LC-L4-LCCS-Map-300m-P1Y-aggregated-0.500000Deg-2010-v2.0.7.nc");
+        Files.write(outputFile.toPath(), new byte[1234]);
+        final RunMetrics metrics = new RunMetrics("report \"test\"");
+        metrics.addPixels(1000);
+        metrics.addBins(10);
+        metrics.addBytesWritten(4000);
+
+        final File reportFile = metrics.writeReport(outputFile);
+
+        assertEquals(new File(targetDir, "ESACCI-LC-L4-LCCS-Map-300m-P1Y-aggregated-0.500000Deg-2010-v2.0.7.metrics.json"),
+                     reportFile);
+        final String json = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+        assertThat(json, containsString("\"run\": \"report \\\"test\\\"\""));
+        assertThat(json, containsString("\"phaseSeconds\": {\"read\": 0.000, \"process\": 0.000, \"write\": 0.000}"));
+        assertThat(json, containsString("\"pixels\": 1000,"));
+        assertThat(json, containsString("\"bins\": 10,"));
+        assertThat(json, containsString("\"bytesWritten\": 4000,"));
+        assertThat(json, containsString("\"outputFileBytes\": 1234,"));
+        assertThat(json, containsString("\"peakHeapBytes\": "));
+        assertThat(json, not(containsString("tileCache")));
+        assertTrue(json.trim().startsWith("{"));
+        assertTrue(json.trim().endsWith("}"));
+    }
+
+    @Test
+    public void testWriteReport_WithTileCacheDiagnostics() throws Exception {
+        final File outputFile = new File(targetDir, "diagnostics.nc");
+        System.setProperty(RunMetrics.TILE_CACHE_DIAGNOSTICS_PROPERTY, "true");
+        final RunMetrics metrics;
+        try {
+            metrics = RunMetrics.start("diagnostics test run");
+        } finally {
+            System.clearProperty(RunMetrics.TILE_CACHE_DIAGNOSTICS_PROPERTY);
+        }
+        try {
+            final File reportFile = metrics.writeReport(outputFile);
+            final String json = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+            assertThat(json, containsString("\"tileCacheHits\": "));
+            assertThat(json, containsString("\"tileCacheMisses\": "));
+            assertThat(json, containsString("\"tileCacheHitRate\": "));
+        } finally {
+            metrics.close();
+        }
+    }
+}